@@ -4,6 +4,8 @@
  *  History:
  *     14-SEP-2004 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Added constructor for sections collapsed by CubeCollapser.
  */
 package uk.ac.starlink.splat.data;
 
@@ -71,6 +73,32 @@ public class CollapsedSpecDataImpl
         initMetaData( parent );
     }
 
+    /**
+     * Construct an object for a 2D section of a 3D spectrum that has
+     * already been collapsed, usually by a {@link CubeCollapser}.
+     *
+     * @param parent the SpecData that was collapsed.
+     * @param specDims describes the dimensions of the parent
+     * @param index the index along the select axis of the section.
+     * @param data the collapsed data values.
+     * @param errors the collapsed data errors, null if none.
+     * @param frameSet the FrameSet of the dispersion axis, this may be
+     *                 shared with other sections.
+     */
+    public CollapsedSpecDataImpl( SpecData parent, SpecDims specDims,
+                                  int index, double[] data, double[] errors,
+                                  FrameSet frameSet )
+        throws SplatException
+    {
+        super( parent.getFullName() );
+        this.parentImpl = parent.getSpecDataImpl();
+        this.data = data;
+        this.errors = errors;
+        this.astref = frameSet;
+        setSectionName( parent.getFrameSet(), specDims, index );
+        initMetaData( parent );
+    }
+
     /**
      * Do a 2D SpecData collapse.
      */
@@ -145,29 +173,38 @@ public class CollapsedSpecDataImpl
         Object[] res = extractImage( dims, strides, d, e, axis1, axis2, 
                                      indices );
         int[] sdims = new int[2];
-        dims[0] = dims[axis1];
-        dims[1] = dims[axis2];
+        sdims[0] = dims[axis1];
+        sdims[1] = dims[axis2];
 
         //  Collapse onto the dispersion axis.
         if ( dispax < collapsed ) {
-            collapse1( (double [])res[0], (double [])res[1], dims );
+            collapse1( (double [])res[0], (double [])res[1], sdims );
         }
         else {
-            collapse2( (double [])res[0], (double [])res[1], dims );
+            collapse2( (double [])res[0], (double [])res[1], sdims );
         }
 
         //  Create the FrameSet for this data. Note +1 for AST axes.
         FrameSet frameSet = parent.getFrameSet();
-        dispax = specDims.getDispAxis( false );
-        astref = ASTJ.extract1DFrameSet( frameSet, dispax + 1 );
+        astref = ASTJ.extract1DFrameSet( frameSet,
+                                         specDims.getDispAxis( false ) + 1 );
+        setSectionName( frameSet, specDims, index );
+    }
 
-        //  Create a shortname that shows the original line position in world
-        //  coordinates. Assumes index is base coordinate and we have the same
-        //  number of input and output coordinates and their relationship is
-        //  "obvious" (i.e. watch out for PermMaps).
+    /**
+     * Create a shortname that shows the original line position in world
+     * coordinates of a section. Assumes index is base coordinate and we
+     * have the same number of input and output coordinates and their
+     * relationship is "obvious" (i.e. watch out for PermMaps).
+     */
+    protected void setSectionName( FrameSet frameSet, SpecDims specDims,
+                                   int index )
+    {
+        int[] dims = specDims.getSigDims();
+        int dispax = specDims.getDispAxis( false );
         try {
             int ncoord_in = frameSet.getNaxes();
-            picked = specDims.getSelectAxis( false );
+            int picked = specDims.getSelectAxis( false );
             double[] in = new double[ncoord_in];
             for ( int i = 0; i < ncoord_in; i++ ) {
                 if ( i == dispax ) {
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * The difference between two versions of a column of spectral data,
+ * used to undo and redo edits.
+ * <p>
+ * Only the runs of values that differ are kept, and only for the version
+ * that isn't current, so each application swaps the values of the runs
+ * with those of the current array to produce the other version. Columns of
+ * the same length are compared value by value, otherwise the run is the
+ * part between the longest common prefix and suffix, which covers the
+ * insertion and deletion of a block of rows. Large runs are byte-shuffled
+ * and deflated, see {@link SpecStackFile}, and the values can be written to
+ * a temporary file when memory is short.
+ *
+ * @version $Id$
+ * @see EditableSpecData
+ * @see UndoJournal
+ */
+public class ColumnDelta
+{
+    /** Runs separated by fewer equal values than this are merged */
+    private static final int MERGE_GAP = 16;
+
+    /** Smallest number of values that will be compressed */
+    private static final int MIN_COMPRESS = 256;
+
+    /** Length of the current column, -1 when null */
+    private int currentLength = 0;
+
+    /** Length of the other column, -1 when null */
+    private int otherLength = 0;
+
+    /**
+     * The runs, triples of the start in the current column, the number
+     * of current values and the number of other values.
+     */
+    private int[] runs = null;
+
+    /** The number of other values in all runs */
+    private int nvalues = 0;
+
+    /** The packed other values, null when spilled */
+    private byte[] packed = null;
+
+    /** The encoding of the packed values */
+    private int encoding = SpecStackFile.RAW;
+
+    /** Length of the packed values */
+    private int packedLength = 0;
+
+    /** File holding the packed values when spilled */
+    private File spillFile = null;
+
+    /**
+     * Create an instance that records the changes needed to restore a
+     * column after it is replaced.
+     *
+     * @param from the column before the edit, may be null.
+     * @param to the column after the edit, may be null.
+     */
+    public ColumnDelta( double[] from, double[] to )
+    {
+        currentLength = ( to == null ) ? -1 : to.length;
+        otherLength = ( from == null ) ? -1 : from.length;
+        if ( from == to ) {
+            runs = new int[0];
+        }
+        else if ( from != null && to != null && from.length == to.length ) {
+            runs = findRuns( from, to );
+        }
+        else {
+            runs = findBlock( from, to );
+        }
+
+        double[] values = new double[countOther()];
+        int n = 0;
+        int shift = 0;
+        for ( int i = 0; i < runs.length; i += 3 ) {
+            copy( from, runs[i] + shift, values, n, runs[i+2] );
+            n += runs[i+2];
+            shift += runs[i+2] - runs[i+1];
+        }
+        pack( values );
+    }
+
+    /**
+     * Get whether the two versions are the same.
+     */
+    public boolean isEmpty()
+    {
+        return ( runs.length == 0 && currentLength == otherLength );
+    }
+
+    /**
+     * Produce the other version of the column. The current column is
+     * not modified, and the values needed to restore it are kept.
+     *
+     * @param current the current column, as it was after the edit or the
+     *                last application.
+     * @return the other column, current if the two are the same.
+     * @throws IOException if the current column has the wrong length or
+     *                     spilled values cannot be read.
+     */
+    public synchronized double[] apply( double[] current )
+        throws IOException
+    {
+        int length = ( current == null ) ? -1 : current.length;
+        if ( length != currentLength ) {
+            throw new IOException( "Column has changed since the edit" );
+        }
+        if ( isEmpty() ) {
+            return current;
+        }
+        double[] stored = unpack();
+
+        //  Copy the unchanged parts, insert the stored runs and keep the
+        //  current runs. The runs then describe the other column.
+        double[] other = ( otherLength == -1 ) ? null : new double[otherLength];
+        double[] kept = new double[countCurrent()];
+        int[] newRuns = new int[runs.length];
+        int ci = 0;
+        int oi = 0;
+        int si = 0;
+        int ki = 0;
+        for ( int i = 0; i < runs.length; i += 3 ) {
+            int gap = runs[i] - ci;
+            copy( current, ci, other, oi, gap );
+            ci += gap;
+            oi += gap;
+
+            newRuns[i] = oi;
+            newRuns[i+1] = runs[i+2];
+            newRuns[i+2] = runs[i+1];
+
+            copy( stored, si, other, oi, runs[i+2] );
+            oi += runs[i+2];
+            si += runs[i+2];
+
+            copy( current, ci, kept, ki, runs[i+1] );
+            ci += runs[i+1];
+            ki += runs[i+1];
+        }
+        copy( current, ci, other, oi, Math.max( 0, length - ci ) );
+
+        runs = newRuns;
+        otherLength = currentLength;
+        currentLength = ( other == null ) ? -1 : other.length;
+        deleteSpill();
+        pack( kept );
+        return other;
+    }
+
+    /**
+     * Get the number of bytes of memory used.
+     */
+    public synchronized long getMemorySize()
+    {
+        long size = 64 + runs.length * 4;
+        if ( packed != null ) {
+            size += packed.length;
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of bytes written to disk.
+     */
+    public synchronized long getDiskSize()
+    {
+        return ( spillFile == null ) ? 0 : packedLength;
+    }
+
+    /**
+     * Write the values to a temporary file, releasing their memory.
+     */
+    public synchronized void spill()
+        throws IOException
+    {
+        if ( packed == null || packed.length == 0 ) {
+            return;
+        }
+        File file = File.createTempFile( "splat", ".undo" );
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try {
+            raf.write( packed );
+        }
+        catch (IOException e) {
+            raf.close();
+            file.delete();
+            throw e;
+        }
+        raf.close();
+        spillFile = file;
+        packed = null;
+    }
+
+    /**
+     * Release any resources, the instance cannot be used afterwards.
+     */
+    public synchronized void dispose()
+    {
+        deleteSpill();
+        packed = null;
+    }
+
+    /**
+     * Find the runs of different values in two columns of the same length.
+     */
+    private int[] findRuns( double[] from, double[] to )
+    {
+        int[] found = new int[48];
+        int n = 0;
+        int i = 0;
+        while ( i < to.length ) {
+            if ( same( from[i], to[i] ) ) {
+                i++;
+                continue;
+            }
+
+            //  Extend while the next difference is close.
+            int start = i;
+            int end = i + 1;
+            for ( int j = end; j < to.length && j < end + MERGE_GAP; j++ ) {
+                if ( ! same( from[j], to[j] ) ) {
+                    end = j + 1;
+                }
+            }
+            if ( n + 3 > found.length ) {
+                int[] grown = new int[found.length * 2];
+                System.arraycopy( found, 0, grown, 0, n );
+                found = grown;
+            }
+            found[n++] = start;
+            found[n++] = end - start;
+            found[n++] = end - start;
+            i = end;
+        }
+        int[] result = new int[n];
+        System.arraycopy( found, 0, result, 0, n );
+        return result;
+    }
+
+    /**
+     * Find the block that differs between two columns, after removing the
+     * common prefix and suffix.
+     */
+    private int[] findBlock( double[] from, double[] to )
+    {
+        int nfrom = ( from == null ) ? 0 : from.length;
+        int nto = ( to == null ) ? 0 : to.length;
+        int limit = Math.min( nfrom, nto );
+        int prefix = 0;
+        while ( prefix < limit && same( from[prefix], to[prefix] ) ) {
+            prefix++;
+        }
+        int suffix = 0;
+        while ( suffix < limit - prefix &&
+                same( from[nfrom - 1 - suffix], to[nto - 1 - suffix] ) ) {
+            suffix++;
+        }
+        int ncurrent = nto - prefix - suffix;
+        int nother = nfrom - prefix - suffix;
+        if ( ncurrent == 0 && nother == 0 ) {
+            return new int[0];
+        }
+        return new int[] { prefix, ncurrent, nother };
+    }
+
+    /**
+     * Copy part of an array, nothing is done for no values, so either
+     * array may then be null.
+     */
+    private static void copy( double[] from, int fromPos, double[] to,
+                              int toPos, int count )
+    {
+        if ( count > 0 ) {
+            System.arraycopy( from, fromPos, to, toPos, count );
+        }
+    }
+
+    /**
+     * Count the values in the runs of the current column.
+     */
+    private int countCurrent()
+    {
+        int n = 0;
+        for ( int i = 0; i < runs.length; i += 3 ) {
+            n += runs[i+1];
+        }
+        return n;
+    }
+
+    /**
+     * Count the values in the runs of the other column.
+     */
+    private int countOther()
+    {
+        int n = 0;
+        for ( int i = 0; i < runs.length; i += 3 ) {
+            n += runs[i+2];
+        }
+        return n;
+    }
+
+    /**
+     * Compare two values, BAD and NaN match themselves.
+     */
+    private static boolean same( double a, double b )
+    {
+        return Double.doubleToLongBits( a ) == Double.doubleToLongBits( b );
+    }
+
+    /**
+     * Pack the values of the other column.
+     */
+    private void pack( double[] values )
+    {
+        int[] enc = new int[1];
+        nvalues = values.length;
+        packed = SpecStackFile.encodeColumn( values,
+                                             nvalues >= MIN_COMPRESS, enc );
+        encoding = enc[0];
+        packedLength = packed.length;
+    }
+
+    /**
+     * Unpack the values of the other column, reading them back if spilled.
+     */
+    private double[] unpack()
+        throws IOException
+    {
+        byte[] bytes = packed;
+        if ( bytes == null ) {
+            bytes = new byte[packedLength];
+            RandomAccessFile raf = new RandomAccessFile( spillFile, "r" );
+            try {
+                raf.readFully( bytes );
+            }
+            finally {
+                raf.close();
+            }
+        }
+        return SpecStackFile.decodeColumn( bytes, nvalues, encoding );
+    }
+
+    /**
+     * Remove any spill file.
+     */
+    private void deleteSpill()
+    {
+        if ( spillFile != null ) {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+}
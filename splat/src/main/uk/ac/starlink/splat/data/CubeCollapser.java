@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.data;
+
+import java.util.Arrays;
+
+import uk.ac.starlink.ast.FrameSet;
+import uk.ac.starlink.splat.ast.ASTJ;
+import uk.ac.starlink.splat.util.ChunkedTask;
+import uk.ac.starlink.splat.util.SplatException;
+
+/**
+ * Collapses a 3D cube onto its dispersion axis, creating one spectrum for
+ * each position along the select axis, as {@link CollapsedSpecDataImpl}
+ * does for a single section.
+ * <p>
+ * All the spectra are created in one pass through the cube, rather than
+ * one pass per section. The cube is visited row by row in the order it is
+ * stored and each value is added to the sums of the spectrum and
+ * dispersion position it belongs to, so no sections are copied. Large
+ * cubes are divided into slabs along the slower of the dispersion and
+ * select axes, which are summed by several threads at once. The sums for
+ * each position are formed in the same order as when collapsing the
+ * sections one at a time, so the results are the same.
+ * <p>
+ * The combination is a weighted mean when there are errors, otherwise a
+ * mean. BAD values are ignored.
+ *
+ * @version $Id$
+ * @see CollapsedSpecDataImpl
+ * @see SpecDims
+ */
+public class CubeCollapser
+{
+    /**
+     * Smallest number of cube values to give a thread.
+     */
+    private static final int MIN_CHUNK = 65536;
+
+    /**
+     * The 3D spectrum.
+     */
+    private SpecData parent = null;
+
+    /**
+     * The dimensions and chosen axes of the parent.
+     */
+    private SpecDims specDims = null;
+
+    /**
+     * The number of threads.
+     */
+    private int threads = ChunkedTask.getDefaultThreads();
+
+    /**
+     * Constructor.
+     *
+     * @param parent the spectrum to collapse, must be 3D.
+     * @param specDims the dimensions of the parent, with the dispersion and
+     *                 select axes chosen.
+     * @throws SplatException if the parent is not 3D.
+     */
+    public CubeCollapser( SpecData parent, SpecDims specDims )
+        throws SplatException
+    {
+        if ( specDims.getNumSigDims() != 3 ) {
+            throw new SplatException( "Can only collapse sections of " +
+                                      "3D data" );
+        }
+        this.parent = parent;
+        this.specDims = specDims;
+    }
+
+    /**
+     * Set the number of threads used to collapse large cubes. The default
+     * is the number of processors, use 1 to disable threading.
+     */
+    public void setThreads( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Get the number of threads used to collapse large cubes.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Collapse the cube, returning a spectrum for each position along the
+     * select axis.
+     *
+     * @throws SplatException if the spectra cannot be created.
+     */
+    public SpecData[] getSpectra()
+        throws SplatException
+    {
+        int[] dims = specDims.getSigDims();
+        int ndisp = dims[specDims.getDispAxis( true )];
+        int nsel = dims[specDims.getSelectAxis( true )];
+        double[] e = parent.getYDataErrors();
+
+        //  Form the sums, sum holds the sum of the values, or the weighted
+        //  values, and weight the number of values, or the sum of the
+        //  weights.
+        double[] sum = new double[nsel * ndisp];
+        double[] weight = new double[nsel * ndisp];
+        collapse( sum, weight );
+
+        //  Extract the spectral FrameSet once, each spectrum gets its own
+        //  copy, as they may be modified. Note +1 for AST axes.
+        FrameSet frameSet =
+            ASTJ.extract1DFrameSet( parent.getFrameSet(),
+                                    specDims.getDispAxis( false ) + 1 );
+
+        SpecData[] spectra = new SpecData[nsel];
+        for ( int k = 0; k < nsel; k++ ) {
+            double[] data = new double[ndisp];
+            double[] errors = ( e == null ) ? null : new double[ndisp];
+            int offset = k * ndisp;
+            for ( int i = 0; i < ndisp; i++ ) {
+                double w = weight[offset + i];
+                if ( w == 0.0 ) {
+                    data[i] = SpecData.BAD;
+                    if ( errors != null ) {
+                        errors[i] = SpecData.BAD;
+                    }
+                }
+                else {
+                    data[i] = sum[offset + i] / w;
+                    if ( errors != null ) {
+                        errors[i] = Math.sqrt( 1.0 / w );
+                    }
+                }
+            }
+            SpecDataImpl impl =
+                new CollapsedSpecDataImpl( parent, specDims, k, data,
+                                           errors,
+                                           (FrameSet) frameSet.copy() );
+            spectra[k] = new SpecData( impl );
+        }
+        return spectra;
+    }
+
+    /**
+     * Sum the cube values into arrays indexed by the dispersion position,
+     * which runs fastest, and the select position.
+     */
+    protected void collapse( final double[] sum, final double[] weight )
+    {
+        final double[] d = parent.getYData();
+        final double[] e = parent.getYDataErrors();
+        final int[] dims = specDims.getSigDims();
+        final int[] strides = specDims.getStrides( true );
+        int dispax = specDims.getDispAxis( true );
+        int selectax = specDims.getSelectAxis( true );
+
+        //  Step through the sums for a step along each axis, the values
+        //  along the free axis are all added to the same sum.
+        final int[] sumStrides = new int[3];
+        sumStrides[dispax] = 1;
+        sumStrides[selectax] = dims[dispax];
+
+        //  Axes are stored in order, so the slower of the dispersion and
+        //  select axes is divided between the threads. Each slab has its own
+        //  sums.
+        final int slabax = Math.max( dispax, selectax );
+        int slabsize = d.length / dims[slabax];
+        ChunkedTask task = new ChunkedTask()
+            {
+                protected void process( int start, int end )
+                {
+                    collapseSlab( d, e, dims, strides, sumStrides, slabax,
+                                  start, end, sum, weight );
+                }
+            };
+        try {
+            task.execute( dims[slabax], MIN_CHUNK / Math.max( 1, slabsize ),
+                          threads );
+        }
+        catch (SplatException ex) {
+            //  Thread pool failed, so start again in this thread.
+            Arrays.fill( sum, 0.0 );
+            Arrays.fill( weight, 0.0 );
+            collapseSlab( d, e, dims, strides, sumStrides, slabax,
+                          0, dims[slabax], sum, weight );
+        }
+    }
+
+    /**
+     * Add the values of a slab of the cube to the sums. The slab is the
+     * positions start to end-1 along the slab axis.
+     */
+    private static void collapseSlab( double[] d, double[] e, int[] dims,
+                                      int[] strides, int[] sumStrides,
+                                      int slabax, int start, int end,
+                                      double[] sum, double[] weight )
+    {
+        int[] lower = new int[3];
+        int[] upper = dims.clone();
+        lower[slabax] = start;
+        upper[slabax] = end;
+
+        int nrow = dims[0];
+        int step = sumStrides[0];
+        double invar = 0.0;
+        for ( int k = lower[2]; k < upper[2]; k++ ) {
+            for ( int j = lower[1]; j < upper[1]; j++ ) {
+                int index = strides[2] * k + strides[1] * j;
+                int s = sumStrides[2] * k + sumStrides[1] * j;
+                if ( e == null ) {
+                    for ( int i = 0; i < nrow; i++ ) {
+                        if ( d[index] != SpecData.BAD ) {
+                            sum[s] += d[index];
+                            weight[s]++;
+                        }
+                        index++;
+                        s += step;
+                    }
+                }
+                else {
+                    for ( int i = 0; i < nrow; i++ ) {
+                        if ( d[index] != SpecData.BAD &&
+                             e[index] != SpecData.BAD ) {
+                            invar = 1.0 / ( e[index] * e[index] );
+                            sum[s] += d[index] * invar;
+                            weight[s] += invar;
+                        }
+                        index++;
+                        s += step;
+                    }
+                }
+            }
+        }
+    }
+}
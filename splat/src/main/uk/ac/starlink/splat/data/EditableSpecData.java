@@ -5,12 +5,19 @@
  *  History:
  *     03-FEB-2003 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Cell edits of shared data update the range incrementally.
+ *       Column edits keep deltas in an UndoJournal, not copies.
+ *       Undo and redo of column edits are all or nothing, a failure
+ *       discards the undo history.
  */
 
 package uk.ac.starlink.splat.data;
 
+import java.io.IOException;
 import java.io.Serializable;
 import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import javax.swing.undo.UndoManager;
 import javax.swing.undo.UndoableEdit;
@@ -27,6 +34,8 @@ import uk.ac.starlink.splat.util.SplatException;
  * <p>
  * If requested an instance of this class can also provide an
  * {@link UndoManager} that can be used to undo and redo any changes.
+ * Changes to columns are recorded as {@link ColumnDelta}s and the local
+ * UndoManager is an {@link UndoJournal}, which bounds their memory use.
  *
  * @author Peter W. Draper
  * @version $Id$
@@ -45,6 +54,11 @@ public class EditableSpecData
      */
     protected transient UndoManager undoManager = null;
 
+    /**
+     * A column edit that is waiting for the change to be made.
+     */
+    private transient UndoableEdit pendingColumnEdit = null;
+
     /**
      * Whether changes to this spectrum can be undone using the
      * UndoManager.
@@ -95,7 +109,7 @@ public class EditableSpecData
     public void setUndoable( boolean undoable )
     {
         if ( undoable && undoManager == null ) {
-            undoManager = new UndoManager();
+            undoManager = new UndoJournal();
         }
         else if ( ! undoable && undoManager != null ) {
             //  Loose all edits when switched off.
@@ -129,6 +143,7 @@ public class EditableSpecData
         }
         constructColumnUndo( coords, dataUnits, data, null, false );
         ((EditableSpecDataImpl)impl).setSimpleData( coords, dataUnits, data );
+        completeColumnUndo();
         readData();
     }
 
@@ -154,6 +169,7 @@ public class EditableSpecData
         constructColumnUndo( coords, dataUnits, data, null, false );
         ((EditableSpecDataImpl)impl).setSimpleUnitData( frameSet, coords, 
                                                         dataUnits, data );
+        completeColumnUndo();
         readData();
     }
 
@@ -170,6 +186,7 @@ public class EditableSpecData
     {
         constructColumnAndFrameSetUndo( dataUnits, data, null, false );
         ((EditableSpecDataImpl)impl).setFullData( frameSet, dataUnits, data );
+        completeColumnUndo();
         readData();
     }
 
@@ -192,6 +209,7 @@ public class EditableSpecData
         constructColumnUndo( coords, dataUnits, data, null, true );
         ((EditableSpecDataImpl)impl).setSimpleDataQuick( coords, dataUnits, 
                                                          data );
+        completeColumnUndo();
         readData();
     }
 
@@ -217,6 +235,7 @@ public class EditableSpecData
         constructColumnUndo( coords, dataUnits, data, null, true );
         ((EditableSpecDataImpl)impl).setSimpleUnitDataQuick( frameSet, coords,
                                                              dataUnits, data );
+        completeColumnUndo();
         readData();
     }
 
@@ -235,6 +254,7 @@ public class EditableSpecData
         constructColumnAndFrameSetUndo( dataUnits, data, null, true );
         ((EditableSpecDataImpl)impl).setFullDataQuick( frameSet, dataUnits, 
                                                        data );
+        completeColumnUndo();
         readData();
     }
 
@@ -259,6 +279,7 @@ public class EditableSpecData
         constructColumnUndo( coords, dataUnits, data, errors, false );
         ((EditableSpecDataImpl)impl).setSimpleData( coords, dataUnits, data, 
                                                     errors );
+        completeColumnUndo();
         readData();
     }
 
@@ -289,6 +310,7 @@ public class EditableSpecData
         ((EditableSpecDataImpl)impl).setSimpleUnitData( frameSet, coords, 
                                                         dataUnits, data,
                                                         errors );
+        completeColumnUndo();
         readData();
     }
 
@@ -311,6 +333,7 @@ public class EditableSpecData
         constructColumnAndFrameSetUndo( dataUnits, data, errors, false );
         ((EditableSpecDataImpl)impl).setFullData( frameSet, dataUnits, data, 
                                                   errors );
+        completeColumnUndo();
         readData();
     }
 
@@ -334,6 +357,7 @@ public class EditableSpecData
         constructColumnUndo( coords, dataUnits, data, errors, true );
         ((EditableSpecDataImpl)impl).setSimpleDataQuick( coords, dataUnits, 
                                                          data, errors );
+        completeColumnUndo();
         readData();
     }
 
@@ -363,6 +387,7 @@ public class EditableSpecData
         ((EditableSpecDataImpl)impl).setSimpleUnitDataQuick( frameSet, coords,
                                                              dataUnits,
                                                              data, errors );
+        completeColumnUndo();
         readData();
     }
 
@@ -385,6 +410,7 @@ public class EditableSpecData
         constructColumnAndFrameSetUndo( dataUnits, data, errors, true );
         ((EditableSpecDataImpl)impl).setFullDataQuick( frameSet, dataUnits, 
                                                        data, errors );
+        completeColumnUndo();
         readData();
     }
 
@@ -407,7 +433,15 @@ public class EditableSpecData
     {
         constructCellUndo( EditCell.YCOLUMN, index );
         ((EditableSpecDataImpl)impl).setYDataValue( index, value );
-        readData();
+
+        //  When the data are shared with the implementation only the range
+        //  needs updating.
+        if ( yPos == impl.getData() ) {
+            updateRange( index, index );
+        }
+        else {
+            readData();
+        }
     }
 
     /**
@@ -418,7 +452,13 @@ public class EditableSpecData
     {
         constructCellUndo( EditCell.ECOLUMN, index );
         ((EditableSpecDataImpl)impl).setYDataErrorValue( index, value );
-        readData();
+        if ( yErr != null && yPos == impl.getData() &&
+             yErr == impl.getDataErrors() ) {
+            updateRange( index, index );
+        }
+        else {
+            readData();
+        }
     }
 
     /**
@@ -428,47 +468,52 @@ public class EditableSpecData
     public void sort()
         throws SplatException
     {
-        //  First sort coordinates.
+        //  First sort coordinates. Sort copies so that the current values
+        //  are still available to any undo.
+        double[] coords = xPos.clone();
+        double[] data = yPos.clone();
+        double[] errors = null;
         if ( yErr != null ) {
-            Sort.sort( xPos, yPos, yErr );
+            errors = yErr.clone();
+            Sort.sort( coords, data, errors );
         }
         else {
-            Sort.sort( xPos, yPos );
+            Sort.sort( coords, data );
         }
 
         //  Check for duplicates, including runs of BAD.
         int ndup = 0;
-        for ( int i = 1; i < xPos.length; i++ ) {
-            if ( xPos[i-1] == xPos[i] ) {
+        for ( int i = 1; i < coords.length; i++ ) {
+            if ( coords[i-1] == coords[i] ) {
                 ndup++;
             }
         }
         if ( ndup > 0 ) {
-            int size = xPos.length - ndup;
+            int size = coords.length - ndup;
             double[] nc = new double[size];
             double[] nd = new double[size];
             double[] ne = null;
-            if ( yErr != null ) {
+            if ( errors != null ) {
                 ne = new double[size];
-                nc[0] = xPos[0];
-                nd[0] = yPos[0];
-                ne[0] = yErr[0];
-                for ( int i = 1, j = 1; i < xPos.length; i++ ) {
-                    if ( xPos[i-1] != xPos[i] ) {
-                        nc[j] = xPos[i];
-                        nd[j] = yPos[i];
-                        ne[j] = yErr[i];
+                nc[0] = coords[0];
+                nd[0] = data[0];
+                ne[0] = errors[0];
+                for ( int i = 1, j = 1; i < coords.length; i++ ) {
+                    if ( coords[i-1] != coords[i] ) {
+                        nc[j] = coords[i];
+                        nd[j] = data[i];
+                        ne[j] = errors[i];
                         j++;
                     }
                 }
             }
             else {
-                nc[0] = xPos[0];
-                nd[0] = yPos[0];
-                for ( int i = 1, j = 1; i < xPos.length; i++ ) {
-                    if ( xPos[i-1] != xPos[i] ) {
-                        nc[j] = xPos[i];
-                        nd[j] = yPos[i];
+                nc[0] = coords[0];
+                nd[0] = data[0];
+                for ( int i = 1, j = 1; i < coords.length; i++ ) {
+                    if ( coords[i-1] != coords[i] ) {
+                        nc[j] = coords[i];
+                        nd[j] = data[i];
                         j++;
                     }
                 }
@@ -477,8 +522,8 @@ public class EditableSpecData
                                     nd, ne );
         }
         else {
-            setSimpleUnitDataQuick( getFrameSet(), xPos, getCurrentDataUnits(),
-                                    yPos, yErr );
+            setSimpleUnitDataQuick( getFrameSet(), coords,
+                                    getCurrentDataUnits(), data, errors );
         }
     }
 
@@ -505,43 +550,132 @@ public class EditableSpecData
                                         double[] errors,
                                         boolean needCopy )
     {
+        pendingColumnEdit = null;
         if ( undoable && undoManager != null ) {
-            undoableEdit = new EditColumn( this, coords, dataUnits, data,
-                                           errors, needCopy );
-            undoManager.addEdit( undoableEdit );
+            pendingColumnEdit = new EditColumn( this, coords, dataUnits,
+                                                data, errors, needCopy );
+        }
+    }
+
+    /**
+     * Record the undoable object made by {@link #constructColumnUndo} or
+     * {@link #constructColumnAndFrameSetUndo}, once the change has been
+     * made. The errors that are present after the change depend on the
+     * implementation, so are only known then.
+     */
+    protected void completeColumnUndo()
+    {
+        UndoableEdit edit = pendingColumnEdit;
+        pendingColumnEdit = null;
+        if ( edit == null || undoManager == null ) {
+            return;
+        }
+        double[] errors = impl.getDataErrors();
+        if ( edit instanceof EditColumn ) {
+            ((EditColumn) edit).setErrors( errors );
+        }
+        else {
+            ((EditColumnAndFrameSet) edit).setErrors( errors );
+        }
+        undoableEdit = edit;
+        undoManager.addEdit( undoableEdit );
+    }
+
+    /**
+     * Discard all the edits of the UndoManager after an edit has failed to
+     * undo or redo. The edit has already been marked as undone or redone
+     * and the UndoManager has moved past it, so neither can be trusted,
+     * although the spectrum itself is unchanged.
+     *
+     * @param edit the edit that failed.
+     */
+    protected void discardEdits( UndoableEdit edit )
+    {
+        edit.die();
+        if ( undoManager != null ) {
+            undoManager.discardAllEdits();
+        }
+        undoableEdit = null;
+    }
+
+    /**
+     * Produce the other versions of some columns by applying their deltas.
+     * Either all the deltas are applied or, if one fails, any that were
+     * applied are reverted.
+     *
+     * @param deltas the deltas.
+     * @param columns the current columns, one for each delta.
+     * @return the other columns.
+     * @throws IOException if a delta cannot be applied.
+     */
+    protected static double[][] applyDeltas( ColumnDelta[] deltas,
+                                             double[][] columns )
+        throws IOException
+    {
+        double[][] others = new double[deltas.length][];
+        for ( int i = 0; i < deltas.length; i++ ) {
+            try {
+                others[i] = deltas[i].apply( columns[i] );
+            }
+            catch (IOException e) {
+                revertDeltas( deltas, others, i );
+                throw e;
+            }
+        }
+        return others;
+    }
+
+    /**
+     * Revert deltas that have been applied, so that they again produce
+     * the other columns.
+     *
+     * @param deltas the deltas.
+     * @param others the columns produced by applying the deltas.
+     * @param count the number of deltas, from the start, to revert.
+     */
+    protected static void revertDeltas( ColumnDelta[] deltas,
+                                        double[][] others, int count )
+    {
+        for ( int i = count - 1; i >= 0; i-- ) {
+            try {
+                deltas[i].apply( others[i] );
+            }
+            catch (IOException e) {
+                //  Values are in memory after an apply, so not expected.
+                e.printStackTrace();
+            }
         }
     }
 
     /**
      * Edit of column data inner class, extends AbstractUndoableEdit
      * to provide an implementation of UndoableEdit that can be stored
-     * in the UndoManager. This is very very simple, just get copies
-     * of the data columns that are about to be changed and when
-     * asked, put them back.
+     * in the UndoManager. Keeps the differences between the data
+     * columns before and after the change and when asked, applies them
+     * to get back the other version.
      */
     protected static class EditColumn
         extends AbstractUndoableEdit
+        implements UndoJournal.Sized
     {
         private EditableSpecData specData = null;
         private String dataUnits = null;
-        private double[] data = null;
-        private double[] coords = null;
+        private ColumnDelta data = null;
+        private ColumnDelta coords = null;
         private FrameSet frameSet = null;
-        private double[] errors = null;
+        private ColumnDelta errors = null;
+        private double[] oldErrors = null;
 
         /**
-         * Constructor.
+         * Constructor. The errors present after the change must be given
+         * to {@link #setErrors} before the edit is used.
          *
          * @param specData the specData object about to be modified
-         * @param newCoords the coordinates about to applied (only used
-         *                  if needCopy is true).
+         * @param newCoords the coordinates about to applied.
          * @param newDataUnits the new data units (not used).
-         * @param newData the data values about to applied (only used
-         *                if needCopy is true).
-         * @param newErrors the data errors about to applied. If null
-         *                  then errors are assumed to be not currently
-         *                  present, otherwise they will not be used in
-         *                  needCopy is false).
+         * @param newData the data values about to applied.
+         * @param newErrors the data errors about to applied (not used).
+         * @param needCopy not used, the differences are always copied.
          */
         public EditColumn( EditableSpecData specData,
                            double[] newCoords, String newDataUnits,
@@ -551,47 +685,52 @@ public class EditableSpecData
             super();
             this.specData = specData;
 
-            coords = specData.getXData();
-            if ( needCopy && newCoords != null ) {
-                //  Don't really need a copy if this is just a
-                //  replacement operation.
-                if ( coords != newCoords ) {
-                    coords = makeCopy( coords );
-                }
-            }
+            coords = new ColumnDelta( specData.getXData(), newCoords );
 
             // Take reference of existing FrameSet to keep the coordinate
             // system properties. The actual mappings are not used.
             this.frameSet = specData.getFrameSet();
 
-            data = specData.getYData();
+            data = new ColumnDelta( specData.getYData(), newData );
             dataUnits = specData.getCurrentDataUnits();
-            if ( needCopy && newData != null ) {
-                if ( data != newData ) {
-                    data = makeCopy( data );
-                }
-            }
+            oldErrors = specData.getYDataErrors();
+        }
 
-            errors = specData.getYDataErrors();
-            if ( needCopy && newErrors != null ) {
-                if ( errors != newErrors && errors != null ) {
-                    errors = makeCopy( errors );
-                }
-            }
+        /**
+         * Set the data errors present after the change.
+         */
+        public void setErrors( double[] newErrors )
+        {
+            errors = new ColumnDelta( oldErrors, newErrors );
+            oldErrors = null;
         }
 
         public void undo()
             throws CannotUndoException
         {
             super.undo();
-            switchData();
+            if ( ! switchData() ) {
+                specData.discardEdits( this );
+                throw new CannotUndoException();
+            }
         }
 
         public void redo()
-            throws CannotUndoException
+            throws CannotRedoException
         {
             super.redo();
-            switchData();
+            if ( ! switchData() ) {
+                specData.discardEdits( this );
+                throw new CannotRedoException();
+            }
+        }
+
+        public void die()
+        {
+            super.die();
+            coords.dispose();
+            data.dispose();
+            errors.dispose();
         }
 
         public String getPresentationName()
@@ -599,43 +738,78 @@ public class EditableSpecData
             return "EditableSpecData.EditColumn";
         }
 
-        protected void switchData()
+        public long getMemorySize()
         {
-            //  Replace data from storage. This routine also takes
-            //  references to the existing data so that the next
-            //  undo/redo backs out of this change.
-            double[] newCoords = coords;
-            coords = specData.getXData();
-
-            FrameSet newFrameSet = frameSet;
-            frameSet = (FrameSet) specData.getFrameSet();
+            return coords.getMemorySize() + data.getMemorySize() +
+                errors.getMemorySize();
+        }
 
-            String newDataUnits = dataUnits;
-            dataUnits = specData.getCurrentDataUnits();
+        public long getDiskSize()
+        {
+            return coords.getDiskSize() + data.getDiskSize() +
+                errors.getDiskSize();
+        }
 
-            double[] newData = data;
-            data = specData.getYData();
+        public void spill()
+            throws IOException
+        {
+            coords.spill();
+            data.spill();
+            errors.spill();
+        }
 
-            double[] newErrors = errors;
-            errors = specData.getYDataErrors();
+        /**
+         * Replace data using the stored differences. This also keeps
+         * the differences needed for the next undo/redo to back out of
+         * this change. Returns false if that fails.
+         */
+        protected boolean switchData()
+        {
+            FrameSet currentFrameSet = specData.getFrameSet();
+            String currentDataUnits = specData.getCurrentDataUnits();
+            ColumnDelta[] deltas = new ColumnDelta[] { coords, data, errors };
+            double[][] current = new double[][] {
+                specData.getXData(),
+                specData.getYData(),
+                specData.getYDataErrors()
+            };
+            double[][] other = null;
+            try {
+                other = applyDeltas( deltas, current );
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
 
+            specData.undoable = false;
             try {
-                specData.undoable = false;
-                specData.setSimpleUnitDataQuick( newFrameSet, newCoords, 
-                                                 newDataUnits, 
-                                                 newData, newErrors );
-                specData.undoable = true;
+                specData.setSimpleUnitDataQuick( frameSet, other[0],
+                                                 dataUnits, other[1],
+                                                 other[2] );
             }
             catch (SplatException e) {
+                //  Restore the deltas and the spectrum.
                 e.printStackTrace();
+                revertDeltas( deltas, other, deltas.length );
+                try {
+                    specData.setSimpleUnitDataQuick( currentFrameSet,
+                                                     current[0],
+                                                     currentDataUnits,
+                                                     current[1],
+                                                     current[2] );
+                }
+                catch (SplatException ee) {
+                    ee.printStackTrace();
+                }
+                return false;
             }
-        }
-
-        protected double[] makeCopy( double[] from )
-        {
-            double[] to = new double[from.length];
-            System.arraycopy( from, 0, to, 0, from.length );
-            return to;
+            finally {
+                specData.undoable = true;
+            }
+            frameSet = currentFrameSet;
+            dataUnits = currentDataUnits;
+            return true;
         }
     }
 
@@ -712,11 +886,11 @@ public class EditableSpecData
                                                    double[] errors,
                                                    boolean needCopy )
     {
+        pendingColumnEdit = null;
         if ( undoable && undoManager != null ) {
-            undoableEdit = new EditColumnAndFrameSet( this, dataUnits,
-                                                      data, errors,
-                                                      needCopy );
-            undoManager.addEdit( undoableEdit );
+            pendingColumnEdit = new EditColumnAndFrameSet( this, dataUnits,
+                                                           data, errors,
+                                                           needCopy );
         }
     }
 
@@ -727,24 +901,24 @@ public class EditableSpecData
      */
     protected static class EditColumnAndFrameSet
         extends AbstractUndoableEdit
+        implements UndoJournal.Sized
     {
         private EditableSpecData specData = null;
         private FrameSet frameSet = null;
-        private double[] data = null;
+        private ColumnDelta data = null;
         private String dataUnits = null;
-        private double[] errors = null;
+        private ColumnDelta errors = null;
+        private double[] oldErrors = null;
 
         /**
-         * Constructor.
+         * Constructor. The errors present after the change must be given
+         * to {@link #setErrors} before the edit is used.
          *
          * @param specData the specData object about to be modified
          * @param newDataUnits the new data units (not used)
-         * @param newData the data values about to applied (only used
-         *                if needCopy is true).
-         * @param newErrors the data errors about to applied. If null
-         *                  then errors are assumed to be not currently
-         *                  present, otherwise they will not be used in
-         *                  needCopy is false).
+         * @param newData the data values about to applied.
+         * @param newErrors the data errors about to applied (not used).
+         * @param needCopy not used, the differences are always copied.
          */
         public EditColumnAndFrameSet( EditableSpecData specData,
                                       String newDataUnits,
@@ -755,34 +929,45 @@ public class EditableSpecData
             this.specData = specData;
             this.frameSet = specData.getFrameSet();
 
-            data = specData.getYData();
+            data = new ColumnDelta( specData.getYData(), newData );
             dataUnits = specData.getCurrentDataUnits();
-            if ( needCopy && newData != null ) {
-                if ( data != newData ) {
-                    data = makeCopy( data );
-                }
-            }
+            oldErrors = specData.getYDataErrors();
+        }
 
-            errors = specData.getYDataErrors();
-            if ( needCopy && newErrors != null ) {
-                if ( errors != newErrors && errors != null ) {
-                    errors = makeCopy( errors );
-                }
-            }
+        /**
+         * Set the data errors present after the change.
+         */
+        public void setErrors( double[] newErrors )
+        {
+            errors = new ColumnDelta( oldErrors, newErrors );
+            oldErrors = null;
         }
 
         public void undo()
             throws CannotUndoException
         {
             super.undo();
-            switchBack();
+            if ( ! switchBack() ) {
+                specData.discardEdits( this );
+                throw new CannotUndoException();
+            }
         }
 
         public void redo()
-            throws CannotUndoException
+            throws CannotRedoException
         {
             super.redo();
-            switchBack();
+            if ( ! switchBack() ) {
+                specData.discardEdits( this );
+                throw new CannotRedoException();
+            }
+        }
+
+        public void die()
+        {
+            super.die();
+            data.dispose();
+            errors.dispose();
         }
 
         public String getPresentationName()
@@ -790,39 +975,71 @@ public class EditableSpecData
             return "EditableSpecData.EditColumnAndFrameSet";
         }
 
-        protected void switchBack()
+        public long getMemorySize()
         {
-            //  Replace data from storage. This routine also takes
-            //  references to the existing data so that the next
-            //  undo/redo backs out of this change.
-            double[] newData = data;
-            data = specData.getYData();
+            return data.getMemorySize() + errors.getMemorySize();
+        }
 
-            String newDataUnits = dataUnits;
-            dataUnits = specData.getCurrentDataUnits();
+        public long getDiskSize()
+        {
+            return data.getDiskSize() + errors.getDiskSize();
+        }
 
-            double[] newErrors = errors;
-            errors = specData.getYDataErrors();
+        public void spill()
+            throws IOException
+        {
+            data.spill();
+            errors.spill();
+        }
 
-            FrameSet targetFrameSet = frameSet;
-            frameSet = specData.getFrameSet();
+        /**
+         * Replace data using the stored differences. This also keeps
+         * the differences needed for the next undo/redo to back out of
+         * this change. Returns false if that fails.
+         */
+        protected boolean switchBack()
+        {
+            FrameSet currentFrameSet = specData.getFrameSet();
+            String currentDataUnits = specData.getCurrentDataUnits();
+            ColumnDelta[] deltas = new ColumnDelta[] { data, errors };
+            double[][] current = new double[][] {
+                specData.getYData(),
+                specData.getYDataErrors()
+            };
+            double[][] other = null;
+            try {
+                other = applyDeltas( deltas, current );
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
 
+            specData.undoable = false;
             try {
-                specData.undoable = false;
-                specData.setFullDataQuick( targetFrameSet, newDataUnits,
-                                           newData, newErrors );
-                specData.undoable = true;
+                specData.setFullDataQuick( frameSet, dataUnits, other[0],
+                                           other[1] );
             }
             catch (SplatException e) {
+                //  Restore the deltas and the spectrum.
                 e.printStackTrace();
+                revertDeltas( deltas, other, deltas.length );
+                try {
+                    specData.setFullDataQuick( currentFrameSet,
+                                               currentDataUnits,
+                                               current[0], current[1] );
+                }
+                catch (SplatException ee) {
+                    ee.printStackTrace();
+                }
+                return false;
             }
-        }
-
-        protected double[] makeCopy( double[] from )
-        {
-            double[] to = new double[from.length];
-            System.arraycopy( from, 0, to, 0, from.length );
-            return to;
+            finally {
+                specData.undoable = true;
+            }
+            frameSet = currentFrameSet;
+            dataUnits = currentDataUnits;
+            return true;
         }
     }
 
@@ -4,6 +4,8 @@
  *  History:
  *     21-SEP-2004 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Added constructors that take the dispersion axis FrameSet.
  */
 package uk.ac.starlink.splat.data;
 
@@ -33,6 +35,12 @@ public class ExtractedSpecDataImpl
     private float dw = 0; // interval
     private float z = 0; // doppler correction
     private float dtype = 0; // dispersion type
+
+    /**
+     * FrameSet for the dispersion axis given to the constructor, null
+     * when one should be created.
+     */
+    private FrameSet givenFrameSet = null;
     
     /**
      * Extract a line from a 2D image. The line lies along the dispersion axis
@@ -52,6 +60,27 @@ public class ExtractedSpecDataImpl
         initMetaData( parent );
     }
     
+    /**
+     * Extract a line from a 2D image, using a FrameSet for the dispersion
+     * axis that has already been extracted from the image by
+     * {@link ASTJ#extract1DFrameSet}. The FrameSet becomes part of this
+     * object, so it must not be shared with other spectra.
+     *
+     * @param parent the SpecData to extract a line from.
+     * @param index the index of the line to extract.
+     * @param frameSet the dispersion axis FrameSet.
+     */
+    public ExtractedSpecDataImpl( SpecData parent, SpecDims specDims,
+                                  int index, FrameSet frameSet )
+        throws SplatException
+    {
+        super( parent.getFullName() );
+        this.parentImpl = parent.getSpecDataImpl();
+        this.givenFrameSet = frameSet;
+        extract2D( parent, specDims, index );
+        initMetaData( parent );
+    }
+
     /**
      * Extract a line from a 2D echelle spectrum in IRAF format. 
      * The line lies along the dispersion axis
@@ -127,6 +156,26 @@ public class ExtractedSpecDataImpl
         initMetaData( parent );
     }
 
+    /**
+     * Extract a line from a 3D cube, using a FrameSet for the dispersion
+     * axis that has already been extracted from the cube by
+     * {@link ASTJ#extract1DFrameSet}. The FrameSet becomes part of this
+     * object, so it must not be shared with other spectra.
+     *
+     * @param parent the SpecData to extract
+     * @param frameSet the dispersion axis FrameSet.
+     */
+    public ExtractedSpecDataImpl( SpecData parent, SpecDims specDims,
+                                  int index1, int index2, FrameSet frameSet )
+        throws SplatException
+    {
+        super( parent.getFullName() );
+        this.parentImpl = parent.getSpecDataImpl();
+        this.givenFrameSet = frameSet;
+        extract3D( parent, specDims, index1, index2 );
+        initMetaData( parent );
+    }
+
     /**
      * Do a 2D extract.
      */
@@ -164,7 +213,12 @@ public class ExtractedSpecDataImpl
 
         //  Create the FrameSet for this data. Note +1 for AST axes.
         FrameSet frameSet = parent.getFrameSet();
-        astref = ASTJ.extract1DFrameSet( frameSet, dispax + 1 );
+        if ( givenFrameSet != null ) {
+            astref = givenFrameSet;
+        }
+        else {
+            astref = ASTJ.extract1DFrameSet( frameSet, dispax + 1 );
+        }
 
         //  Create a shortname that shows the original line position in world
         //  coordinates. Assumes index is base coordinate and we have the same
@@ -228,7 +282,12 @@ public class ExtractedSpecDataImpl
 
         //  Create the FrameSet for this data. Note +1 for AST axes.
         FrameSet frameSet = parent.getFrameSet();
-        astref = ASTJ.extract1DFrameSet( frameSet, dispax + 1 );
+        if ( givenFrameSet != null ) {
+            astref = givenFrameSet;
+        }
+        else {
+            astref = ASTJ.extract1DFrameSet( frameSet, dispax + 1 );
+        }
 
         //  Create a shortname that shows the original line position in world
         //  coordinates. Assumes indices are in base coordinate and we have
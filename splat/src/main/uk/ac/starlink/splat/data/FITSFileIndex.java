@@ -0,0 +1,666 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ *     17-OCT-2026:
+ *        Added ImageAccess, for reading blocks of data.
+ *     17-OCT-2026:
+ *        Check a checksum of the first header block, as well as the
+ *        length and modification time, to detect a modified file.
+ */
+package uk.ac.starlink.splat.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import nom.tam.fits.BasicHDU;
+import nom.tam.fits.Fits;
+import nom.tam.fits.FitsException;
+import nom.tam.fits.FitsUtil;
+import nom.tam.fits.Header;
+import nom.tam.fits.ImageData;
+import nom.tam.util.ArrayFuncs;
+import nom.tam.util.BufferedFile;
+import nom.tam.util.Cursor;
+
+/**
+ * An index of the HDUs in a FITS file.
+ * <p>
+ * For a local uncompressed file only the headers are read, recording the
+ * offset of the data for each HDU. The data of an image HDU are then read
+ * when needed using positional reads of just that part of the file, so
+ * HDUs can be accessed in any order without reading any other data. The
+ * file is only open during each read, so it can be replaced, for instance
+ * by saving a spectrum over it. Indexes are cached, so opening each HDU of
+ * a file in turn only scans the file once. A cached index is discarded if
+ * its file is modified, that is if its length, modification time or the
+ * checksum of its first header block have changed.
+ * <p>
+ * Other files, such as compressed ones and URLs, cannot be accessed
+ * randomly and are read completely, as before. These are not cached.
+ *
+ * @version $Id$
+ * @see FITSSpecDataImpl
+ */
+public class FITSFileIndex
+{
+    // Logger.
+    private static Logger logger =
+        Logger.getLogger( "uk.ac.starlink.splat.data.FITSFileIndex" );
+
+    /**
+     * Number of indexes to keep in the cache.
+     */
+    private static final int CACHE_SIZE = 8;
+
+    /**
+     * Size of a FITS block, the first of which is checksummed.
+     */
+    private static final int BLOCK_SIZE = 2880;
+
+    /**
+     * Cache of recent indexes, keyed by file name.
+     */
+    private static Map<String,FITSFileIndex> cache =
+        new LinkedHashMap<String,FITSFileIndex>( 16, 0.75f, true )
+        {
+            protected boolean removeEldestEntry
+                ( Map.Entry<String,FITSFileIndex> eldest )
+            {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    /**
+     * The file, null when fully read.
+     */
+    private File file = null;
+
+    /**
+     * Length, modification time and header checksum of the file when
+     * indexed.
+     */
+    private long length = 0L;
+    private long lastModified = 0L;
+    private long checksum = 0L;
+
+    /**
+     * The header cards of each HDU.
+     */
+    private List<String[]> cards = new ArrayList<String[]>();
+
+    /**
+     * Offset of the data of each HDU.
+     */
+    private List<Long> offsets = new ArrayList<Long>();
+
+    /**
+     * The HDUs, when the file is fully read.
+     */
+    private BasicHDU[] hdus = null;
+
+    /**
+     * Get an index for a FITS file, or URL. A cached index is returned if
+     * available.
+     *
+     * @param name the name of the file.
+     * @throws FitsException if the file cannot be read.
+     */
+    public static FITSFileIndex getIndex( String name )
+        throws FitsException
+    {
+        File file = new File( name );
+        if ( file.isFile() && ! FitsUtil.isCompressed( name ) ) {
+            String key = file.getAbsolutePath();
+            synchronized( cache ) {
+                FITSFileIndex index = cache.get( key );
+                if ( index != null && index.isCurrent() ) {
+                    return index;
+                }
+            }
+            try {
+                FITSFileIndex index = new FITSFileIndex( file );
+                synchronized( cache ) {
+                    cache.put( key, index );
+                }
+                return index;
+            }
+            catch (IOException e) {
+                logger.info( "Failed to index FITS file " + name +
+                             ", reading it completely (" +
+                             e.getMessage() + ")" );
+            }
+        }
+        return new FITSFileIndex( new Fits( name ).read() );
+    }
+
+    /**
+     * Create an index by scanning the headers of a file.
+     */
+    protected FITSFileIndex( File file )
+        throws IOException
+    {
+        this.file = file;
+        length = file.length();
+        lastModified = file.lastModified();
+        checksum = headerChecksum( file );
+
+        BufferedFile in = new BufferedFile( file.getPath(), "r" );
+        try {
+            long offset = 0L;
+            while ( offset < length ) {
+                Header header = null;
+                try {
+                    header = Header.readHeader( in );
+                }
+                catch (Exception e) {
+                    //  Trailing junk after the last HDU is not an error.
+                    if ( cards.size() == 0 ) {
+                        throw new IOException( e.getMessage() );
+                    }
+                    logger.info( "Ignoring data after HDU " + cards.size() +
+                                 " of " + file + " (" + e.getMessage() +
+                                 ")" );
+                }
+                if ( header == null ) {
+                    break;
+                }
+                long dataOffset = in.getFilePointer();
+                String[] hcards = new String[header.getNumberOfCards()];
+                Cursor iter = header.iterator();
+                for ( int i = 0; i < hcards.length; i++ ) {
+                    hcards[i] = iter.next().toString();
+                }
+                cards.add( hcards );
+                offsets.add( Long.valueOf( dataOffset ) );
+
+                offset = dataOffset + dataSize( header );
+                in.seek( offset );
+            }
+        }
+        finally {
+            in.close();
+        }
+        if ( cards.size() == 0 ) {
+            throw new IOException( "No HDUs found" );
+        }
+    }
+
+    /**
+     * Create an index for HDUs that have been read.
+     */
+    protected FITSFileIndex( BasicHDU[] hdus )
+    {
+        this.hdus = hdus;
+    }
+
+    /**
+     * Return whether the file has not been modified since it was indexed.
+     */
+    protected boolean isCurrent()
+    {
+        if ( file == null ) {
+            return true;
+        }
+        if ( file.length() != length ||
+             file.lastModified() != lastModified ) {
+            return false;
+        }
+        try {
+            return headerChecksum( file ) == checksum;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get a checksum of the first block of a file, which holds the start
+     * of the primary header. This catches a rewrite that keeps the length
+     * and the modification time, which may only be accurate to a second.
+     */
+    protected static long headerChecksum( File file )
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try {
+            return headerChecksum( raf.getChannel() );
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Get a checksum of the first block of an open file.
+     */
+    protected static long headerChecksum( FileChannel channel )
+        throws IOException
+    {
+        int size = (int) Math.min( BLOCK_SIZE, channel.size() );
+        ByteBuffer bytes = ByteBuffer.allocate( size );
+        ImageAccess.readFully( channel, bytes, 0L );
+        CRC32 crc = new CRC32();
+        crc.update( bytes.array(), 0, size );
+        return crc.getValue();
+    }
+
+    /**
+     * Get the number of HDUs.
+     */
+    public int getHDUCount()
+    {
+        if ( hdus != null ) {
+            return hdus.length;
+        }
+        return cards.size();
+    }
+
+    /**
+     * Get the header of an HDU. A new Header is returned each time, so
+     * changes are not seen by other users of the index.
+     */
+    public Header getHeader( int hdu )
+    {
+        if ( hdus != null ) {
+            return hdus[hdu].getHeader();
+        }
+        return new Header( cards.get( hdu ) );
+    }
+
+    /**
+     * Get the dimensions of an HDU, in the order of the NAXISn cards
+     * reversed (as BasicHDU.getAxes).
+     *
+     * @return the dimensions, null if NAXIS is 0.
+     */
+    public int[] getAxes( int hdu )
+        throws FitsException
+    {
+        if ( hdus != null ) {
+            return hdus[hdu].getAxes();
+        }
+        return getAxes( getHeader( hdu ) );
+    }
+
+    /**
+     * Get access to the data of an image HDU, without reading them. For an
+     * indexed file the data are read from the file as they are requested.
+     *
+     * @return the access, null if the HDU has no data.
+     * @throws FitsException if the HDU is not an image.
+     */
+    public ImageAccess getImageAccess( int hdu )
+        throws FitsException
+    {
+        Header header = getHeader( hdu );
+        String xtension = header.getStringValue( "XTENSION" );
+        if ( xtension != null && ! "IMAGE".equals( xtension.trim() ) ) {
+            throw new FitsException( "HDU " + hdu + " is not an image" );
+        }
+
+        if ( hdus != null ) {
+            Object raw = ((ImageData) hdus[hdu].getData()).getData();
+            Buffer buffer = wrap( ArrayFuncs.flatten( raw ) );
+            if ( buffer == null ) {
+                return null;
+            }
+            return new ImageAccess( buffer, header );
+        }
+
+        int[] axes = getAxes( header );
+        if ( axes == null ) {
+            return null;
+        }
+        long count = 1L;
+        for ( int i = 0; i < axes.length; i++ ) {
+            count *= axes[i];
+        }
+        if ( count > Integer.MAX_VALUE ) {
+            throw new FitsException( "Image too large (" + count +
+                                     " values)" );
+        }
+        //  Check the type is known before any reads.
+        int bitpix = header.getIntValue( "BITPIX", 0 );
+        view( ByteBuffer.allocate( 0 ), bitpix );
+        return new ImageAccess( file, length, lastModified, checksum,
+                                offsets.get( hdu ).longValue(),
+                                (int) count, bitpix, header );
+    }
+
+    /**
+     * Get a view of big-endian bytes as the type given by BITPIX.
+     */
+    protected static Buffer view( ByteBuffer bytes, int bitpix )
+        throws FitsException
+    {
+        //  FITS data is big-endian, the default order of a ByteBuffer.
+        switch ( bitpix ) {
+            case BasicHDU.BITPIX_BYTE:
+                return bytes;
+            case BasicHDU.BITPIX_SHORT:
+                return bytes.asShortBuffer();
+            case BasicHDU.BITPIX_INT:
+                return bytes.asIntBuffer();
+            case BasicHDU.BITPIX_LONG:
+                return bytes.asLongBuffer();
+            case BasicHDU.BITPIX_FLOAT:
+                return bytes.asFloatBuffer();
+            case BasicHDU.BITPIX_DOUBLE:
+                return bytes.asDoubleBuffer();
+            default:
+                throw new FitsException( "Unknown BITPIX type " + bitpix );
+        }
+    }
+
+    /**
+     * Wrap a primitive array as a Buffer.
+     */
+    protected static Buffer wrap( Object array )
+    {
+        if ( array instanceof byte[] ) {
+            return ByteBuffer.wrap( (byte[]) array );
+        }
+        if ( array instanceof short[] ) {
+            return ShortBuffer.wrap( (short[]) array );
+        }
+        if ( array instanceof int[] ) {
+            return IntBuffer.wrap( (int[]) array );
+        }
+        if ( array instanceof long[] ) {
+            return LongBuffer.wrap( (long[]) array );
+        }
+        if ( array instanceof float[] ) {
+            return FloatBuffer.wrap( (float[]) array );
+        }
+        if ( array instanceof double[] ) {
+            return DoubleBuffer.wrap( (double[]) array );
+        }
+        return null;
+    }
+
+    /**
+     * Access to the data values of an image HDU, either held in a Buffer of
+     * the type given by BITPIX, or read from a file as needed. Values are
+     * converted to double precision as they are read, applying the scale
+     * and zero point. BLANK values of integer types and NaN values of
+     * floating point types become BAD values. Reads do not change the
+     * Buffer and the file is opened for each read, so an instance can be
+     * used by several threads.
+     */
+    public static class ImageAccess
+    {
+        /**
+         * Largest number of bytes read at once.
+         */
+        private static final int BLOCK_BYTES = 1024 * 1024;
+
+        private final Buffer buffer;
+        private final File file;
+        private final long fileLength;
+        private final long lastModified;
+        private final long checksum;
+        private final long dataOffset;
+        private final int length;
+        private final int bitpix;
+        private final double bscale;
+        private final double bzero;
+        private final boolean haveblank;
+        private final long blank;
+
+        /**
+         * Create an instance for values held in memory.
+         */
+        protected ImageAccess( Buffer buffer, Header header )
+        {
+            this( buffer, null, 0L, 0L, 0L, 0L, buffer.limit(), 0, header );
+        }
+
+        /**
+         * Create an instance for values read from a file.
+         *
+         * @param file the file.
+         * @param fileLength length of the file when indexed.
+         * @param lastModified modification time of the file when indexed.
+         * @param checksum checksum of the first header block when indexed.
+         * @param dataOffset offset of the values in the file, bytes.
+         * @param length the number of values.
+         * @param bitpix the type of the values.
+         * @param header the header of the HDU.
+         */
+        protected ImageAccess( File file, long fileLength, long lastModified,
+                               long checksum, long dataOffset, int length,
+                               int bitpix, Header header )
+        {
+            this( null, file, fileLength, lastModified, checksum, dataOffset,
+                  length, bitpix, header );
+        }
+
+        private ImageAccess( Buffer buffer, File file, long fileLength,
+                             long lastModified, long checksum,
+                             long dataOffset, int length, int bitpix,
+                             Header header )
+        {
+            this.buffer = buffer;
+            this.file = file;
+            this.fileLength = fileLength;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+            this.dataOffset = dataOffset;
+            this.length = length;
+            this.bitpix = bitpix;
+            bscale = header.getDoubleValue( "BSCALE", 1.0 );
+            bzero = header.getDoubleValue( "BZERO", 0.0 );
+            haveblank = header.containsKey( "BLANK" );
+            blank = haveblank ? header.getLongValue( "BLANK" ) : 0L;
+        }
+
+        /**
+         * Get the number of values.
+         */
+        public int getLength()
+        {
+            return length;
+        }
+
+        /**
+         * Read consecutive values into an array.
+         *
+         * @param offset index of the first value.
+         * @param result the array to receive the values.
+         * @param start index in result of first value.
+         * @param count number of values to read.
+         * @throws FitsException if the values cannot be read from the
+         *         file, or it has been modified since it was indexed.
+         */
+        public void read( long offset, double[] result, int start,
+                          int count )
+            throws FitsException
+        {
+            if ( file == null ) {
+                convert( buffer, (int) offset, result, start, count );
+                return;
+            }
+            if ( count <= 0 ) {
+                return;
+            }
+            if ( file.length() != fileLength ||
+                 file.lastModified() != lastModified ) {
+                throw new FitsException( "FITS file " + file +
+                                         " has been modified" );
+            }
+            int size = Math.abs( bitpix ) / 8;
+            try {
+                RandomAccessFile raf = new RandomAccessFile( file, "r" );
+                try {
+                    FileChannel channel = raf.getChannel();
+                    if ( headerChecksum( channel ) != checksum ) {
+                        throw new FitsException( "FITS file " + file +
+                                                 " has been modified" );
+                    }
+                    int step = Math.max( 1, BLOCK_BYTES / size );
+                    for ( int done = 0; done < count; done += step ) {
+                        int n = Math.min( step, count - done );
+                        ByteBuffer bytes = ByteBuffer.allocate( n * size );
+                        readFully( channel, bytes,
+                                   dataOffset + ( offset + done ) * size );
+                        convert( view( bytes, bitpix ), 0, result,
+                                 start + done, n );
+                    }
+                }
+                finally {
+                    raf.close();
+                }
+            }
+            catch (IOException e) {
+                throw new FitsException( "Failed to read FITS data: " +
+                                         e.getMessage() );
+            }
+        }
+
+        /**
+         * Fill the remaining part of a ByteBuffer from a file position.
+         */
+        private static void readFully( FileChannel channel,
+                                       ByteBuffer bytes, long position )
+            throws IOException
+        {
+            while ( bytes.hasRemaining() ) {
+                int n = channel.read( bytes, position );
+                if ( n < 0 ) {
+                    throw new IOException( "Unexpected end of file" );
+                }
+                position += n;
+            }
+            bytes.rewind();
+        }
+
+        /**
+         * Convert values from a Buffer of the type given by BITPIX.
+         */
+        private void convert( Buffer buffer, int offset, double[] result,
+                              int start, int count )
+        {
+            int j = offset;
+            int end = start + count;
+            if ( buffer instanceof ByteBuffer ) {
+                ByteBuffer b = (ByteBuffer) buffer;
+                for ( int i = start; i < end; i++, j++ ) {
+                    byte v = b.get( j );
+                    result[i] = ( haveblank && v == blank ) ?
+                        SpecData.BAD : v * bscale + bzero;
+                }
+            }
+            else if ( buffer instanceof ShortBuffer ) {
+                ShortBuffer b = (ShortBuffer) buffer;
+                for ( int i = start; i < end; i++, j++ ) {
+                    short v = b.get( j );
+                    result[i] = ( haveblank && v == blank ) ?
+                        SpecData.BAD : v * bscale + bzero;
+                }
+            }
+            else if ( buffer instanceof IntBuffer ) {
+                IntBuffer b = (IntBuffer) buffer;
+                for ( int i = start; i < end; i++, j++ ) {
+                    int v = b.get( j );
+                    result[i] = ( haveblank && v == blank ) ?
+                        SpecData.BAD : v * bscale + bzero;
+                }
+            }
+            else if ( buffer instanceof LongBuffer ) {
+                LongBuffer b = (LongBuffer) buffer;
+                for ( int i = start; i < end; i++, j++ ) {
+                    long v = b.get( j );
+                    result[i] = ( haveblank && v == blank ) ?
+                        SpecData.BAD : v * bscale + bzero;
+                }
+            }
+            else if ( buffer instanceof FloatBuffer ) {
+                FloatBuffer b = (FloatBuffer) buffer;
+                for ( int i = start; i < end; i++, j++ ) {
+                    float v = b.get( j );
+                    result[i] = Float.isNaN( v ) ?
+                        SpecData.BAD : v * bscale + bzero;
+                }
+            }
+            else if ( buffer instanceof DoubleBuffer ) {
+                DoubleBuffer b = (DoubleBuffer) buffer;
+                for ( int i = start; i < end; i++, j++ ) {
+                    double v = b.get( j );
+                    result[i] = Double.isNaN( v ) ?
+                        SpecData.BAD : v * bscale + bzero;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the dimensions described by a header, reversed as by
+     * BasicHDU.getAxes. Returns null if NAXIS is 0.
+     */
+    protected static int[] getAxes( Header header )
+        throws FitsException
+    {
+        int naxis = header.getIntValue( "NAXIS", 0 );
+        if ( naxis < 0 || naxis > 999 ) {
+            throw new FitsException( "Invalid NAXIS value " + naxis );
+        }
+        if ( naxis == 0 ) {
+            return null;
+        }
+        int[] axes = new int[naxis];
+        for ( int i = 1; i <= naxis; i++ ) {
+            axes[naxis - i] = header.getIntValue( "NAXIS" + i, 0 );
+        }
+        return axes;
+    }
+
+    /**
+     * Get the size of the data described by a header, including the
+     * padding to a whole number of FITS blocks.
+     */
+    protected static long dataSize( Header header )
+    {
+        int naxis = header.getIntValue( "NAXIS", 0 );
+        if ( naxis <= 0 ) {
+            return 0L;
+        }
+
+        //  Random groups have NAXIS1 = 0, which is not a dimension.
+        int first = 1;
+        if ( header.getBooleanValue( "GROUPS", false ) &&
+             header.getIntValue( "NAXIS1", 0 ) == 0 ) {
+            first = 2;
+        }
+        long size = 1L;
+        for ( int i = first; i <= naxis; i++ ) {
+            size *= header.getLongValue( "NAXIS" + i, 0L );
+        }
+        size += header.getLongValue( "PCOUNT", 0L );
+        size *= header.getLongValue( "GCOUNT", 1L );
+        size *= Math.abs( header.getIntValue( "BITPIX", 0 ) ) / 8;
+
+        long remainder = size % 2880L;
+        if ( remainder > 0 ) {
+            size += 2880L - remainder;
+        }
+        return size;
+    }
+}
@@ -6,6 +6,12 @@
  *       Original version.
  *     08-MAR-2002 (Peter W. Draper):
  *       Changed to nom.tam.fits version 0.93
+ *     17-OCT-2026:
+ *       Access HDUs through a FITSFileIndex, so that only the headers
+ *       and the data of the selected HDU are read.
+ *     17-OCT-2026:
+ *       Data of local files are read with positional reads, not mapped,
+ *       so the file can be saved over.
  */
 package uk.ac.starlink.splat.data;
 
@@ -17,8 +23,6 @@ import nom.tam.fits.Fits;
 import nom.tam.fits.FitsException;
 import nom.tam.fits.Header;
 import nom.tam.fits.HeaderCard;
-import nom.tam.fits.ImageData;
-import nom.tam.util.ArrayFuncs;
 import nom.tam.util.BufferedDataOutputStream;
 import nom.tam.util.Cursor;
 
@@ -137,6 +141,17 @@ public class FITSSpecDataImpl
         }
     }
 
+    /**
+     * Return the number of HDUs in the FITS file.
+     */
+    public int getHDUCount()
+    {
+        if ( fitsIndex == null ) {
+            return 0;
+        }
+        return fitsIndex.getHDUCount();
+    }
+
     /**
      * Return a symbolic name. This is value of the "OBJECT" card, if
      * present.
@@ -218,10 +233,9 @@ public class FITSSpecDataImpl
     {
         if ( clonedHeader == null ) {
             if ( header == null ) {
-                if ( hdurefs != null ) {
-                    if ( hdurefs[hdunum] != null ) {
-                        header = hdurefs[hdunum].getHeader();
-                    }
+                if ( fitsIndex != null &&
+                     hdunum < fitsIndex.getHDUCount() ) {
+                    header = fitsIndex.getHeader( hdunum );
                 }
             }
             if ( header == null ) {
@@ -237,14 +251,19 @@ public class FITSSpecDataImpl
 //
 
     /**
-     * Reference to Fits object.
+     * Reference to Fits object, used when writing.
      */
     protected Fits fitsref = null;
 
     /**
-     * HDU references for the current Fits object.
+     * Index of the HDUs in the FITS file.
+     */
+    protected FITSFileIndex fitsIndex = null;
+
+    /**
+     * Access to the data of the current HDU, created when first needed.
      */
-    protected BasicHDU[] hdurefs;
+    protected FITSFileIndex.ImageAccess imageAccess = null;
 
     /**
      * Current HDU number.
@@ -306,7 +325,8 @@ public class FITSSpecDataImpl
     {
         astref = null;
         fitsref = null;
-        hdurefs = null;
+        fitsIndex = null;
+        imageAccess = null;
         shortName = null;
         fullName = null;
         super.finalize();
@@ -335,26 +355,21 @@ public class FITSSpecDataImpl
             name = namer.fullname();
         }
 
+        //  Index the HDUs, this only reads the headers of local files.
+        imageAccess = null;
         try {
-            fitsref = new Fits( name );
+            fitsIndex = FITSFileIndex.getIndex( name );
         }
         catch ( Exception e ) {
-            fitsref = null;
-            throw new SplatException( e );
-        }
-
-        try {
-            hdurefs = fitsref.read();
-        }
-        catch ( Exception e ) {
-            hdurefs = null;
+            fitsIndex = null;
             throw new SplatException( e );
         }
 
         //  Get short name.
-        String shortName = hdurefs[0].getObject();
+        String shortName =
+            fitsIndex.getHeader( 0 ).getStringValue( "OBJECT" );
         if ( shortName != null ) {
-            this.shortName = shortName;
+            this.shortName = shortName.trim();
         }
         else {
             shortName = fileName;
@@ -591,150 +606,36 @@ public class FITSSpecDataImpl
 
     /**
      * Get a copy of the FITS spectrum data in double precision.
+     * BSCALE and BZERO are applied and BLANK and NaN values are
+     * converted into BAD.
      */
     protected double[] getDataCopy()
         throws FitsException
     {
-        double[] spectrum = null;
-        if ( hdunum < hdurefs.length ) {
-
-            //  Get the data, converting to a 1D array if needed.
-            ImageData fitsdata = (ImageData) hdurefs[hdunum].getData();
-            Object rawdata = fitsdata.getData();
-            Object rawspec = ArrayFuncs.flatten( rawdata );
-
-            //  Get the data format.
-            int bitpix = 0;
-            bitpix = hdurefs[hdunum].getBitPix();
-
-            //  Get the BSCALE and BZERO values.
-            double bscale = hdurefs[hdunum].getBScale();
-            double bzero = hdurefs[hdunum].getBZero();
-
-            //  Get the BLANK value, note if none present.
-            int blank = 0;
-            boolean haveblank = true;
-            try {
-                blank = hdurefs[hdunum].getBlankValue();
-            }
-            catch ( FitsException e ) {
-                haveblank = false;
-            }
-
-            //  Convert the data to double, applying BSCALE and BZERO
-            //  and converting BLANK and NaN values into BAD.
-            switch ( bitpix ) {
-               case BasicHDU.BITPIX_BYTE: {
-                   byte[] arr = (byte[]) rawspec;
-                   spectrum = new double[arr.length];
-                   if ( haveblank ) {
-                       for ( int i = 0; i < arr.length; i++ ) {
-                           if ( arr[i] == blank ) {
-                               spectrum[i] = SpecData.BAD;
-                           } else {
-                               spectrum[i] = arr[i] * bscale + bzero;
-                           }
-                       }
-                   }
-                   else {
-                       for ( int i = 0; i < arr.length; i++ ) {
-                           spectrum[i] = arr[i] * bscale + bzero;
-                       }
-                   }
-               }
-               break;
-               case BasicHDU.BITPIX_DOUBLE: {
-                   double[] arr = (double[]) rawspec;
-                   spectrum = new double[arr.length];
-                   for ( int i = 0; i < arr.length; i++ ) {
-                       if ( Double.isNaN( arr[i] ) ) {
-                           spectrum[i] = SpecData.BAD;
-                       }
-                       else {
-                           spectrum[i] = arr[i] * bscale + bzero;
-                       }
-                   }
-               }
-               break;
-               case BasicHDU.BITPIX_FLOAT: {
-                   float[] arr = (float[]) rawspec;
-                   spectrum = new double[arr.length];
-                   for ( int i = 0; i < arr.length; i++ ) {
-                       if ( Float.isNaN( arr[i] ) ) {
-                           spectrum[i] = SpecData.BAD;
-                       }
-                       else {
-                           spectrum[i] = arr[i] * bscale + bzero;
-                       }
-                   }
-               }
-               break;
-               case BasicHDU.BITPIX_INT: {
-                   int[] arr = (int[]) rawspec;
-                   spectrum = new double[arr.length];
-                   if ( haveblank ) {
-                       for ( int i = 0; i < arr.length; i++ ) {
-                           if ( arr[i] == blank ) {
-                               spectrum[i] = SpecData.BAD;
-                           }
-                           else {
-                               spectrum[i] = arr[i] * bscale + bzero;
-                           }
-                       }
-                   } else {
-                       for ( int i = 0; i < arr.length; i++ ) {
-                           spectrum[i] = arr[i] * bscale + bzero;
-                       }
-                   }
-               }
-               break;
-               case BasicHDU.BITPIX_LONG: {
-                   long[] arr = (long[]) rawspec;
-                   spectrum = new double[arr.length];
-                   if ( haveblank ) {
-                       for ( int i = 0; i < arr.length; i++ ) {
-                           if ( arr[i] == blank ) {
-                               spectrum[i] = SpecData.BAD;
-                           }
-                           else {
-                               spectrum[i] = arr[i] * bscale + bzero;
-                           }
-                       }
-                   }
-                   else {
-                       for ( int i = 0; i < arr.length; i++ ) {
-                           spectrum[i] = arr[i] * bscale + bzero;
-                       }
-                   }
-               }
-               break;
-               case BasicHDU.BITPIX_SHORT: {
-                   short[] arr = (short[]) rawspec;
-                   spectrum = new double[arr.length];
-                   if ( haveblank ) {
-                       for ( int i = 0; i < arr.length; i++ ) {
-                           if ( arr[i] == blank ) {
-                               spectrum[i] = SpecData.BAD;
-                           }
-                           else {
-                               spectrum[i] = arr[i] * bscale + bzero;
-                           }
-                       }
-                   }
-                   else {
-                       for ( int i = 0; i < arr.length; i++ ) {
-                           spectrum[i] = arr[i] * bscale + bzero;
-                       }
-                   }
-               }
-               break;
-               default: {
-               }
-            }
+        FITSFileIndex.ImageAccess access = getImageAccess();
+        if ( access == null ) {
+            return null;
         }
+        double[] spectrum = new double[access.getLength()];
+        access.read( 0L, spectrum, 0, spectrum.length );
         return spectrum;
     }
 
+    /**
+     * Get the access to the data of the current HDU. The data of local
+     * files are read when requested, so this does not read them.
+     *
+     * @return the access, null if the HDU has no data.
+     */
+    protected FITSFileIndex.ImageAccess getImageAccess()
+        throws FitsException
+    {
+        if ( imageAccess == null && hdunum < fitsIndex.getHDUCount() ) {
+            imageAccess = fitsIndex.getImageAccess( hdunum );
+        }
+        return imageAccess;
+    }
+
     /**
      * Create an AST frameset from the FITS headers. If fails then a
      * simple null mapping is used instead.
@@ -742,7 +643,7 @@ public class FITSSpecDataImpl
     protected FrameSet createAstSet()
     {
         //  Access the FITS header block (TODO: merge with primary?).
-        Header header = hdurefs[hdunum].getHeader();
+        Header header = getFitsHeaders();
 
         //  Check for known non-standard formats (far too many of those it
         //  seems).
@@ -847,11 +748,11 @@ public class FITSSpecDataImpl
      */
     protected int[] getDataDims()
     {
-        if ( hdunum < hdurefs.length ) {
+        if ( hdunum < fitsIndex.getHDUCount() ) {
 
             //  Query the current HDU.
             try {
-                int[] dims = hdurefs[hdunum].getAxes();
+                int[] dims = fitsIndex.getAxes( hdunum );
                 if ( dims != null ) {
                     int ndims = dims.length;
                     if ( ndims > 1 ) {
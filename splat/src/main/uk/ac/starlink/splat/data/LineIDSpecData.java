@@ -5,6 +5,9 @@
  *  History:
  *     11-APR-2003 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Only consider labels in the visible range, using an index of the
+ *       coordinates, and optionally remove overlapping labels.
  */
 package uk.ac.starlink.splat.data;
 
@@ -15,7 +18,12 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
+import uk.ac.starlink.ast.AstObject;
 import uk.ac.starlink.ast.Grf;
 import uk.ac.starlink.ast.Plot;
 import uk.ac.starlink.ast.Mapping;
@@ -29,6 +37,13 @@ import uk.ac.starlink.splat.ast.ASTChannel;
  * A type of EditableSpecData that draws a string at a "spectral"
  * position. The expected use of these facilities is for identifying
  * line positions as a string with a more accurate vertical bars.
+ * <p>
+ * Line lists can be very long, so only the labels within the visible
+ * coordinate range are positioned and drawn. These are found using an
+ * index of the coordinates sorted into increasing order. Labels that
+ * would overlap along the X axis at the current zoom can also be removed,
+ * keeping those with the highest priority, see {@link #setCullLabels}
+ * and {@link #setPriorities}.
  *
  * @author Peter W. Draper
  * @version $Id$
@@ -109,6 +124,39 @@ public class LineIDSpecData
      */
     private int drawn = 0;
 
+    /**
+     * Whether to remove labels that overlap labels with a higher priority.
+     */
+    private boolean cullLabels = false;
+
+    /**
+     * The priorities of the labels, null for the default.
+     */
+    private double[] priorities = null;
+
+    /**
+     * Smallest space between labels, in graphics coordinates, when
+     * removing overlapping labels.
+     */
+    private static final double LABEL_GAP = 2.0;
+
+    /**
+     * Indices of the non-BAD coordinates in increasing coordinate order,
+     * the sorted coordinates and the coordinate array they are for.
+     */
+    private transient int[] coordIndex = null;
+    private transient double[] sortedCoords = null;
+    private transient double[] indexedCoords = null;
+
+    /**
+     * The X and Y extents of labels in graphics coordinates, with the text
+     * size, font and orientation they were measured for.
+     */
+    private transient Map<String,double[]> labelExtents = null;
+    private transient double extentSize = 0.0;
+    private transient double extentFont = 0.0;
+    private transient boolean extentHorizontal = false;
+
     /* TODO: Undoable support */
 
     /**
@@ -185,6 +233,7 @@ public class LineIDSpecData
         if ( impl != null && impl instanceof LineIDSpecDataImpl ) {
             ((LineIDSpecDataImpl)impl).setLabels( labels );
         }
+        labelExtents = null;
     }
 
     /**
@@ -275,6 +324,252 @@ public class LineIDSpecData
         }
     }
 
+    /**
+     * Set whether to remove labels that would overlap a label with a
+     * higher priority along the X axis.
+     */
+    public void setCullLabels( boolean cullLabels )
+    {
+        this.cullLabels = cullLabels;
+    }
+
+    /**
+     * Get whether labels that would overlap are removed.
+     */
+    public boolean isCullLabels()
+    {
+        return cullLabels;
+    }
+
+    /**
+     * Set the priorities of the labels, one per line. When overlapping
+     * labels are removed those with the higher priority are kept. If null
+     * the data values are used as the priorities, when available,
+     * otherwise all labels have the same priority and those with lower
+     * coordinates are kept.
+     */
+    public void setPriorities( double[] priorities )
+    {
+        this.priorities = priorities;
+    }
+
+    /**
+     * Get the priorities of the labels. Null if not set.
+     */
+    public double[] getPriorities()
+    {
+        return priorities;
+    }
+
+    /**
+     * Get the indices of the labels whose coordinates lie within a range,
+     * in increasing coordinate order.
+     *
+     * @param lower the lower limit of the range.
+     * @param upper the upper limit of the range.
+     * @return the indices.
+     */
+    public int[] getVisibleIndices( double lower, double upper )
+    {
+        if ( coordIndex == null || indexedCoords != xPos ) {
+            makeCoordIndex();
+        }
+
+        //  First coordinate not less than lower and first greater than
+        //  upper.
+        int first = search( lower, false );
+        int last = search( upper, true );
+        int[] indices = new int[Math.max( 0, last - first )];
+        System.arraycopy( coordIndex, first, indices, 0, indices.length );
+        return indices;
+    }
+
+    /**
+     * Binary search of the sorted coordinates. Returns the index of the
+     * first coordinate greater than, or if not after, not less than the
+     * value.
+     */
+    private int search( double value, boolean after )
+    {
+        int low = 0;
+        int high = sortedCoords.length;
+        int mid;
+        while ( low < high ) {
+            mid = ( low + high ) >>> 1;
+            if ( sortedCoords[mid] < value ||
+                 ( after && sortedCoords[mid] == value ) ) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Create the index of coordinates sorted into increasing order.
+     */
+    private void makeCoordIndex()
+    {
+        final double[] coords = xPos;
+        int n = 0;
+        boolean sorted = true;
+        double last = -Double.MAX_VALUE;
+        for ( int i = 0; i < coords.length; i++ ) {
+            if ( coords[i] != BAD ) {
+                if ( coords[i] < last ) {
+                    sorted = false;
+                }
+                last = coords[i];
+                n++;
+            }
+        }
+
+        //  Line lists are usually sorted already, otherwise sort the
+        //  indices.
+        int[] index = new int[n];
+        n = 0;
+        for ( int i = 0; i < coords.length; i++ ) {
+            if ( coords[i] != BAD ) {
+                index[n++] = i;
+            }
+        }
+        if ( ! sorted ) {
+            Integer[] order = new Integer[n];
+            for ( int i = 0; i < n; i++ ) {
+                order[i] = Integer.valueOf( index[i] );
+            }
+            Arrays.sort( order, new Comparator<Integer>()
+                {
+                    public int compare( Integer a, Integer b )
+                    {
+                        return Double.compare( coords[a.intValue()],
+                                               coords[b.intValue()] );
+                    }
+                });
+            for ( int i = 0; i < n; i++ ) {
+                index[i] = order[i].intValue();
+            }
+        }
+        double[] sortedValues = new double[n];
+        for ( int i = 0; i < n; i++ ) {
+            sortedValues[i] = coords[index[i]];
+        }
+        coordIndex = index;
+        sortedCoords = sortedValues;
+        indexedCoords = coords;
+    }
+
+    /**
+     * Get the X and Y extents of a label in graphics coordinates. These
+     * are cached, as measuring text is slow.
+     */
+    private double[] getLabelExtent( DefaultGrf grf, String label )
+    {
+        double size = grf.attribute( Grf.GRF__SIZE, AstObject.AST__BAD,
+                                     Grf.GRF__TEXT );
+        double font = grf.attribute( Grf.GRF__FONT, AstObject.AST__BAD,
+                                     Grf.GRF__TEXT );
+        if ( labelExtents == null || size != extentSize ||
+             font != extentFont || horizontal != extentHorizontal ) {
+            labelExtents = new HashMap<String,double[]>();
+            extentSize = size;
+            extentFont = font;
+            extentHorizontal = horizontal;
+        }
+        double[] extent = labelExtents.get( label );
+        if ( extent == null ) {
+            double[] bbox = grf.textExtent( label, 0.0, 0.0, "CC",
+                                            upVector[0], upVector[1] );
+            extent = new double[2];
+            extent[0] = Math.max( Math.max( bbox[0], bbox[2] ),
+                                  Math.max( bbox[4], bbox[6] ) ) -
+                        Math.min( Math.min( bbox[0], bbox[2] ),
+                                  Math.min( bbox[4], bbox[6] ) );
+            extent[1] = bbox[5] - bbox[1];
+            labelExtents.put( label, extent );
+        }
+        return extent;
+    }
+
+    /**
+     * Choose which labels to draw so that none overlap along the X axis.
+     * Labels are accepted in order of decreasing priority, when they do
+     * not overlap any label already accepted.
+     *
+     * @param plot the Plot, used to transform positions into graphics
+     *             coordinates.
+     * @param visible the indices of the labels.
+     * @param xypos the positions of the labels.
+     * @param widths the X extents of the labels in graphics coordinates.
+     * @return whether to draw each label.
+     */
+    protected boolean[] cull( Plot plot, int[] visible, double[] xypos,
+                              double[] widths )
+    {
+        int n = visible.length;
+        boolean[] show = new boolean[n];
+        double[] xin = new double[n];
+        double[] yin = new double[n];
+        for ( int i = 0, j = 0; i < n; i++, j += 2 ) {
+            xin[i] = xypos[j];
+            yin[i] = xypos[j + 1];
+        }
+        final double[] gx = plot.tran2( n, xin, yin, false )[0];
+
+        //  Priorities of the visible labels. The sort is stable, so equal
+        //  priorities remain in coordinate order.
+        double[] prios = priorities;
+        if ( prios == null && haveDataPositions() ) {
+            prios = yPos;
+        }
+        final double[] p = new double[n];
+        Integer[] order = new Integer[n];
+        for ( int i = 0; i < n; i++ ) {
+            order[i] = Integer.valueOf( i );
+            if ( prios != null && visible[i] < prios.length &&
+                 prios[visible[i]] != BAD ) {
+                p[i] = prios[visible[i]];
+            }
+            else {
+                p[i] = -Double.MAX_VALUE;
+            }
+        }
+        if ( prios != null ) {
+            Arrays.sort( order, new Comparator<Integer>()
+                {
+                    public int compare( Integer a, Integer b )
+                    {
+                        return Double.compare( p[b.intValue()],
+                                               p[a.intValue()] );
+                    }
+                });
+        }
+
+        //  Accepted labels as disjoint intervals, keyed by their lower
+        //  bounds.
+        TreeMap<Double,Double> accepted = new TreeMap<Double,Double>();
+        for ( int k = 0; k < n; k++ ) {
+            int i = order[k].intValue();
+            if ( gx[i] == BAD ) {
+                show[i] = true;
+                continue;
+            }
+            double half = 0.5 * widths[i] + LABEL_GAP;
+            double lower = gx[i] - half;
+            double upper = gx[i] + half;
+            Map.Entry<Double,Double> below =
+                accepted.floorEntry( Double.valueOf( upper ) );
+            if ( below == null || below.getValue().doubleValue() < lower ) {
+                accepted.put( Double.valueOf( lower ),
+                              Double.valueOf( upper ) );
+                show[i] = true;
+            }
+        }
+        return show;
+    }
+
     /**
      * Return if the backing implementation has valid positions for
      * the labels.
@@ -287,6 +582,15 @@ public class LineIDSpecData
         return false;
     }
 
+    //  Override readData to discard the index of the coordinates.
+    protected void readData()
+        throws SplatException
+    {
+        super.readData();
+        coordIndex = null;
+        labelExtents = null;
+    }
+
     // Override setRange as the typical line id spectrum will not have data
     // values.
     public void setRange()
@@ -402,8 +706,11 @@ public class LineIDSpecData
             limits[1] = clipLimits[2];
         }
 
-        //  Get all labels.
+        //  Get all labels and the indices of those within the X limits,
+        //  only these are considered.
         String[] labels = getLabels();
+        int[] visible = getVisibleIndices( limits[0], limits[1] );
+        int nvis = visible.length;
 
         //  A shift from the baseline in graphics coords.
         double yshift = 0.2 * Math.abs( ( clipLimits[3] - clipLimits[1] ) );
@@ -420,7 +727,7 @@ public class LineIDSpecData
         //  schemes for this are use any positions read from the
         //  implementation, use the positions from a SpecData and finally
         //  put them along the top or bottom of the given limits.
-        double[] xypos = new double[xPos.length * 2];
+        double[] xypos = new double[nvis * 2];
         double[] ypos = yPos;
         if ( specData != null ) {
             ypos = specData.getYData();
@@ -431,7 +738,8 @@ public class LineIDSpecData
 
             if ( specData == null ) {
                 // Our data positions, i.e. haveDataPositions and no specData.
-                for ( int i = 0, j = 0; j < xPos.length; j++, i += 2 ) {
+                for ( int i = 0, k = 0; k < nvis; k++, i += 2 ) {
+                    int j = visible[k];
                     xypos[i] = xPos[j];
                     if ( ypos[j] == BAD ) {
                         xypos[i + 1] = defaultPos;
@@ -445,7 +753,8 @@ public class LineIDSpecData
                 // Not matching coordinates. So spectra all in same
                 // coordinates and data units, or it goes wrong (tough).
                 int[] bound;
-                for ( int i = 0, j = 0; j < xPos.length; j++, i += 2 ) {
+                for ( int i = 0, k = 0; k < nvis; k++, i += 2 ) {
+                    int j = visible[k];
 
                     //  Find nearest coordinate in other spectrum.
                     bound = specData.bound( xPos[j] );
@@ -466,7 +775,8 @@ public class LineIDSpecData
                 double[] inpos = new double[2];
                 double[][] tmp = null;
                 int[] bound;
-                for ( int i = 0, j = 0; j < xPos.length; j++, i += 2 ) {
+                for ( int i = 0, k = 0; k < nvis; k++, i += 2 ) {
+                    int j = visible[k];
 
                     //  Need index of a coordinate of specData near to our
                     //  coordinate. So transform our coordinate to world
@@ -497,8 +807,8 @@ public class LineIDSpecData
         }
         else {
             // Generate data positions relative to the limits.
-            for ( int i = 0, j = 0; j < xPos.length; j++, i += 2 ) {
-                xypos[i] = xPos[j];
+            for ( int i = 0, k = 0; k < nvis; k++, i += 2 ) {
+                xypos[i] = xPos[visible[k]];
                 xypos[i + 1] = defaultPos;
             }
         }
@@ -563,65 +873,53 @@ public class LineIDSpecData
             scales[1] = Math.abs( tmp[1][1] - tmp[1][0] );
         }
 
-        double[] pos = new double[2];
-        if ( onlyShortName ) {
-            String label = prefixName + post;
-
-            //  Positions for vertical lines.
-            double shift = 0.0;
-            if ( showVerticalMarks ) {
-                double[] extent = defaultGrf.textExtent( label, 0.0,
-                                                         0.0, "CC",
-                                                         upVector[0],
-                                                         upVector[1] );
-                shift = ( extent[5] - extent[1] ) * scales[1] * 0.75;
+        //  The labels.
+        String[] text = new String[nvis];
+        for ( int k = 0; k < nvis; k++ ) {
+            if ( onlyShortName ) {
+                text[k] = prefixName + post;
             }
-
-            for ( int i = 0, j = 0; i < labels.length; i++, j += 2 ) {
-                pos[0] = xypos[j];
-
-                //  Don't display if clipped along X axis.
-                if ( pos[0] >= limits[0] && pos[0] <= limits[1] ) {
-                    drawn++;
-                    pos[1] = xypos[j+1];
-                    plot.text( label, pos, upVector, "CC" );
-                    if ( showVerticalMarks ) {
-                        pos[1] = xypos[j+1] + shift;
-                        plot.gridLine( 2, pos, lineLength );
-                        pos[1] = xypos[j+1] - shift;
-                        plot.gridLine( 2, pos, -lineLength );
-                    }
-               }
+            else {
+                text[k] = pre + labels[visible[k]] + post;
             }
         }
-        else {
-            String label = null;
-            double shift = 0.0;
-            for ( int i = 0, j = 0; i < labels.length; i++, j += 2 ) {
-                pos[0] = xypos[j];
-
-                //  Don't display if clipped along X axis.
-                if ( pos[0] >= limits[0] && pos[0] <= limits[1] ) {
-                    drawn++;
-                    label = pre + labels[i] + post;
-                    pos[1] = xypos[j+1];
-                    plot.text( label, pos, upVector, "CC" );
-
-                    if ( showVerticalMarks ) {
-                        //  Get size of text as was drawn. Use to position
-                        //  the vertical lines.
-                        double[] extent = defaultGrf.textExtent( label, 0.0,
-                                                                 0.0, "CC",
-                                                                 upVector[0],
-                                                                 upVector[1] );
-                        shift = ( extent[5] - extent[1] ) * scales[1] * 0.75;
-
-                        pos[1] = xypos[j+1] + shift;
-                        plot.gridLine( 2, pos, lineLength );
-                        pos[1] = xypos[j+1] - shift;
-                        plot.gridLine( 2, pos, -lineLength );
-                    }
+
+        //  Remove any overlapping labels. Measuring text is slow and
+        //  vertical labels all have the same width, so only horizontal
+        //  labels are measured individually.
+        boolean[] show = null;
+        if ( cullLabels && nvis > 1 ) {
+            double[] widths = new double[nvis];
+            double width = getLabelExtent( defaultGrf, "Ag" )[0];
+            for ( int k = 0; k < nvis; k++ ) {
+                if ( horizontal ) {
+                    width = getLabelExtent( defaultGrf, text[k] )[0];
                 }
+                widths[k] = width;
+            }
+            show = cull( plot, visible, xypos, widths );
+        }
+
+        double[] pos = new double[2];
+        double shift = 0.0;
+        for ( int k = 0, j = 0; k < nvis; k++, j += 2 ) {
+            if ( show != null && ! show[k] ) {
+                continue;
+            }
+            drawn++;
+            pos[0] = xypos[j];
+            pos[1] = xypos[j+1];
+            plot.text( text[k], pos, upVector, "CC" );
+
+            if ( showVerticalMarks ) {
+                //  Use the size of the text to position the vertical
+                //  lines.
+                shift = getLabelExtent( defaultGrf, text[k] )[1] *
+                    scales[1] * 0.75;
+                pos[1] = xypos[j+1] + shift;
+                plot.gridLine( 2, pos, lineLength );
+                pos[1] = xypos[j+1] - shift;
+                plot.gridLine( 2, pos, -lineLength );
             }
         }
 
@@ -0,0 +1,500 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.data;
+
+/**
+ * A multi-resolution min/max index of the values of a spectrum, used to
+ * find the range of the data in any window of coordinates without
+ * scanning all the values.
+ * <p>
+ * The values are divided into blocks of {@link #BLOCK} elements. For each
+ * block the indices of the extreme coordinate, data and data plus or minus
+ * the errors (when available) are recorded, and these blocks are then
+ * combined in pairs to form the higher levels. A query for a range of
+ * indices scans at most two partial blocks and visits two nodes per level,
+ * so it costs O(log N). When the coordinates are monotonic the indices of a
+ * coordinate window are found by binary search, otherwise the window is
+ * scanned.
+ * <p>
+ * Positions with BAD data values are ignored. The pyramid records references
+ * to the arrays, not copies, so must be updated when any values change, see
+ * {@link #update}, or recreated when the arrays are replaced.
+ *
+ * @version $Id$
+ * @see SpecData
+ */
+public class RangePyramid
+{
+    /**
+     * The number of values in each block at the lowest level.
+     */
+    public static final int BLOCK = 64;
+
+    /** Kinds of extreme recorded, the order is fixed. */
+    private static final int XMIN = 0;
+    private static final int XMAX = 1;
+    private static final int YMIN = 2;
+    private static final int YMAX = 3;
+    private static final int LOWMIN = 4;
+    private static final int HIGHMAX = 5;
+
+    /** The coordinates. */
+    private double[] x = null;
+
+    /** The data values. */
+    private double[] y = null;
+
+    /** The data errors, null if none. */
+    private double[] err = null;
+
+    /** Number of sigma used for the data plus or minus errors. */
+    private double nsigma = 1.0;
+
+    /** Number of values. */
+    private int n = 0;
+
+    /** Whether the coordinates are monotonic, and the direction. */
+    private boolean monotonic = true;
+    private boolean increasing = true;
+
+    /**
+     * The index of the extreme value of each kind, for each node of each
+     * level. Indexed by kind, level and node. -1 for a node with no good
+     * values.
+     */
+    private int[][][] levels = null;
+
+    /**
+     * Create an instance for the given arrays.
+     *
+     * @param x the coordinates.
+     * @param y the data values.
+     * @param err the data errors, null for none.
+     * @param nsigma number of errors to add and subtract from the data
+     *               values for the full range.
+     */
+    public RangePyramid( double[] x, double[] y, double[] err, double nsigma )
+    {
+        this.x = x;
+        this.y = y;
+        this.err = err;
+        this.nsigma = nsigma;
+        n = Math.min( x.length, y.length );
+        build();
+    }
+
+    /**
+     * Return if this instance was created for the given arrays and number of
+     * sigma.
+     */
+    public boolean isFor( double[] x, double[] y, double[] err, double nsigma )
+    {
+        return ( this.x == x && this.y == y && this.err == err &&
+                 this.nsigma == nsigma );
+    }
+
+    /**
+     * Return whether the coordinates are monotonic. If not coordinate
+     * windows need a scan of all the values.
+     */
+    public boolean isMonotonic()
+    {
+        return monotonic;
+    }
+
+    /**
+     * Update the pyramid after the data values or errors of a range of
+     * positions have changed. Changes to the coordinates need a new
+     * instance.
+     *
+     * @param lower first index changed.
+     * @param upper last index changed.
+     */
+    public void update( int lower, int upper )
+    {
+        lower = Math.max( 0, lower );
+        upper = Math.min( n - 1, upper );
+        if ( lower > upper ) {
+            return;
+        }
+        int lo = lower / BLOCK;
+        int hi = upper / BLOCK;
+        for ( int b = lo; b <= hi; b++ ) {
+            setBlock( b );
+        }
+        for ( int l = 1; l < levels[0].length; l++ ) {
+            lo >>= 1;
+            hi >>= 1;
+            for ( int j = lo; j <= hi; j++ ) {
+                setNode( l, j );
+            }
+        }
+    }
+
+    /**
+     * Get the indices of the minimum and maximum good data values within a
+     * range of indices.
+     *
+     * @param first the first index.
+     * @param last the last index.
+     * @return the two indices, -1 when there are no good values.
+     */
+    public int[] getDataExtremes( int first, int last )
+    {
+        first = Math.max( 0, first );
+        last = Math.min( n - 1, last );
+        if ( first > last ) {
+            return new int[] { -1, -1 };
+        }
+        int[] result = query( first, last );
+        return new int[] { result[YMIN], result[YMAX] };
+    }
+
+    /**
+     * Get the end points of the values with coordinates between two limits.
+     * These are the positions with the extreme coordinates and data values,
+     * in the same form as {@link SpecData#getXEndPoints()} and
+     * {@link SpecData#getYEndPoints()}.
+     *
+     * @param x1 one coordinate limit.
+     * @param x2 the other coordinate limit.
+     * @param full if true then the data extremes include the errors.
+     * @return two arrays, the X and Y end points, or null if there are no
+     *         good values in the window.
+     */
+    public double[][] getEndPoints( double x1, double x2, boolean full )
+    {
+        double xlow = Math.min( x1, x2 );
+        double xhigh = Math.max( x1, x2 );
+
+        int[] result;
+        if ( monotonic ) {
+            int[] window = getIndexRange( xlow, xhigh );
+            if ( window == null ) {
+                return null;
+            }
+            result = query( window[0], window[1] );
+        }
+        else {
+            result = scan( xlow, xhigh );
+        }
+        return makeEndPoints( result, full );
+    }
+
+    /**
+     * Get the end points of all the values.
+     *
+     * @param full if true then the data extremes include the errors.
+     * @return two arrays, the X and Y end points, or null if there are no
+     *         good values.
+     */
+    public double[][] getEndPoints( boolean full )
+    {
+        if ( n == 0 ) {
+            return null;
+        }
+        int top = levels[0].length - 1;
+        int[] result = new int[levels.length];
+        for ( int k = 0; k < levels.length; k++ ) {
+            result[k] = levels[k][top][0];
+        }
+        return makeEndPoints( result, full );
+    }
+
+    /**
+     * Convert the indices of the extreme values into end points.
+     */
+    private double[][] makeEndPoints( int[] result, boolean full )
+    {
+        if ( result[XMIN] == -1 ) {
+            return null;
+        }
+        double[] xEnd = new double[4];
+        xEnd[0] = x[result[XMIN]];
+        xEnd[1] = y[result[XMIN]];
+        xEnd[2] = x[result[XMAX]];
+        xEnd[3] = y[result[XMAX]];
+
+        double[] yEnd = new double[4];
+        if ( full && err != null ) {
+            yEnd[0] = x[result[LOWMIN]];
+            yEnd[1] = value( LOWMIN, result[LOWMIN] );
+            yEnd[2] = x[result[HIGHMAX]];
+            yEnd[3] = value( HIGHMAX, result[HIGHMAX] );
+        }
+        else {
+            yEnd[0] = x[result[YMIN]];
+            yEnd[1] = y[result[YMIN]];
+            yEnd[2] = x[result[YMAX]];
+            yEnd[3] = y[result[YMAX]];
+        }
+        return new double[][] { xEnd, yEnd };
+    }
+
+    /**
+     * Find the first and last indices of the coordinates within a window.
+     * Coordinates must be monotonic.
+     *
+     * @return the indices, or null if no coordinates are in the window.
+     */
+    protected int[] getIndexRange( double xlow, double xhigh )
+    {
+        int first;
+        int last;
+        if ( increasing ) {
+            first = search( xlow, false );
+            last = search( xhigh, true ) - 1;
+        }
+        else {
+            first = search( xhigh, false );
+            last = search( xlow, true ) - 1;
+        }
+        if ( first > last ) {
+            return null;
+        }
+        return new int[] { first, last };
+    }
+
+    /**
+     * Binary search for the first index whose coordinate lies beyond a
+     * value, in the direction of the coordinates. If inclusive is true
+     * coordinates equal to the value do not count as beyond it.
+     */
+    private int search( double value, boolean inclusive )
+    {
+        int lo = 0;
+        int hi = n;
+        while ( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            double c = x[mid];
+            boolean before;
+            if ( increasing ) {
+                before = inclusive ? ( c <= value ) : ( c < value );
+            }
+            else {
+                before = inclusive ? ( c >= value ) : ( c > value );
+            }
+            if ( before ) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Get the indices of the extreme values of each kind within a range of
+     * indices.
+     */
+    protected int[] query( int first, int last )
+    {
+        int[] result = new int[levels.length];
+        int b0 = first / BLOCK;
+        int b1 = last / BLOCK;
+        if ( b0 == b1 ) {
+            scan( first, last, result );
+            return result;
+        }
+
+        //  Partial blocks at the ends.
+        scan( first, ( b0 + 1 ) * BLOCK - 1, result );
+        int[] tail = new int[levels.length];
+        scan( b1 * BLOCK, last, tail );
+        combine( result, tail );
+
+        //  Complete blocks, climbing the pyramid.
+        b0++;
+        b1--;
+        for ( int l = 0; b0 <= b1; l++ ) {
+            if ( ( b0 & 1 ) == 1 ) {
+                combineNode( result, l, b0++ );
+            }
+            if ( ( b1 & 1 ) == 0 ) {
+                combineNode( result, l, b1-- );
+            }
+            b0 >>= 1;
+            b1 >>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Get the indices of the extreme values of each kind for all positions
+     * with coordinates in a window. Used when the coordinates are not
+     * monotonic.
+     */
+    private int[] scan( double xlow, double xhigh )
+    {
+        int[] result = new int[levels.length];
+        for ( int k = 0; k < result.length; k++ ) {
+            result[k] = -1;
+        }
+        for ( int i = 0; i < n; i++ ) {
+            if ( x[i] >= xlow && x[i] <= xhigh ) {
+                include( result, i );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Set the indices of the extreme values of each kind for a range of
+     * indices, by scanning.
+     */
+    private void scan( int first, int last, int[] result )
+    {
+        for ( int k = 0; k < result.length; k++ ) {
+            result[k] = -1;
+        }
+        for ( int i = first; i <= last; i++ ) {
+            include( result, i );
+        }
+    }
+
+    /**
+     * Include a position in the extremes.
+     */
+    private void include( int[] result, int i )
+    {
+        if ( y[i] == SpecData.BAD ) {
+            return;
+        }
+        for ( int k = 0; k < result.length; k++ ) {
+            result[k] = better( k, result[k], i );
+        }
+    }
+
+    /**
+     * Combine the extremes of two sets of indices into the first.
+     */
+    private void combine( int[] result, int[] other )
+    {
+        for ( int k = 0; k < result.length; k++ ) {
+            result[k] = better( k, result[k], other[k] );
+        }
+    }
+
+    /**
+     * Combine the extremes of a node into a set of indices.
+     */
+    private void combineNode( int[] result, int level, int node )
+    {
+        for ( int k = 0; k < result.length; k++ ) {
+            result[k] = better( k, result[k], levels[k][level][node] );
+        }
+    }
+
+    /**
+     * Return the index of the more extreme of two values of a kind. Either
+     * index may be -1.
+     */
+    private int better( int kind, int i, int j )
+    {
+        if ( i == -1 ) {
+            return j;
+        }
+        if ( j == -1 ) {
+            return i;
+        }
+        double vi = value( kind, i );
+        double vj = value( kind, j );
+        if ( ( kind & 1 ) == 0 ) {
+            return ( vj < vi ) ? j : i;
+        }
+        return ( vj > vi ) ? j : i;
+    }
+
+    /**
+     * Value of a kind at an index.
+     */
+    private double value( int kind, int i )
+    {
+        switch ( kind ) {
+            case XMIN:
+            case XMAX:
+                return x[i];
+            case LOWMIN:
+                return y[i] - err[i] * nsigma;
+            case HIGHMAX:
+                return y[i] + err[i] * nsigma;
+            default:
+                return y[i];
+        }
+    }
+
+    /**
+     * Build all the levels.
+     */
+    private void build()
+    {
+        //  Check for monotonic coordinates.
+        boolean up = true;
+        boolean down = true;
+        for ( int i = 1; i < n && ( up || down ); i++ ) {
+            if ( x[i] < x[i-1] ) {
+                up = false;
+            }
+            else if ( x[i] > x[i-1] ) {
+                down = false;
+            }
+        }
+        monotonic = up || down;
+        increasing = up;
+
+        int nkind = ( err == null ) ? 4 : 6;
+        int nblock = Math.max( 1, ( n + BLOCK - 1 ) / BLOCK );
+        int nlevel = 1;
+        for ( int size = nblock; size > 1; size = ( size + 1 ) / 2 ) {
+            nlevel++;
+        }
+        levels = new int[nkind][nlevel][];
+        for ( int l = 0, size = nblock; l < nlevel;
+              l++, size = ( size + 1 ) / 2 ) {
+            for ( int k = 0; k < nkind; k++ ) {
+                levels[k][l] = new int[size];
+            }
+        }
+
+        for ( int b = 0; b < nblock; b++ ) {
+            setBlock( b );
+        }
+        for ( int l = 1; l < nlevel; l++ ) {
+            for ( int j = 0; j < levels[0][l].length; j++ ) {
+                setNode( l, j );
+            }
+        }
+    }
+
+    /**
+     * Set the extremes of a block at the lowest level.
+     */
+    private void setBlock( int b )
+    {
+        int[] result = new int[levels.length];
+        scan( b * BLOCK, Math.min( n, ( b + 1 ) * BLOCK ) - 1, result );
+        for ( int k = 0; k < levels.length; k++ ) {
+            levels[k][0][b] = result[k];
+        }
+    }
+
+    /**
+     * Set the extremes of a node from its children.
+     */
+    private void setNode( int level, int j )
+    {
+        int c = 2 * j;
+        boolean pair = ( c + 1 < levels[0][level-1].length );
+        for ( int k = 0; k < levels.length; k++ ) {
+            int[] below = levels[k][level-1];
+            levels[k][level][j] =
+                pair ? better( k, below[c], below[c+1] ) : below[c];
+        }
+    }
+}
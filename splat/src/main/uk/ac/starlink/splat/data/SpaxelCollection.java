@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ *     17-OCT-2026:
+ *        Spectra are created on demand and kept in a bounded cache, so
+ *        the collection can be added to the global list.
+ */
+package uk.ac.starlink.splat.data;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import uk.ac.starlink.ast.FrameSet;
+import uk.ac.starlink.splat.ast.ASTJ;
+import uk.ac.starlink.splat.util.SplatException;
+
+/**
+ * The collection of spectra that can be extracted along the dispersion
+ * axis of a 2D image or 3D cube, such as the spaxels of an IFU cube.
+ * <p>
+ * The FrameSet for the dispersion axis is only extracted from the parent
+ * once. Each spectrum is given its own copy of it, so the spectra can
+ * change their coordinate systems independently.
+ * <p>
+ * The spectra are indexed in the same order as they are returned by
+ * {@link SpecDataFactory#reprocessTo1D} when extracting, so for a cube
+ * the index runs fastest along the select axis.
+ * <p>
+ * A cube may have many thousands of spaxels, so {@link #getSpectrum}
+ * only creates a spectrum when it is first requested. The most recently
+ * used spectra are kept in a cache of bounded size. A spectrum that is
+ * still referenced elsewhere, for instance by a plot, is always returned
+ * again for its index, so changes to it are not lost while it is in use.
+ *
+ * @version $Id$
+ * @see ExtractedSpecDataImpl
+ */
+public class SpaxelCollection
+{
+    /**
+     * The default number of spectra kept in the cache.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 64;
+
+    /**
+     * Interface for initialising each spectrum when it is created, for
+     * instance to apply the rendering defaults. As spectra may be created
+     * again, after being released, this should give the same results
+     * each time for an index.
+     */
+    public interface Initialiser
+    {
+        /**
+         * Initialise a newly created spectrum.
+         *
+         * @param spectrum the spectrum.
+         * @param index the index of the spectrum in the collection.
+         */
+        public void initialise( SpecData spectrum, int index );
+    }
+
+    /**
+     * The 2D or 3D spectrum.
+     */
+    private SpecData parent = null;
+
+    /**
+     * The dimensions and chosen axes of the parent.
+     */
+    private SpecDims specDims = null;
+
+    /**
+     * Number of positions along the select and free axes. The free axis
+     * has length 1 for 2D data.
+     */
+    private int steplength = 0;
+    private int otherlength = 1;
+
+    /**
+     * The FrameSet of the dispersion axis, copied for each spectrum.
+     */
+    private FrameSet frameSet = null;
+
+    /**
+     * The positions of the spectra in the parent, if only a subset are
+     * used, otherwise null.
+     */
+    private int[] positions = null;
+
+    /**
+     * The initialiser for new spectra, may be null.
+     */
+    private Initialiser initialiser = null;
+
+    /**
+     * The full name shared by all the spectra, once known.
+     */
+    private String fullName = null;
+
+    /**
+     * The maximum number of spectra kept in the cache.
+     */
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /**
+     * The most recently used spectra, least recently used first.
+     */
+    private LinkedHashMap<Integer,SpecData> cache =
+        new LinkedHashMap<Integer,SpecData>( 32, 0.75f, true )
+    {
+        protected boolean removeEldestEntry( Map.Entry<Integer,SpecData> e )
+        {
+            return size() > cacheSize;
+        }
+    };
+
+    /**
+     * All the spectra that have been created and may still be in use,
+     * and the index of each one.
+     */
+    private Map<Integer,SpaxelReference> created =
+        new HashMap<Integer,SpaxelReference>();
+    private Map<SpecData,Integer> indices = new WeakHashMap<SpecData,Integer>();
+
+    /**
+     * Queue of the created spectra that are no longer in use.
+     */
+    private ReferenceQueue<SpecData> released = new ReferenceQueue<SpecData>();
+
+    /**
+     * Constructor.
+     *
+     * @param parent the spectrum to extract from, must be 2D or 3D.
+     * @param specDims the dimensions of the parent, with the dispersion and
+     *                 select axes chosen.
+     * @throws SplatException if the parent is not 2D or 3D.
+     */
+    public SpaxelCollection( SpecData parent, SpecDims specDims )
+        throws SplatException
+    {
+        this.parent = parent;
+        this.specDims = specDims;
+
+        int[] dims = specDims.getSigDims();
+        int dispax = specDims.getDispAxis( true );
+        if ( dims.length == 2 ) {
+            steplength = ( dispax == 1 ) ? dims[0] : dims[1];
+            otherlength = 1;
+        }
+        else if ( dims.length == 3 ) {
+            steplength = dims[specDims.getSelectAxis( true )];
+            otherlength = dims[specDims.getFreeAxis( true )];
+        }
+        else {
+            throw new SplatException( "Can only extract spectra from " +
+                                      "2D or 3D data" );
+        }
+
+        //  Note +1 for AST axes.
+        frameSet = ASTJ.extract1DFrameSet( parent.getFrameSet(),
+                                           specDims.getDispAxis( false ) + 1 );
+    }
+
+    /**
+     * Get the number of spectra.
+     */
+    public synchronized int size()
+    {
+        if ( positions != null ) {
+            return positions.length;
+        }
+        return steplength * otherlength;
+    }
+
+    /**
+     * Set the number of spectra kept in the cache. Spectra that are still
+     * referenced elsewhere are kept regardless.
+     */
+    public synchronized void setCacheSize( int cacheSize )
+    {
+        this.cacheSize = Math.max( 1, cacheSize );
+        while ( cache.size() > this.cacheSize ) {
+            cache.remove( cache.keySet().iterator().next() );
+        }
+    }
+
+    /**
+     * Get the number of spectra kept in the cache.
+     */
+    public synchronized int getCacheSize()
+    {
+        return cacheSize;
+    }
+
+    /**
+     * Set the initialiser applied to each spectrum when it is created.
+     * Should be set before any spectra are requested.
+     */
+    public synchronized void setInitialiser( Initialiser initialiser )
+    {
+        this.initialiser = initialiser;
+    }
+
+    /**
+     * Get the 2D or 3D spectrum the spectra are extracted from.
+     */
+    public SpecData getParent()
+    {
+        return parent;
+    }
+
+    /**
+     * Get the full name of the spectra, this is the same for all of them.
+     *
+     * @throws SplatException if a spectrum cannot be extracted.
+     */
+    public synchronized String getFullName()
+        throws SplatException
+    {
+        if ( fullName == null ) {
+            fullName = getSpectrum( 0 ).getFullName();
+        }
+        return fullName;
+    }
+
+    /**
+     * Get a spectrum, creating it if it is not in use or in the cache.
+     *
+     * @param index the index of the spectrum.
+     * @throws IndexOutOfBoundsException if index is out of range.
+     * @throws SplatException if the spectrum cannot be extracted.
+     */
+    public synchronized SpecData getSpectrum( int index )
+        throws SplatException
+    {
+        checkIndex( index );
+        expunge();
+        Integer key = Integer.valueOf( index );
+        SpecData spectrum = cache.get( key );
+        if ( spectrum == null ) {
+            SpaxelReference ref = created.get( key );
+            if ( ref != null ) {
+                spectrum = ref.get();
+            }
+            if ( spectrum == null ) {
+                spectrum = createSpectrum( getPosition( index ) );
+                if ( initialiser != null ) {
+                    initialiser.initialise( spectrum, index );
+                }
+                created.put( key,
+                             new SpaxelReference( spectrum, key, released ) );
+                indices.put( spectrum, key );
+            }
+            cache.put( key, spectrum );
+        }
+        return spectrum;
+    }
+
+    /**
+     * Get the index of a spectrum created by this collection. Returns -1
+     * if the spectrum is not known.
+     */
+    public synchronized int indexOf( SpecData spectrum )
+    {
+        Integer index = indices.get( spectrum );
+        if ( index == null ) {
+            return -1;
+        }
+        return index.intValue();
+    }
+
+    /**
+     * Create all the spectra. Each call creates new instances, which are
+     * not cached or initialised.
+     *
+     * @throws SplatException if any spectrum cannot be extracted.
+     */
+    public SpecData[] getSpectra()
+        throws SplatException
+    {
+        SpecData[] spectra = new SpecData[size()];
+        for ( int i = 0; i < spectra.length; i++ ) {
+            spectra[i] = createSpectrum( getPosition( i ) );
+        }
+        return spectra;
+    }
+
+    /**
+     * Remove any spectra that have bad data or spectral limits from the
+     * collection. Each spectrum is created to check its limits, but is not
+     * kept. Should be called before any spectra are requested, as the
+     * indices change.
+     *
+     * @throws SplatException if a spectrum cannot be extracted.
+     */
+    public synchronized void purgeBadLimits()
+        throws SplatException
+    {
+        int n = size();
+        int[] good = new int[n];
+        int ngood = 0;
+        for ( int i = 0; i < n; i++ ) {
+            double range[] = createSpectrum( getPosition( i ) ).getRange();
+            if ( range[0] != SpecData.BAD &&
+                 range[1] != SpecData.BAD &&
+                 range[2] != SpecData.BAD &&
+                 range[3] != SpecData.BAD ) {
+                good[ngood++] = getPosition( i );
+            }
+        }
+        positions = new int[ngood];
+        System.arraycopy( good, 0, positions, 0, ngood );
+        cache.clear();
+        created.clear();
+        indices.clear();
+    }
+
+    /**
+     * Check that an index is in range.
+     */
+    private void checkIndex( int index )
+    {
+        if ( index < 0 || index >= size() ) {
+            throw new IndexOutOfBoundsException( "No spectrum at index " +
+                                                 index );
+        }
+    }
+
+    /**
+     * Get the position in the parent of the spectrum with an index.
+     */
+    private int getPosition( int index )
+    {
+        if ( positions != null ) {
+            return positions[index];
+        }
+        return index;
+    }
+
+    /**
+     * Forget the created spectra that are no longer in use.
+     */
+    private void expunge()
+    {
+        SpaxelReference ref = (SpaxelReference) released.poll();
+        while ( ref != null ) {
+            if ( created.get( ref.index ) == ref ) {
+                created.remove( ref.index );
+            }
+            ref = (SpaxelReference) released.poll();
+        }
+    }
+
+    /**
+     * Create a spectrum, with its own copy of the dispersion axis FrameSet.
+     *
+     * @param index the position of the spectrum in the parent.
+     */
+    protected SpecData createSpectrum( int index )
+        throws SplatException
+    {
+        FrameSet copy = (FrameSet) frameSet.copy();
+        SpecDataImpl impl = null;
+        if ( specDims.getNumSigDims() == 2 ) {
+            impl = new ExtractedSpecDataImpl( parent, specDims, index, copy );
+        }
+        else {
+            impl = new ExtractedSpecDataImpl( parent, specDims,
+                                              index % steplength,
+                                              index / steplength, copy );
+        }
+        return new SpecData( impl );
+    }
+
+    /**
+     * Weak reference to a created spectrum, that knows its index.
+     */
+    private static class SpaxelReference
+        extends WeakReference<SpecData>
+    {
+        Integer index;
+
+        SpaxelReference( SpecData spectrum, Integer index,
+                         ReferenceQueue<SpecData> queue )
+        {
+            super( spectrum, queue );
+            this.index = index;
+        }
+    }
+}
@@ -8,6 +8,13 @@
  *        Original version.
  *     26-FEB-2004 (Peter W. Draper):
  *        Added column name methods.
+ *     17-OCT-2026:
+ *        Added RangePyramid for fast range queries of coordinate windows.
+ *        The ranges are now set from the pyramid, which is kept while the
+ *        arrays are unchanged and across swaps of the data and errors.
+ *        Added getDataVersion. Graphics coordinates are cached against
+ *        the data version, which all changes to the data now increment.
+ *        Added a drawSpec method that is given the Y offset.
  */
 package uk.ac.starlink.splat.data;
 
@@ -19,6 +26,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import nom.tam.fits.Header;
@@ -379,15 +387,36 @@ public class SpecData
      * 
      * Available after first drawSpec() call.
      */
-    protected double[] xPosG = null;
+    protected volatile double[] xPosG = null;
     
     /**
      * The Y positions transformed into graphics coordinates.
      * 
      * Available after first drawSpec() call.
      */
-    protected double[] yPosG = null;
-    
+    protected volatile double[] yPosG = null;
+
+    /**
+     * The graphics coordinates of the last drawing and the state used to
+     * create them. When this matches the state of a new drawing the
+     * graphics coordinates are reused. Null when no state is known. Only
+     * accessed when synchronized.
+     */
+    private transient GraphicsPositions graphicsPositions = null;
+
+    /**
+     * Number of times the graphics coordinates have been reused and
+     * regenerated.
+     */
+    private transient int graphicsCacheHits = 0;
+    private transient int graphicsCacheMisses = 0;
+
+    /**
+     * Count of the changes made to the data values or coordinates. Used to
+     * check that the graphics coordinates still apply.
+     */
+    private transient volatile int dataVersion = 0;
+
     /**
      * Symbolic name of the spectrum.
      */
@@ -434,6 +463,23 @@ public class SpecData
      */
     protected double[] yFullEndPoints = new double[4];
 
+    /**
+     * Min/max pyramid of the current data, created when first needed.
+     */
+    private transient RangePyramid rangePyramid = null;
+
+    /**
+     * Min/max pyramid of the data before the last swap of the data and
+     * errors, kept so that swapping back doesn't need a scan.
+     */
+    private transient RangePyramid swappedRangePyramid = null;
+
+    /**
+     * Whether the data and errors are currently swapped. Swapping does not
+     * change the data version, so this is part of the graphics key.
+     */
+    private transient boolean dataSwapped = false;
+
     /**
      * Reference to ASTJ object that contains an AST FrameSet that wraps
      * the spectrum FrameSet so that it can be plotted (i.e.&nbsp;makes it
@@ -566,6 +612,21 @@ public class SpecData
      */
     protected static boolean searchForSpecFrames = true;
 
+    /**
+     * Whether spectra that have many more points than graphics columns
+     * should be decimated before drawing. When true only the first, last,
+     * minimum and maximum positions within each graphics column are
+     * drawn, so the cost of a redraw depends on the size of the plot, not
+     * the length of the spectrum. Applies to the whole application.
+     */
+    protected static boolean decimateSpectra = true;
+
+    /**
+     * The number of points per graphics column that must be exceeded
+     * before a spectrum is decimated.
+     */
+    private final static int DECIMATION_FACTOR = 4;
+
     /**
      * An offset to apply to the Y physical coordinates so that spectra
      * can be displayed offset from one another.
@@ -702,6 +763,40 @@ public class SpecData
     	return yPosG;
     }
 
+    /**
+     * Get the number of times that drawing has reused the graphics
+     * coordinates from an earlier drawing.
+     *
+     * @return the number of reuses.
+     */
+    public synchronized int getGraphicsCacheHits()
+    {
+        return graphicsCacheHits;
+    }
+
+    /**
+     * Get the number of times that drawing has needed to transform the
+     * spectrum into graphics coordinates.
+     *
+     * @return the number of transformations.
+     */
+    public synchronized int getGraphicsCacheMisses()
+    {
+        return graphicsCacheMisses;
+    }
+
+    /**
+     * Discard any graphics coordinates so that the next drawing transforms
+     * the spectrum again. Use this if the data values or coordinates have
+     * been modified in place without being re-read or having their range
+     * reset. This also increments the data version.
+     */
+    public synchronized void clearGraphicsCache()
+    {
+        dataVersion++;
+        graphicsPositions = null;
+    }
+
 
     /**
      * Return if data errors are available.
@@ -731,8 +826,13 @@ public class SpecData
             yPosOri = yErrOri;
             yErrOri = tmp;
 
-            //  Reset ranges.
-            setRangePrivate();
+            //  Reset ranges. The arrays are unchanged so keep the pyramids
+            //  and the data version.
+            RangePyramid pyramid = rangePyramid;
+            rangePyramid = swappedRangePyramid;
+            swappedRangePyramid = pyramid;
+            dataSwapped = ! dataSwapped;
+            setRangeFromPyramid();
         }
     }
 
@@ -1787,6 +1887,24 @@ public class SpecData
         return SpecData.searchForSpecFrames;
     }
 
+    /**
+     * Set whether spectra that are much denser than the graphics columns
+     * they are drawn into should be decimated. Applies to all instances
+     * and is seen when the spectra are next drawn.
+     */
+    public static void setDecimateSpectra( boolean decimateSpectra )
+    {
+        SpecData.decimateSpectra = decimateSpectra;
+    }
+
+    /**
+     * Find out if dense spectra are decimated when drawn.
+     */
+    public static boolean isDecimateSpectra()
+    {
+        return SpecData.decimateSpectra;
+    }
+
 
     /**
      * Read the data from the spectrum into local arrays.  This also
@@ -1815,6 +1933,8 @@ public class SpecData
             yPosOri = yPos;
             yErr = impl.getDataErrors();
             yErrOri = yPos;
+            dataSwapped = false;
+            dataVersion++;
         }
         catch (RuntimeException e) {
             // None specific errors, like no data...
@@ -2133,10 +2253,13 @@ public class SpecData
 
 
     /**
-     * Set/reset the current range of the data.
+     * Set/reset the current range of the data. The data values may have
+     * been modified in place, so this also discards the range pyramids.
      */
     public void setRange()
     {
+        rangePyramid = null;
+        swappedRangePyramid = null;
         setRangePrivate();
     }
 
@@ -2146,129 +2269,149 @@ public class SpecData
      */
     private void setRangePrivate()
     {
-        double xMin = Double.MAX_VALUE;
-        double xMinY = 0.0;
+        //  Data or coordinates have changed, so any graphics coordinates
+        //  are now invalid. The range pyramids are kept when they are still
+        //  for the current arrays.
+        dataVersion++;
+        if ( rangePyramid != null &&
+             ! rangePyramid.isFor( xPos, yPos, yErr, errorNSigma ) ) {
+            rangePyramid = null;
+        }
+        if ( swappedRangePyramid != null &&
+             ! swappedRangePyramid.isFor( xPos, yErr, yPos, errorNSigma ) ) {
+            swappedRangePyramid = null;
+        }
+        setRangeFromPyramid();
+    }
 
-        double xMax = -Double.MAX_VALUE;
-        double xMaxY = 0.0;
+    /**
+     * Get a count of the changes made to the data values or coordinates.
+     * Can be used to check that values derived from the data are current.
+     */
+    public int getDataVersion()
+    {
+        return dataVersion;
+    }
 
-        double yMin = xMin;
-        double yMinX = 0.0;
+    /**
+     * Get the min/max pyramid for the current data, creating it if needed.
+     */
+    protected RangePyramid getRangePyramid()
+    {
+        if ( rangePyramid == null ||
+             ! rangePyramid.isFor( xPos, yPos, yErr, errorNSigma ) ) {
+            rangePyramid = new RangePyramid( xPos, yPos, yErr, errorNSigma );
+        }
+        return rangePyramid;
+    }
 
-        double yMax = xMax;
-        double yMaxX = 0.0;
+    /**
+     * Update the range after some data values or errors have been changed
+     * in place. Much faster than {@link #setRange} for large spectra.
+     *
+     * @param lower the first index changed.
+     * @param upper the last index changed.
+     */
+    protected void updateRange( int lower, int upper )
+    {
+        if ( rangePyramid != null &&
+             rangePyramid.isFor( xPos, yPos, yErr, errorNSigma ) ) {
+            dataVersion++;
+            swappedRangePyramid = null;
+            rangePyramid.update( lower, upper );
+            setRangeFromPyramid();
+        }
+        else {
+            rangePyramid = null;
+            swappedRangePyramid = null;
+            setRangePrivate();
+        }
+    }
 
-        double fullYMin = xMin;
-        double fullYMinX = 0.0;
-        double fullYMax = xMax;
-        double fullYMaxX = 0.0;
-        double tmp;
+    /**
+     * Set the ranges using the pyramid, rather than a scan. Does not change
+     * the data version.
+     */
+    private void setRangeFromPyramid()
+    {
+        RangePyramid pyramid = getRangePyramid();
+        double[][] plain = pyramid.getEndPoints( false );
+        double[][] full = pyramid.getEndPoints( true );
+        if ( plain == null ) {
+            //  No good values, use the same results as a scan.
+            plain = new double[][] {
+                { 0.0, 0.0, 0.0, 0.0 },
+                { 0.0, Double.MAX_VALUE, 0.0, -Double.MAX_VALUE }
+            };
+            full = plain;
+        }
+        double[] xEnd = plain[0];
+        double[] yEnd = plain[1];
+        double[] yFullEnd = full[1];
 
-        if ( yErr != null ) {
+        range[0] = xEnd[0];
+        range[1] = xEnd[2];
+        range[2] = yEnd[1];
+        range[3] = yEnd[3];
 
-            for ( int i = yPos.length - 1; i >= 0; i-- ) {
-                if ( yPos[i] != SpecData.BAD ) {
-                    if ( xPos[i] < xMin ) {
-                        xMin = xPos[i];
-                        xMinY = yPos[i];
-                    }
-                    if ( xPos[i] > xMax ) {
-                        xMax = xPos[i];
-                        xMaxY = yPos[i];
-                    }
-                    if ( yPos[i] < yMin ) {
-                        yMin = yPos[i];
-                        yMinX = xPos[i];
-                    }
-                    if ( yPos[i] > yMax ) {
-                        yMax = yPos[i];
-                        yMaxX = xPos[i];
-                    }
+        fullRange[0] = xEnd[0];
+        fullRange[1] = xEnd[2];
+        double slack = ( yFullEnd[3] - yFullEnd[1] ) * SLACK;
+        fullRange[2] = yFullEnd[1] - slack;
+        fullRange[3] = yFullEnd[3] + slack;
 
-                    tmp = yPos[i] - ( yErr[i] * errorNSigma );
-                    if ( tmp < fullYMin ) {
-                        fullYMin = tmp;
-                        fullYMinX = xPos[i];
-                    }
+        System.arraycopy( xEnd, 0, xEndPoints, 0, 4 );
+        System.arraycopy( yEnd, 0, yEndPoints, 0, 4 );
 
-                    tmp = yPos[i] + ( yErr[i] * errorNSigma );
-                    if ( tmp > fullYMax ) {
-                        fullYMax = tmp;
-                        fullYMaxX = xPos[i];
-                    }
-                }
-            }
-        }
-        else {
-            for ( int i = yPos.length - 1; i >= 0 ; i-- ) {
-                if ( yPos[i] != SpecData.BAD ) {
-                    if ( xPos[i] < xMin ) {
-                        xMin = xPos[i];
-                        xMinY = yPos[i];
-                    }
-                    if ( xPos[i] > xMax ) {
-                        xMax = xPos[i];
-                        xMaxY = yPos[i];
-                    }
-                    if ( yPos[i] < yMin ) {
-                        yMin = yPos[i];
-                        yMinX = xPos[i];
-                    }
-                    if ( yPos[i] > yMax ) {
-                        yMax = yPos[i];
-                        yMaxX = xPos[i];
-                    }
-                }
-            }
-            fullYMin = yMin;
-            fullYMax = yMax;
-            fullYMinX = yMinX;
-            fullYMaxX = yMaxX;
-        }
-        if ( xMin == Double.MAX_VALUE ) {
-            xMin = 0.0;
-            xMinY = 0.0;
-        }
-        if ( xMax == -Double.MAX_VALUE ) {
-            xMax = 0.0;
-            xMaxY = 0.0;
-        }
-
-        //  Record plain range.
-        range[0] = xMin;
-        range[1] = xMax;
-        range[2] = yMin;
-        range[3] = yMax;
-
-        //  And the "full" version.
-        fullRange[0] = xMin;
-        fullRange[1] = xMax;
-        fullRange[2] = fullYMin;
-        fullRange[3] = fullYMax;
-
-        //  Add slack so that error bars do not abutt the edges.
-        double slack = ( fullRange[3] - fullRange[2] ) * SLACK;
-        fullRange[2] = fullRange[2] - slack;
-        fullRange[3] = fullRange[3] + slack;
-
-        //  Coordinates of positions used to determine plain range.
-        xEndPoints[0] = xMin;
-        xEndPoints[1] = xMinY;
-        xEndPoints[2] = xMax;
-        xEndPoints[3] = xMaxY;
-
-        yEndPoints[0] = yMinX;
-        yEndPoints[1] = yMin;
-        yEndPoints[2] = yMaxX;
-        yEndPoints[3] = yMax;
-
-        //  Coordinates of positions used to determine full range.
-        yFullEndPoints[0] = fullYMinX;
+        yFullEndPoints[0] = yFullEnd[0];
         yFullEndPoints[1] = fullRange[2];
-        yFullEndPoints[2] = fullYMaxX;
+        yFullEndPoints[2] = yFullEnd[2];
         yFullEndPoints[3] = fullRange[3];
     }
 
+    /**
+     * Get the data range of the part of the spectrum with coordinates
+     * between two limits. Uses a min/max pyramid, so after the first call
+     * this is fast for any window.
+     *
+     * @param x1 one coordinate limit.
+     * @param x2 the other coordinate limit.
+     * @param full whether to include the standard deviations.
+     * @return array of 4 values, xlow, xhigh, ylow, yhigh, or null if there
+     *         are no good values between the limits.
+     */
+    public double[] getRange( double x1, double x2, boolean full )
+    {
+        double[][] ends = getEndPoints( x1, x2, full );
+        if ( ends == null ) {
+            return null;
+        }
+        return new double[] { ends[0][0], ends[0][2],
+                              ends[1][1], ends[1][3] };
+    }
+
+    /**
+     * Get the coordinates of the points that define the range of the part of
+     * the spectrum with coordinates between two limits. These are in the same
+     * form as {@link #getXEndPoints()} and {@link #getYEndPoints()}.
+     *
+     * @param x1 one coordinate limit.
+     * @param x2 the other coordinate limit.
+     * @param full whether to include the standard deviations.
+     * @return two arrays, the X and Y end points, or null if there are no
+     *         good values between the limits.
+     */
+    public double[][] getEndPoints( double x1, double x2, boolean full )
+    {
+        double[][] ends = getRangePyramid().getEndPoints( x1, x2, full );
+        if ( ends != null && full && yErr != null ) {
+            double slack = ( ends[1][3] - ends[1][1] ) * SLACK;
+            ends[1][1] -= slack;
+            ends[1][3] += slack;
+        }
+        return ends;
+    }
+
     /**
      * Draw the spectrum onto the given widget using a suitable AST GRF
      * object.
@@ -2286,83 +2429,32 @@ public class SpecData
     public void drawSpec( Grf grf, Plot plot, double[] clipLimits,
                           boolean physical, double[] fullLimits )
     {
-        //  Get a list of positions suitable for transforming.
-        //  Note BAD value is same for graphics (AST, Grf) and data,
-        //  so tests can be missed (should only be in yPos).
-        double[] xypos = null;
         double yoffset = 0.0;
         if ( applyYOffset ) {
             yoffset = this.yoffset;
         }
-        if ( plotStyle == POLYLINE || plotStyle == POINT ) {
-            xypos = new double[xPos.length * 2];
-            for ( int i = 0, j = 0; j < xPos.length; j++, i += 2 ) {
-                xypos[i] = xPos[j];
-                xypos[i + 1] = yPos[j] + yoffset;
-            }
-        }
-        else {
-            //  Draw a histogram style plot. Need to generate a list
-            //  of positions that can be connected like a normal
-            //  spectrum, but looks like a histogram. Create a list
-            //  with positions at each "corner":
-            //
-            //       x  *  x
-            //                   x  *  x
-            //             x  *  x
-            //
-            //  i.e. generate "x" positions for each "*" position. Use
-            //  different backwards and forwards width of bin as step
-            //  could be non-linear.
-            double bwidth = 0.0; //  backwards width
-            double fwidth = 0.0; //  forwards width
-            int i = 0; // position in xypos array (pairs of X,Y coordinates)
-            int j = 0; // position xPos & yPos arrays
-            xypos = new double[xPos.length * 4];
-
-            //  First point has no backwards width, so use double
-            //  forward width.
-            fwidth = ( xPos[j + 1] - xPos[j] ) * 0.5;
-            xypos[i] = xPos[j] - fwidth;
-            xypos[i + 2] = xPos[j] + fwidth;
-            xypos[i + 1] = yPos[j] + yoffset;
-            xypos[i + 3] = yPos[j] + yoffset;
-            j++;
-            i += 4;
-
-            //  Do normal positions.
-            for ( ; j < xPos.length - 1; j++, i += 4 ) {
-                fwidth = ( xPos[j + 1] - xPos[j] ) * 0.5;
-                bwidth = ( xPos[j] - xPos[j - 1] ) * 0.5;
-                xypos[i] = xPos[j] - bwidth;
-                xypos[i + 2] = xPos[j] + fwidth;
-                xypos[i + 1] = yPos[j] + yoffset;
-                xypos[i + 3] = yPos[j] + yoffset;
-            }
-
-            //  Until final final point which is also unpaired forward
-            //  so use double backwards width.
-            bwidth = ( xPos[j] - xPos[j - 1] ) * 0.5;
-            xypos[i] = xPos[j] - bwidth;
-            xypos[i + 2] = xPos[j] + bwidth;
-            xypos[i + 1] = yPos[j] + yoffset;
-            xypos[i + 3] = yPos[j] + yoffset;
-        }
-
-        //  Transform positions into graphics coordinates.
-        double[][] xygpos = astJ.astTran2( (Mapping) plot, xypos, false );
-        int np = xygpos[0].length;
-        double[] xpos = new double[np];
-        double[] ypos = new double[np];
-        for ( int j = 0; j < np; j++ ) {
-            xpos[j] = xygpos[0][j];
-            ypos[j] = xygpos[1][j];
-        }
-
-        xPosG = xpos;
-        yPosG = ypos;
+        drawSpec( grf, plot, clipLimits, physical, fullLimits, yoffset );
+    }
 
-        //  Do the same for the clip region.
+    /**
+     * Draw the spectrum, offset by the given amount. This does not depend
+     * on the state of {@link #setApplyYOffset}, so can be used away from
+     * the event dispatch thread, while that is being changed.
+     *
+     * @param grf Grf object that can be drawn into using AST primitives.
+     * @param plot reference to Plot defining transformation from physical
+     *             coordinates into graphics coordinates.
+     * @param clipLimits limits of the region to draw used to clip graphics.
+     *                   These can be in physical or graphics coordinates.
+     * @param physical whether limits are physical or graphical.
+     * @param fullLimits full limits of drawing area in graphics coordinates.
+     * @param yoffset offset added to the data values.
+     */
+    public void drawSpec( Grf grf, Plot plot, double[] clipLimits,
+                          boolean physical, double[] fullLimits,
+                          double yoffset )
+    {
+        //  Establish the clip region in graphics coordinates.
         Rectangle cliprect = null;
         if ( clipLimits != null ) {
             if ( physical ) {
@@ -2381,6 +2473,14 @@ public class SpecData
             }
         }
 
+        //  Get the graphics coordinates, reusing those of the last drawing
+        //  when nothing has changed.
+        GraphicsPositions positions =
+            getGraphicsPositions( plot, cliprect, fullLimits, yoffset );
+        int[] indices = positions.indices;
+        double[] xpos = positions.xpos;
+        double[] ypos = positions.ypos;
+
         //  Plot using the GRF primitive, rather than astPolyCurve, as
         //  we are just plotting spectra and require only straight
         //  lines, not geodesics (this makes it much faster). Need to
@@ -2406,7 +2506,13 @@ public class SpecData
         defaultGrf.attribute( Grf.GRF__STYLE, lineStyle, Grf.GRF__LINE );
         defaultGrf.attribute( defaultGrf.GRF__ALPHA, alphaComposite,
                               Grf.GRF__LINE );
-        renderErrorBars( defaultGrf, plot );
+        if ( indices == null ) {
+            renderErrorBars( defaultGrf, plot, cliprect, 0, xPos.length );
+        }
+        else {
+            renderErrorBars( defaultGrf, plot, cliprect, indices[0],
+                             indices[indices.length - 1] + 1 );
+        }
 
         defaultGrf.setClipRegion( null );
 
@@ -2414,6 +2520,468 @@ public class SpecData
     }
 
 
+    /**
+     * Get the graphics coordinates of the positions to draw. If the Plot
+     * mapping, drawing region and data version are unchanged since the
+     * last drawing then its graphics coordinates are reused.
+     *
+     * @param plot reference to Plot defining transformation from physical
+     *             coordinates into graphics coordinates.
+     * @param cliprect the clipping region in graphics coordinates, null
+     *                 if none.
+     * @param fullLimits full limits of drawing area in graphics
+     *                   coordinates, null if not known.
+     * @param yoffset offset added to the data values.
+     * @return the graphics coordinates.
+     */
+    protected synchronized GraphicsPositions
+        getGraphicsPositions( Plot plot, Rectangle cliprect,
+                              double[] fullLimits, double yoffset )
+    {
+        double[] key = getGraphicsKey( plot, cliprect, fullLimits, yoffset );
+        GraphicsPositions positions = graphicsPositions;
+        if ( key != null && positions != null &&
+             Arrays.equals( key, positions.key ) ) {
+            graphicsCacheHits++;
+            return positions;
+        }
+        graphicsCacheMisses++;
+
+        //  Select the positions to draw. When the spectrum is much denser
+        //  than the graphics columns in the drawing region this is a
+        //  decimated subset, when only part of the spectrum is visible just
+        //  that part, otherwise all positions (indices is null).
+        int[] indices = null;
+        if ( decimateSpectra ) {
+            indices = getDrawIndices( plot, cliprect, fullLimits );
+        }
+        transformPositions( plot, indices, yoffset );
+        graphicsPositions =
+            new GraphicsPositions( key, indices, xPosG, yPosG );
+        return graphicsPositions;
+    }
+
+    /**
+     * The graphics coordinates of a drawing and the key describing the
+     * state that created them. Not modified after creation.
+     */
+    protected static class GraphicsPositions
+    {
+        /** The key, null if none could be created */
+        final double[] key;
+
+        /** Indices of the positions transformed, null for all */
+        final int[] indices;
+
+        /** The graphics coordinates */
+        final double[] xpos;
+        final double[] ypos;
+
+        GraphicsPositions( double[] key, int[] indices, double[] xpos,
+                           double[] ypos )
+        {
+            this.key = key;
+            this.indices = indices;
+            this.xpos = xpos;
+            this.ypos = ypos;
+        }
+    }
+
+    /**
+     * Transform the positions of the spectrum into graphics coordinates,
+     * setting xPosG and yPosG. The positions are those that draw the
+     * spectrum in the current plotting style.
+     *
+     * @param plot reference to Plot defining transformation from physical
+     *             coordinates into graphics coordinates.
+     * @param indices the indices of the positions to transform, null for
+     *                all positions.
+     * @param yoffset offset to add to the data values.
+     */
+    protected void transformPositions( Plot plot, int[] indices,
+                                       double yoffset )
+    {
+        //  Get a list of positions suitable for transforming.
+        //  Note BAD value is same for graphics (AST, Grf) and data,
+        //  so tests can be missed (should only be in yPos).
+        int npos = ( indices == null ) ? xPos.length : indices.length;
+        double[] xin = null;
+        double[] yin = null;
+        if ( plotStyle == POLYLINE || plotStyle == POINT ) {
+            xin = new double[npos];
+            yin = new double[npos];
+            int j = 0;
+            for ( int i = 0; i < npos; i++ ) {
+                j = ( indices == null ) ? i : indices[i];
+                xin[i] = xPos[j];
+                yin[i] = yPos[j] + yoffset;
+            }
+        }
+        else {
+            //  Draw a histogram style plot. Need to generate a list
+            //  of positions that can be connected like a normal
+            //  spectrum, but looks like a histogram. Create a list
+            //  with positions at each "corner":
+            //
+            //       x  *  x
+            //                   x  *  x
+            //             x  *  x
+            //
+            //  i.e. generate "x" positions for each "*" position. Use
+            //  different backwards and forwards width of bin as step
+            //  could be non-linear. The widths always come from the
+            //  neighbouring positions in the full spectrum, so decimated
+            //  positions keep their true bin extents.
+            double bwidth = 0.0; //  backwards width
+            double fwidth = 0.0; //  forwards width
+            int last = xPos.length - 1;
+            int j = 0; // position xPos & yPos arrays
+            xin = new double[npos * 2];
+            yin = new double[npos * 2];
+            for ( int i = 0, k = 0; i < npos; i++, k += 2 ) {
+                j = ( indices == null ) ? i : indices[i];
+                if ( last == 0 ) {
+                    fwidth = bwidth = 0.0;
+                }
+                else if ( j == 0 ) {
+                    //  First point has no backwards width, so use double
+                    //  forward width.
+                    fwidth = ( xPos[j + 1] - xPos[j] ) * 0.5;
+                    bwidth = fwidth;
+                }
+                else if ( j == last ) {
+                    //  Final point is also unpaired forward so use double
+                    //  backwards width.
+                    bwidth = ( xPos[j] - xPos[j - 1] ) * 0.5;
+                    fwidth = bwidth;
+                }
+                else {
+                    fwidth = ( xPos[j + 1] - xPos[j] ) * 0.5;
+                    bwidth = ( xPos[j] - xPos[j - 1] ) * 0.5;
+                }
+                xin[k] = xPos[j] - bwidth;
+                xin[k + 1] = xPos[j] + fwidth;
+                yin[k] = yPos[j] + yoffset;
+                yin[k + 1] = yPos[j] + yoffset;
+            }
+        }
+
+        //  Transform positions into graphics coordinates.
+        double[][] xygpos = plot.tran2( xin.length, xin, yin, false );
+        xPosG = xygpos[0];
+        yPosG = xygpos[1];
+    }
+
+    /**
+     * Create a key that describes the state that determines the graphics
+     * coordinates of the spectrum. The data are represented by the data
+     * version alone, so any change to the values must increment that. The
+     * Plot is represented by a fingerprint of its mapping, which is made by
+     * transforming a few positions that span the data range (Plots are
+     * recreated for each redraw, so cannot be compared directly, but their
+     * mappings are either linear or logarithmic along each axis, so these
+     * positions capture any change).
+     *
+     * @param plot reference to Plot defining transformation from physical
+     *             coordinates into graphics coordinates.
+     * @param cliprect the clipping region in graphics coordinates, null
+     *                 if none.
+     * @param fullLimits full limits of drawing area in graphics
+     *                   coordinates, null if not known.
+     * @param yoffset offset added to the data values.
+     * @return the key, null if one cannot be created.
+     */
+    protected double[] getGraphicsKey( Plot plot, Rectangle cliprect,
+                                       double[] fullLimits, double yoffset )
+    {
+        if ( xPos == null || xPos.length == 0 ) {
+            return null;
+        }
+        double[] key = new double[21];
+        key[0] = dataVersion;
+        key[1] = plotStyle;
+        key[2] = decimateSpectra ? 1.0 : 0.0;
+        key[3] = yoffset;
+        if ( cliprect != null ) {
+            key[4] = cliprect.x;
+            key[5] = cliprect.y;
+            key[6] = cliprect.width;
+            key[7] = cliprect.height;
+        }
+        else {
+            key[4] = key[5] = key[6] = key[7] = BAD;
+        }
+        if ( fullLimits != null ) {
+            for ( int i = 0; i < 4; i++ ) {
+                key[8 + i] = fullLimits[i];
+            }
+        }
+        else {
+            key[8] = key[9] = key[10] = key[11] = BAD;
+        }
+
+        //  Mapping fingerprint.
+        int last = xPos.length - 1;
+        double ylo = range[2];
+        double yhi = ( range[3] == range[2] ) ? range[2] + 1.0 : range[3];
+        double[] xin = new double[4];
+        double[] yin = new double[4];
+        xin[0] = xPos[0];
+        yin[0] = ylo;
+        xin[1] = xPos[last];
+        yin[1] = yhi;
+        xin[2] = xPos[last / 2];
+        yin[2] = 0.5 * ( ylo + yhi );
+        xin[3] = xPos[last / 4];
+        yin[3] = 0.75 * ylo + 0.25 * yhi;
+        try {
+            double[][] xyg = plot.tran2( 4, xin, yin, false );
+            for ( int i = 0; i < 4; i++ ) {
+                key[12 + i * 2] = xyg[0][i];
+                key[13 + i * 2] = xyg[1][i];
+            }
+        }
+        catch (AstException e) {
+            return null;
+        }
+        key[20] = dataSwapped ? 1.0 : 0.0;
+        return key;
+    }
+
+    /**
+     * Select the indices of the positions that need to be drawn for the
+     * region of the Plot that is being drawn. If the region covers only
+     * part of the spectrum just those positions (and one either side, so
+     * that lines run off the edges) are returned. If the spectrum has many
+     * more positions than there are graphics columns in the region then
+     * each column is decimated to the positions of its first, last,
+     * minimum and maximum values (plus the first BAD value, so that any
+     * gaps are preserved).
+     * <p>
+     * The graphics X coordinate is assumed to depend only on the spectral
+     * coordinate, which is true for the Plots used to draw spectra. If the
+     * column edges cannot be transformed into monotonic spectral
+     * coordinates null is returned and all positions should be drawn.
+     *
+     * @param plot reference to Plot defining transformation from physical
+     *             coordinates into graphics coordinates.
+     * @param cliprect the clipping region in graphics coordinates, null
+     *                 if none.
+     * @param fullLimits full limits of drawing area in graphics
+     *                   coordinates, null if not known.
+     * @return the indices of the positions to draw, in increasing order,
+     *         or null if all positions should be drawn.
+     */
+    protected int[] getDrawIndices( Plot plot, Rectangle cliprect,
+                                    double[] fullLimits )
+    {
+        if ( ! monotonic || xPos.length < 2 ) {
+            return null;
+        }
+
+        //  Graphics X range of the drawing region and a Y coordinate
+        //  within it.
+        double gxlo = -Double.MAX_VALUE;
+        double gxhi = Double.MAX_VALUE;
+        double gy = BAD;
+        if ( fullLimits != null && fullLimits[0] != BAD &&
+             fullLimits[1] != BAD && fullLimits[2] != BAD &&
+             fullLimits[3] != BAD ) {
+            gxlo = Math.min( fullLimits[0], fullLimits[2] );
+            gxhi = Math.max( fullLimits[0], fullLimits[2] );
+            gy = 0.5 * ( fullLimits[1] + fullLimits[3] );
+        }
+        if ( cliprect != null ) {
+            gxlo = Math.max( gxlo, cliprect.x );
+            gxhi = Math.min( gxhi, cliprect.x + cliprect.width );
+            if ( gy == BAD ) {
+                gy = cliprect.y + 0.5 * cliprect.height;
+            }
+        }
+        if ( gy == BAD || gxhi <= gxlo ) {
+            return null;
+        }
+        int ncols = (int) Math.ceil( gxhi - gxlo );
+
+        //  Transform the column edges into spectral coordinates.
+        double[] gx = new double[ncols + 1];
+        double[] gyin = new double[ncols + 1];
+        for ( int c = 0; c <= ncols; c++ ) {
+            gx[c] = gxlo + c;
+            gyin[c] = gy;
+        }
+        double[] edges = null;
+        try {
+            edges = plot.tran2( ncols + 1, gx, gyin, true )[0];
+        }
+        catch (AstException e) {
+            logger.info( "Failed to decimate spectrum: " + e.getMessage() );
+            return null;
+        }
+
+        //  Edges must run in the same sense as the spectral coordinates.
+        boolean increases = ( xPos[0] < xPos[xPos.length - 1] );
+        if ( ( edges[0] < edges[ncols] ) != increases ) {
+            double tmp;
+            for ( int i = 0, j = ncols; i < j; i++, j-- ) {
+                tmp = edges[i];
+                edges[i] = edges[j];
+                edges[j] = tmp;
+            }
+        }
+        for ( int c = 0; c <= ncols; c++ ) {
+            if ( edges[c] == BAD ) {
+                return null;
+            }
+            if ( c > 0 && ( increases ? edges[c] < edges[c - 1]
+                                      : edges[c] > edges[c - 1] ) ) {
+                return null;
+            }
+        }
+
+        //  Visible range of positions.
+        int lo = firstIndexNotBefore( edges[0], increases );
+        int hi = firstIndexNotBefore( edges[ncols], increases );
+        int[] indices = null;
+        int n = 0;
+        if ( hi - lo <= DECIMATION_FACTOR * ncols ) {
+
+            //  Not dense, so just restrict to the visible positions.
+            int start = Math.max( 0, lo - 1 );
+            int end = Math.min( xPos.length, hi + 1 );
+            if ( start == 0 && end == xPos.length ) {
+                return null;
+            }
+            indices = new int[end - start];
+            for ( int i = start; i < end; i++ ) {
+                indices[n++] = i;
+            }
+            return indices;
+        }
+
+        //  Decimate each column.
+        indices = new int[5 * ncols + 2];
+        int[] picks = new int[5];
+        if ( lo > 0 ) {
+            indices[n++] = lo - 1;
+        }
+        int start = lo;
+        int end = lo;
+        for ( int c = 1; c <= ncols; c++ ) {
+            end = ( c == ncols ) ? hi : firstIndexNotBefore( edges[c],
+                                                             increases );
+            if ( end > start ) {
+                n = decimateColumn( start, end, picks, indices, n );
+                start = end;
+            }
+        }
+        if ( hi < xPos.length ) {
+            indices[n++] = hi;
+        }
+        int[] result = new int[n];
+        System.arraycopy( indices, 0, result, 0, n );
+        return result;
+    }
+
+    /**
+     * Decimate the positions in a range to those of the first, last,
+     * minimum and maximum values, plus the first BAD value. The selected
+     * indices are appended in increasing order.
+     *
+     * @param start first index of the range.
+     * @param end index after the last of the range.
+     * @param picks workspace for at least 5 indices.
+     * @param indices the array to append the selected indices to.
+     * @param n the number of indices already in the indices array.
+     * @return the new number of indices in the indices array.
+     */
+    private int decimateColumn( int start, int end, int[] picks,
+                                int[] indices, int n )
+    {
+        int first = -1;
+        int last = -1;
+        int min = -1;
+        int max = -1;
+        int bad = -1;
+        double value;
+        for ( int i = start; i < end; i++ ) {
+            value = yPos[i];
+            if ( value == BAD ) {
+                if ( bad == -1 ) {
+                    bad = i;
+                }
+            }
+            else {
+                if ( first == -1 ) {
+                    first = min = max = i;
+                }
+                else if ( value < yPos[min] ) {
+                    min = i;
+                }
+                else if ( value > yPos[max] ) {
+                    max = i;
+                }
+                last = i;
+            }
+        }
+        int npicks = 0;
+        if ( first != -1 ) {
+            picks[npicks++] = first;
+            picks[npicks++] = min;
+            picks[npicks++] = max;
+            picks[npicks++] = last;
+        }
+        if ( bad != -1 ) {
+            picks[npicks++] = bad;
+        }
+
+        //  Sort into increasing order, so that polylines are drawn in the
+        //  correct sense, and drop any duplicates.
+        int tmp;
+        for ( int i = 1; i < npicks; i++ ) {
+            tmp = picks[i];
+            int j = i - 1;
+            while ( j >= 0 && picks[j] > tmp ) {
+                picks[j + 1] = picks[j];
+                j--;
+            }
+            picks[j + 1] = tmp;
+        }
+        for ( int i = 0; i < npicks; i++ ) {
+            if ( i == 0 || picks[i] != picks[i - 1] ) {
+                indices[n++] = picks[i];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Return the index of the first spectral coordinate that does not lie
+     * before a given coordinate, in the sense of the coordinates. The
+     * coordinates must be monotonic. Returns size() when all coordinates
+     * lie before the given value.
+     *
+     * @param xcoord the coordinate.
+     * @param increases whether the coordinates increase.
+     * @return the index.
+     */
+    private int firstIndexNotBefore( double xcoord, boolean increases )
+    {
+        int low = 0;
+        int high = xPos.length;
+        int mid = 0;
+        while ( low < high ) {
+            mid = ( low + high ) >>> 1;
+            if ( increases ? xPos[mid] < xcoord : xPos[mid] > xcoord ) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
     /**
      * Draw the spectrum using the current spectrum plotting style.
      *
@@ -2454,48 +3022,139 @@ public class SpecData
      */
     protected void renderErrorBars( DefaultGrf grf, Plot plot )
     {
-        if ( drawErrorBars && yErr != null ) {
-            double[] xypos = new double[4];
-            double[][] xygpos = null;
-            double[] xpos = null;
-            double[] ypos = null;
-            double half = 0.0;
-            for ( int i = 0; i < xPos.length; i += errorFrequency ) {
-                if ( yErr[i] != SpecData.BAD ) {
-                    half = yErr[i] * errorNSigma;
-                    xypos[0] = xPos[i];
-                    xypos[1] = yPos[i] - half;
-                    xypos[2] = xPos[i];
-                    xypos[3] = yPos[i] + half;
-                    xygpos = astJ.astTran2( plot, xypos, false );
-
-                    xpos = new double[2];
-                    ypos = new double[2];
-                    xpos[0] = xygpos[0][0];
-                    xpos[1] = xygpos[0][1];
-                    ypos[0] = xygpos[1][0];
-                    ypos[1] = xygpos[1][1];
-                    grf.polyline( xpos, ypos );
-
-                    // Add the serifs.
-                    xpos = new double[2];
-                    ypos = new double[2];
-                    xpos[0] = xygpos[0][0] - SERIF_LENGTH;
-                    xpos[1] = xygpos[0][0] + SERIF_LENGTH;
-                    ypos[0] = xygpos[1][0];
-                    ypos[1] = xygpos[1][0];
-                    grf.polyline( xpos, ypos );
-
-                    xpos = new double[2];
-                    ypos = new double[2];
-                    xpos[0] = xygpos[0][1] - SERIF_LENGTH;
-                    xpos[1] = xygpos[0][1] + SERIF_LENGTH;
-                    ypos[0] = xygpos[1][1];
-                    ypos[1] = xygpos[1][1];
-                    grf.polyline( xpos, ypos );
-                }
+        renderErrorBars( grf, plot, null, 0, xPos.length );
+    }
+
+    /**
+     * Draw error bars for a range of positions. These are quite simple
+     * lines above and below positions by number of standard deviations,
+     * with a serif at each end.
+     * <p>
+     * All the bar ends are transformed in one call and the bars and serifs
+     * are drawn as a single polyline, broken using BAD values. Bars that lie
+     * outside the clipping region, or that are smaller than a pixel, are
+     * not drawn.
+     *
+     * @param grf DefaultGrf object that can be drawn into using AST
+     *            primitives.
+     * @param plot reference to Plot defining transformation from physical
+     *             coordinates into graphics coordinates.
+     * @param cliprect the clipping region in graphics coordinates, null
+     *                 if none.
+     * @param lower first index of the range of positions.
+     * @param upper index after the last of the range of positions.
+     */
+    protected void renderErrorBars( DefaultGrf grf, Plot plot,
+                                    Rectangle cliprect, int lower, int upper )
+    {
+        if ( ! drawErrorBars || yErr == null ) {
+            return;
+        }
+
+        //  Bars are drawn at each errorFrequency position, so start from the
+        //  first of those in the range.
+        int freq = Math.max( 1, errorFrequency );
+        int start = ( ( lower + freq - 1 ) / freq ) * freq;
+        if ( start >= upper ) {
+            return;
+        }
+
+        //  Gather the ends of all the bars.
+        int maxbars = ( upper - start + freq - 1 ) / freq;
+        double[] xin = new double[maxbars * 2];
+        double[] yin = new double[maxbars * 2];
+        int nbars = 0;
+        double half = 0.0;
+        for ( int i = start, j = 0; i < upper; i += freq ) {
+            if ( yErr[i] != SpecData.BAD && yPos[i] != SpecData.BAD ) {
+                half = yErr[i] * errorNSigma;
+                xin[j] = xPos[i];
+                yin[j++] = yPos[i] - half;
+                xin[j] = xPos[i];
+                yin[j++] = yPos[i] + half;
+                nbars++;
+            }
+        }
+        if ( nbars == 0 ) {
+            return;
+        }
+        double[][] xygpos = plot.tran2( nbars * 2, xin, yin, false );
+        double[] xg = xygpos[0];
+        double[] yg = xygpos[1];
+
+        //  Visible limits, allowing for the serifs.
+        double xlo = -Double.MAX_VALUE;
+        double xhi = Double.MAX_VALUE;
+        double ylo = -Double.MAX_VALUE;
+        double yhi = Double.MAX_VALUE;
+        if ( cliprect != null ) {
+            xlo = cliprect.x - SERIF_LENGTH;
+            xhi = cliprect.x + cliprect.width + SERIF_LENGTH;
+            ylo = cliprect.y;
+            yhi = cliprect.y + cliprect.height;
+        }
+
+        //  Create a single polyline of the bars and their serifs, each
+        //  separated by a BAD value.
+        double[] xpos = new double[nbars * 9];
+        double[] ypos = new double[nbars * 9];
+        int n = 0;
+        double x0, y0, x1, y1;
+        for ( int b = 0, j = 0; b < nbars; b++, j += 2 ) {
+            x0 = xg[j];
+            y0 = yg[j];
+            x1 = xg[j + 1];
+            y1 = yg[j + 1];
+            if ( x0 == SpecData.BAD || y0 == SpecData.BAD ||
+                 x1 == SpecData.BAD || y1 == SpecData.BAD ) {
+                continue;
+            }
+            if ( Math.abs( y1 - y0 ) < 1.0 && Math.abs( x1 - x0 ) < 1.0 ) {
+                continue;
+            }
+            if ( Math.max( x0, x1 ) < xlo || Math.min( x0, x1 ) > xhi ||
+                 Math.max( y0, y1 ) < ylo || Math.min( y0, y1 ) > yhi ) {
+                continue;
             }
+
+            //  The bar.
+            xpos[n] = x0;
+            ypos[n++] = y0;
+            xpos[n] = x1;
+            ypos[n++] = y1;
+            xpos[n] = SpecData.BAD;
+            ypos[n++] = SpecData.BAD;
+
+            // Add the serifs.
+            xpos[n] = x0 - SERIF_LENGTH;
+            ypos[n++] = y0;
+            xpos[n] = x0 + SERIF_LENGTH;
+            ypos[n++] = y0;
+            xpos[n] = SpecData.BAD;
+            ypos[n++] = SpecData.BAD;
+
+            xpos[n] = x1 - SERIF_LENGTH;
+            ypos[n++] = y1;
+            xpos[n] = x1 + SERIF_LENGTH;
+            ypos[n++] = y1;
+            xpos[n] = SpecData.BAD;
+            ypos[n++] = SpecData.BAD;
+        }
+        if ( n == 0 ) {
+            return;
         }
+
+        //  Drop the trailing BAD and trim to the size used.
+        n--;
+        if ( n < xpos.length ) {
+            double[] tmp = new double[n];
+            System.arraycopy( xpos, 0, tmp, 0, n );
+            xpos = tmp;
+            tmp = new double[n];
+            System.arraycopy( ypos, 0, tmp, 0, n );
+            ypos = tmp;
+        }
+        grf.polyline( xpos, ypos );
     }
 
     /**
@@ -2926,6 +3585,7 @@ public class SpecData
             if ( ! currentName.equals( name ) ) {
                 impl.setDataErrorColumnName( name );
                 yErr = impl.getDataErrors();
+                dataVersion++;
             }
         }
     }
@@ -6,10 +6,20 @@
  *  History:
  *     21-SEP-2000 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Cache the mappings used to align spectra so that these are not
+ *       re-generated on every redraw. Added getAutoRange for a window of
+ *       X coordinates. Added getMapping.
+ *     17-OCT-2026:
+ *       Added prepareDrawing, so that spectra can be drawn away from the
+ *       event dispatch thread.
  */
 package uk.ac.starlink.splat.data;
 
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import javax.swing.ComboBoxModel;
@@ -135,7 +145,8 @@ public class SpecDataComp
      * the various spectral and data coordinate systems of the spectra. The
      * indices of these are the SpecData objects.
      */
-    protected Map mappings = new HashMap();
+    protected Map<SpecData,FrameSet> mappings =
+        new HashMap<SpecData,FrameSet>();
 
     /**
      * Whether to re-generate all the mappings for converting to the
@@ -143,6 +154,66 @@ public class SpecDataComp
      */
     private boolean regenerateMappings = true;
 
+    /**
+     * The largest number of alignment mappings kept in the cache.
+     */
+    public static final int MAX_CACHED_ALIGNMENTS = 1024;
+
+    /**
+     * Cache of the mappings created by {@link #generateMapping}, so that
+     * regenerating the mappings only needs to align spectra whose
+     * coordinate systems have changed. Least recently used entries are
+     * discarded first.
+     */
+    private Map<AlignmentKey,FrameSet> alignmentCache =
+        new LinkedHashMap<AlignmentKey,FrameSet>( 64, 0.75F, true )
+        {
+            protected boolean removeEldestEntry
+                ( Map.Entry<AlignmentKey,FrameSet> eldest )
+            {
+                return size() > MAX_CACHED_ALIGNMENTS;
+            }
+        };
+
+    /**
+     * Number of alignment mappings found in the cache.
+     */
+    private long alignmentHits = 0;
+
+    /**
+     * Number of alignment mappings generated by AST.
+     */
+    private long alignmentMisses = 0;
+
+    /**
+     * Time spent generating alignment mappings, nanoseconds.
+     */
+    private long alignmentTime = 0;
+
+    /**
+     * Frame attributes that change how spectra are aligned.
+     */
+    private static final String[] FRAME_ATTRIBUTES = {
+        "Domain", "System(1)", "Unit(1)", "System(2)", "Unit(2)",
+        "AlignSystem(1)", "Epoch"
+    };
+
+    /**
+     * SpecFrame attributes that change how spectra are aligned.
+     */
+    private static final String[] SPECFRAME_ATTRIBUTES = {
+        "StdOfRest", "AlignStdOfRest", "RestFreq", "SpecOrigin",
+        "SourceVel", "SourceVRF", "SourceSys", "RefRA", "RefDec",
+        "ObsLon", "ObsLat"
+    };
+
+    /**
+     * DSBSpecFrame attributes that change how spectra are aligned.
+     */
+    private static final String[] DSBSPECFRAME_ATTRIBUTES = {
+        "SideBand", "DSBCentre", "IF", "AlignSideBand"
+    };
+
     /**
      * Whether line identifier spectra should track the position of the
      * current spectrum.
@@ -177,6 +248,11 @@ public class SpecDataComp
      */
     private boolean drawHorizontalLineIDs = false;
 
+    /**
+     * Whether line identifiers that overlap should be removed.
+     */
+    private boolean cullLineIDs = false;
+
     /**
      * Whether to apply the YOffsets when drawing spectra.
      */
@@ -411,16 +487,97 @@ public class SpecDataComp
         return drawHorizontalLineIDs;
     }
 
+    /**
+     * Set whether line identifier labels that overlap labels with a higher
+     * priority are removed.
+     */
+    public void setCullLineIDs( boolean cullLineIDs )
+    {
+        this.cullLineIDs = cullLineIDs;
+    }
+
+    /**
+     * Get whether overlapping line identifier labels are removed.
+     */
+    public boolean isCullLineIDs()
+    {
+        return cullLineIDs;
+    }
+
     /**
      * Override default behaviour for regenerating all the inter-spectrum
      * transformations. You will need to do this when a spectrum has been
-     * modified.
+     * modified. Mappings between spectra whose coordinate systems are
+     * unchanged are reused from a cache, use {@link #invalidateMappings}
+     * when that isn't safe.
      */
     public void regenerate()
     {
         regenerateMappings = true;
     }
 
+    /**
+     * Remove any cached mappings that align to or from a spectrum. Call this
+     * when the FrameSet or units of a spectrum have been edited.
+     *
+     * @param spectrum the modified spectrum.
+     */
+    public void invalidateMappings( SpecData spectrum )
+    {
+        Iterator<AlignmentKey> i = alignmentCache.keySet().iterator();
+        while ( i.hasNext() ) {
+            AlignmentKey key = i.next();
+            if ( key.source == spectrum || key.target == spectrum ) {
+                i.remove();
+            }
+        }
+        regenerateMappings = true;
+    }
+
+    /**
+     * Remove all cached mappings.
+     */
+    public void invalidateMappings()
+    {
+        alignmentCache.clear();
+        regenerateMappings = true;
+    }
+
+    /**
+     * Get the number of alignment mappings that have been reused from
+     * the cache.
+     */
+    public long getAlignmentCacheHits()
+    {
+        return alignmentHits;
+    }
+
+    /**
+     * Get the number of alignment mappings that have been generated.
+     */
+    public long getAlignmentCacheMisses()
+    {
+        return alignmentMisses;
+    }
+
+    /**
+     * Get a description of how effective the alignment mapping cache has
+     * been. The time saved is estimated from the mean time taken to
+     * generate a mapping.
+     */
+    public String getAlignmentStatistics()
+    {
+        double mean = 0.0;
+        if ( alignmentMisses > 0 ) {
+            mean = alignmentTime * 1.0E-6 / alignmentMisses;
+        }
+        return "Alignment mappings: " + alignmentHits + " reused, " +
+            alignmentMisses + " generated (" +
+            ( alignmentTime / 1000000L ) + " ms), estimated " +
+            Math.round( alignmentHits * mean ) + " ms saved, " +
+            alignmentCache.size() + " cached";
+    }
+
     /**
      * Set whether we need to add extra space in the autoranging for
      * the errorbars, if displayed.
@@ -594,6 +751,7 @@ public class SpecDataComp
         int index = spectra.indexOf( inspec );
         spectra.remove( inspec );
         mappings.remove( inspec );
+        invalidateMappings( inspec );
         checkCurrentSpectrumRemoved( inspec );
         if ( index != -1 ) {
             fireListDataRemoved( index );
@@ -613,6 +771,7 @@ public class SpecDataComp
             indices[i] = spectra.indexOf( inspec[i] );
             spectra.remove( inspec[i] );
             mappings.remove( inspec[i] );
+            invalidateMappings( inspec[i] );
             checkCurrentSpectrumRemoved( inspec[i] );
         }
         int lower = 0;
@@ -821,7 +980,7 @@ public class SpecDataComp
                     if ( coordinateMatching ) {
                         xEndPoints = spectrum.getXEndPoints();
                         yEndPoints = spectrum.getYEndPoints();
-                        mapping = (FrameSet) mappings.get( spectrum );
+                        mapping = mappings.get( spectrum );
                         newrange = transformEndPoints( mapping, xEndPoints,
                                                        yEndPoints );
                     }
@@ -936,7 +1095,7 @@ public class SpecDataComp
                             xEndPoints = spectrum.getXEndPoints();
                             yEndPoints = spectrum.getYEndPoints();
                         }
-                        mapping = (FrameSet) mappings.get( spectrum );
+                        mapping = mappings.get( spectrum );
                         newrange = transformEndPoints( mapping, xEndPoints,
                                                        yEndPoints );
                     }
@@ -1018,7 +1177,7 @@ public class SpecDataComp
                                 xEndPoints = spectrum.getXEndPoints();
                                 yEndPoints = spectrum.getYEndPoints();
                             }
-                            mapping = (FrameSet) mappings.get( spectrum );
+                            mapping = mappings.get( spectrum );
                             newrange = transformEndPoints( mapping, xEndPoints,
                                                            yEndPoints );
                         }
@@ -1038,6 +1197,102 @@ public class SpecDataComp
         return range;
     }
 
+    /**
+     * Get the data range of the spectra that should be used when
+     * auto-ranging, for just the parts of the spectra that lie between two
+     * X coordinates of the current spectrum. The same spectra as
+     * {@link #getAutoRange()} are used, but the range is found using the
+     * min/max pyramids of the spectra, so this is fast enough to use when
+     * zooming. If no data lie between the limits the Y range of
+     * {@link #getAutoRange()} is returned.
+     *
+     * @param x1 one X coordinate limit.
+     * @param x2 the other X coordinate limit.
+     * @return the range xlow, xhigh, ylow, yhigh.
+     */
+    public double[] getAutoRange( double x1, double x2 )
+        throws SplatException
+    {
+        double[] range = new double[4];
+        range[0] = Math.min( x1, x2 );
+        range[1] = Math.max( x1, x2 );
+        range[2] = Double.MAX_VALUE;
+        range[3] = -Double.MAX_VALUE;
+        if ( currentSpec == null ) {
+            return range;
+        }
+
+        regenerateMappings();
+
+        //  A Y value for transforming the X limits, only matters for
+        //  coordinates that depend on the data values.
+        double[] currentRange = currentSpec.getRange();
+        double ymid = 0.5 * ( currentRange[2] + currentRange[3] );
+
+        int count = spectra.size();
+        SpecData spectrum = null;
+        double[][] ends = null;
+        FrameSet mapping = null;
+        boolean full = false;
+
+        for ( int i = 0; i < count; i++ ) {
+            spectrum = (SpecData) spectra.get( i );
+            if ( ! spectrum.equals( currentSpec ) &&
+                 ! spectrum.isUseInAutoRanging() ) {
+                continue;
+            }
+            if ( plotErrorsAsData ) {
+                spectrum.swapDataAndErrors();
+            }
+            try {
+                full = spectrum.isDrawErrorBars() && errorbarAutoRanging;
+                if ( coordinateMatching && ! spectrum.equals( currentSpec ) ) {
+                    mapping = mappings.get( spectrum );
+                    if ( mapping == null ) {
+                        continue;
+                    }
+
+                    //  Window in the coordinates of this spectrum.
+                    double[] limits = transformLimits
+                        ( mapping, new double[] { x1, ymid, x2, ymid },
+                          true );
+                    if ( limits[0] == SpecData.BAD ||
+                         limits[2] == SpecData.BAD ) {
+                        continue;
+                    }
+                    ends = spectrum.getEndPoints( limits[0], limits[2],
+                                                  full );
+                    if ( ends != null ) {
+                        double[] newrange =
+                            transformEndPoints( mapping, ends[0], ends[1] );
+                        range[2] = Math.min( range[2], newrange[2] );
+                        range[3] = Math.max( range[3], newrange[3] );
+                    }
+                }
+                else {
+                    ends = spectrum.getEndPoints( x1, x2, full );
+                    if ( ends != null ) {
+                        range[2] = Math.min( range[2], ends[1][1] );
+                        range[3] = Math.max( range[3], ends[1][3] );
+                    }
+                }
+            }
+            finally {
+                if ( plotErrorsAsData ) {
+                    spectrum.swapDataAndErrors();
+                }
+            }
+        }
+
+        //  Nothing in the window, so use the whole range.
+        if ( range[2] == Double.MAX_VALUE ) {
+            double[] autoRange = getAutoRange();
+            range[2] = autoRange[2];
+            range[3] = autoRange[3];
+        }
+        return range;
+    }
+
     /**
      * Transform position pairs either from the coordinates of a given
      * spectrum to those of the current spectrum or vice versa. The spectrum
@@ -1055,10 +1310,23 @@ public class SpecDataComp
     public double[] transformCoords( SpecData referenceSpec, double[] range,
                                      boolean toCurrent )
     {
-        return transformCoords( (FrameSet) mappings.get( referenceSpec ),
+        return transformCoords( mappings.get( referenceSpec ),
                                 range, ( ! toCurrent ) );
     }
 
+    /**
+     * Get the mapping that aligns a spectrum with the current spectrum.
+     * The base Frame is that of the current spectrum, so the forward
+     * transformation gives positions in the given spectrum. Returns null
+     * for the current spectrum or if coordinate matching is off.
+     */
+    public FrameSet getMapping( SpecData spectrum )
+        throws SplatException
+    {
+        regenerateMappings();
+        return mappings.get( spectrum );
+    }
+
     /**
      * Transform position-pairs using a given mapping.
      *
@@ -1217,7 +1485,7 @@ public class SpecDataComp
                         //  units of the spectra need to be matched so that
                         //  they are drawn to the correct scale on the Plot of
                         //  the current spectrum.
-                        mapping = (FrameSet) mappings.get( spectrum );
+                        mapping = mappings.get( spectrum );
                         localPlot = alignPlots( plot, mapping );
                     }
                     else {
@@ -1236,6 +1504,7 @@ public class SpecDataComp
                 lineSpec.setOnlyShortName( shortNameLineIDs );
                 lineSpec.setShowVerticalMarks( showVerticalMarks );
                 lineSpec.setDrawHorizontal( drawHorizontalLineIDs );
+                lineSpec.setCullLabels( cullLineIDs );
 
                 //  Swap data and errors if needed.
                 if ( plotErrorsAsData ) {
@@ -1270,6 +1539,25 @@ public class SpecDataComp
     public void drawSpec( Grf grf, Plot plot, double[] clipLimits,
                           double[] fullLimits )
         throws SplatException
+    {
+        drawSpec( grf, plot, clipLimits, fullLimits, null );
+    }
+
+    /**
+     *  Draw some or all of the spectra using the graphics context provided.
+     *
+     *  @param grf AST graphics context
+     *  @param plot AST plot
+     *  @param clipLimits limits of area being drawn in world coordinates,
+     *                    when clipping is required. Set to null when no
+     *                    clipping applies.
+     *  @param fullLimits limits of the whole graphics component in world
+     *                    coordinates.
+     *  @param only the spectra to draw, null for all.
+     */
+    protected void drawSpec( Grf grf, Plot plot, double[] clipLimits,
+                             double[] fullLimits, List<SpecData> only )
+        throws SplatException
     {
         if ( spectra.size() == 0 ) {
             return;
@@ -1301,13 +1589,16 @@ public class SpecDataComp
                     //  the spectra need to be matched so that they are drawn
                     //  to the correct scale on the Plot of the current
                     //  spectrum.
-                    mapping = (FrameSet) mappings.get( spectrum );
+                    mapping = mappings.get( spectrum );
                     localPlot = alignPlots( plot, mapping );
                 }
                 else {
                     localPlot = plot;
                 }
             }
+            if ( only != null && ! only.contains( spectrum ) ) {
+                continue;
+            }
             if ( spectrum instanceof LineIDSpecData ) {
                 LineIDSpecData lineSpec = (LineIDSpecData) spectrum;
                 if ( trackerLineIDs ) {
@@ -1321,6 +1612,7 @@ public class SpecDataComp
                 lineSpec.setOnlyShortName( shortNameLineIDs );
                 lineSpec.setShowVerticalMarks( showVerticalMarks );
                 lineSpec.setDrawHorizontal( drawHorizontalLineIDs );
+                lineSpec.setCullLabels( cullLineIDs );
             }
 
             //  Swap data and errors if needed.
@@ -1343,6 +1635,138 @@ public class SpecDataComp
         }
     }
 
+    /**
+     *  Prepare to draw all the spectra away from the event dispatch thread,
+     *  using the returned {@link Drawing}. The mappings are regenerated now
+     *  and the Plot and the mapping of each spectrum are copied, so later
+     *  changes to these do not affect the drawing.
+     *  <p>
+     *  Line identifiers change their own state when drawn, so these are
+     *  drawn now into the given graphics context. When plotting the errors
+     *  as data all the spectra are drawn now, as that swaps the data and
+     *  errors of each spectrum.
+     *
+     *  @param grf AST graphics context for any spectra that are drawn now.
+     *  @param plot AST plot
+     *  @param clipLimits limits of area being drawn in world coordinates,
+     *                    when clipping is required. Set to null when no
+     *                    clipping applies.
+     *  @param fullLimits limits of the whole graphics component in world
+     *                    coordinates.
+     *  @return the drawing of the other spectra.
+     */
+    public Drawing prepareDrawing( Grf grf, Plot plot, double[] clipLimits,
+                                   double[] fullLimits )
+        throws SplatException
+    {
+        Drawing drawing = new Drawing( plot, clipLimits, fullLimits );
+        regenerateMappings();
+
+        List<SpecData> now = new ArrayList<SpecData>();
+        for ( int i = 0; i < spectra.size(); i++ ) {
+            SpecData spectrum = (SpecData) spectra.get( i );
+            if ( plotErrorsAsData || spectrum instanceof LineIDSpecData ) {
+                now.add( spectrum );
+            }
+            else {
+                FrameSet mapping = null;
+                if ( coordinateMatching && ! spectrum.equals( currentSpec ) ) {
+                    mapping = (FrameSet) mappings.get( spectrum ).copy();
+                }
+                drawing.add( spectrum, mapping, applyYOffsets ?
+                             spectrum.getYOffset() : 0.0 );
+            }
+        }
+        if ( now.size() > 0 ) {
+            drawSpec( grf, plot, clipLimits, fullLimits, now );
+        }
+        return drawing;
+    }
+
+    /**
+     *  The spectra to draw away from the event dispatch thread, with
+     *  copies of the Plot and mappings to draw them with. Created by
+     *  {@link SpecDataComp#prepareDrawing}.
+     */
+    public class Drawing
+    {
+        private Plot plot = null;
+        private double[] clipLimits = null;
+        private double[] fullLimits = null;
+        private List<SpecData> drawSpectra = new ArrayList<SpecData>();
+        private List<FrameSet> drawMappings = new ArrayList<FrameSet>();
+        private List<Double> drawOffsets = new ArrayList<Double>();
+
+        private Drawing( Plot plot, double[] clipLimits,
+                         double[] fullLimits )
+        {
+            this.plot = (Plot) plot.copy();
+            if ( clipLimits != null ) {
+                this.clipLimits = clipLimits.clone();
+            }
+            if ( fullLimits != null ) {
+                this.fullLimits = fullLimits.clone();
+            }
+        }
+
+        private void add( SpecData spectrum, FrameSet mapping,
+                          double yoffset )
+        {
+            drawSpectra.add( spectrum );
+            drawMappings.add( mapping );
+            drawOffsets.add( Double.valueOf( yoffset ) );
+        }
+
+        /**
+         *  Get the number of spectra to draw.
+         */
+        public int count()
+        {
+            return drawSpectra.size();
+        }
+
+        /**
+         *  Draw the spectra. Stops, returning false, when the current
+         *  thread is interrupted, so that a drawing can be cancelled.
+         *
+         *  @param grf AST graphics context, must be a DefaultGrf.
+         *  @return true if all the spectra are drawn.
+         */
+        public boolean draw( Grf grf )
+            throws SplatException
+        {
+            if ( drawSpectra.size() == 0 ) {
+                return true;
+            }
+
+            //  Transform limits into graphics coordinates, if possible.
+            boolean physical = false;
+            double[] localClipLimits =
+                transformLimits( plot, clipLimits, false );
+            if ( localClipLimits == null ) {
+                localClipLimits = clipLimits;
+                physical = true;
+            }
+            double[] localFullLimits =
+                transformLimits( plot, fullLimits, false );
+
+            for ( int i = 0; i < drawSpectra.size(); i++ ) {
+                if ( Thread.currentThread().isInterrupted() ) {
+                    return false;
+                }
+                Plot localPlot = plot;
+                FrameSet mapping = drawMappings.get( i );
+                if ( mapping != null ) {
+                    localPlot = alignPlots( plot, mapping );
+                }
+                drawSpectra.get( i ).drawSpec
+                    ( grf, localPlot, localClipLimits, physical,
+                      localFullLimits, drawOffsets.get( i ).doubleValue() );
+            }
+            return true;
+        }
+    }
+
     /**
      * Set whether to use the yoffsets when drawing the spectra.
      */
@@ -1394,6 +1818,22 @@ public class SpecDataComp
             boolean haveDSBSpecFrame = ( toASTJ.isFirstAxisDSBSpecFrame() &&
                                          fromASTJ.isFirstAxisDSBSpecFrame() );
 
+            //  Reuse any mapping created for the same spectra with the same
+            //  coordinate systems and matching options.
+            AlignmentKey key =
+                new AlignmentKey( currentSpec, toASTJ.getRef(), spectrum,
+                                  fromASTJ.getRef(),
+                                  getAlignmentState( spectrum, to, from,
+                                                     haveSpecFrame,
+                                                     haveDSBSpecFrame ) );
+            FrameSet cached = alignmentCache.get( key );
+            if ( cached != null ) {
+                alignmentHits++;
+                mappings.put( spectrum, cached );
+                return;
+            }
+            long startTime = System.nanoTime();
+
             //  If this is a line identifier, then we need to make this
             //  look as if measured travelling with the source. Do this by
             //  using the same attributes as the measurement, but with a
@@ -1485,6 +1925,104 @@ public class SpecDataComp
 
             //  Associate mapping with the spectrum.
             mappings.put( spectrum, mapping );
+            alignmentCache.put( key, mapping );
+            alignmentMisses++;
+            alignmentTime += System.nanoTime() - startTime;
+        }
+    }
+
+    /**
+     * Create a description of the state of two Frames that are to be
+     * aligned, together with the matching options. If this is unchanged
+     * the alignment mapping will be the same.
+     */
+    protected String getAlignmentState( SpecData spectrum, Frame to,
+                                        Frame from, boolean haveSpecFrame,
+                                        boolean haveDSBSpecFrame )
+    {
+        StringBuffer buffer = new StringBuffer( 256 );
+        buffer.append( dataUnitsMatching ? 'T' : 'F' );
+        buffer.append( sidebandMatching ? 'T' : 'F' );
+        buffer.append( offsetMatching ? 'T' : 'F' );
+        buffer.append( baseSystemMatching ? 'T' : 'F' );
+        if ( spectrum instanceof LineIDSpecData ) {
+            buffer.append( ((LineIDSpecData) spectrum).haveDataPositions()
+                           ? 'T' : 'F' );
+        }
+        appendAttributes( buffer, to, FRAME_ATTRIBUTES );
+        appendAttributes( buffer, from, FRAME_ATTRIBUTES );
+        if ( haveSpecFrame ) {
+            appendAttributes( buffer, to, SPECFRAME_ATTRIBUTES );
+            appendAttributes( buffer, from, SPECFRAME_ATTRIBUTES );
+            buffer.append( to.test( "SpecOrigin" ) ? 'T' : 'F' );
+            buffer.append( from.test( "SpecOrigin" ) ? 'T' : 'F' );
+        }
+        if ( haveDSBSpecFrame ) {
+            appendAttributes( buffer, to, DSBSPECFRAME_ATTRIBUTES );
+            appendAttributes( buffer, from, DSBSPECFRAME_ATTRIBUTES );
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Append the values of some attributes of a Frame to a buffer.
+     * Attributes that cannot be read are marked, so they still contribute
+     * consistently.
+     */
+    private void appendAttributes( StringBuffer buffer, Frame frame,
+                                   String[] attributes )
+    {
+        for ( int i = 0; i < attributes.length; i++ ) {
+            buffer.append( '|' );
+            try {
+                buffer.append( frame.getC( attributes[i] ) );
+            }
+            catch (AstException e) {
+                buffer.append( '?' );
+            }
+        }
+    }
+
+    /**
+     * Key for the alignment mapping cache. The spectra and their FrameSets
+     * are compared by identity, the state by value.
+     */
+    private static class AlignmentKey
+    {
+        final SpecData target;
+        final FrameSet targetFrameSet;
+        final SpecData source;
+        final FrameSet sourceFrameSet;
+        final String state;
+
+        AlignmentKey( SpecData target, FrameSet targetFrameSet,
+                      SpecData source, FrameSet sourceFrameSet,
+                      String state )
+        {
+            this.target = target;
+            this.targetFrameSet = targetFrameSet;
+            this.source = source;
+            this.sourceFrameSet = sourceFrameSet;
+            this.state = state;
+        }
+
+        public boolean equals( Object obj )
+        {
+            if ( ! ( obj instanceof AlignmentKey ) ) {
+                return false;
+            }
+            AlignmentKey other = (AlignmentKey) obj;
+            return target == other.target &&
+                targetFrameSet == other.targetFrameSet &&
+                source == other.source &&
+                sourceFrameSet == other.sourceFrameSet &&
+                state.equals( other.state );
+        }
+
+        public int hashCode()
+        {
+            return System.identityHashCode( target ) * 31 +
+                System.identityHashCode( source ) * 17 + state.hashCode();
         }
     }
 
@@ -12,6 +12,8 @@
  *     08-OCT-2004 (Peter W. Draper):
  *        Added support for collapsing and extracting spectra from
  *        2 and 3D data.
+ *     17-OCT-2026:
+ *        Added getSpaxels, so extracted spectra can be created on demand.
  */
 package uk.ac.starlink.splat.data;
 
@@ -36,6 +38,7 @@ import uk.ac.starlink.splat.iface.LocalLineIDManager;
 import uk.ac.starlink.splat.imagedata.NDFJ;
 import uk.ac.starlink.splat.util.ConstrainedList;
 import uk.ac.starlink.splat.util.ConstrainedList.ConstraintType;
+import uk.ac.starlink.splat.util.DownloadCache;
 import uk.ac.starlink.splat.util.SEDSplatException;
 import uk.ac.starlink.splat.util.SplatException;
 import uk.ac.starlink.splat.vo.SSAPAuthenticator;
@@ -159,9 +162,19 @@ public class SpecDataFactory
     };
 
     /**
-     * Our DataNodeFactory.
+     * Our DataNodeFactories. DataNodeFactory is not thread-safe and spectra
+     * may be read by several threads at once, so each thread has its own.
      */
-    private DataNodeFactory dataNodeFactory = null;
+    private static final ThreadLocal<DataNodeFactory> dataNodeFactories =
+        new ThreadLocal<DataNodeFactory>()
+        {
+            protected DataNodeFactory initialValue()
+            {
+                DataNodeFactory factory = new DataNodeFactory();
+                SplatDataNode.customiseFactory( factory );
+                return factory;
+            }
+        };
 
     /**
      * Datanode icons symbolic names for each data type. XXX may want
@@ -201,7 +214,7 @@ public class SpecDataFactory
      *
      *  @return reference to only instance of this class.
      */
-    public static SpecDataFactory getInstance()
+    public static synchronized SpecDataFactory getInstance()
     {
         if ( instance == null ) {
             instance = new SpecDataFactory();
@@ -673,7 +686,7 @@ public class SpecDataFactory
     	
         implGlobal = new FITSSpecDataImpl( specspec );
         
-        for (int i = 0; i < ((FITSSpecDataImpl)implGlobal).hdurefs.length; i++) {
+        for (int i = 0; i < ((FITSSpecDataImpl)implGlobal).getHDUCount(); i++) {
 
         	SpecDataImpl impl = new FITSSpecDataImpl( specspec, i );
             // Table, if it is an table extension, or the data array size is 0
@@ -1203,50 +1216,21 @@ public class SpecDataFactory
      * Given a URL for a remote resource make a local, temporary, copy. The
      * temporary file should have the correct file extension for the type of
      * remote data an {@link PathParser} is returned as the result (null
-     * if a failure occurs).
+     * if a failure occurs). When the {@link DownloadCache} is enabled the
+     * copy is kept in the cache, so it is only downloaded again when it
+     * has changed.
      */
     protected PathParser remoteToLocalFile( URL url, int type )
             throws SplatException
     {
         PathParser namer = null;
+        boolean cached = DownloadCache.isEnabled();
         try {
-            
-            //  Contact the resource.
-           
-            
-            URLConnection connection = url.openConnection();
-
-            //  Handle switching from HTTP to HTTPS, if a HTTP 30x redirect is
-            //  returned, as Java doesn't do this by default (security issues
-            //  when moving from secure to non-secure).
-            if ( connection instanceof HttpURLConnection ) {
-                int code = ((HttpURLConnection)connection).getResponseCode();
-                
-               
-                if ( code == HttpURLConnection.HTTP_MOVED_PERM ||
-                     code == HttpURLConnection.HTTP_MOVED_TEMP ) {
-                    String newloc = connection.getHeaderField( "Location" );
-                    URL newurl = new URL( newloc );
-                    connection = newurl.openConnection();
-                }
-                code = ((HttpURLConnection)connection).getResponseCode();
-                if ( code >= 500  ) // 5** codes, server is not available so we can stop right now.
-                {
-                    throw new SplatException( "Server returned " + ((HttpURLConnection)connection).getResponseMessage() + " " + 
-                            " for the URL : " + url.toString()    );
-                }
-              
-            }
-            connection.setConnectTimeout(10*1000); // 10 seconds
-            connection.setReadTimeout(30*1000); // 30 seconds read timeout??? 
-            InputStream is = connection.getInputStream();
-  
-            //  And read it into a local file. Use the existing file extension
-            //  if available and we're not guessing the type.
+            //  Use the existing file extension if available and we're not
+            //  guessing the type.
             namer = new PathParser( url.toString() );
 
-            //  Create a temporary file. Use a file extension based on the
-            //  type, if known.
+            //  File extension based on the type, if known.
             String stype = null;
             switch (type) {
                 case FITS: {
@@ -1280,12 +1264,16 @@ public class SpecDataFactory
                     }
                 }
             }
-            TemporaryFileDataSource datsrc =
-                new TemporaryFileDataSource( is, url.toString(), "SPLAT",
-                                             stype, null );
-            String tmpFile = datsrc.getFile().getCanonicalPath();
+
+            String tmpFile = null;
+            if ( cached ) {
+                File file = DownloadCache.getInstance().getFile( url, stype );
+                tmpFile = file.getCanonicalPath();
+            }
+            else {
+                tmpFile = downloadToTemporaryFile( url, stype );
+            }
             namer.setPath( tmpFile );
-            datsrc.close();
 
             //  Check file. If an error occurred with the request at the
             //  server end this will probably result in the download of an
@@ -1301,11 +1289,17 @@ public class SpecDataFactory
                  header[0] == '<' && header[1] == 'H' &&
                  header[2] == 'T' && header[3] == 'M' ) {
                 //  Must be HTML.
+                if ( cached ) {
+                    DownloadCache.getInstance().remove( url );
+                }
                 throw new SplatException( "Cannot use the file returned" +
                                           " by the URL : " + url.toString() +
                                           " it contains an HTML document" );
             }
             else if ( header[0] == 0 && header[1] == 0 ) {
+                if ( cached ) {
+                    DownloadCache.getInstance().remove( url );
+                }
                 throw new SplatException( "Cannot use the file returned" +
                                           " by the URL : " + url.toString() +
                                           " as it is empty" );
@@ -1317,6 +1311,47 @@ public class SpecDataFactory
         return namer;
     }
 
+    /**
+     * Download a URL to a temporary file with the given file extension,
+     * returning the name of the file.
+     */
+    private String downloadToTemporaryFile( URL url, String stype )
+        throws Exception
+    {
+        //  Contact the resource.
+        URLConnection connection = url.openConnection();
+
+        //  Handle switching from HTTP to HTTPS, if a HTTP 30x redirect is
+        //  returned, as Java doesn't do this by default (security issues
+        //  when moving from secure to non-secure).
+        if ( connection instanceof HttpURLConnection ) {
+            int code = ((HttpURLConnection)connection).getResponseCode();
+            if ( code == HttpURLConnection.HTTP_MOVED_PERM ||
+                 code == HttpURLConnection.HTTP_MOVED_TEMP ) {
+                String newloc = connection.getHeaderField( "Location" );
+                URL newurl = new URL( newloc );
+                connection = newurl.openConnection();
+            }
+            code = ((HttpURLConnection)connection).getResponseCode();
+            if ( code >= 500  ) // 5** codes, server is not available so we can stop right now.
+            {
+                throw new SplatException( "Server returned " + ((HttpURLConnection)connection).getResponseMessage() + " " + 
+                        " for the URL : " + url.toString()    );
+            }
+        }
+        connection.setConnectTimeout(10*1000); // 10 seconds
+        connection.setReadTimeout(30*1000); // 30 seconds read timeout??? 
+        InputStream is = connection.getInputStream();
+
+        //  And read it into a temporary file.
+        TemporaryFileDataSource datsrc =
+            new TemporaryFileDataSource( is, url.toString(), "SPLAT",
+                                         stype, null );
+        String tmpFile = datsrc.getFile().getCanonicalPath();
+        datsrc.close();
+        return tmpFile;
+    }
+
     //  Types of reprocessing of 2D data files. The default is VECTORIZE
     //  which implementations should have already performed.
     public final static int COLLAPSE = 0;
@@ -1460,16 +1495,10 @@ public class SpecDataFactory
             results[0] = new SpecData( newImpl );
         }
         else {
-            //  Need to pick an axis to step along collapsing each section in
-            //  turn onto the dispersion axis.
-            int stepaxis = specDims.getSelectAxis( true );
-            int displen = specDims.getSigDims()[stepaxis];
-            results = new SpecData[displen];
-            for ( int i = 0; i < displen; i++ ) {
-                SpecDataImpl newImpl =
-                    new CollapsedSpecDataImpl( specData, specDims, i );
-                results[i] = new SpecData( newImpl );
-            }
+            //  Need to pick an axis to step along collapsing each section
+            //  onto the dispersion axis. All sections are collapsed in one
+            //  pass through the cube.
+            results = new CubeCollapser( specData, specDims ).getSpectra();
         }
         return results;
     }
@@ -1481,43 +1510,49 @@ public class SpecDataFactory
     private SpecData[] extractSpecData( SpecData specData, SpecDims specDims )
         throws SplatException
     {
-        SpecData[] results = null;
-        int dispax = specDims.getDispAxis( true );
-        int[] dims = specDims.getSigDims();
+        return new SpaxelCollection( specData, specDims ).getSpectra();
+    }
 
-        if ( dims.length == 2 ) {
-            //  Simple 2D data.
-            if ( dispax == 1 ) {
-                results = new SpecData[dims[0]];
-            }
-            else {
-                results = new SpecData[dims[1]];
-            }
-            for ( int i = 0; i < results.length; i++ ) {
-                SpecDataImpl newImpl =
-                    new ExtractedSpecDataImpl( specData, specDims, i );
-                results[i] = new SpecData( newImpl );
-            }
+    /**
+     * Get a collection of the 1D spectra that can be extracted from a 2D
+     * or 3D SpecData along the dispersion axis. The spectra are only
+     * created when requested from the collection, so this is the way to
+     * add the spaxels of large cubes to the global list. Returns null if
+     * the SpecData is not 2D or 3D, or is an IRAF Echelle spectrum.
+     *
+     * @param specData the SpecData object to extract from.
+     * @param dispax the index of the dispersion axis, set to null for
+     *               automatic choice.
+     * @param selectax the index of the axis that will be stepped along,
+     *                 set to null for automatic choice. This may not be the
+     *                 dispax.
+     * @param purge whether to remove any spectra that have bad limits from
+     *              the collection.
+     */
+    public SpaxelCollection getSpaxels( SpecData specData, Integer dispax,
+                                        Integer selectax, boolean purge )
+        throws SplatException
+    {
+        SpecDims specDims = new SpecDims( specData );
+        int ndims = specDims.getNumSigDims();
+        if ( ndims < 2 || ndims > 3 ) {
+            return null;
         }
-        else {
-            int stepaxis = specDims.getSelectAxis( true );
-            int otheraxis = specDims.getFreeAxis( true );
-            int steplength = dims[stepaxis];
-            int otherlength = dims[otheraxis];
-
-            results = new SpecData[steplength*otherlength];
-            int count = 0;
-            for ( int j = 0; j < otherlength; j++ ) {
-                for ( int i = 0; i < steplength; i++ ) {
-                    SpecDataImpl newImpl =
-                        new ExtractedSpecDataImpl( specData, specDims, i, j );
-                    results[count++] = new SpecData( newImpl );
-                }
-            }
+        String testEchelle = specData.getProperty( "WAT0_001" );
+        if ( testEchelle.contains( "system=multispec" ) ) {
+            return null;
         }
-        return results;
+        specDims.setDispAxis( ( dispax == null ) ? -1 : dispax.intValue(),
+                              true );
+        specDims.setSelectAxis( ( selectax == null ) ? -1 :
+                                selectax.intValue(), true );
+        SpaxelCollection spaxels = new SpaxelCollection( specData, specDims );
+        if ( purge ) {
+            spaxels.purgeBadLimits();
+        }
+        return spaxels;
     }
-    
+
     /**
      * Create a set of new 1D SpecData instances from IRAF Echelle FITS format by extracting each line of a
      * 2D or 3D implementation along the dispersion axis and applying the defined parameters.
@@ -1774,14 +1809,9 @@ public class SpecDataFactory
     {
     	List<SpecData> specDataList = new LinkedList<SpecData>();
     	//SpecData specData = null;
-        if ( dataNodeFactory == null ) {
-            dataNodeFactory = new DataNodeFactory();
-            SplatDataNode.customiseFactory( dataNodeFactory );
-        }
-
         try {
-            DataNode node =
-                dataNodeFactory.makeDataNode( null, new File( specspec ) );
+            DataNode node = dataNodeFactories.get()
+                .makeDataNode( null, new File( specspec ) );
             List<SpecData> sdList = SplatDataNode.makeSpecDataList( node );
             
             for (SpecData specData : sdList) {
@@ -4,14 +4,21 @@
  *  History:
  *     28-SEP-2000 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Stacks are now written using SpecStackFile. The serialized
+ *       Gzipped format can still be read.
+ *     17-OCT-2026:
+ *       Spectra extracted from a cube can be added as a SpaxelCollection,
+ *       these are only created when needed.
  */
 package uk.ac.starlink.splat.data;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -19,7 +26,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import nom.tam.fits.BasicHDU;
 import nom.tam.fits.BinaryTable;
@@ -113,9 +119,10 @@ public class SpecList implements Serializable
     }
 
     /**
-     *  ArrayList of references to spectra
+     *  ArrayList of references to spectra, or to the spectra of a
+     *  SpaxelCollection that are created when needed.
      */
-    protected ArrayList spectra = new ArrayList();
+    protected ArrayList<Object> spectra = new ArrayList<Object>();
     
     /**
      * Map of spectra and the source, from which the spectra came from
@@ -146,6 +153,40 @@ public class SpecList implements Serializable
         return spectra.size() - 1;
     }
     
+    /**
+     *  Add all the spectra of a SpaxelCollection. The spectra are only
+     *  created when they are needed, see {@link #keep}. Returns the index
+     *  of the first spectrum.
+     */
+    public int add( SpaxelCollection spaxels, SourceType sourceType )
+    {
+        int first = spectra.size();
+        int n = spaxels.size();
+        spectra.ensureCapacity( first + n );
+        for ( int i = 0; i < n; i++ ) {
+            spectra.add( new Spaxel( spaxels, i, sourceType ) );
+        }
+        return first;
+    }
+
+    /**
+     *  Keep a spectrum that was added as part of a SpaxelCollection, so
+     *  that it is no longer released when not in use. Call this when the
+     *  spectrum has been changed, so the changes are not lost.
+     */
+    public void keep( int index )
+    {
+        if ( index >= 0 && index < specCount() &&
+             spectra.get( index ) instanceof Spaxel ) {
+            Spaxel spaxel = (Spaxel) spectra.get( index );
+            SpecData spectrum = get( index );
+            if ( spectrum != null ) {
+                spectra.set( index, spectrum );
+                sources.put( spectrum, spaxel.sourceType );
+            }
+        }
+    }
+
     /**
      *  Add a spectrum with unknown source type.
      */
@@ -180,7 +221,7 @@ public class SpecList implements Serializable
      */
     public int remove( SpecData spectrum )
     {
-        int index = spectra.indexOf( spectrum );
+        int index = indexOf( spectrum );
         if ( index != -1 ) {
            if (sources.containsKey(spectrum))
         	   sources.remove(spectrum);
@@ -196,7 +237,7 @@ public class SpecList implements Serializable
     public void remove( int index )
     {
         if ( index < specCount() ) {
-            SpecData spectrum = (SpecData) spectra.get(index);
+            Object spectrum = spectra.get(index);
             if (sources.containsKey(spectrum))
             	sources.remove(spectrum);
             
@@ -210,7 +251,18 @@ public class SpecList implements Serializable
     public SpecData get( int index )
     {
         if ( index < specCount() ) {
-            return (SpecData)spectra.get( index );
+            Object entry = spectra.get( index );
+            if ( entry instanceof Spaxel ) {
+                Spaxel spaxel = (Spaxel) entry;
+                try {
+                    return spaxel.spaxels.getSpectrum( spaxel.index );
+                }
+                catch (SplatException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+            return (SpecData) entry;
         }
         return null;
     }
@@ -220,7 +272,25 @@ public class SpecList implements Serializable
      */
     public int indexOf( SpecData spectrum )
     {
-        return spectra.indexOf( spectrum );
+        int index = spectra.indexOf( spectrum );
+        if ( index == -1 ) {
+            //  May be a spectrum created by a SpaxelCollection.
+            SpaxelCollection last = null;
+            int wanted = -1;
+            for ( int i = 0; i < spectra.size(); i++ ) {
+                if ( spectra.get( i ) instanceof Spaxel ) {
+                    Spaxel spaxel = (Spaxel) spectra.get( i );
+                    if ( spaxel.spaxels != last ) {
+                        last = spaxel.spaxels;
+                        wanted = last.indexOf( spectrum );
+                    }
+                    if ( spaxel.index == wanted ) {
+                        return i;
+                    }
+                }
+            }
+        }
+        return index;
     }
 
     /**
@@ -243,6 +313,12 @@ public class SpecList implements Serializable
      * @return source type from which the spectra came from
      */
     public SourceType getSourceType(SpecData spectrum) {
+        if ( ! sources.containsKey( spectrum ) ) {
+            int index = indexOf( spectrum );
+            if ( index != -1 && spectra.get( index ) instanceof Spaxel ) {
+                return ((Spaxel) spectra.get( index )).sourceType;
+            }
+        }
     	return sources.get(spectrum);
     }
     
@@ -252,7 +328,17 @@ public class SpecList implements Serializable
     public String getFullName( int index )
     {
         if ( index < specCount() ) {
-            return ((SpecData)spectra.get( index )).getFullName();
+            Object entry = spectra.get( index );
+            if ( entry instanceof Spaxel ) {
+                try {
+                    return ((Spaxel) entry).spaxels.getFullName();
+                }
+                catch (SplatException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }
+            return ((SpecData) entry).getFullName();
         }
         return null;
     }
@@ -262,8 +348,9 @@ public class SpecList implements Serializable
      */
     public String getShortName( int index )
     {
-        if ( index < specCount() ) {
-            return ((SpecData)spectra.get( index )).getShortName();
+        SpecData spectrum = get( index );
+        if ( spectrum != null ) {
+            return spectrum.getShortName();
         }
         return null;
     }
@@ -274,7 +361,8 @@ public class SpecList implements Serializable
     public void setShortName( int index, String name )
     {
         if ( index < specCount() ) {
-            ((SpecData)spectra.get( index )).setShortName( name );
+            keep( index );
+            get( index ).setShortName( name );
         }
     }
 
@@ -293,7 +381,8 @@ public class SpecList implements Serializable
     public int known( String fileName )
     {
         for ( int i = 0; i < spectra.size(); i++ ) {
-            if ( ((SpecData)spectra.get(i)).getFullName().equals(fileName) ) {
+            String fullName = getFullName( i );
+            if ( fullName != null && fullName.equals( fileName ) ) {
                 return i;
             }
         }
@@ -310,8 +399,8 @@ public class SpecList implements Serializable
     }
     
     /**
-     * Save current state to a file as a serialised stream. The stream
-     * is Gzipped to save space and should be restored using the
+     * Save current state to a file. STK files are written using
+     * {@link SpecStackFile} and should be restored using the
      * readStack method (which appends the previous state).
      * 
      * @param fileFormat Format of the result file
@@ -325,18 +414,14 @@ public class SpecList implements Serializable
 		switch (fileFormat) {
         	case FITS:
         		try {
-        			OutputStream file = new FileOutputStream( fileName );
-                    OutputStream buffer = new GZIPOutputStream( file );
-                    ObjectOutputStream out = new ObjectOutputStream( buffer );
-                    out.writeObject( this );
-                    out.close();
-                    
                     Fits fitsref = new Fits();
                     
                     for (int i = 0; i < spectra.size(); i++) {
-                    	synchronized(spectra.get(i)) {
+                    	SpecData spectrum = get(i);
+                    	synchronized(spectrum) {
                     		SpecData target =
-                                    specDataFactory.getClone( (SpecData)spectra.get(i), "", SpecDataFactory.FITS,
+                                    specDataFactory.getClone( spectrum, "",
+                                       SpecDataFactory.FITS,
                                        "fits" );
                     		BasicHDU extHdu = ((FITSSpecDataImpl)(target.getSpecDataImpl())).makeHDU(false);
                     		
@@ -362,6 +447,7 @@ public class SpecList implements Serializable
                     OutputStream fo = new FileOutputStream( fileName );
                     BufferedDataOutputStream os = new BufferedDataOutputStream( fo );
                     fitsref.write( os );
+                    os.close();
                 } 
                 catch (Exception ex) {
                     ex.printStackTrace();
@@ -369,11 +455,11 @@ public class SpecList implements Serializable
         		break;
         	case STK:
         		try {
-                    OutputStream file = new FileOutputStream( fileName );
-                    OutputStream buffer = new GZIPOutputStream( file );
-                    ObjectOutputStream out = new ObjectOutputStream( buffer );
-                    out.writeObject( this );
-                    out.close();
+                    SpecData[] stack = new SpecData[spectra.size()];
+                    for ( int i = 0; i < stack.length; i++ ) {
+                        stack[i] = get( i );
+                    }
+                    SpecStackFile.write( stack, new File( fileName ), true );
                 } 
                 catch (Exception ex) {
                     ex.printStackTrace();
@@ -398,11 +484,11 @@ public class SpecList implements Serializable
     }
     
     /**
-     * Read a previous list of spectra stored as a serialised Gzipped
-     * stream in a disk file (by the writeStack method). All recovered
-     * spectra are append and converted in memory resident objects
-     * (rather than retaining their associated with a disk file,
-     * i.e. NDF, TEXT or FITS spectra).
+     * Read a previous list of spectra stored in a disk file (by the
+     * writeStack method). All recovered spectra are append and converted
+     * in memory resident objects (rather than retaining their associated
+     * with a disk file, i.e. NDF, TEXT or FITS spectra). STK files in
+     * the older serialised Gzipped format are also read.
      *
      * @param fileName name of the file containing the data.
      * @param fileFormat format of the file - STK/FITS/...
@@ -415,9 +501,17 @@ public class SpecList implements Serializable
         switch (fileFormat) {
         	case STK:
         		try {
-                    InputStream file = new FileInputStream( fileName );
-                    restored = readStack( file );
-                    file.close();
+                    File file = new File( fileName );
+                    if ( SpecStackFile.isStackFile( file ) ) {
+                        SpecStackFile stack = new SpecStackFile( file );
+                        restored = readStack( stack );
+                        stack.close();
+                    }
+                    else {
+                        InputStream in = new FileInputStream( file );
+                        restored = readStack( in );
+                        in.close();
+                    }
                 } 
                 catch (Exception e) {
                     e.printStackTrace();
@@ -444,19 +538,27 @@ public class SpecList implements Serializable
     }
 
     /**
-     * Read a previous list of spectra stored as a serialised Gzipped
-     * stream (must originate from the writeStack method). All recovered
-     * spectra are append and converted in memory resident objects
-     * (rather than retaining their associated with a disk file,
-     * i.e. NDF, TEXT or FITS spectra).
+     * Read a previous list of spectra stored in a stream (must originate
+     * from the writeStack method, either as a {@link SpecStackFile} or
+     * the older serialised Gzipped format). All recovered spectra are
+     * append and converted in memory resident objects (rather than
+     * retaining their associated with a disk file, i.e. NDF, TEXT or
+     * FITS spectra).
      *
-     * @param in the stream containing the serialised data.
+     * @param in the stream containing the stack.
      * @return the number of spectra that are restored.
      */
     public int readStack( InputStream in )
     {
         int restored = 0;
         try {
+            in = new BufferedInputStream( in );
+            if ( SpecStackFile.isStackFile( in ) ) {
+                SpecStackFile stack = new SpecStackFile( in );
+                in.close();
+                return readStack( stack );
+            }
+
             InputStream buffer = new GZIPInputStream( in );
             ObjectInputStream oin = new ObjectInputStream( buffer );
             SpecList specList = (SpecList) oin.readObject();
@@ -474,4 +576,46 @@ public class SpecList implements Serializable
         }
         return restored;
     }
+
+    /**
+     * Read all the spectra in a {@link SpecStackFile}. The spectra are
+     * restored in parallel and then appended in order.
+     *
+     * @param stack the opened stack.
+     * @return the number of spectra that are restored.
+     */
+    public int readStack( SpecStackFile stack )
+    {
+        int restored = 0;
+        try {
+            SpecData[] restoredSpectra = stack.getAll();
+            GlobalSpecPlotList gList = GlobalSpecPlotList.getInstance();
+            for ( int i = 0; i < restoredSpectra.length; i++ ) {
+                gList.add( restoredSpectra[i] );
+                restored++;
+            }
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        return restored;
+    }
+
+    /**
+     *  A list entry for a spectrum of a SpaxelCollection, that has not
+     *  been kept.
+     */
+    private static class Spaxel
+    {
+        SpaxelCollection spaxels;
+        int index;
+        SourceType sourceType;
+
+        Spaxel( SpaxelCollection spaxels, int index, SourceType sourceType )
+        {
+            this.spaxels = spaxels;
+            this.index = index;
+            this.sourceType = sourceType;
+        }
+    }
 }
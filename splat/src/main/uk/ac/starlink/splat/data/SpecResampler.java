@@ -0,0 +1,691 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.data;
+
+import uk.ac.starlink.ast.AstException;
+import uk.ac.starlink.ast.FrameSet;
+import uk.ac.starlink.splat.util.ChunkedTask;
+import uk.ac.starlink.splat.util.Sort;
+import uk.ac.starlink.splat.util.SplatException;
+
+/**
+ * Resample the data values of spectra onto the coordinates of another
+ * spectrum, so that they can be combined.
+ * <p>
+ * When coordinate matching is on, spectra are aligned using the AST
+ * mapping between their coordinate systems, see
+ * {@link SpecDataComp#getMapping}, so differences in spectral coordinate
+ * system, and data units when that matching is also on, are allowed for.
+ * Otherwise the coordinates are used as they are. The positions to
+ * resample at are transformed into the coordinates of the source spectrum
+ * in one call, and are then visited in order so that each needs no
+ * search. Long spectra are divided into chunks that are resampled at the
+ * same time, and spectra that are combined are resampled at the same
+ * time.
+ * <p>
+ * The methods available are linear interpolation, a natural cubic spline
+ * and a flux conserving rebin, which averages the source values over the
+ * extent of each new position, weighted by their overlap. Positions
+ * outside the source spectrum, or next to BAD values, are BAD.
+ *
+ * @version $Id$
+ * @see SpecDataComp
+ */
+public class SpecResampler
+{
+    /** Linear interpolation */
+    public static final int LINEAR = 0;
+
+    /** Natural cubic spline interpolation */
+    public static final int SPLINE = 1;
+
+    /** Flux conserving rebin */
+    public static final int FLUX = 2;
+
+    /** Combine spectra by summing */
+    public static final int SUM = 0;
+
+    /** Combine spectra by averaging */
+    public static final int MEAN = 1;
+
+    /** Smallest number of positions in a chunk */
+    private static final int MIN_CHUNK = 8192;
+
+    /** The method */
+    private int method = LINEAR;
+
+    /** Number of threads */
+    private int threads = ChunkedTask.getDefaultThreads();
+
+    /** Whether to match coordinates */
+    private boolean coordinateMatching = false;
+
+    /** Whether to match data units */
+    private boolean dataUnitsMatching = false;
+
+    /**
+     * Create an instance.
+     *
+     * @param method the method, LINEAR, SPLINE or FLUX.
+     */
+    public SpecResampler( int method )
+    {
+        setMethod( method );
+    }
+
+    /**
+     * Set the method, LINEAR, SPLINE or FLUX.
+     */
+    public void setMethod( int method )
+    {
+        this.method = method;
+    }
+
+    /**
+     * Get the method.
+     */
+    public int getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * Set the number of threads used to resample long spectra. The default
+     * is the number of processors, use 1 to disable threading.
+     */
+    public void setThreads( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Get the number of threads used to resample long spectra.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Set whether to align the coordinates of the spectra, see
+     * {@link SpecDataComp#setCoordinateMatching}. The default is false.
+     */
+    public void setCoordinateMatching( boolean coordinateMatching )
+    {
+        this.coordinateMatching = coordinateMatching;
+    }
+
+    /**
+     * Get whether to align the coordinates of the spectra.
+     */
+    public boolean isCoordinateMatching()
+    {
+        return coordinateMatching;
+    }
+
+    /**
+     * Set whether to match the data units of the spectra, see
+     * {@link SpecDataComp#setDataUnitsMatching}. This also needs
+     * coordinate matching. The default is false.
+     */
+    public void setDataUnitsMatching( boolean dataUnitsMatching )
+    {
+        this.dataUnitsMatching = dataUnitsMatching;
+    }
+
+    /**
+     * Get whether to match the data units of the spectra.
+     */
+    public boolean isDataUnitsMatching()
+    {
+        return dataUnitsMatching;
+    }
+
+    /**
+     * Resample values at some new coordinates. The coordinates do not
+     * need to be sorted, but this is fastest when they are monotonic.
+     * For the FLUX method the new coordinates must be monotonic, otherwise
+     * the LINEAR method is used.
+     *
+     * @param coords the coordinates of the values.
+     * @param data the values.
+     * @param newCoords the coordinates to resample at.
+     * @return the resampled values.
+     */
+    public double[] resample( double[] coords, double[] data,
+                              double[] newCoords )
+    {
+        Source source = new Source( coords, data, method );
+        double[] result = new double[newCoords.length];
+        fill( source, newCoords, result );
+        return result;
+    }
+
+    /**
+     * Resample the values of a spectrum at the coordinates of another.
+     * The result is in the data units of the target spectrum when data
+     * units matching is on.
+     *
+     * @param source the spectrum to resample.
+     * @param target the spectrum whose coordinates are used.
+     * @return the resampled values.
+     * @throws SplatException if the spectra cannot be aligned.
+     */
+    public double[] resample( SpecData source, SpecData target )
+        throws SplatException
+    {
+        SpecDataComp comp = createComp( target );
+        if ( source != target ) {
+            comp.add( source );
+        }
+        return resample( comp.getMapping( source ), source, target );
+    }
+
+    /**
+     * Combine a number of spectra after resampling them at the coordinates
+     * of a target spectrum. The target may be one of the spectra. A SUM is
+     * BAD where any spectrum is BAD, a MEAN is of the values that are not.
+     *
+     * @param spectra the spectra.
+     * @param target the spectrum whose coordinates are used.
+     * @param operation SUM or MEAN.
+     * @return the combined values, in the data units of the target when
+     *         data units matching is on.
+     * @throws SplatException if the spectra cannot be aligned.
+     */
+    public double[] combine( final SpecData[] spectra,
+                             final SpecData target, int operation )
+        throws SplatException
+    {
+        SpecDataComp comp = createComp( target );
+        for ( int i = 0; i < spectra.length; i++ ) {
+            if ( spectra[i] != target ) {
+                comp.add( spectra[i] );
+            }
+        }
+
+        //  Mappings are created by the SpecDataComp, so before any threads.
+        final FrameSet[] mappings = new FrameSet[spectra.length];
+        for ( int i = 0; i < spectra.length; i++ ) {
+            mappings[i] = comp.getMapping( spectra[i] );
+        }
+
+        //  Resample a group of spectra at the same time, then add them.
+        int n = target.getXData().length;
+        double[] sum = new double[n];
+        int[] count = new int[n];
+        int size = Math.max( 1, Math.min( threads, spectra.length ) );
+        final double[][] values = new double[size][];
+        final SplatException[] failures = new SplatException[size];
+        for ( int first = 0; first < spectra.length; first += size ) {
+            final int offset = first;
+            int group = Math.min( size, spectra.length - first );
+            ChunkedTask task = new ChunkedTask()
+                {
+                    protected void process( int start, int end )
+                    {
+                        for ( int k = start; k < end; k++ ) {
+                            int i = offset + k;
+                            try {
+                                values[k] = resample( mappings[i],
+                                                      spectra[i], target );
+                            }
+                            catch (SplatException e) {
+                                failures[k] = e;
+                            }
+                        }
+                    }
+                };
+            try {
+                task.execute( group, 1, threads );
+            }
+            catch (SplatException e) {
+                //  Fall back to a single thread.
+                task.execute( group, group, 1 );
+            }
+
+            for ( int k = 0; k < group; k++ ) {
+                if ( failures[k] != null ) {
+                    throw failures[k];
+                }
+                double[] v = values[k];
+                for ( int j = 0; j < n; j++ ) {
+                    if ( v[j] != SpecData.BAD ) {
+                        sum[j] += v[j];
+                        count[j]++;
+                    }
+                }
+                values[k] = null;
+            }
+        }
+
+        for ( int j = 0; j < n; j++ ) {
+            if ( count[j] == 0 ||
+                 ( operation == SUM && count[j] != spectra.length ) ) {
+                sum[j] = SpecData.BAD;
+            }
+            else if ( operation == MEAN ) {
+                sum[j] /= count[j];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Create a SpecDataComp that aligns spectra with a target, using the
+     * coordinate and data units matching settings.
+     */
+    protected SpecDataComp createComp( SpecData target )
+    {
+        SpecDataComp comp = new SpecDataComp( target );
+        comp.setCoordinateMatching( coordinateMatching );
+        comp.setDataUnitsMatching( dataUnitsMatching );
+        return comp;
+    }
+
+    /**
+     * Resample a spectrum at the coordinates of a target spectrum.
+     *
+     * @param mapping the mapping from the target coordinates and data
+     *                units to those of the source, see
+     *                {@link SpecDataComp#getMapping}. If null the
+     *                coordinates are used unmapped.
+     * @param source the spectrum to resample.
+     * @param target the spectrum whose coordinates are used.
+     */
+    protected double[] resample( FrameSet mapping, SpecData source,
+                                 SpecData target )
+        throws SplatException
+    {
+        double[] coords = target.getXData();
+        int n = coords.length;
+        try {
+            //  Positions in the source coordinates. Any data value will do
+            //  for the second axis, but avoid zero.
+            double[] sourceCoords = coords;
+            if ( mapping != null ) {
+                double[] ones = new double[n];
+                for ( int i = 0; i < n; i++ ) {
+                    ones[i] = 1.0;
+                }
+                sourceCoords = mapping.tran2( n, coords, ones, true )[0];
+            }
+
+            double[] values = resample( source.getXData(),
+                                        source.getYData(), sourceCoords );
+
+            //  And back to the units of the target.
+            if ( mapping != null ) {
+                values = mapping.tran2( n, sourceCoords, values, false )[1];
+            }
+            return values;
+        }
+        catch (AstException e) {
+            throw new SplatException( "Failed to resample " +
+                                      source.getShortName() + " to match " +
+                                      target.getShortName(), e );
+        }
+    }
+
+    /**
+     * Resample at all the new coordinates, using chunks when there are
+     * enough.
+     */
+    protected void fill( final Source source, final double[] newCoords,
+                         final double[] result )
+    {
+        final int n = newCoords.length;
+        final int order = getOrder( newCoords );
+        if ( threads > 1 && n >= 2 * MIN_CHUNK ) {
+            ChunkedTask task = new ChunkedTask()
+                {
+                    protected void process( int start, int end )
+                    {
+                        fill( source, newCoords, order, result, start, end );
+                    }
+                };
+            try {
+                task.execute( n, MIN_CHUNK, threads );
+                return;
+            }
+            catch (SplatException e) {
+                //  Fall back to a single thread.
+            }
+        }
+        fill( source, newCoords, order, result, 0, n );
+    }
+
+    /**
+     * Resample at the new coordinates start to end-1. Positions are
+     * visited in increasing coordinate order when possible, so that
+     * each search starts where the last ended.
+     *
+     * @param order 1 for increasing, -1 for decreasing and 0 for
+     *              non-monotonic new coordinates.
+     */
+    protected void fill( Source source, double[] newCoords, int order,
+                         double[] result, int start, int end )
+    {
+        boolean flux = ( method == FLUX && order != 0 );
+        int hint = -1;
+        for ( int k = start; k < end; k++ ) {
+            int j = ( order < 0 ) ? ( start + end - 1 - k ) : k;
+            double x = newCoords[j];
+            if ( x == SpecData.BAD ) {
+                result[j] = SpecData.BAD;
+                continue;
+            }
+            if ( flux ) {
+                double[] bin = getBin( newCoords, j );
+                if ( bin != null ) {
+                    hint = source.locateEdge( bin[0], hint );
+                    result[j] = source.rebin( bin[0], bin[1], hint );
+                    continue;
+                }
+            }
+            hint = source.locate( x, hint );
+            result[j] = source.interpolate( x, hint );
+        }
+    }
+
+    /**
+     * Get the extent of a position, half way to its neighbours. Returns
+     * null if it has no extent.
+     */
+    private static double[] getBin( double[] coords, int j )
+    {
+        int n = coords.length;
+        double x = coords[j];
+        double lo = SpecData.BAD;
+        double hi = SpecData.BAD;
+        if ( j > 0 && coords[j-1] != SpecData.BAD ) {
+            lo = 0.5 * ( coords[j-1] + x );
+        }
+        if ( j < n - 1 && coords[j+1] != SpecData.BAD ) {
+            hi = 0.5 * ( x + coords[j+1] );
+        }
+        if ( lo == SpecData.BAD && hi == SpecData.BAD ) {
+            return null;
+        }
+        if ( lo == SpecData.BAD ) {
+            lo = x - ( hi - x );
+        }
+        else if ( hi == SpecData.BAD ) {
+            hi = x + ( x - lo );
+        }
+        if ( lo == hi ) {
+            return null;
+        }
+        return ( lo < hi ) ? new double[] { lo, hi } : new double[] { hi, lo };
+    }
+
+    /**
+     * Get the order of some coordinates, 1 for increasing, -1 for
+     * decreasing and 0 when not monotonic. BAD values are ignored.
+     */
+    private static int getOrder( double[] coords )
+    {
+        int order = 0;
+        double last = SpecData.BAD;
+        for ( int i = 0; i < coords.length; i++ ) {
+            double x = coords[i];
+            if ( x == SpecData.BAD ) {
+                continue;
+            }
+            if ( last != SpecData.BAD ) {
+                int step = ( x > last ) ? 1 : ( ( x < last ) ? -1 : 0 );
+                if ( step == 0 || ( order != 0 && step != order ) ) {
+                    return 0;
+                }
+                order = step;
+            }
+            last = x;
+        }
+        return ( order == 0 ) ? 1 : order;
+    }
+
+    /**
+     * The values of a source spectrum, in increasing coordinate order,
+     * with anything needed by the method.
+     */
+    protected static class Source
+    {
+        /** Coordinates, increasing, none BAD */
+        private double[] x = null;
+
+        /** Values */
+        private double[] y = null;
+
+        /** Second derivatives for a spline, null otherwise */
+        private double[] y2 = null;
+
+        /** Edges of the extent of each value, for a rebin */
+        private double[] edges = null;
+
+        /** Number of values */
+        private int n = 0;
+
+        /**
+         * Create an instance.
+         */
+        public Source( double[] coords, double[] data, int method )
+        {
+            //  Remove BAD coordinates.
+            int count = 0;
+            for ( int i = 0; i < coords.length; i++ ) {
+                if ( coords[i] != SpecData.BAD ) {
+                    count++;
+                }
+            }
+            x = coords;
+            y = data;
+            if ( count != coords.length ) {
+                x = new double[count];
+                y = new double[count];
+                for ( int i = 0, j = 0; i < coords.length; i++ ) {
+                    if ( coords[i] != SpecData.BAD ) {
+                        x[j] = coords[i];
+                        y[j] = data[i];
+                        j++;
+                    }
+                }
+            }
+            n = count;
+
+            //  Make increasing.
+            int order = getOrder( x );
+            if ( order < 0 ) {
+                double[] rx = new double[n];
+                double[] ry = new double[n];
+                for ( int i = 0; i < n; i++ ) {
+                    rx[i] = x[n - 1 - i];
+                    ry[i] = y[n - 1 - i];
+                }
+                x = rx;
+                y = ry;
+            }
+            else if ( order == 0 ) {
+                if ( x == coords ) {
+                    x = x.clone();
+                    y = y.clone();
+                }
+                Sort.sort( x, y );
+            }
+
+            if ( method == SPLINE ) {
+                initSpline();
+            }
+            else if ( method == FLUX ) {
+                initEdges();
+            }
+        }
+
+        /**
+         * Find the largest index with a coordinate not greater than a
+         * value, -1 if none. Starts from a previous result when possible.
+         */
+        public int locate( double value, int hint )
+        {
+            return locate( x, n, value, hint );
+        }
+
+        /**
+         * Find the largest index with a lower edge not greater than a
+         * value, -1 if none.
+         */
+        public int locateEdge( double value, int hint )
+        {
+            return locate( edges, n, value, hint );
+        }
+
+        /**
+         * Find the largest index of an increasing array with a value not
+         * greater than a value, -1 if none.
+         */
+        private static int locate( double[] a, int n, double value,
+                                   int hint )
+        {
+            if ( n == 0 || value < a[0] ) {
+                return -1;
+            }
+            int low = 0;
+            if ( hint >= 0 && hint < n && a[hint] <= value ) {
+                //  Walk a short way, usually the next position.
+                for ( int i = 0; i < 8; i++ ) {
+                    if ( hint == n - 1 || a[hint + 1] > value ) {
+                        return hint;
+                    }
+                    hint++;
+                }
+                low = hint;
+            }
+            int high = n - 1;
+            while ( low < high ) {
+                int mid = ( low + high + 1 ) >>> 1;
+                if ( a[mid] <= value ) {
+                    low = mid;
+                }
+                else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Interpolate at a position, given the result of locate.
+         */
+        public double interpolate( double value, int i )
+        {
+            if ( i < 0 ) {
+                return SpecData.BAD;
+            }
+            if ( x[i] == value ) {
+                return y[i];
+            }
+            if ( i == n - 1 ) {
+                return SpecData.BAD;
+            }
+            double y1 = y[i];
+            double y2i = y[i + 1];
+            if ( y1 == SpecData.BAD || y2i == SpecData.BAD ) {
+                return SpecData.BAD;
+            }
+            double h = x[i + 1] - x[i];
+            double b = ( value - x[i] ) / h;
+            double a = 1.0 - b;
+            double result = a * y1 + b * y2i;
+            if ( y2 != null ) {
+                result += ( ( a * a * a - a ) * y2[i] +
+                            ( b * b * b - b ) * y2[i + 1] ) * h * h / 6.0;
+            }
+            return result;
+        }
+
+        /**
+         * Average the values over an extent, weighted by their overlap,
+         * given the result of locateEdge for the lower limit. BAD when less
+         * than half the extent has good values.
+         */
+        public double rebin( double lo, double hi, int i )
+        {
+            double sum = 0.0;
+            double weight = 0.0;
+            for ( i = Math.max( 0, i ); i < n && edges[i] < hi; i++ ) {
+                double overlap =
+                    Math.min( hi, edges[i + 1] ) - Math.max( lo, edges[i] );
+                if ( overlap > 0.0 && y[i] != SpecData.BAD ) {
+                    sum += overlap * y[i];
+                    weight += overlap;
+                }
+            }
+            if ( weight > 0.0 && weight >= 0.5 * ( hi - lo ) ) {
+                return sum / weight;
+            }
+            return SpecData.BAD;
+        }
+
+        /**
+         * Set up the second derivatives of a natural cubic spline through
+         * each run of good values.
+         */
+        private void initSpline()
+        {
+            y2 = new double[n];
+            double[] u = new double[n];
+            int start = 0;
+            while ( start < n ) {
+                if ( y[start] == SpecData.BAD ) {
+                    start++;
+                    continue;
+                }
+                int end = start;
+                while ( end < n - 1 && y[end + 1] != SpecData.BAD &&
+                        x[end + 1] > x[end] ) {
+                    end++;
+                }
+                for ( int i = start + 1; i < end; i++ ) {
+                    double sig = ( x[i] - x[i-1] ) / ( x[i+1] - x[i-1] );
+                    double p = sig * y2[i-1] + 2.0;
+                    y2[i] = ( sig - 1.0 ) / p;
+                    double d = ( y[i+1] - y[i] ) / ( x[i+1] - x[i] ) -
+                        ( y[i] - y[i-1] ) / ( x[i] - x[i-1] );
+                    u[i] = ( 6.0 * d / ( x[i+1] - x[i-1] ) - sig * u[i-1] ) / p;
+                }
+                y2[end] = 0.0;
+                for ( int i = end - 1; i > start; i-- ) {
+                    y2[i] = y2[i] * y2[i+1] + u[i];
+                }
+                y2[start] = 0.0;
+                start = end + 1;
+            }
+        }
+
+        /**
+         * Set up the edges of the extent of each value, half way to its
+         * neighbours.
+         */
+        private void initEdges()
+        {
+            edges = new double[n + 1];
+            if ( n == 0 ) {
+                return;
+            }
+            if ( n == 1 ) {
+                edges[0] = x[0];
+                edges[1] = x[0];
+                return;
+            }
+            for ( int i = 1; i < n; i++ ) {
+                edges[i] = 0.5 * ( x[i-1] + x[i] );
+            }
+            edges[0] = x[0] - ( edges[1] - x[0] );
+            edges[n] = x[n-1] + ( x[n-1] - edges[n-1] );
+        }
+    }
+}
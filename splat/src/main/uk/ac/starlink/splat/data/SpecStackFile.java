@@ -0,0 +1,821 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import uk.ac.starlink.splat.util.ChunkedTask;
+import uk.ac.starlink.splat.util.SplatException;
+
+/**
+ * Reads and writes stacks of spectra using a versioned binary format.
+ * <p>
+ * The file starts with a fixed header (magic string, version, number
+ * of spectra and the position of a table of contents), followed by one
+ * block per spectrum and finally the table of contents. Each block
+ * holds the serialized form of a {@link SpecData} with its large data
+ * arrays removed, followed by those arrays stored as separate columns,
+ * which are optionally byte-shuffled and deflated. The table of
+ * contents records the short name of each spectrum and where its parts
+ * are, so a single spectrum can be restored without reading the rest
+ * of the file, which is memory mapped when possible.
+ * <p>
+ * Encoding and decoding of several spectra is done in parallel.
+ *
+ * @version $Id$
+ * @see SpecList
+ */
+public class SpecStackFile
+{
+    /**
+     * The magic string at the start of all stack files.
+     */
+    public static final String MAGIC = "SPLATSTK";
+
+    /**
+     * The version of the format written.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Encoding for blocks stored as plain big-endian bytes.
+     */
+    public static final int RAW = 0;
+
+    /**
+     * Encoding for blocks that are deflated. Columns are also
+     * byte-shuffled before deflation.
+     */
+    public static final int DEFLATE = 1;
+
+    /**
+     * Arrays of doubles with at least this number of elements are
+     * stored as columns, smaller ones stay in the serialized data.
+     */
+    public static final int MIN_COLUMN = 16;
+
+    /** Size of the file header. */
+    private static final int HEADER_SIZE = 28;
+
+    /** The table of contents. */
+    private Entry[] entries = null;
+
+    /** Channel for the file, null when reading from memory. */
+    private FileChannel channel = null;
+
+    /** The whole file, null when too large to map in one buffer. */
+    private ByteBuffer buffer = null;
+
+    /**
+     * Open a stack file for reading. The file is memory mapped.
+     *
+     * @param file the stack file.
+     * @throws SplatException if the file cannot be opened or isn't
+     *                        a stack file.
+     */
+    public SpecStackFile( File file )
+        throws SplatException
+    {
+        try {
+            channel = new FileInputStream( file ).getChannel();
+            long size = channel.size();
+            if ( size <= Integer.MAX_VALUE ) {
+                buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0,
+                                      size );
+            }
+            readContents( size );
+        }
+        catch (IOException e) {
+            close();
+            throw new SplatException( "Failed to open stack file: " +
+                                      file, e );
+        }
+    }
+
+    /**
+     * Open a stack stored in a stream. All the stream is read into
+     * memory, but the spectra are not restored until requested.
+     *
+     * @param in the stream, this is read to the end but not closed.
+     * @throws SplatException if the stream cannot be read or isn't
+     *                        a stack.
+     */
+    public SpecStackFile( InputStream in )
+        throws SplatException
+    {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[65536];
+            int n;
+            while ( ( n = in.read( buf ) ) != -1 ) {
+                out.write( buf, 0, n );
+            }
+            buffer = ByteBuffer.wrap( out.toByteArray() );
+            readContents( buffer.capacity() );
+        }
+        catch (IOException e) {
+            throw new SplatException( "Failed to read stack", e );
+        }
+    }
+
+    /**
+     * Get the number of spectra in the stack.
+     */
+    public int getCount()
+    {
+        return entries.length;
+    }
+
+    /**
+     * Get the short name of a spectrum, without restoring it.
+     *
+     * @param index the index of the spectrum.
+     */
+    public String getShortName( int index )
+    {
+        return entries[index].shortName;
+    }
+
+    /**
+     * Restore a spectrum. The result is always memory resident.
+     *
+     * @param index the index of the spectrum.
+     * @throws SplatException if the spectrum cannot be restored.
+     */
+    public SpecData get( int index )
+        throws SplatException
+    {
+        Entry entry = entries[index];
+        try {
+            InputStream in = new BufferInputStream
+                ( getBlock( entry.metaOffset, entry.metaLength ) );
+            if ( entry.metaEncoding == DEFLATE ) {
+                in = new InflaterInputStream( in );
+            }
+            ColumnInputStream oin = new ColumnInputStream( in, entry );
+            SpecData specData = (SpecData) oin.readObject();
+            oin.close();
+            return specData;
+        }
+        catch (Exception e) {
+            throw new SplatException( "Failed to restore spectrum: " +
+                                      entry.shortName, e );
+        }
+    }
+
+    /**
+     * Restore all the spectra, in parallel when possible.
+     *
+     * @throws SplatException if any spectrum cannot be restored.
+     */
+    public SpecData[] getAll()
+        throws SplatException
+    {
+        final SpecData[] result = new SpecData[entries.length];
+        final SplatException[] failure = new SplatException[1];
+        ChunkedTask task = new ChunkedTask()
+            {
+                protected void process( int start, int end )
+                {
+                    for ( int i = start; i < end; i++ ) {
+                        try {
+                            result[i] = get( i );
+                        }
+                        catch (SplatException e) {
+                            failure[0] = e;
+                            return;
+                        }
+                    }
+                }
+            };
+        try {
+            task.execute( entries.length, 1,
+                          ChunkedTask.getDefaultThreads() );
+        }
+        catch (SplatException e) {
+            //  Pick up any missing spectra serially.
+            for ( int i = 0; i < result.length; i++ ) {
+                if ( result[i] == null ) {
+                    result[i] = get( i );
+                }
+            }
+            failure[0] = null;
+        }
+        if ( failure[0] != null ) {
+            throw failure[0];
+        }
+        return result;
+    }
+
+    /**
+     * Release the file. Spectra already restored are not affected.
+     */
+    public void close()
+    {
+        if ( channel != null ) {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                // Do nothing.
+            }
+            channel = null;
+        }
+        buffer = null;
+    }
+
+    /**
+     * Test if a file is a stack in this format.
+     *
+     * @param file the file.
+     * @return true if the file starts with the magic string.
+     */
+    public static boolean isStackFile( File file )
+    {
+        try {
+            InputStream in = new FileInputStream( file );
+            try {
+                return hasMagic( in );
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Test if a stream contains a stack in this format. The stream
+     * must support mark and reset and is left at its original position.
+     *
+     * @param in the stream.
+     * @return true if the stream starts with the magic string.
+     */
+    public static boolean isStackFile( InputStream in )
+        throws IOException
+    {
+        in.mark( MAGIC.length() );
+        try {
+            return hasMagic( in );
+        }
+        finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Write a list of spectra to a stack file.
+     *
+     * @param spectra the spectra.
+     * @param file the file to write, any existing file is overwritten.
+     * @param compress whether to deflate the spectra.
+     * @throws SplatException if the file cannot be written.
+     */
+    public static void write( SpecData[] spectra, File file,
+                              final boolean compress )
+        throws SplatException
+    {
+        final int count = spectra.length;
+        int nthreads = ChunkedTask.getDefaultThreads();
+        int batch = Math.max( 1, nthreads * 2 );
+        List<Entry> toc = new ArrayList<Entry>( count );
+
+        try {
+            RandomAccessFile out = new RandomAccessFile( file, "rw" );
+            try {
+                out.setLength( 0 );
+                out.write( new byte[HEADER_SIZE] );
+
+                //  Encode the spectra in batches, so that only a few are
+                //  held in memory, and write them out in order.
+                for ( int first = 0; first < count; first += batch ) {
+                    int n = Math.min( batch, count - first );
+                    final SpecData[] batchSpectra = new SpecData[n];
+                    System.arraycopy( spectra, first, batchSpectra, 0, n );
+                    Block[] blocks = encode( batchSpectra, compress,
+                                             nthreads );
+                    for ( int i = 0; i < n; i++ ) {
+                        toc.add( blocks[i].write( out ) );
+                    }
+                }
+
+                //  Table of contents, then fill in the header.
+                long tocOffset = out.getFilePointer();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream dout = new DataOutputStream( bytes );
+                for ( Entry entry : toc ) {
+                    entry.write( dout );
+                }
+                dout.close();
+                out.write( bytes.toByteArray() );
+
+                out.seek( 0 );
+                out.write( MAGIC.getBytes( "US-ASCII" ) );
+                out.writeInt( VERSION );
+                out.writeInt( count );
+                out.writeLong( tocOffset );
+                out.writeInt( bytes.size() );
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            throw new SplatException( "Failed to write stack file: " +
+                                      file, e );
+        }
+    }
+
+    /**
+     * Encode some spectra, in parallel if possible.
+     */
+    private static Block[] encode( final SpecData[] spectra,
+                                   final boolean compress, int nthreads )
+        throws SplatException
+    {
+        final Block[] blocks = new Block[spectra.length];
+        final SplatException[] failure = new SplatException[1];
+        ChunkedTask task = new ChunkedTask()
+            {
+                protected void process( int start, int end )
+                {
+                    for ( int i = start; i < end; i++ ) {
+                        try {
+                            blocks[i] = new Block( spectra[i], compress );
+                        }
+                        catch (SplatException e) {
+                            failure[0] = e;
+                            return;
+                        }
+                    }
+                }
+            };
+        try {
+            task.execute( spectra.length, 1, nthreads );
+        }
+        catch (SplatException e) {
+            for ( int i = 0; i < blocks.length; i++ ) {
+                if ( blocks[i] == null ) {
+                    blocks[i] = new Block( spectra[i], compress );
+                }
+            }
+            failure[0] = null;
+        }
+        if ( failure[0] != null ) {
+            throw failure[0];
+        }
+        return blocks;
+    }
+
+    /**
+     * Read the header and table of contents.
+     */
+    private void readContents( long size )
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream
+            ( new BufferInputStream( getBlock( 0, HEADER_SIZE ) ) );
+        if ( ! hasMagic( in ) ) {
+            throw new IOException( "Not a SPLAT stack file" );
+        }
+        int version = in.readInt();
+        if ( version > VERSION ) {
+            throw new IOException( "Unsupported stack file version: " +
+                                   version );
+        }
+        int count = in.readInt();
+        long tocOffset = in.readLong();
+        int tocLength = in.readInt();
+        if ( count < 0 || tocOffset < HEADER_SIZE ||
+             tocOffset + tocLength > size ) {
+            throw new IOException( "Stack file is truncated or corrupt" );
+        }
+
+        in = new DataInputStream
+            ( new BufferInputStream( getBlock( tocOffset, tocLength ) ) );
+        entries = new Entry[count];
+        for ( int i = 0; i < count; i++ ) {
+            entries[i] = new Entry( in );
+        }
+    }
+
+    /**
+     * Get a buffer for part of the file.
+     */
+    private ByteBuffer getBlock( long offset, int length )
+        throws IOException
+    {
+        if ( buffer != null ) {
+            ByteBuffer block = buffer.duplicate();
+            block.position( (int) offset );
+            block.limit( (int) offset + length );
+            return block.slice();
+        }
+        if ( channel == null ) {
+            throw new IOException( "Stack file is closed" );
+        }
+        return channel.map( FileChannel.MapMode.READ_ONLY, offset, length );
+    }
+
+    /**
+     * Decode a column.
+     */
+    private double[] readColumn( long offset, int length, int nvalues,
+                                 int encoding )
+        throws IOException
+    {
+        ByteBuffer block = getBlock( offset, length );
+        if ( encoding == RAW ) {
+            double[] data = new double[nvalues];
+            block.order( ByteOrder.BIG_ENDIAN ).asDoubleBuffer().get( data );
+            return data;
+        }
+
+        byte[] packed = new byte[length];
+        block.get( packed );
+        return decodeColumn( packed, nvalues, encoding );
+    }
+
+    /**
+     * Decode a column from its packed bytes, the reverse of
+     * {@link #encodeColumn}.
+     */
+    static double[] decodeColumn( byte[] packed, int nvalues, int encoding )
+        throws IOException
+    {
+        double[] data = new double[nvalues];
+        if ( encoding == RAW ) {
+            ByteBuffer.wrap( packed ).asDoubleBuffer().get( data );
+            return data;
+        }
+
+        byte[] bytes = new byte[nvalues * 8];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput( packed );
+            int n = 0;
+            while ( n < bytes.length && ! inflater.finished() ) {
+                int c = inflater.inflate( bytes, n, bytes.length - n );
+                if ( c == 0 && inflater.needsInput() ) {
+                    break;
+                }
+                n += c;
+            }
+            if ( n != bytes.length ) {
+                throw new IOException( "Stack file column is truncated" );
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IOException( "Stack file column is corrupt: " +
+                                   e.getMessage() );
+        }
+        finally {
+            inflater.end();
+        }
+
+        //  Undo the byte shuffle.
+        for ( int i = 0; i < nvalues; i++ ) {
+            long bits = 0L;
+            for ( int b = 0, j = i; b < 8; b++, j += nvalues ) {
+                bits = ( bits << 8 ) | ( bytes[j] & 0xFFL );
+            }
+            data[i] = Double.longBitsToDouble( bits );
+        }
+        return data;
+    }
+
+    /**
+     * Encode a column. Returns the encoding used in the first element
+     * of encoding.
+     */
+    static byte[] encodeColumn( double[] data, boolean compress,
+                                int[] encoding )
+    {
+        int nvalues = data.length;
+        byte[] bytes = new byte[nvalues * 8];
+        encoding[0] = RAW;
+        if ( ! compress ) {
+            ByteBuffer.wrap( bytes ).asDoubleBuffer().put( data );
+            return bytes;
+        }
+
+        //  Shuffle so that the most significant bytes of all values come
+        //  first, these are very repetitive and deflate well.
+        for ( int i = 0; i < nvalues; i++ ) {
+            long bits = Double.doubleToRawLongBits( data[i] );
+            for ( int b = 7, j = i; b >= 0; b--, j += nvalues ) {
+                bytes[j] = (byte) ( bits >>> ( b * 8 ) );
+            }
+        }
+        Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+        ByteArrayOutputStream out =
+            new ByteArrayOutputStream( bytes.length / 2 + 64 );
+        try {
+            deflater.setInput( bytes );
+            deflater.finish();
+            byte[] buf = new byte[65536];
+            while ( ! deflater.finished() ) {
+                int c = deflater.deflate( buf );
+                out.write( buf, 0, c );
+            }
+        }
+        finally {
+            deflater.end();
+        }
+
+        //  Keep the plain form when nothing is gained.
+        if ( out.size() >= bytes.length ) {
+            ByteBuffer.wrap( bytes ).asDoubleBuffer().put( data );
+            return bytes;
+        }
+        encoding[0] = DEFLATE;
+        return out.toByteArray();
+    }
+
+    /**
+     * Check for the magic string.
+     */
+    private static boolean hasMagic( InputStream in )
+        throws IOException
+    {
+        for ( int i = 0; i < MAGIC.length(); i++ ) {
+            if ( in.read() != MAGIC.charAt( i ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Table of contents entry for a spectrum.
+     */
+    private static class Entry
+    {
+        String shortName;
+        long metaOffset;
+        int metaLength;
+        int metaEncoding;
+        long[] colOffsets;
+        int[] colLengths;
+        int[] colValues;
+        int[] colEncodings;
+
+        Entry( String shortName, int ncols )
+        {
+            this.shortName = shortName;
+            colOffsets = new long[ncols];
+            colLengths = new int[ncols];
+            colValues = new int[ncols];
+            colEncodings = new int[ncols];
+        }
+
+        Entry( DataInputStream in )
+            throws IOException
+        {
+            this( in.readUTF(), 0 );
+            metaOffset = in.readLong();
+            metaLength = in.readInt();
+            metaEncoding = in.readInt();
+            int ncols = in.readInt();
+            colOffsets = new long[ncols];
+            colLengths = new int[ncols];
+            colValues = new int[ncols];
+            colEncodings = new int[ncols];
+            for ( int i = 0; i < ncols; i++ ) {
+                colOffsets[i] = in.readLong();
+                colLengths[i] = in.readInt();
+                colValues[i] = in.readInt();
+                colEncodings[i] = in.readInt();
+            }
+        }
+
+        void write( DataOutputStream out )
+            throws IOException
+        {
+            out.writeUTF( shortName );
+            out.writeLong( metaOffset );
+            out.writeInt( metaLength );
+            out.writeInt( metaEncoding );
+            out.writeInt( colOffsets.length );
+            for ( int i = 0; i < colOffsets.length; i++ ) {
+                out.writeLong( colOffsets[i] );
+                out.writeInt( colLengths[i] );
+                out.writeInt( colValues[i] );
+                out.writeInt( colEncodings[i] );
+            }
+        }
+    }
+
+    /**
+     * An encoded spectrum, ready for writing.
+     */
+    private static class Block
+    {
+        String shortName;
+        byte[] meta;
+        int metaEncoding;
+        List<byte[]> columns;
+        List<int[]> columnInfo;
+
+        Block( SpecData specData, boolean compress )
+            throws SplatException
+        {
+            shortName = specData.getShortName();
+            if ( shortName == null ) {
+                shortName = "";
+            }
+            metaEncoding = compress ? DEFLATE : RAW;
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                OutputStream out = bytes;
+                if ( compress ) {
+                    out = new DeflaterOutputStream
+                        ( bytes, new Deflater( Deflater.BEST_SPEED ) );
+                }
+                ColumnOutputStream oout =
+                    new ColumnOutputStream( out, compress );
+                synchronized( specData ) {
+                    oout.writeObject( specData );
+                }
+                oout.close();
+                meta = bytes.toByteArray();
+                columns = oout.columns;
+                columnInfo = oout.columnInfo;
+            }
+            catch (IOException e) {
+                throw new SplatException( "Failed to encode spectrum: " +
+                                          shortName, e );
+            }
+        }
+
+        /**
+         * Write to the file and return the table of contents entry.
+         */
+        Entry write( RandomAccessFile out )
+            throws IOException
+        {
+            Entry entry = new Entry( shortName, columns.size() );
+            entry.metaOffset = out.getFilePointer();
+            entry.metaLength = meta.length;
+            entry.metaEncoding = metaEncoding;
+            out.write( meta );
+            for ( int i = 0; i < columns.size(); i++ ) {
+                byte[] column = columns.get( i );
+                int[] info = columnInfo.get( i );
+                entry.colOffsets[i] = out.getFilePointer();
+                entry.colLengths[i] = column.length;
+                entry.colValues[i] = info[0];
+                entry.colEncodings[i] = info[1];
+                out.write( column );
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Serializes a spectrum, replacing large arrays of doubles with
+     * references to columns.
+     */
+    private static class ColumnOutputStream
+        extends ObjectOutputStream
+    {
+        private boolean compress;
+
+        /** The encoded columns. */
+        List<byte[]> columns = new ArrayList<byte[]>();
+
+        /** The number of values and encoding of each column. */
+        List<int[]> columnInfo = new ArrayList<int[]>();
+
+        ColumnOutputStream( OutputStream out, boolean compress )
+            throws IOException
+        {
+            super( out );
+            this.compress = compress;
+            enableReplaceObject( true );
+        }
+
+        protected Object replaceObject( Object obj )
+        {
+            if ( obj instanceof double[] &&
+                 ( (double[]) obj ).length >= MIN_COLUMN ) {
+                double[] data = (double[]) obj;
+                int[] encoding = new int[1];
+                columns.add( encodeColumn( data, compress, encoding ) );
+                columnInfo.add( new int[] { data.length, encoding[0] } );
+                return new ColumnRef( columns.size() - 1 );
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * Restores a spectrum, resolving column references by reading the
+     * columns.
+     */
+    private class ColumnInputStream
+        extends ObjectInputStream
+    {
+        private Entry entry;
+
+        ColumnInputStream( InputStream in, Entry entry )
+            throws IOException
+        {
+            super( in );
+            this.entry = entry;
+            enableResolveObject( true );
+        }
+
+        protected Object resolveObject( Object obj )
+            throws IOException
+        {
+            if ( obj instanceof ColumnRef ) {
+                int i = ( (ColumnRef) obj ).index;
+                if ( i < 0 || i >= entry.colOffsets.length ) {
+                    throw new IOException( "Stack file column missing" );
+                }
+                return readColumn( entry.colOffsets[i], entry.colLengths[i],
+                                   entry.colValues[i],
+                                   entry.colEncodings[i] );
+            }
+            return obj;
+        }
+    }
+
+    /**
+     * Placeholder for an array stored as a column.
+     */
+    private static class ColumnRef
+        implements Serializable
+    {
+        static final long serialVersionUID = 1L;
+        int index;
+
+        ColumnRef( int index )
+        {
+            this.index = index;
+        }
+    }
+
+    /**
+     * InputStream that reads from a ByteBuffer.
+     */
+    private static class BufferInputStream
+        extends InputStream
+    {
+        private ByteBuffer buffer;
+
+        BufferInputStream( ByteBuffer buffer )
+        {
+            this.buffer = buffer;
+        }
+
+        public int read()
+        {
+            return buffer.hasRemaining() ? ( buffer.get() & 0xFF ) : -1;
+        }
+
+        public int read( byte[] b, int off, int len )
+        {
+            if ( ! buffer.hasRemaining() ) {
+                return -1;
+            }
+            len = Math.min( len, buffer.remaining() );
+            buffer.get( b, off, len );
+            return len;
+        }
+
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
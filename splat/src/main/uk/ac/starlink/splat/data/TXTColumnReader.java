@@ -0,0 +1,528 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import uk.ac.starlink.splat.util.ChunkedTask;
+import uk.ac.starlink.splat.util.SplatException;
+
+/**
+ * Reads columns of numbers from the data section of a text file.
+ * <p>
+ * Each line of the data section is a row of whitespace separated values.
+ * Blank lines and comment lines, which start with "!" or "#" in the
+ * first column, are skipped. Only the first few values of each row are
+ * read, and rows with fewer values have the missing values set to zero.
+ * Values are read with single precision, as by
+ * {@link Float#parseFloat}, and any value that cannot be read is an
+ * error.
+ * <p>
+ * The file is read directly as bytes, so no Strings are created except
+ * for the rare values that need the full parser. Large files are divided
+ * into blocks of whole lines which are read by several threads at once.
+ * A first pass over the blocks counts the rows and a second reads the
+ * values straight into the final arrays.
+ *
+ * @version $Id$
+ */
+public class TXTColumnReader
+{
+    /**
+     * Smallest number of bytes to give a block.
+     */
+    public static final int MIN_BLOCK = 1048576;
+
+    /**
+     * Size of the buffer used to read a block.
+     */
+    private static final int BUFFER_SIZE = 65536;
+
+    /**
+     * Powers of ten that are exact as doubles.
+     */
+    private static final double[] POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * The file.
+     */
+    private File file = null;
+
+    /**
+     * Position of the data section in the file.
+     */
+    private long offset = 0L;
+
+    /**
+     * The number of values to read from each row.
+     */
+    private int maxColumns = 1;
+
+    /**
+     * The number of threads.
+     */
+    private int threads = ChunkedTask.getDefaultThreads();
+
+    /**
+     * The number of rows and columns found.
+     */
+    private int nrows = 0;
+    private int ncolumns = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param file the text file.
+     * @param offset the position of the first line of the data section.
+     * @param maxColumns the number of values to read from each row.
+     */
+    public TXTColumnReader( File file, long offset, int maxColumns )
+    {
+        this.file = file;
+        this.offset = offset;
+        this.maxColumns = Math.max( 1, maxColumns );
+    }
+
+    /**
+     * Set the number of threads used to read large files. The default
+     * is the number of processors, use 1 to disable threading.
+     */
+    public void setThreads( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Get the number of threads used to read large files.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Get the number of rows found by the last read.
+     */
+    public int getRowCount()
+    {
+        return nrows;
+    }
+
+    /**
+     * Get the number of columns found by the last read. This is the
+     * largest number of values in any row, up to the number requested.
+     */
+    public int getColumnCount()
+    {
+        return ncolumns;
+    }
+
+    /**
+     * Read the values.
+     *
+     * @return the columns of values, one array per column found, each
+     *         array having one value per row.
+     * @throws SplatException if the file cannot be read or contains
+     *         a value that is not a number.
+     */
+    public double[][] read()
+        throws SplatException
+    {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream( file );
+            return read( in.getChannel() );
+        }
+        catch (IOException e) {
+            throw new SplatException( e );
+        }
+        finally {
+            if ( in != null ) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    //  Do nothing, it's not fatal.
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the values using an open channel.
+     */
+    private double[][] read( FileChannel channel )
+        throws IOException, SplatException
+    {
+        //  Divide the data section into blocks, one per thread unless the
+        //  blocks would be small.
+        long length = Math.max( 0L, channel.size() - offset );
+        int nblock = (int) Math.max( 1L, Math.min( (long) threads,
+                                                   length / MIN_BLOCK ) );
+        final Block[] blocks = new Block[nblock];
+        for ( int i = 0; i < nblock; i++ ) {
+            blocks[i] = new Block( channel, offset + length * i / nblock,
+                                   offset + length * ( i + 1 ) / nblock );
+        }
+
+        //  Count the rows and columns of each block.
+        run( blocks, null );
+        nrows = 0;
+        ncolumns = 0;
+        for ( int i = 0; i < nblock; i++ ) {
+            blocks[i].firstRow = nrows;
+            nrows += blocks[i].rows;
+            ncolumns = Math.max( ncolumns, blocks[i].columns );
+        }
+
+        //  Read the values.
+        double[][] columns = new double[ncolumns][nrows];
+        if ( nrows > 0 ) {
+            run( blocks, columns );
+        }
+        return columns;
+    }
+
+    /**
+     * Scan all the blocks, counting the rows or reading the values.
+     * The first failure in file order is reported.
+     */
+    private void run( final Block[] blocks, final double[][] columns )
+        throws IOException, SplatException
+    {
+        ChunkedTask task = new ChunkedTask()
+            {
+                protected void process( int start, int end )
+                {
+                    for ( int i = start; i < end; i++ ) {
+                        blocks[i].scan( columns );
+                    }
+                }
+            };
+        try {
+            task.execute( blocks.length, 1, threads );
+        }
+        catch (SplatException e) {
+            //  Thread pool failed, so just scan the blocks in this thread.
+            for ( int i = 0; i < blocks.length; i++ ) {
+                blocks[i].scan( columns );
+            }
+        }
+
+        for ( int i = 0; i < blocks.length; i++ ) {
+            Exception failure = blocks[i].failure;
+            if ( failure instanceof IOException ) {
+                throw (IOException) failure;
+            }
+            else if ( failure != null ) {
+                throw new SplatException( "Error reading values from file: "
+                                          + file + " (" +
+                                          failure.getMessage() + ")",
+                                          failure );
+            }
+        }
+    }
+
+    /**
+     * Return if a byte ends a line.
+     */
+    private static boolean isEndOfLine( int b )
+    {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Return if a byte separates values. These are the characters matched
+     * by the "\s" regular expression, less the line endings.
+     */
+    private static boolean isSpace( int b )
+    {
+        return b == ' ' || b == '\t' || b == '\f' || b == 0x0B;
+    }
+
+    /**
+     * Convert a value to a float, widened to a double. Plain decimal
+     * values are converted directly, others are passed to
+     * Float.parseFloat.
+     *
+     * @param token buffer holding the characters of the value.
+     * @param length the number of characters.
+     * @throws NumberFormatException if the value is not a number.
+     */
+    private static double parseValue( byte[] token, int length )
+    {
+        int i = 0;
+        boolean negative = false;
+        if ( token[0] == '-' || token[0] == '+' ) {
+            negative = ( token[0] == '-' );
+            i++;
+        }
+
+        //  Mantissa digits, ignoring any leading zeros. Digits after the
+        //  first 18 are too small to matter.
+        long mantissa = 0L;
+        int ndigit = 0;
+        int exponent = 0;
+        boolean seen = false;
+        boolean point = false;
+        for ( ; i < length; i++ ) {
+            int b = token[i];
+            if ( b >= '0' && b <= '9' ) {
+                seen = true;
+                if ( ndigit == 18 ) {
+                    if ( ! point ) {
+                        exponent++;
+                    }
+                }
+                else {
+                    if ( mantissa != 0L || b != '0' ) {
+                        mantissa = mantissa * 10L + ( b - '0' );
+                        ndigit++;
+                    }
+                    if ( point ) {
+                        exponent--;
+                    }
+                }
+            }
+            else if ( b == '.' && ! point ) {
+                point = true;
+            }
+            else {
+                break;
+            }
+        }
+
+        //  Exponent.
+        boolean simple = true;
+        if ( seen && i < length &&
+             ( token[i] == 'e' || token[i] == 'E' ) ) {
+            i++;
+            boolean negexp = false;
+            if ( i < length && ( token[i] == '-' || token[i] == '+' ) ) {
+                negexp = ( token[i] == '-' );
+                i++;
+            }
+            int value = 0;
+            int start = i;
+            for ( ; i < length && value < 1000; i++ ) {
+                int b = token[i];
+                if ( b < '0' || b > '9' ) {
+                    break;
+                }
+                value = value * 10 + ( b - '0' );
+            }
+            if ( i == start ) {
+                simple = false;
+            }
+            exponent += negexp ? -value : value;
+        }
+
+        //  The nearest double to the decimal value is found with at most
+        //  three roundings, so is within a few units of its last place.
+        //  Rounding that to float gives the correct result, unless it is
+        //  that close to halfway between two floats, so that rare case is
+        //  left to the full parser, as are values outside the range of
+        //  the exact powers of ten.
+        if ( simple && seen && i == length ) {
+            if ( mantissa == 0L ) {
+                return negative ? -0.0 : 0.0;
+            }
+            if ( exponent >= -44 && exponent <= 44 ) {
+                double d = mantissa;
+                if ( exponent < -22 ) {
+                    d = d / POWERS[22] / POWERS[-22 - exponent];
+                }
+                else if ( exponent < 0 ) {
+                    d = d / POWERS[-exponent];
+                }
+                else if ( exponent > 22 ) {
+                    d = d * POWERS[22] * POWERS[exponent - 22];
+                }
+                else {
+                    d = d * POWERS[exponent];
+                }
+                float f = (float) d;
+                if ( f == d ) {
+                    return negative ? -f : f;
+                }
+                if ( ! Float.isInfinite( f ) ) {
+                    double half = ( (double) f + Math.nextAfter( f, d ) ) * 0.5;
+                    if ( Math.abs( d - half ) > 4.0 * Math.ulp( d ) ) {
+                        return negative ? -f : f;
+                    }
+                }
+            }
+        }
+        return Float.parseFloat( new String( token, 0, length ) );
+    }
+
+    /**
+     * A range of the data section. The block reads all the lines that
+     * start within its range.
+     */
+    private class Block
+    {
+        FileChannel channel;
+        long start;
+        long end;
+
+        /** The rows and columns found by counting. */
+        int rows = 0;
+        int columns = 0;
+
+        /** Index of the first row of the block. */
+        int firstRow = 0;
+
+        /** Any failure. */
+        Exception failure = null;
+
+        /** Buffer of bytes being read and its state. */
+        byte[] buffer = null;
+        int bufferLength = 0;
+        int bufferPos = 0;
+        long position = 0L;
+
+        Block( FileChannel channel, long start, long end )
+        {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Return the next byte, or -1 at the end of file.
+         */
+        int next()
+            throws IOException
+        {
+            if ( bufferPos == bufferLength ) {
+                ByteBuffer bb = ByteBuffer.wrap( buffer );
+                int n = 0;
+                while ( n == 0 ) {
+                    n = channel.read( bb, position );
+                }
+                if ( n < 0 ) {
+                    return -1;
+                }
+                position += n;
+                bufferLength = n;
+                bufferPos = 0;
+            }
+            return buffer[bufferPos++];
+        }
+
+        /**
+         * Position of the byte that would be returned by next().
+         */
+        long tell()
+        {
+            return position - bufferLength + bufferPos;
+        }
+
+        /**
+         * Count the rows, or read the values into the columns when given.
+         */
+        void scan( double[][] values )
+        {
+            failure = null;
+            if ( start >= end ) {
+                return;
+            }
+            buffer = new byte[BUFFER_SIZE];
+            bufferLength = 0;
+            bufferPos = 0;
+            position = start;
+            byte[] token = new byte[64];
+            int row = firstRow;
+            int count = 0;
+            int maxCount = 0;
+            try {
+                //  Move to the first line that starts in this block.
+                int b;
+                if ( start > offset ) {
+                    position = start - 1;
+                    b = next();
+                    while ( b != -1 && ! isEndOfLine( b ) ) {
+                        b = next();
+                    }
+                }
+
+                while ( tell() < end ) {
+                    b = next();
+                    if ( b == -1 ) {
+                        break;
+                    }
+
+                    //  Skip blank and comment lines.
+                    if ( isEndOfLine( b ) ) {
+                        continue;
+                    }
+                    if ( b == '!' || b == '#' ) {
+                        while ( b != -1 && ! isEndOfLine( b ) ) {
+                            b = next();
+                        }
+                        continue;
+                    }
+
+                    //  Values of the line.
+                    int nvalue = 0;
+                    while ( b != -1 && ! isEndOfLine( b ) ) {
+                        if ( isSpace( b ) ) {
+                            b = next();
+                            continue;
+                        }
+                        int length = 0;
+                        while ( b != -1 && ! isEndOfLine( b ) &&
+                                ! isSpace( b ) ) {
+                            if ( values != null && nvalue < maxColumns ) {
+                                if ( length == token.length ) {
+                                    byte[] larger = new byte[length * 2];
+                                    System.arraycopy( token, 0, larger, 0,
+                                                      length );
+                                    token = larger;
+                                }
+                                token[length] = (byte) b;
+                            }
+                            length++;
+                            b = next();
+                        }
+                        if ( nvalue < maxColumns ) {
+                            if ( values != null ) {
+                                values[nvalue][row] =
+                                    parseValue( token, length );
+                            }
+                            nvalue++;
+                        }
+                    }
+
+                    //  Lines of whitespace are blank too.
+                    if ( nvalue > 0 ) {
+                        row++;
+                        count++;
+                        maxCount = Math.max( maxCount, nvalue );
+                    }
+                }
+            }
+            catch (Exception e) {
+                failure = e;
+            }
+            if ( values == null ) {
+                rows = count;
+                columns = maxCount;
+            }
+            buffer = null;
+        }
+    }
+}
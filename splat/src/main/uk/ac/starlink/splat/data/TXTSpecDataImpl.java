@@ -6,18 +6,20 @@
  *  History:
  *     01-SEP-2000 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Read the data section using TXTColumnReader.
  */
 package uk.ac.starlink.splat.data;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.util.ArrayList;
+import java.io.PushbackInputStream;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -29,6 +31,7 @@ import uk.ac.starlink.ast.FrameSet;
 import uk.ac.starlink.ast.LutMap;
 import uk.ac.starlink.ast.Mapping;
 import uk.ac.starlink.ast.SpecFrame;
+import uk.ac.starlink.splat.util.ChunkedTask;
 import uk.ac.starlink.splat.util.SplatException;
 import uk.ac.starlink.splat.util.Utilities;
 
@@ -132,6 +135,28 @@ public class TXTSpecDataImpl
      */
     protected Map attributes = null;
 
+    /**
+     * The number of threads used to read large files.
+     */
+    private static int threads = ChunkedTask.getDefaultThreads();
+
+    /**
+     * Set the number of threads used to read the values of large files.
+     * The default is the number of processors, use 1 to disable threading.
+     */
+    public static void setThreads( int number )
+    {
+        threads = Math.max( 1, number );
+    }
+
+    /**
+     * Get the number of threads used to read the values of large files.
+     */
+    public static int getThreads()
+    {
+        return threads;
+    }
+
     /**
      * Open an existing text file and read the contents.
      *
@@ -174,15 +199,15 @@ public class TXTSpecDataImpl
     protected void readData( File file )
         throws SplatException
     {
-        //  Get a BufferedReader to read the file line-by-line. Note
-        //  we are avoiding using StreamTokenizer directly, and doing
-        //  our own parsing, as this doesn't deal with floating point
-        //  values very well.
+        //  Read the header section a line at a time, keeping count of the
+        //  bytes so we know where the data section starts. The data
+        //  section is read by a TXTColumnReader, which avoids creating
+        //  Strings for each line.
         FileInputStream f = null;
-        BufferedReader r = null;
+        PushbackInputStream r = null;
         try {
             f = new FileInputStream( file );
-            r = new BufferedReader( new InputStreamReader( f ) );
+            r = new PushbackInputStream( new BufferedInputStream( f ) );
         }
         catch ( Exception e ) {
             throw new SplatException( e );
@@ -193,16 +218,17 @@ public class TXTSpecDataImpl
         String words[];
         String raw = null;
         boolean dsbspecframe = false;
+        long[] offset = new long[1];
         attributes = null;
         try {
-            raw = r.readLine();
+            raw = readLine( r, offset );
             if ( "#BEGIN".equals( raw ) ) {
                 attributes = new LinkedHashMap();
                 nhead++;
 
                 String key;
                 String value;
-                while ( ( raw = r.readLine() ) != null ) {
+                while ( ( raw = readLine( r, offset ) ) != null ) {
                     if ( "#END".equals( raw ) ) {
                         nhead++;
                         break;
@@ -226,63 +252,12 @@ public class TXTSpecDataImpl
             }
             else {
                 // Rewind.
-                r.close();
-                f.close();
-                f = new FileInputStream( file );
-                r = new BufferedReader( new InputStreamReader( f ) );
+                offset[0] = 0L;
             }
         }
         catch (Exception e) {
             e.printStackTrace();
         }
-
-        //  Storage of all values go into ArrayList vectors, until we
-        //  know the exact sizes required.
-        ArrayList[] vec = new ArrayList[3];
-        vec[0] = new ArrayList();
-        vec[1] = new ArrayList();
-        vec[2] = new ArrayList();
-
-        //  Read file input until end of file occurs.
-        String clean = null;
-        int count = 0;
-        int nlines = 0;
-        int nwords = 0;
-        try {
-            while ( ( raw = r.readLine() ) != null ) {
-
-                //  Skip blank and comment lines.
-                if ( raw.length() == 0 || raw.charAt(0) == '!' ||
-                     raw.charAt(0) == '#' ) {
-                    continue;
-                }
-                else {
-                    // Read at least one or two floating numbers from line
-                    // and no more than 3.
-                    words = raw.trim().split( "\\s+" );
-                    count = Math.min( words.length, 3 );
-                    nwords = Math.max( count, nwords );
-                    for ( int i = 0; i < count; i++ ) {
-                        vec[i].add( new Float( words[i] ) );
-                    }
-                    for ( int i = count; i < 3; i++ ) {
-                        vec[i].add( new Float( 0.0 ) );
-                    }
-                    nlines++;
-                }
-            }
-        }
-        catch ( Exception e ) {
-            try {
-                r.close();
-                f.close();
-            }
-            catch ( Exception ex ) {
-                ex.printStackTrace();
-            }
-            throw new SplatException( "Error reading values from file: " +
-                                      file + " (" + e.getMessage() + ")", e );
-        }
         try {
             r.close();
             f.close();
@@ -291,32 +266,34 @@ public class TXTSpecDataImpl
             //  Do nothing, it's not fatal.
         }
 
-        //  Create memory needed to store these coordinates.
-        data = new double[nlines];
-        coords = new double[nlines];
-        if ( nwords == 3 ) {
-            errors = new double[nlines];
-        }
+        //  Read at least one or two floating numbers from each line of
+        //  the data section and no more than 3.
+        TXTColumnReader reader = new TXTColumnReader( file, offset[0], 3 );
+        reader.setThreads( threads );
+        double[][] columns = reader.read();
+        int nlines = reader.getRowCount();
+        int nwords = reader.getColumnCount();
 
-        //  Now copy data into arrays and record the data range.
+        //  Use the columns as the coordinates, data and errors.
         if ( nwords == 3 ) {
-            for ( int i = 0; i < nlines; i++ ) {
-                coords[i] = ((Float)vec[0].get(i)).floatValue();
-                data[i] = ((Float)vec[1].get(i)).floatValue();
-                errors[i] = ((Float)vec[2].get(i)).floatValue();
-            }
+            coords = columns[0];
+            data = columns[1];
+            errors = columns[2];
         }
         else if ( nwords == 2 ) {
-            for ( int i = 0; i < nlines; i++ ) {
-                coords[i] = ((Float)vec[0].get(i)).floatValue();
-                data[i] = ((Float)vec[1].get(i)).floatValue();
-            }
+            coords = columns[0];
+            data = columns[1];
         }
         else if ( nwords == 1 ) {
+            coords = new double[nlines];
             for ( int i = 0; i < nlines; i++ ) {
                 coords[i] = i + 1;
-                data[i] = ((Float)vec[0].get(i)).floatValue();
             }
+            data = columns[0];
+        }
+        else {
+            data = new double[0];
+            coords = new double[0];
         }
 
         //  Create the AST frameset that describes the data-coordinate
@@ -329,6 +306,44 @@ public class TXTSpecDataImpl
         }
     }
 
+    /**
+     * Read a line from a stream, in the same way as
+     * BufferedReader.readLine, adding the number of bytes read, including
+     * the line terminator, to a count.
+     *
+     * @param in the stream.
+     * @param count the count, in the first element.
+     * @return the line, without any line terminator, or null at the end
+     *         of the stream.
+     */
+    private String readLine( PushbackInputStream in, long[] count )
+        throws IOException
+    {
+        int b = in.read();
+        if ( b == -1 ) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        while ( b != -1 && b != '\n' && b != '\r' ) {
+            bytes.write( b );
+            count[0]++;
+            b = in.read();
+        }
+        if ( b != -1 ) {
+            count[0]++;
+            if ( b == '\r' ) {
+                int c = in.read();
+                if ( c == '\n' ) {
+                    count[0]++;
+                }
+                else if ( c != -1 ) {
+                    in.unread( c );
+                }
+            }
+        }
+        return bytes.toString();
+    }
+
     /**
      * Write spectral data to the file.
      *
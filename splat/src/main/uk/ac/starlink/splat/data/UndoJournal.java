@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.data;
+
+import java.io.IOException;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoManager;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * An {@link UndoManager} that limits the memory used by its edits, rather
+ * than just their number.
+ * <p>
+ * Edits that implement {@link Sized} report their memory use. When the
+ * total exceeds the memory limit the oldest edits are spilled to
+ * temporary files, and when the disk limit is also exceeded, or spilling
+ * fails, the oldest edits are discarded. The next edit to be undone and
+ * any that can be redone are always kept. The default limits are 64 and
+ * 1024 megabytes, these can be set using the "splat.undo.memory" and
+ * "splat.undo.disk" system properties.
+ *
+ * @version $Id$
+ * @see ColumnDelta
+ */
+public class UndoJournal
+    extends UndoManager
+{
+    /** Serialization version ID string */
+    static final long serialVersionUID = -8663828214632785943L;
+
+    /** Default memory limit, bytes */
+    public static final long DEFAULT_MEMORY_LIMIT =
+        getMegabytes( "splat.undo.memory", 64 );
+
+    /** Default disk limit, bytes */
+    public static final long DEFAULT_DISK_LIMIT =
+        getMegabytes( "splat.undo.disk", 1024 );
+
+    /** Memory limit */
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+
+    /** Disk limit */
+    private long diskLimit = DEFAULT_DISK_LIMIT;
+
+    /**
+     * Interface for edits that can report and reduce their memory use.
+     */
+    public interface Sized
+    {
+        /** Get the number of bytes of memory used. */
+        public long getMemorySize();
+
+        /** Get the number of bytes written to disk. */
+        public long getDiskSize();
+
+        /** Write any large values to disk, releasing their memory. */
+        public void spill() throws IOException;
+    }
+
+    /**
+     * Create an instance with the default limits.
+     */
+    public UndoJournal()
+    {
+        this( DEFAULT_MEMORY_LIMIT, DEFAULT_DISK_LIMIT );
+    }
+
+    /**
+     * Create an instance.
+     *
+     * @param memoryLimit the memory that edits can use, bytes.
+     * @param diskLimit the disk space that edits can use, bytes. Zero
+     *                  to never spill edits to disk.
+     */
+    public UndoJournal( long memoryLimit, long diskLimit )
+    {
+        super();
+        this.memoryLimit = memoryLimit;
+        this.diskLimit = diskLimit;
+
+        //  Only the size limits apply.
+        setLimit( Integer.MAX_VALUE );
+    }
+
+    /**
+     * Set the memory limit, bytes.
+     */
+    public synchronized void setMemoryLimit( long memoryLimit )
+    {
+        this.memoryLimit = memoryLimit;
+        enforceLimits();
+    }
+
+    /**
+     * Get the memory limit, bytes.
+     */
+    public synchronized long getMemoryLimit()
+    {
+        return memoryLimit;
+    }
+
+    /**
+     * Set the disk limit, bytes. Zero to never spill edits to disk.
+     */
+    public synchronized void setDiskLimit( long diskLimit )
+    {
+        this.diskLimit = diskLimit;
+        enforceLimits();
+    }
+
+    /**
+     * Get the disk limit, bytes.
+     */
+    public synchronized long getDiskLimit()
+    {
+        return diskLimit;
+    }
+
+    /**
+     * Get the memory used by all edits, bytes.
+     */
+    public synchronized long getMemorySize()
+    {
+        long size = 0;
+        for ( int i = 0; i < edits.size(); i++ ) {
+            Object edit = edits.elementAt( i );
+            if ( edit instanceof Sized ) {
+                size += ((Sized) edit).getMemorySize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the disk space used by all edits, bytes.
+     */
+    public synchronized long getDiskSize()
+    {
+        long size = 0;
+        for ( int i = 0; i < edits.size(); i++ ) {
+            Object edit = edits.elementAt( i );
+            if ( edit instanceof Sized ) {
+                size += ((Sized) edit).getDiskSize();
+            }
+        }
+        return size;
+    }
+
+    public synchronized boolean addEdit( UndoableEdit anEdit )
+    {
+        boolean result = super.addEdit( anEdit );
+        enforceLimits();
+        return result;
+    }
+
+    public synchronized void undo()
+        throws CannotUndoException
+    {
+        super.undo();
+        enforceLimits();
+    }
+
+    public synchronized void redo()
+        throws CannotRedoException
+    {
+        super.redo();
+        enforceLimits();
+    }
+
+    /**
+     * Spill or discard the oldest edits until the limits are met.
+     */
+    protected void enforceLimits()
+    {
+        long memory = getMemorySize();
+        long disk = getDiskSize();
+
+        //  Spill from the oldest, stopping at the most recent edit.
+        for ( int i = 0; i < edits.size() - 1 && memory > memoryLimit; i++ ) {
+            Object edit = edits.elementAt( i );
+            if ( edit instanceof Sized && disk < diskLimit ) {
+                Sized sized = (Sized) edit;
+                long before = sized.getMemorySize();
+                long diskBefore = sized.getDiskSize();
+                try {
+                    sized.spill();
+                }
+                catch (IOException e) {
+                    //  Cannot use the disk, so discard instead.
+                    diskLimit = 0;
+                    break;
+                }
+                memory -= before - sized.getMemorySize();
+                disk += sized.getDiskSize() - diskBefore;
+            }
+        }
+
+        //  Discard the oldest until both limits are met. Only edits before
+        //  the next to be undone can go, edits that can be redone must
+        //  be kept to remain in step.
+        int last = edits.indexOf( editToBeUndone() );
+        int n = 0;
+        while ( n < last && ( memory > memoryLimit || disk > diskLimit ) ) {
+            Object edit = edits.elementAt( n );
+            if ( edit instanceof Sized ) {
+                memory -= ((Sized) edit).getMemorySize();
+                disk -= ((Sized) edit).getDiskSize();
+            }
+            n++;
+        }
+        if ( n > 0 ) {
+            trimEdits( 0, n - 1 );
+        }
+    }
+
+    /**
+     * Get a size in megabytes from a system property.
+     */
+    private static long getMegabytes( String name, long defaultValue )
+    {
+        long value = defaultValue;
+        try {
+            String prop = System.getProperty( name );
+            if ( prop != null ) {
+                value = Long.parseLong( prop.trim() );
+            }
+        }
+        catch (Exception e) {
+            //  Use default.
+        }
+        return value * 1024L * 1024L;
+    }
+}
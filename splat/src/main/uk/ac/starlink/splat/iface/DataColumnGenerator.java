@@ -143,6 +143,9 @@ public class DataColumnGenerator
                 
                 VoigtGenerator generator = new VoigtGenerator( scale, centre,
                                                                gwidth, lwidth);
+
+                //  Spectra can be long, so interpolate the profile.
+                generator.setTableMode( true );
                 double[] function = generator.evalYDataArray( coord );
                 double[] result = function;
 
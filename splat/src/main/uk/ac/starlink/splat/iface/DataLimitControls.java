@@ -7,6 +7,8 @@
  *    20-FEB-2004 (Peter W. Draper):
  *       Added log axes (breaks view-model, but more convenient than normal
  *       astgui properties dialog).
+ *    17-OCT-2026:
+ *       Added button to fit the Y limits to the data in the visible X range.
  */
 package uk.ac.starlink.splat.iface;
 
@@ -33,8 +35,10 @@ import uk.ac.starlink.ast.gui.PlotConfigurator;  // For javadocs
 import uk.ac.starlink.ast.gui.AbstractPlotControlsModel;
 import uk.ac.starlink.splat.data.DataLimits;
 import uk.ac.starlink.splat.data.SpecData;
+import uk.ac.starlink.splat.data.SpecDataComp;
 import uk.ac.starlink.splat.plot.PlotControl;
 import uk.ac.starlink.splat.util.Percentile;
+import uk.ac.starlink.splat.util.SplatException;
 import uk.ac.starlink.splat.plot.DivaPlot;
 import uk.ac.starlink.util.gui.GridBagLayouter;
 
@@ -144,6 +148,11 @@ public class DataLimitControls
      */
     protected JButton setFromView = new JButton();
 
+    /**
+     * Control for request to set Y limits from data in visible X range.
+     */
+    protected JButton setYFromView = new JButton();
+
     /**
      * JSlider for percentile cuts in Y axis.
      */
@@ -361,6 +370,15 @@ public class DataLimitControls
                     setLimits( true );
                 }
             } );
+        setYFromView.setText( "Fit Y to view" );
+        setYFromView.addActionListener(
+            new ActionListener()
+            {
+                public void actionPerformed( ActionEvent e )
+                {
+                    setYLimitsFromView();
+                }
+            } );
 
         //  Layout.
         GridBagLayouter layouter = 
@@ -416,6 +434,10 @@ public class DataLimitControls
         layouter.add( Box.createHorizontalBox(), false );
         layouter.add( setFromView, false );
         layouter.add( Box.createHorizontalBox(), true );
+
+        layouter.add( Box.createHorizontalBox(), false );
+        layouter.add( setYFromView, false );
+        layouter.add( Box.createHorizontalBox(), true );
         layouter.eatSpare();
 
         //  Set tooltips.
@@ -437,6 +459,8 @@ public class DataLimitControls
             ( "Set limits to those of whole plot (includes zoomed regions)" );
         setFromView.setToolTipText
             ("Set limits to those of plot view (including surrounding space)");
+        setYFromView.setToolTipText
+            ( "Set Y limits to the range of the data in the visible X range" );
     }
 
     /**
@@ -699,6 +723,33 @@ public class DataLimitControls
         dataLimits.setYUpper( Math.max( limits[1], limits[3] ) );
     }
 
+    /**
+     * Set the Y data limits to the range of the data values within the
+     * X coordinates that are currently visible. The ranges are found using
+     * the spectra min/max pyramids, so no scan of the data is needed.
+     */
+    protected void setYLimitsFromView()
+    {
+        if ( control == null ) {
+            return;
+        }
+        SpecDataComp comp = control.getSpecDataComp();
+        if ( comp.count() == 0 ) {
+            return;
+        }
+        double[] limits = control.getViewCoordinates();
+        double[] range = null;
+        try {
+            range = comp.getAutoRange( limits[0], limits[2] );
+        }
+        catch (SplatException e) {
+            return;
+        }
+        dataLimits.setYAutoscaled( false );
+        dataLimits.setYLower( range[2] );
+        dataLimits.setYUpper( range[3] );
+    }
+
     /**
      * Get percentile cuts in the Y data values.
      */
@@ -4,6 +4,11 @@
  *  History:
  *     29-SEP-2000 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Added a method to add many spectra with one event.
+ *     17-OCT-2026:
+ *       Added a method to add the spectra of a SpaxelCollection. These
+ *       are kept once changed.
  */
 package uk.ac.starlink.splat.iface;
 
@@ -15,6 +20,7 @@ import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
 import javax.swing.event.EventListenerList;
 
+import uk.ac.starlink.splat.data.SpaxelCollection;
 import uk.ac.starlink.splat.data.SpecData;
 import uk.ac.starlink.splat.data.SpecList;
 import uk.ac.starlink.splat.iface.SpectrumIO.SourceType;
@@ -208,6 +214,54 @@ public class GlobalSpecPlotList
         return -1;
     }
 
+    /**
+     *  Add many spectra to the global list. Listeners are informed once,
+     *  with a single event that covers all the new spectra.
+     *
+     *  @param spectra references to SpecData objects.
+     *  @param sourceTypes source types from which each of the spectra
+     *                     came from
+     *
+     *  @return index of the first spectrum in global list, or -1 if
+     *          none are added.
+     */
+    public int add( SpecData[] spectra, SourceType[] sourceTypes )
+    {
+        int first = specList.specCount();
+        for ( int i = 0; i < spectra.length; i++ ) {
+            if ( spectra[i] != null ) {
+                specList.add( spectra[i], sourceTypes[i] );
+            }
+        }
+        int last = specList.specCount() - 1;
+        if ( last < first ) {
+            return -1;
+        }
+        fireSpectraAdded( first, last );
+        return first;
+    }
+
+    /**
+     *  Add the spectra of a SpaxelCollection to the global list. The
+     *  spectra are only created when needed. Listeners are informed once,
+     *  with a single event that covers all the new spectra.
+     *
+     *  @param spaxels the collection.
+     *  @param sourceType source type from which the spectra came from
+     *
+     *  @return index of the first spectrum in global list, or -1 if
+     *          none are added.
+     */
+    public int add( SpaxelCollection spaxels, SourceType sourceType )
+    {
+        if ( spaxels == null || spaxels.size() == 0 ) {
+            return -1;
+        }
+        int first = specList.add( spaxels, sourceType );
+        fireSpectraAdded( first, specList.specCount() - 1 );
+        return first;
+    }
+
     /**
      *  Replace or add a spectrum. Informs any listeners of change.
      *
@@ -286,6 +340,7 @@ public class GlobalSpecPlotList
     {
         spectrum.setKnownNumberProperty( what, value );
         int index = specList.indexOf( spectrum );
+        specList.keep( index );
         fireSpectrumChanged( index );
     }
 
@@ -299,7 +354,9 @@ public class GlobalSpecPlotList
     public void setDrawErrorBars( SpecData spectrum, boolean show )
     {
         spectrum.setDrawErrorBars( show );
-        fireSpectrumChanged( specList.indexOf( spectrum ) );
+        int index = specList.indexOf( spectrum );
+        specList.keep( index );
+        fireSpectrumChanged( index );
     }
 
     /**
@@ -329,6 +386,7 @@ public class GlobalSpecPlotList
     public void notifySpecListenersChange( SpecData spectrum )
     {
         int index = specList.indexOf( spectrum );
+        specList.keep( index );
         fireSpectrumChanged( index );
     }
 
@@ -340,6 +398,7 @@ public class GlobalSpecPlotList
     public void notifySpecListenersModified( SpecData spectrum )
     {
         int index = specList.indexOf( spectrum );
+        specList.keep( index );
         fireSpectrumModified( index );
     }
 
@@ -371,6 +430,18 @@ public class GlobalSpecPlotList
      * @param index Index of the spectrum that changed.
      */
     protected void fireSpectrumAdded( int index )
+    {
+        fireSpectraAdded( index, index );
+    }
+
+    /**
+     * Send a SpecChangedEvent object specifying that a range of spectra
+     * have been added to all listeners for the global list of spectra.
+     *
+     * @param first Index of the first spectrum added.
+     * @param last Index of the last spectrum added.
+     */
+    protected void fireSpectraAdded( int first, int last )
     {
         Object[] listeners = specListeners.getListenerList();
         SpecChangedEvent e = null;
@@ -379,7 +450,7 @@ public class GlobalSpecPlotList
                 if ( e == null ) {
                     e = new SpecChangedEvent( this,
                                                SpecChangedEvent.ADDED,
-                                               index );
+                                               first, last );
                 }
                 ((SpecListener)listeners[i+1]).spectrumAdded( e );
             }
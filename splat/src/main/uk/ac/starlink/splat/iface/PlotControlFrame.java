@@ -155,6 +155,7 @@ public class PlotControlFrame
     protected JCheckBoxMenuItem autoFitPercentiles = null;
     protected JCheckBoxMenuItem baseSystemMatching = null;
     protected JCheckBoxMenuItem coordinateMatching = null;
+    protected JCheckBoxMenuItem cullLineIDs = null;
     protected JCheckBoxMenuItem dataUnitsMatching = null;
     protected JCheckBoxMenuItem displayErrorsAsData = null;
     protected JCheckBoxMenuItem doubleDSBLineIDs = null;
@@ -162,6 +163,7 @@ public class PlotControlFrame
     protected JCheckBoxMenuItem horizontalLineIDs = null;
     protected JCheckBoxMenuItem offsetMatching = null;
     protected JCheckBoxMenuItem prefixLineIDs = null;
+    protected JCheckBoxMenuItem progressiveRendering = null;
     protected JCheckBoxMenuItem shortNameLineIDs = null;
     protected JCheckBoxMenuItem showShortNames = null;
     protected JCheckBoxMenuItem showSynopsis = null;
@@ -680,6 +682,16 @@ public class PlotControlFrame
         state1 = prefs.getBoolean( "PlotControlFrame_clipgraphics", false );
         clipGraphics.setSelected( state1 );
 
+        //  Whether to render spectra in the background, keeps the interface
+        //  responsive when drawing many or large spectra.
+        progressiveRendering =
+            new JCheckBoxMenuItem( "Render spectra in background" );
+        optionsMenu.add( progressiveRendering );
+        progressiveRendering.addItemListener( this );
+        state1 =
+            prefs.getBoolean( "PlotControlFrame_progressiverendering", false );
+        progressiveRendering.setSelected( state1 );
+
         setupLineOptionsMenu();
 
         //  Include spacing for error bars in the auto ranging.
@@ -807,6 +819,13 @@ public class PlotControlFrame
         state = prefs.getBoolean("PlotControlFrame_horizontallineids", false);
         horizontalLineIDs.setSelected( state );
 
+        //  Remove labels that overlap, useful for long line lists.
+        cullLineIDs = new JCheckBoxMenuItem( "Remove overlapping labels" );
+        lineOptionsMenu.add( cullLineIDs );
+        cullLineIDs.addItemListener( this );
+        state = prefs.getBoolean( "PlotControlFrame_culllineids", true );
+        cullLineIDs.setSelected( state );
+
         //  Display labels for both axes of a DSB spectrum.
         doubleDSBLineIDs = new JCheckBoxMenuItem("Show dual sideband labels");
         lineOptionsMenu.add( doubleDSBLineIDs );
@@ -2003,6 +2022,14 @@ public class PlotControlFrame
             return;
         }
 
+        if ( source.equals( progressiveRendering ) ) {
+            boolean state = progressiveRendering.isSelected();
+            plot.getPlot().setProgressive( state );
+            prefs.putBoolean( "PlotControlFrame_progressiverendering", state );
+            plot.updatePlot();
+            return;
+        }
+
         if ( source.equals( errorbarAutoRanging ) ) {
             boolean state = errorbarAutoRanging.isSelected();
             plot.getSpecDataComp().setErrorbarAutoRanging( state );
@@ -2104,6 +2131,14 @@ public class PlotControlFrame
             return;
         }
 
+        if ( source.equals( cullLineIDs ) ) {
+            boolean state = cullLineIDs.isSelected();
+            prefs.putBoolean( "PlotControlFrame_culllineids", state );
+            plot.getSpecDataComp().setCullLineIDs( state );
+            plot.updatePlot();
+            return;
+        }
+
         if ( source.equals( doubleDSBLineIDs ) ) {
             boolean state = doubleDSBLineIDs.isSelected();
             prefs.putBoolean( "PlotControlFrame_doubledsblineids", state );
@@ -8,6 +8,11 @@
  *     26-JUN-2003 (Peter W. Draper):
  *       Divide always produced BAD values as test against divide by
  *       zero was flawed.
+ *     17-OCT-2026:
+ *       Right operand is now resampled onto the coordinates of the left
+ *       using AST, with a choice of method and of coordinate and data
+ *       units matching. Added sum and mean of all the spectra selected in
+ *       the left list.
  */
 package uk.ac.starlink.splat.iface;
 
@@ -21,14 +26,17 @@ import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
+import javax.swing.ButtonGroup;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
 import javax.swing.JList;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JPanel;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.KeyStroke;
@@ -39,9 +47,12 @@ import uk.ac.starlink.ast.FrameSet;
 import uk.ac.starlink.splat.ast.ASTJ;
 import uk.ac.starlink.splat.data.SpecData;
 import uk.ac.starlink.splat.data.SpecDataFactory;
+import uk.ac.starlink.splat.data.SpecResampler;
 import uk.ac.starlink.splat.data.EditableSpecData;
 import uk.ac.starlink.splat.iface.images.ImageHolder;
+import uk.ac.starlink.splat.util.SplatException;
 import uk.ac.starlink.splat.util.Utilities;
+import uk.ac.starlink.util.gui.ErrorDialog;
 
 /**
  * Interface to perform simple mathematical operations between two
@@ -106,6 +117,25 @@ public class SimpleBinaryMaths
     protected JMenu fileMenu = new JMenu();
     protected JMenu opsMenu = new JMenu();
 
+    /**
+     * Resampling methods, selected from the Operations menu.
+     */
+    protected JRadioButtonMenuItem linearItem =
+        new JRadioButtonMenuItem( "Linear" );
+    protected JRadioButtonMenuItem splineItem =
+        new JRadioButtonMenuItem( "Spline" );
+    protected JRadioButtonMenuItem fluxItem =
+        new JRadioButtonMenuItem( "Flux conserving" );
+
+    /**
+     * Whether to match the coordinates and data units of the spectra
+     * when resampling. The defaults are the same as new plots.
+     */
+    protected JCheckBoxMenuItem coordinateMatchingItem =
+        new JCheckBoxMenuItem( "Match coordinates and/or fluxes" );
+    protected JCheckBoxMenuItem dataUnitsMatchingItem =
+        new JCheckBoxMenuItem( "Match non-flux data units" );
+
     /**
      * Split pane used for displaying global list side-by-side.
      */
@@ -208,6 +238,42 @@ public class SimpleBinaryMaths
         divButton.setAction( divAction );
         opsMenu.add( divAction ).setMnemonic( KeyEvent.VK_I );
 
+        //  Sum and mean of the left selection, not on the action bar.
+        opsMenu.addSeparator();
+        LocalAction sumAction =
+            new LocalAction( "Sum", null,
+                             "Sum all spectra selected on the left" );
+        opsMenu.add( sumAction ).setMnemonic( KeyEvent.VK_U );
+        LocalAction meanAction =
+            new LocalAction( "Mean", null,
+                             "Mean of all spectra selected on the left" );
+        opsMenu.add( meanAction ).setMnemonic( KeyEvent.VK_E );
+
+        //  How the spectra are resampled onto the coordinates of the
+        //  first spectrum selected on the left.
+        opsMenu.addSeparator();
+        JMenu resampleMenu = new JMenu( "Resample" );
+        resampleMenu.setMnemonic( KeyEvent.VK_R );
+        opsMenu.add( resampleMenu );
+        ButtonGroup resampleGroup = new ButtonGroup();
+        resampleGroup.add( linearItem );
+        resampleGroup.add( splineItem );
+        resampleGroup.add( fluxItem );
+        resampleMenu.add( linearItem );
+        resampleMenu.add( splineItem );
+        resampleMenu.add( fluxItem );
+        linearItem.setSelected( true );
+
+        resampleMenu.addSeparator();
+        resampleMenu.add( coordinateMatchingItem );
+        resampleMenu.add( dataUnitsMatchingItem );
+        coordinateMatchingItem.setSelected
+            ( PlotControlFrame.prefs.getBoolean
+              ( "PlotControlFrame_coordinatematch", true ) );
+        dataUnitsMatchingItem.setSelected
+            ( PlotControlFrame.prefs.getBoolean
+              ( "PlotControlFrame_dataunitsmatch", false ) );
+
         //  And place together in a panel.
         mathActionBar.setLayout( new BoxLayout( mathActionBar,
                                                 BoxLayout.X_AXIS ) );
@@ -258,6 +324,8 @@ public class SimpleBinaryMaths
     public static final int SUBTRACT = 1;
     public static final int DIVIDE = 2;
     public static final int MULTIPLY = 3;
+    public static final int SUM = 4;
+    public static final int MEAN = 5;
 
     /**
      * Get the spectrum selected in list one.
@@ -283,22 +351,67 @@ public class SimpleBinaryMaths
         return null;
     }
 
+    /**
+     * Get all the spectra selected in list one.
+     */
+    public SpecData[] getViewOneSpectra()
+    {
+        int[] indices = viewOne.getSelectedIndices();
+        SpecData[] spectra = new SpecData[indices.length];
+        for ( int i = 0; i < indices.length; i++ ) {
+            spectra[i] = globalList.getSpectrum( indices[i] );
+        }
+        return spectra;
+    }
+
+    /**
+     * Get a resampler for the selected method.
+     */
+    protected SpecResampler getResampler()
+    {
+        int method = SpecResampler.LINEAR;
+        if ( splineItem.isSelected() ) {
+            method = SpecResampler.SPLINE;
+        }
+        else if ( fluxItem.isSelected() ) {
+            method = SpecResampler.FLUX;
+        }
+        SpecResampler resampler = new SpecResampler( method );
+
+        //  Data units matching needs coordinate matching.
+        boolean dataUnitsMatching = dataUnitsMatchingItem.isSelected();
+        resampler.setCoordinateMatching
+            ( coordinateMatchingItem.isSelected() || dataUnitsMatching );
+        resampler.setDataUnitsMatching( dataUnitsMatching );
+        return resampler;
+    }
+
     /**
      * Start the required math operation on the selected spectra.
      */
     public void operate( int function )
     {
+        if ( function == SUM || function == MEAN ) {
+            combine( function );
+            return;
+        }
+
         // Get the spectra.
         SpecData one = getViewOneSpectrum();
         SpecData two = getViewTwoSpectrum();
         if ( one != null && two != null ) {
 
-            //  XXX Should match the coordinates and data units using AST.
-
-            //  The X coordinates of one must match those of two.
-            double[] coords = one.getXData();
+            //  Resample two onto the coordinates of one, in the data
+            //  units of one when matching. Positions outside two are BAD.
             double[] oneData = one.getYData();
-            double[] twoData = two.evalYDataArray( coords );
+            double[] twoData = null;
+            try {
+                twoData = getResampler().resample( two, one );
+            }
+            catch (SplatException e) {
+                ErrorDialog.showError( this, e );
+                return;
+            }
 
             //  Now create the resultant data.
             double[] newData = null;
@@ -332,6 +445,33 @@ public class SimpleBinaryMaths
         }
     }
 
+    /**
+     * Sum, or average, all the spectra selected in the left list, after
+     * resampling them onto the coordinates of the first.
+     */
+    protected void combine( int function )
+    {
+        SpecData[] spectra = getViewOneSpectra();
+        if ( spectra.length == 0 ) {
+            return;
+        }
+        SpecData target = spectra[0];
+        double[] newData = null;
+        try {
+            newData = getResampler().combine
+                ( spectra, target, ( function == SUM ) ?
+                  SpecResampler.SUM : SpecResampler.MEAN );
+        }
+        catch (SplatException e) {
+            ErrorDialog.showError( this, e );
+            return;
+        }
+        String name = ( ( function == SUM ) ? "Sum: " : "Mean: " ) +
+            target.getShortName() + " and " + ( spectra.length - 1 ) +
+            " others";
+        createNewSpectrum( name, target, newData );
+    }
+
     /**
      *  Add two data arrays together.
      */
@@ -474,6 +614,12 @@ public class SimpleBinaryMaths
             else if ( "Multiply".equals( cmd ) ) {
                 operate( MULTIPLY );
             }
+            else if ( "Sum".equals( cmd ) ) {
+                operate( SUM );
+            }
+            else if ( "Mean".equals( cmd ) ) {
+                operate( MEAN );
+            }
             else {
                 closeWindow(); // Only other action.
             }
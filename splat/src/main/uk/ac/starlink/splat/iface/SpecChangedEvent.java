@@ -4,6 +4,8 @@
  *  History:
  *     29-SEP-2000 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Added a range of indices, for spectra added as one batch.
  */
 package uk.ac.starlink.splat.iface;
 
@@ -53,6 +55,11 @@ public class SpecChangedEvent extends EventObject
      */
     protected int index = 0;
 
+    /**
+     *  The index of the last spectrum changed.
+     */
+    protected int lastIndex = 0;
+
     /**
      *  Constructs a SpecChangedEvent object.
      *
@@ -62,10 +69,27 @@ public class SpecChangedEvent extends EventObject
      *                 spectrum.
      */
     public SpecChangedEvent( Object source, int type, int index ) 
+    {
+        this( source, type, index, index );
+    }
+
+    /**
+     *  Constructs a SpecChangedEvent object for a range of spectra.
+     *
+     *  @param source - the source Object (typically this).
+     *  @param type one of the defined ints.
+     *  @param index - an int specifying the position of the first changed
+     *                 spectrum.
+     *  @param lastIndex - an int specifying the position of the last
+     *                     changed spectrum.
+     */
+    public SpecChangedEvent( Object source, int type, int index,
+                             int lastIndex ) 
     {
         super( source );
         this.type = type;
         this.index = index;
+        this.lastIndex = lastIndex;
     }
 
     /**
@@ -83,4 +107,13 @@ public class SpecChangedEvent extends EventObject
     {
         return index;
     }
+
+    /**
+     *  Return index of the last spectrum changed. The same as
+     *  {@link #getIndex} unless a range of spectra changed.
+     */
+    public int getLastIndex() 
+    {
+        return lastIndex;
+    }
 }
@@ -4,6 +4,8 @@
  *  History:
  *     29-SEP-2000 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Spectra added as one batch are added as one interval.
  */
 package uk.ac.starlink.splat.iface;
 
@@ -130,8 +132,7 @@ public class SpecListModel
      */
     public void spectrumAdded( SpecChangedEvent e ) 
     {
-        int index = e.getIndex();
-        fireIntervalAdded( this, index, index );
+        fireIntervalAdded( this, e.getIndex(), e.getLastIndex() );
     }
 
     /**
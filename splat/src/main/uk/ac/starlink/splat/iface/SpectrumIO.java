@@ -5,6 +5,8 @@
  *  History:
  *     13-SEP-2004 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Read spectra using pools of worker threads.
  */
 package uk.ac.starlink.splat.iface;
 
@@ -12,9 +14,22 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import uk.ac.starlink.ast.FrameSet;
+import uk.ac.starlink.splat.data.NameParser;
 import uk.ac.starlink.splat.data.SpecData;
 import uk.ac.starlink.splat.data.SpecDataFactory;
 import uk.ac.starlink.splat.util.SplatException;
@@ -41,6 +56,13 @@ import uk.ac.starlink.util.gui.ErrorDialog;
  * remaining to load and the currently loading spectrum. Cancelling this
  * window clears the queue of spectra and further loading, after the current
  * spectrum completes, will not be done.
+ * <p>
+ * Except for NDFs, spectra are read by pools of worker threads, so several
+ * are read at once. Local files and remote resources have separate pools,
+ * so their number of concurrent reads can be limited independently. Only a
+ * limited number of spectra are read ahead, and the loader thread adds
+ * them to the browser in the same order as the queue, as soon as each
+ * one and those before it are complete.
  *
  * @author Peter W. Draper
  * @version $Id$
@@ -49,7 +71,8 @@ public class SpectrumIO
 {
     //  XXX deficiencies: cannot stop during load of a spectrum. This would
     //  require a lot of work catching the problems with interrupting
-    //  incomplete objects.
+    //  incomplete objects. Spectra being read when the load is cancelled
+    //  are left to complete and then discarded.
 
 	/**
 	 * Source types, from which the spectra may come from
@@ -135,6 +158,121 @@ public class SpectrumIO
      */
     private Watch watcher = null;
 
+    /**
+     * Whether spectra are read by the worker threads.
+     */
+    private static boolean parallelLoading = true;
+
+    /**
+     * Worker threads for reading local files.
+     */
+    private static ThreadPoolExecutor localReaders =
+        createReaders( Runtime.getRuntime().availableProcessors(),
+                       "Local spectra reader" );
+
+    /**
+     * Worker threads for reading remote resources. These mostly wait for
+     * the network, but too many at once will overload the servers.
+     */
+    private static ThreadPoolExecutor remoteReaders =
+        createReaders( 4, "Remote spectra reader" );
+
+    /**
+     * Number of spectra to read ahead, for each worker thread.
+     */
+    private static final int READ_AHEAD = 4;
+
+    /**
+     * Set whether spectra are read by pools of worker threads. If not all
+     * spectra are read in the loader thread, one at a time.
+     */
+    public static void setParallelLoading( boolean parallel )
+    {
+        parallelLoading = parallel;
+    }
+
+    /**
+     * Get whether spectra are read by pools of worker threads.
+     */
+    public static boolean isParallelLoading()
+    {
+        return parallelLoading;
+    }
+
+    /**
+     * Set the number of local files that can be read at once. The default
+     * is the number of processors.
+     */
+    public static void setLocalThreads( int threads )
+    {
+        setThreads( localReaders, threads );
+    }
+
+    /**
+     * Get the number of local files that can be read at once.
+     */
+    public static int getLocalThreads()
+    {
+        return localReaders.getMaximumPoolSize();
+    }
+
+    /**
+     * Set the number of remote resources that can be read at once. The
+     * default is 4.
+     */
+    public static void setRemoteThreads( int threads )
+    {
+        setThreads( remoteReaders, threads );
+    }
+
+    /**
+     * Get the number of remote resources that can be read at once.
+     */
+    public static int getRemoteThreads()
+    {
+        return remoteReaders.getMaximumPoolSize();
+    }
+
+    /**
+     * Create a pool of reader threads. Idle threads exit after a while.
+     */
+    private static ThreadPoolExecutor createReaders( int threads,
+                                                     final String name )
+    {
+        threads = Math.max( 1, threads );
+        ThreadPoolExecutor pool =
+            new ThreadPoolExecutor( threads, threads, 30L, TimeUnit.SECONDS,
+                                    new LinkedBlockingQueue<Runnable>(),
+                                    new ThreadFactory()
+                {
+                    public Thread newThread( Runnable r )
+                    {
+                        Thread thread = new Thread( r, name );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut( true );
+        return pool;
+    }
+
+    /**
+     * Change the size of a pool of reader threads.
+     */
+    private static synchronized void setThreads( ThreadPoolExecutor pool,
+                                                 int threads )
+    {
+        threads = Math.max( 1, threads );
+        if ( threads > pool.getMaximumPoolSize() ) {
+            pool.setMaximumPoolSize( threads );
+            pool.setCorePoolSize( threads );
+        }
+        else {
+            pool.setCorePoolSize( threads );
+            pool.setMaximumPoolSize( threads );
+        }
+    }
+
     /**
      * Load an array of spectra whose specifications are contained in the
      * elements of an array of Strings. This version uses a single
@@ -272,40 +410,101 @@ public class SpectrumIO
         StringBuffer failures = null;
         Exception lastException = null;
 
+        //  Spectra being read, in queue order.
+        LinkedList<Reader> reading = new LinkedList<Reader>();
+        int readAhead = READ_AHEAD *
+            ( getLocalThreads() + getRemoteThreads() );
+
         // Add all spectra to the browser until the queue is empty or
         // the load is interrupted.
-        while( ! queue.isEmpty() && ! progressFrame.isInterrupted() ) {
-            progressFrame.setTitle( "Loading "+ queue.size() +" spectra..." );
-            Props props = getSpectrumProps();
-            progressFrame.setMessage( props.getSpectrum() );
-            boolean success = false;
+        while ( ( ! queue.isEmpty() || ! reading.isEmpty() ) &&
+                ! progressFrame.isInterrupted() ) {
+
+            //  Start reading more spectra.
+            while ( reading.size() < readAhead && ! queue.isEmpty() ) {
+                Props props = getSpectrumProps();
+                if ( props != null ) {
+                    reading.add( startReading( props ) );
+                }
+            }
+            if ( reading.isEmpty() ) {
+                break;
+            }
+
+            //  Wait for the first spectrum, then take it and any following
+            //  ones that are also complete as the next batch.
+            if ( ! waitFor( reading.getFirst() ) ) {
+                break;
+            }
+            List<Reader> batch = new ArrayList<Reader>();
+            do {
+                batch.add( reading.removeFirst() );
+            }
+            while ( ! reading.isEmpty() && reading.getFirst().isDone() );
+
+            progressFrame.setTitle( "Loading " +
+                                    ( queue.size() + reading.size() +
+                                      batch.size() ) + " spectra..." );
+            progressFrame.setMessage( batch.get( 0 ).props.getSpectrum() );
+
+            //  Gather the spectra that were read, recording the failures.
+            Exception[] errors = new Exception[batch.size()];
+            List<Props> propsRead = new ArrayList<Props>();
+            List<List<SpecData>> spectraRead = new ArrayList<List<SpecData>>();
+            for ( int i = 0; i < batch.size(); i++ ) {
+                try {
+                    List<SpecData> spectra = batch.get( i ).getSpectra();
+                    propsRead.add( batch.get( i ).props );
+                    spectraRead.add( spectra );
+                }
+                catch (Exception e) {
+                    errors[i] = e;
+                }
+            }
+
+            //  Add the batch to the browser in one go.
             try {
-                browser.tryAddSpectrum( props );
-                validFiles++;
-                success = true;
+                browser.addSpectra( propsRead, spectraRead );
             }
             catch (Exception e) {
-                //  Catch all exceptions, we need to make sure that the
-                //  watcher notification proceeds regardless.
-                e.printStackTrace();
-                lastException = e;
-                if ( failures == null ) {
-                    failures = new StringBuffer();
+                for ( int i = 0; i < batch.size(); i++ ) {
+                    if ( errors[i] == null ) {
+                        errors[i] = e;
+                    }
                 }
-                failures.append( e.getMessage() + "\n" );
-                failedFiles++;
             }
-            finally {
-                if ( watcher != null ) {
-                    if ( success ) {
+
+            //  Report each spectrum, in queue order. Catch all exceptions,
+            //  we need to make sure that the watcher notification proceeds
+            //  regardless.
+            for ( int i = 0; i < batch.size(); i++ ) {
+                Props props = batch.get( i ).props;
+                if ( errors[i] == null ) {
+                    validFiles++;
+                    if ( watcher != null ) {
                         watcher.loadSucceeded( props );
                     }
-                    else {
-                        watcher.loadFailed( props, lastException );
+                }
+                else {
+                    Exception e = errors[i];
+                    e.printStackTrace();
+                    lastException = e;
+                    if ( failures == null ) {
+                        failures = new StringBuffer();
+                    }
+                    failures.append( e.getMessage() + "\n" );
+                    failedFiles++;
+                    if ( watcher != null ) {
+                        watcher.loadFailed( props, e );
                     }
                 }
+                filesDone++;
             }
-            filesDone++;
+        }
+
+        //  Abandon any spectra still being read.
+        for ( Reader reader : reading ) {
+            reader.cancel( false );
         }
 
         //  Report any failures. If there is just one make usual report.
@@ -329,6 +528,112 @@ public class SpectrumIO
         }
     }
 
+    /**
+     * Start reading a spectrum. NDFs, and all spectra when parallel loading
+     * is off, are not started, they are read by the loader thread when
+     * waited for.
+     */
+    protected Reader startReading( Props props )
+    {
+        Reader reader = new Reader( props );
+        if ( parallelLoading ) {
+            Executor pool = getReaders( props );
+            if ( pool != null ) {
+                pool.execute( reader );
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Return the pool of worker threads that should read a spectrum, null
+     * if it must be read in the loader thread.
+     */
+    protected Executor getReaders( Props props )
+    {
+        NameParser namer = null;
+        try {
+            namer = new NameParser( props.getSpectrum() );
+        }
+        catch (SplatException e) {
+            //  Leave the failure to be reported by the loader.
+            return null;
+        }
+
+        //  The NDF library must only be used from one thread.
+        int type = props.getType();
+        if ( type == SpecDataFactory.HDS ||
+             ( type == SpecDataFactory.DEFAULT &&
+               "NDF".equals( namer.getFormat() ) ) ) {
+            return null;
+        }
+        return namer.isRemote() ? remoteReaders : localReaders;
+    }
+
+    /**
+     * Wait for a spectrum to be read. If no worker thread has started
+     * reading it, it is read now. Returns false if the load is interrupted
+     * while waiting.
+     */
+    private boolean waitFor( Reader reader )
+    {
+        //  Does nothing if already started.
+        reader.run();
+        while ( ! reader.isDone() ) {
+            if ( progressFrame.isInterrupted() ) {
+                return false;
+            }
+            try {
+                reader.get( 250, TimeUnit.MILLISECONDS );
+            }
+            catch (TimeoutException e) {
+                //  Check for interruption and wait again.
+            }
+            catch (Exception e) {
+                //  Reported when the spectra are added.
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Task that reads the spectra of a Props instance.
+     */
+    protected class Reader
+        extends FutureTask<List<SpecData>>
+    {
+        protected final Props props;
+
+        public Reader( final Props props )
+        {
+            super( new Callable<List<SpecData>>()
+                {
+                    public List<SpecData> call()
+                        throws Exception
+                    {
+                        return browser.readSpectra( props );
+                    }
+                });
+            this.props = props;
+        }
+
+        //  Get the spectra, or throw the exception from reading them.
+        public List<SpecData> getSpectra()
+            throws Exception
+        {
+            try {
+                return get();
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if ( cause instanceof Exception ) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+    }
+
     /**
      * Save a given spectrum as a file.
      *
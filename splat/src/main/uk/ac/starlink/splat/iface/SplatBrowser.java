@@ -6,6 +6,9 @@
  *  History:
  *     25-SEP-2000 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Spectra extracted from 2D and 3D data are added to the global
+ *       list as a SpaxelCollection, so they are only created when needed.
  */
 
 //  XXX Need to use SpectrumIO consistently for opening all spectra
@@ -41,6 +44,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.logging.Level;
@@ -74,6 +78,7 @@ import org.astrogrid.acr.InvalidArgumentException;
 import uk.ac.starlink.ast.gui.ScientificFormat;
 import uk.ac.starlink.splat.data.EditableSpecData;
 import uk.ac.starlink.splat.data.NameParser;
+import uk.ac.starlink.splat.data.SpaxelCollection;
 import uk.ac.starlink.splat.data.SpecData;
 import uk.ac.starlink.splat.data.SpecDataComp;
 import uk.ac.starlink.splat.data.SpecDataFactory;
@@ -81,6 +86,7 @@ import uk.ac.starlink.splat.data.SpecList;
 import uk.ac.starlink.splat.iface.SpectrumIO.SourceType;
 import uk.ac.starlink.splat.iface.images.ImageHolder;
 import uk.ac.starlink.splat.plot.PlotControl;
+import uk.ac.starlink.splat.util.DownloadCache;
 import uk.ac.starlink.splat.util.RemoteServer;
 import uk.ac.starlink.splat.util.SEDSplatException;
 import uk.ac.starlink.splat.util.SpecTransmitter;
@@ -371,6 +377,31 @@ public class SplatBrowser
      * Whether to search spectra for a spectral coordinate system.
      */
     protected JCheckBoxMenuItem searchCoordsItem = null;
+
+    /**
+     * Whether to decimate dense spectra when drawing.
+     */
+    protected JCheckBoxMenuItem decimateSpectraItem = null;
+
+    /**
+     * Whether to read spectra in parallel when loading.
+     */
+    protected JCheckBoxMenuItem parallelLoadingItem = null;
+
+    /**
+     * Whether to keep downloaded files in the download cache.
+     */
+    protected JCheckBoxMenuItem downloadCacheItem = null;
+
+    /**
+     * Whether to only use downloaded files that are in the cache.
+     */
+    protected JCheckBoxMenuItem workOfflineItem = null;
+
+    /**
+     * Show the download cache statistics.
+     */
+    protected JMenuItem cacheStatisticsItem = null;
     
     /**
      * Whether to plot the spectra to the same window
@@ -640,6 +671,16 @@ public class SplatBrowser
         //  Searching for spectral coordinates.
         setSearchCoords( true );
 
+        //  Decimation of dense spectra.
+        setDecimateSpectra( true );
+
+        //  Parallel loading of spectra.
+        setParallelLoading( true );
+
+        //  Caching of downloads.
+        setDownloadCache( true );
+        setWorkOffline( true );
+
         //  Set up the control area.
         controlArea.setLayout( controlAreaLayout );
         controlArea.setBorder( BorderFactory.createEmptyBorder( 4, 4, 4, 4 ) );
@@ -1078,6 +1119,42 @@ public class SplatBrowser
         searchCoordsItem.setToolTipText
             ( "Search for spectral coordinates when necessary" );
         searchCoordsItem.addItemListener( this );
+
+        //  Whether to decimate spectra that are denser than the display.
+        decimateSpectraItem = new JCheckBoxMenuItem( "Decimate dense spectra" );
+        optionsMenu.add( decimateSpectraItem );
+        decimateSpectraItem.setToolTipText
+            ( "Only draw the extremes of spectra with many points per pixel" );
+        decimateSpectraItem.addItemListener( this );
+
+        //  Whether to read several spectra at once when loading.
+        parallelLoadingItem = new JCheckBoxMenuItem( "Parallel loading" );
+        optionsMenu.add( parallelLoadingItem );
+        parallelLoadingItem.setToolTipText
+            ( "Read several spectra at once when loading many spectra" );
+        parallelLoadingItem.addItemListener( this );
+
+        //  Whether to keep downloaded spectra and query results.
+        downloadCacheItem = new JCheckBoxMenuItem( "Cache downloads" );
+        optionsMenu.add( downloadCacheItem );
+        downloadCacheItem.setToolTipText
+            ( "Keep downloaded spectra and query results for reuse" );
+        downloadCacheItem.addItemListener( this );
+
+        //  Whether to work without contacting servers.
+        workOfflineItem = new JCheckBoxMenuItem( "Work offline" );
+        optionsMenu.add( workOfflineItem );
+        workOfflineItem.setToolTipText
+            ( "Only use cached downloads, do not contact servers" );
+        workOfflineItem.addItemListener( this );
+
+        //  Show how well the cache is doing.
+        cacheStatisticsItem =
+            new JMenuItem( "Download cache statistics..." );
+        optionsMenu.add( cacheStatisticsItem );
+        cacheStatisticsItem.setToolTipText
+            ( "Show the hit rate and size of the download cache" );
+        cacheStatisticsItem.addActionListener( this );
     }
 
     /**
@@ -1247,6 +1324,89 @@ public class SplatBrowser
         SpecData.setSearchForSpecFrames( state );
     }
 
+    /**
+     * Set whether spectra with many more points than pixels should be
+     * decimated when drawn.
+     */
+    protected void setDecimateSpectra( boolean init )
+    {
+        if ( init ) {
+            //  Restore state of button from Preferences.
+            boolean state = getPreference( "SplatBrowser_decimatespectra",
+                                           true );
+            decimateSpectraItem.setSelected( state );
+        }
+        boolean state = decimateSpectraItem.isSelected();
+        setPreference( "SplatBrowser_decimatespectra", state );
+        SpecData.setDecimateSpectra( state );
+    }
+
+    /**
+     * Set whether spectra should be read in parallel when loading.
+     */
+    protected void setParallelLoading( boolean init )
+    {
+        if ( init ) {
+            //  Restore state of button from Preferences.
+            boolean state = getPreference( "SplatBrowser_parallelloading",
+                                           true );
+            parallelLoadingItem.setSelected( state );
+        }
+        boolean state = parallelLoadingItem.isSelected();
+        setPreference( "SplatBrowser_parallelloading", state );
+        SpectrumIO.setParallelLoading( state );
+    }
+
+    /**
+     * Set whether downloads should be kept in the download cache.
+     */
+    protected void setDownloadCache( boolean init )
+    {
+        if ( init ) {
+            //  Restore state of button from Preferences.
+            boolean state = getPreference( "SplatBrowser_downloadcache",
+                                           false );
+            downloadCacheItem.setSelected( state );
+        }
+        boolean state = downloadCacheItem.isSelected();
+        setPreference( "SplatBrowser_downloadcache", state );
+        DownloadCache.setEnabled( state );
+        workOfflineItem.setEnabled( state );
+    }
+
+    /**
+     * Set whether to work offline, only using cached downloads.
+     */
+    protected void setWorkOffline( boolean init )
+    {
+        if ( init ) {
+            //  Restore state of button from Preferences.
+            boolean state = getPreference( "SplatBrowser_workoffline",
+                                           false );
+            workOfflineItem.setSelected( state );
+        }
+        boolean state = workOfflineItem.isSelected();
+        setPreference( "SplatBrowser_workoffline", state );
+        DownloadCache.setOffline( state );
+    }
+
+    /**
+     * Show the download cache statistics, offering to clear the cache.
+     */
+    protected void showCacheStatistics()
+    {
+        DownloadCache cache = DownloadCache.getInstance();
+        Object[] options = { "OK", "Clear cache" };
+        int result = JOptionPane.showOptionDialog
+            ( this, cache.getStatistics(), "Download cache",
+              JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE,
+              null, options, options[0] );
+        if ( result == 1 ) {
+            cache.clear();
+            cache.resetStatistics();
+        }
+    }
+
 
     /**
      * Create the Operations menu and populate it with appropriate
@@ -1738,7 +1898,13 @@ public class SplatBrowser
     public int readStack( File file, SpecList.FileFormat fileFormat, boolean display )
     {
     	try {
-            return readStack( new FileInputStream( file ), fileFormat, display, file.getPath() );
+            InputStream in = new FileInputStream( file );
+            try {
+                return readStack( in, fileFormat, display, file.getPath() );
+            }
+            finally {
+                in.close();
+            }
         }
         catch (Exception e) {
             logger.log( Level.SEVERE, e.getMessage(), e );
@@ -1780,7 +1946,14 @@ public class SplatBrowser
         
         switch (fileFormat) {
         	case STK:
-                nread = globalSpecList.readStack( in );
+                //  Files are opened directly so they can be memory mapped.
+                if ( sourcePath != null ) {
+                    nread = globalSpecList.readStack( sourcePath, fileFormat,
+                                                      this );
+                }
+                else {
+                    nread = globalSpecList.readStack( in );
+                }
         		break;
         	case FITS:
         		nread = globalSpecList.readStack(sourcePath, fileFormat, this);
@@ -2095,13 +2268,29 @@ public class SplatBrowser
     public void tryAddSpectrum( SpectrumIO.Props props )
         throws SplatException, TableFormatException, IOException
     {
+        addSpectra( props, readSpectra( props ) );
+    }
+
+    /**
+     * Read the spectra defined by a {@link SpectrumIO.Props} instance,
+     * without adding them to the global list. This does not touch the
+     * interface, so may be called from any thread, but spectra that use the
+     * NDF library should always be read in the same thread.
+     *
+     *  @param props a container class for the spectrum properties, including
+     *               the specification (i.e. file name etc.) of the spectrum
+     *  @return the spectra, may be empty.
+     */
+    public List<SpecData> readSpectra( SpectrumIO.Props props )
+        throws SplatException, TableFormatException, IOException
+    {
+        List<SpecData> result = new ArrayList<SpecData>();
         if ( props.getType() == SpecDataFactory.SED ) {
             //  Could be a source of several spectra.
             SpecData spectra[] =
                 specDataFactory.expandXMLSED( props.getSpectrum() );
             for ( int i = 0; i < spectra.length; i++ ) {
-            	addSpectrum( spectra[i], props.getSourceType() );
-                props.apply( spectra[i] );
+                result.add( spectra[i] );
             }
         }
         else {
@@ -2127,10 +2316,7 @@ public class SplatBrowser
                 	spectra = specDataFactory.getAll( props.getSpectrum(), props.getType() );
                 	//spectrum = specDataFactory.get( props.getSpectrum(), props.getType() );
                 }
-                for (SpecData spectrum : spectra) {
-                	addSpectrum( spectrum, props.getSourceType() );
-                	props.apply( spectrum );
-                }
+                result.addAll( spectra );
             }
            // catch (Exception e ) {
             catch (SEDSplatException se) {
@@ -2146,8 +2332,7 @@ public class SplatBrowser
                 if ( props.getType() == SpecDataFactory.FITS || se.getType() == SpecDataFactory.FITS) {
                         SpecData spectra[] = specDataFactory.expandFITSSED( specpath, se.getRows() );
                         for ( int i = 0; i < spectra.length; i++ ) {
-                            addSpectrum( spectra[i], props.getSourceType() );
-                            props.apply( spectra[i] );
+                            result.add( spectra[i] );
                         }
                     } 
              //   }
@@ -2159,9 +2344,89 @@ public class SplatBrowser
             }
             catch(SplatException sple) {
                 if (sple.getMessage().contains("No TABLE element found")) 
-                    return;
+                    return result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add spectra read by {@link #readSpectra} to the global list and apply
+     * the characteristics defined in a {@link SpectrumIO.Props} instance.
+     * The last spectrum becomes the current spectrum.
+     *
+     *  @param props the properties used to read the spectra.
+     *  @param spectra the spectra.
+     */
+    public void addSpectra( SpectrumIO.Props props, List<SpecData> spectra )
+    {
+        addSpectra( Collections.singletonList( props ),
+                    Collections.singletonList( spectra ) );
+    }
+
+    /**
+     * Add a batch of spectra read by {@link #readSpectra} to the global
+     * list, with a single list update, and apply the characteristics
+     * defined in their {@link SpectrumIO.Props} instances. The new spectra
+     * become selected.
+     *
+     *  @param props the properties used to read each list of spectra.
+     *  @param spectra the lists of spectra, one for each Props instance.
+     */
+    public void addSpectra( List<SpectrumIO.Props> props,
+                            List<List<SpecData>> spectra )
+    {
+        SpecList list = SpecList.getInstance();
+        int top = list.specCount();
+        List<SpecData> batch = new ArrayList<SpecData>();
+        List<SourceType> sourceTypes = new ArrayList<SourceType>();
+        for ( int i = 0; i < props.size(); i++ ) {
+            SourceType sourceType = props.get( i ).getSourceType();
+            for ( SpecData spectrum : spectra.get( i ) ) {
+                SpaxelCollection spaxels = getSpaxels( spectrum );
+                if ( spaxels != null ) {
+                    //  Add any earlier spectra first, to keep the order.
+                    addBatch( batch, sourceTypes );
+                    globalList.add( spaxels, sourceType );
+                    continue;
+                }
+                SpecData[] moreSpectra = reprocessTo1D( spectrum );
+                for ( int j = 0; j < moreSpectra.length; j++ ) {
+                    applyRenderingDefaults( moreSpectra[j] );
+                    batch.add( moreSpectra[j] );
+                    sourceTypes.add( sourceType );
+                }
+            }
+        }
+        addBatch( batch, sourceTypes );
+        if ( list.specCount() == top ) {
+            return;
+        }
+
+        for ( int i = 0; i < props.size(); i++ ) {
+            for ( SpecData spectrum : spectra.get( i ) ) {
+                props.get( i ).apply( spectrum );
             }
         }
+
+        //  Latest list entries becomes selected.
+        specList.setSelectionInterval( top, list.specCount() - 1 );
+    }
+
+    /**
+     * Add a batch of spectra to the global list, with a single list
+     * update, and clear the batch.
+     */
+    private void addBatch( List<SpecData> batch,
+                           List<SourceType> sourceTypes )
+    {
+        if ( ! batch.isEmpty() ) {
+            globalList.add
+                ( batch.toArray( new SpecData[batch.size()] ),
+                  sourceTypes.toArray( new SourceType[sourceTypes.size()] ) );
+            batch.clear();
+            sourceTypes.clear();
+        }
     }
 
     /**
@@ -2227,9 +2492,34 @@ public class SplatBrowser
         SpecList list = SpecList.getInstance();
         int top = list.specCount();
 
-        //  2D spectra may need reprocessing by collapsing or extracting
-        //  many spectra. This is performed here. If any of ndAction, dispAxis
-        //  or selectAxis are null then defaults will be used.
+        SpaxelCollection spaxels = getSpaxels( spectrum );
+        if ( spaxels != null ) {
+            globalList.add( spaxels, sourceType );
+        }
+        else {
+            SpecData[] moreSpectra = reprocessTo1D( spectrum );
+            for ( int i = 0; i < moreSpectra.length; i++ ) {
+                applyRenderingDefaults( moreSpectra[i] );
+                globalList.add( moreSpectra[i], sourceType );
+            }
+        }
+
+        //  Latest list entries becomes selected.
+        specList.setSelectionInterval( top, list.specCount() - 1 );
+    }
+
+    /**
+     * Reprocess a spectrum into the spectra that should be added to the
+     * global list. 2D spectra may need reprocessing by collapsing or
+     * extracting many spectra, otherwise the spectrum itself is returned.
+     *
+     * @param spectrum the SpecData object.
+     * @return the spectra to add.
+     */
+    protected SpecData[] reprocessTo1D( SpecData spectrum )
+    {
+        //  If any of ndAction, dispAxis or selectAxis are null then
+        //  defaults will be used.
         SpecData[] moreSpectra = null;
         try {
             moreSpectra = specDataFactory.reprocessTo1D
@@ -2248,18 +2538,42 @@ public class SplatBrowser
         if ( moreSpectra != null ) {
             //  Abandon the current spectrum and use these instead.
             colourAsLoaded=true;
-            for ( int i = 0; i < moreSpectra.length; i++ ) {
-                applyRenderingDefaults( moreSpectra[i] );
-                globalList.add( moreSpectra[i], sourceType );
-            }
-        }
-        else {
-            applyRenderingDefaults( spectrum );
-            globalList.add( spectrum, sourceType );
+            return moreSpectra;
         }
+        return new SpecData[] { spectrum };
+    }
 
-        //  Latest list entries becomes selected.
-        specList.setSelectionInterval( top, list.specCount() - 1 );
+    /**
+     * Get the spectra to extract from a 2D or 3D spectrum as a
+     * {@link SpaxelCollection}, so that they are only created when
+     * needed. Returns null if not extracting spectra or the spectrum
+     * cannot be extracted this way, {@link #reprocessTo1D} should then be
+     * used.
+     *
+     * @param spectrum the SpecData object.
+     * @return the collection, or null.
+     */
+    protected SpaxelCollection getSpaxels( SpecData spectrum )
+    {
+        if ( ndAction != SpecDataFactory.EXTRACT ) {
+            return null;
+        }
+        SpaxelCollection spaxels = null;
+        try {
+            spaxels = specDataFactory.getSpaxels( spectrum, dispAxis,
+                                                  selectAxis,
+                                                  purgeBadDataLimits );
+        }
+        catch (SplatException e) {
+            //  Reported when reprocessTo1D tries again.
+            return null;
+        }
+        if ( spaxels != null ) {
+            //  As for reprocessTo1D.
+            colourAsLoaded = true;
+            spaxels.setInitialiser( new RenderingDefaults( spaxels.size() ) );
+        }
+        return spaxels;
     }
 
     /**
@@ -3191,6 +3505,35 @@ public class SplatBrowser
         }
     }
 
+    /**
+     * Applies the defaults for rendering spectra to the spectra of a
+     * SpaxelCollection, when they are created. The colours are chosen
+     * once, so a spectrum that is created again keeps its colour.
+     */
+    protected class RenderingDefaults
+        implements SpaxelCollection.Initialiser
+    {
+        private int[] colours = null;
+
+        public RenderingDefaults( int size )
+        {
+            if ( colourAsLoaded ) {
+                colours = new int[size];
+                for ( int i = 0; i < size; i++ ) {
+                    colours[i] = MathUtils.getRandomRGB();
+                }
+            }
+        }
+
+        public void initialise( SpecData spectrum, int index )
+        {
+            selectedProperties.applyRenderingProps( spectrum );
+            if ( colours != null ) {
+                spectrum.setLineColour( colours[index] );
+            }
+        }
+    }
+
     /**
      * A request to exit the application has been received. Only do
      * this if we're not embedded. In that case just make the window
@@ -3476,6 +3819,18 @@ public class SplatBrowser
         else if ( source.equals( searchCoordsItem ) ) {
             setSearchCoords( false );
         }
+        else if ( source.equals( decimateSpectraItem ) ) {
+            setDecimateSpectra( false );
+        }
+        else if ( source.equals( parallelLoadingItem ) ) {
+            setParallelLoading( false );
+        }
+        else if ( source.equals( downloadCacheItem ) ) {
+            setDownloadCache( false );
+        }
+        else if ( source.equals( workOfflineItem ) ) {
+            setWorkOffline( false );
+        }
         else if ( source.equals( plotSampSpectraToSameWindowItem ) ) {
         	setPlotSampSpectraToSameWindow( false );
         }
@@ -3487,6 +3842,11 @@ public class SplatBrowser
     //
     public void actionPerformed( ActionEvent e )
     {
+        if ( e.getSource() == cacheStatisticsItem ) {
+            showCacheStatistics();
+            return;
+        }
+
         // The cascade request.
         PlotWindowOrganizer organizer = new PlotWindowOrganizer();
         organizer.cascade();
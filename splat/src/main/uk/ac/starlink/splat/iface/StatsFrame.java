@@ -5,6 +5,9 @@
  *  History:
  *     17-JUN-2005 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *        Statistics use a StatsIndex of the current spectrum, unless
+ *        exact statistics are selected.
  */
 
 package uk.ac.starlink.splat.iface;
@@ -49,6 +52,7 @@ import uk.ac.starlink.splat.util.JACUtilities;
 import uk.ac.starlink.splat.util.NumericIntegrator;
 import uk.ac.starlink.splat.util.Sort;
 import uk.ac.starlink.splat.util.Statistics;
+import uk.ac.starlink.splat.util.StatsIndex;
 import uk.ac.starlink.splat.util.Utilities;
 import uk.ac.starlink.util.gui.GridBagLayouter;
 
@@ -114,6 +118,17 @@ public class StatsFrame
     /** Include variance stats if variance component exists */
     private JCheckBoxMenuItem varBox = null;
 
+    /** Whether to calculate exact statistics, rather than use an index */
+    private JCheckBoxMenuItem exactBox = null;
+
+    /** Index of the current spectrum and the data version it was for */
+    private StatsIndex dataIndex = null;
+    private int dataIndexVersion = -1;
+
+    /** Index of the current spectrum errors and the data version */
+    private StatsIndex errorsIndex = null;
+    private int errorsIndexVersion = -1;
+
     /**
      * Create an instance.
      */
@@ -519,6 +534,25 @@ public class StatsFrame
         boolean state = prefs.getBoolean( "StatsFrame_extra", false );
         fullStatsBox.setSelected( state );
 
+        //  Menu item to select exact statistics, these copy and sort the
+        //  values so are slow for large spectra.
+        exactBox = new JCheckBoxMenuItem( "Exact statistics" );
+        optionsMenu.add( exactBox );
+        exactBox.addActionListener( new ActionListener() {
+                public void actionPerformed( ActionEvent e )
+                {
+                    boolean state = exactBox.isSelected();
+                    prefs.putBoolean( "StatsFrame_exact", state );
+                    if ( rangesModel != null ) {
+                        rangesModel.recalculateAll();
+                    }
+                }
+            });
+        exactBox.setToolTipText( "Copy and sort the values of the ranges, " +
+                                 "slow for large spectra" );
+        state = prefs.getBoolean( "StatsFrame_exact", false );
+        exactBox.setSelected( state );
+
         return statsPanel;
     }
 
@@ -610,6 +644,53 @@ public class StatsFrame
         setVisible( true );
     }
 
+    /**
+     * Get whether exact statistics are required. Otherwise an index is
+     * used and the flux of several ranges is the sum of the flux of each
+     * range.
+     */
+    public boolean isExact()
+    {
+        return exactBox.isSelected();
+    }
+
+    /**
+     * Get an index of the data values of a spectrum. The index is
+     * retained until the spectrum or its data changes.
+     */
+    public StatsIndex getStatsIndex( SpecData spectrum )
+    {
+        double[] coords = spectrum.getXData();
+        double[] data = spectrum.getYData();
+        if ( dataIndex == null || ! dataIndex.isFor( coords, data, null ) ||
+             dataIndexVersion != spectrum.getDataVersion() ) {
+            dataIndex = new StatsIndex( coords, data, null );
+            dataIndexVersion = spectrum.getDataVersion();
+        }
+        return dataIndex;
+    }
+
+    /**
+     * Get an index of the data errors of a spectrum, ignoring positions
+     * with BAD data values. Returns null if there are no errors.
+     */
+    public StatsIndex getErrorsIndex( SpecData spectrum )
+    {
+        double[] coords = spectrum.getXData();
+        double[] data = spectrum.getYData();
+        double[] errors = spectrum.getYDataErrors();
+        if ( errors == null ) {
+            return null;
+        }
+        if ( errorsIndex == null ||
+             ! errorsIndex.isFor( coords, errors, data ) ||
+             errorsIndexVersion != spectrum.getDataVersion() ) {
+            errorsIndex = new StatsIndex( coords, errors, data );
+            errorsIndexVersion = spectrum.getDataVersion();
+        }
+        return errorsIndex;
+    }
+
     /**
      * Calculate longer statistics and update interface.
      */
@@ -627,8 +708,14 @@ public class StatsFrame
             showVarStats = true;
         }
 
-        if ( type == LocalAction.SELECTEDSTATS ||
-             type == LocalAction.ALLSTATS ) {
+        if ( ! isExact() ) {
+            stats = calcIndexedStats( type, currentSpectrum, showVarStats );
+            if ( stats == null ) {
+                return;
+            }
+        }
+        else if ( type == LocalAction.SELECTEDSTATS ||
+                  type == LocalAction.ALLSTATS ) {
 
             int[] ranges =
                 rangesView.extractRanges( type == LocalAction.SELECTEDSTATS,
@@ -783,6 +870,69 @@ public class StatsFrame
         statsResults.append( "\n" );
     }
 
+    /**
+     * Calculate statistics using the indices of the current spectrum and
+     * report them. Returns null if there are no ranges to use.
+     */
+    protected Statistics calcIndexedStats( int type, SpecData spectrum,
+                                           boolean showVarStats )
+    {
+        double[] xData = spectrum.getXData();
+        int[] ranges = null;
+        StringBuffer buffer = new StringBuffer();
+        if ( type == LocalAction.WHOLESTATS ) {
+            ranges = new int[] { 0, xData.length - 1 };
+            buffer.append( "Statistics of " + spectrum.getShortName() +
+                           ":\n" );
+        }
+        else {
+            boolean selected = ( type == LocalAction.SELECTEDSTATS );
+            ranges = rangesView.extractRanges( selected, true, xData );
+            if ( ranges == null || ranges.length == 0 ) {
+                //  No ranges... nothing to do.
+                return null;
+            }
+            Sort.insertionSortI( ranges );
+            buffer.append( "Statistics of " + spectrum.getShortName() +
+                           " over ranges: \n" );
+            double[] coordRanges = rangesView.getRanges( selected );
+            for ( int i = 0; i < coordRanges.length; i += 2 ) {
+                buffer.append( "  -->" + coordRanges[i] +
+                               " : " + coordRanges[i+1] + "\n" );
+            }
+            buffer.append( "\n" );
+        }
+
+        //  1D stats.
+        StatsIndex index = getStatsIndex( spectrum );
+        Statistics stats = index.getStatistics( ranges );
+        reportStats( buffer.toString(), stats );
+
+        //  2D stats, the sum of the integrals of each range.
+        if ( spectrum.isMonotonic() ) {
+            double flux = 0.0;
+            int last = xData.length - 1;
+            for ( int i = 0; i < ranges.length; i += 2 ) {
+                int high = Math.min( ranges[i+1], last );
+                if ( ranges[i] <= high ) {
+                    flux += index.getIntegral( ranges[i], high );
+                }
+            }
+            statsResults.append( "  Integrated flux: " + flux + "\n" );
+        }
+
+        //  Variance stats.
+        if ( showVarStats ) {
+            Statistics varstats =
+                getErrorsIndex( spectrum ).getStatistics( ranges );
+            buffer = new StringBuffer();
+            buffer.append( "  Error component statistics: \n" );
+            buffer.append( getErrorStats( "    ", varstats ) );
+            statsResults.append( buffer.toString() );
+        }
+        return stats;
+    }
+
     /**
      * Add a named report to the text area.
      */
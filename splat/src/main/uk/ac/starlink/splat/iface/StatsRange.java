@@ -5,6 +5,9 @@
  *  History:
  *     20-JUN-2005 (Peter W. Draper):
  *        Original version.
+ *     17-OCT-2026:
+ *        Use the StatsIndex of the StatsFrame, unless exact statistics are
+ *        required.
  */
 package uk.ac.starlink.splat.iface;
 
@@ -18,6 +21,7 @@ import uk.ac.starlink.splat.util.JACUtilities;
 import uk.ac.starlink.splat.util.NumericIntegrator;
 import uk.ac.starlink.splat.util.Sort;
 import uk.ac.starlink.splat.util.Statistics;
+import uk.ac.starlink.splat.util.StatsIndex;
 
 /**
  * StatsRange extends the {@link XGraphicsRange} class to add four or five new
@@ -43,6 +47,9 @@ public class StatsRange
     /** The NumericIntegrator instance */
     private NumericIntegrator integ = new NumericIntegrator();
 
+    /** The flux estimate */
+    private double flux = 0.0;
+
     /** The TSYS value */
     private double tsys = -1.0;
 
@@ -114,7 +121,10 @@ public class StatsRange
             }
             int nvals = high - low + 1;
 
-            if ( nvals > 0 ) {
+            if ( nvals > 0 && ! statsFrame.isExact() ) {
+                updateIndexedStats( currentSpectrum, low, high );
+            }
+            else if ( nvals > 0 ) {
                 double[] data = currentSpectrum.getYData();
 
                 //  Test for presence of BAD values in the data. These are not
@@ -173,21 +183,43 @@ public class StatsRange
 
                 //  Perform stats...
                 stats.setData( rangeData );
+                flux = showFlux ? integ.getIntegral() : 0.0;
+                updateTSYS( showTSYS );
+            }
+        }
+    }
 
-                //  TSYS requires the standard deviation and factors held
-                //  by the StatsFrame.
-                tsys = -1.0;
-                if ( showTSYS ) {
-                    double std = getStandardDeviation();
-                    double[] factors = statsFrame.getTSYSFactors();
-                    if ( factors != null ) {
-                        tsys = JACUtilities.calculateTSYS( factors[0],
-                                                           factors[1],
-                                                           factors[2],
-                                                           std );
-                    }
-                }
+    /**
+     * Make the current statistics match a range of positions, using the
+     * index of the spectrum held by the StatsFrame.
+     */
+    protected void updateIndexedStats( SpecData spectrum, int low, int high )
+    {
+        StatsIndex index = statsFrame.getStatsIndex( spectrum );
+        stats = index.getStatistics( new int[] { low, high } );
+
+        //  Flux needs a monotonic spectrum.
+        boolean showFlux = ((StatsRangesModel)model).getShowFlux();
+        flux = 0.0;
+        if ( showFlux && spectrum.isMonotonic() ) {
+            flux = index.getIntegral( low, high );
+        }
+        updateTSYS( ((StatsRangesModel)model).getShowTSYS() );
+    }
 
+    /**
+     * Update the TSYS value. This requires the standard deviation and
+     * factors held by the StatsFrame.
+     */
+    protected void updateTSYS( boolean showTSYS )
+    {
+        tsys = -1.0;
+        if ( showTSYS ) {
+            double std = getStandardDeviation();
+            double[] factors = statsFrame.getTSYSFactors();
+            if ( factors != null ) {
+                tsys = JACUtilities.calculateTSYS( factors[0], factors[1],
+                                                   factors[2], std );
             }
         }
     }
@@ -229,7 +261,7 @@ public class StatsRange
      */
     public double getFlux()
     {
-        return integ.getIntegral();
+        return flux;
     }
 
     /**
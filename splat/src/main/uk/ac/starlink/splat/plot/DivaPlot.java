@@ -13,6 +13,10 @@
  *    01-MAR-2005 (Peter W. Draper):
  *       Added an option to only display the grid within the bounds of
  *       the component visible region. Major changes.
+ *    17-OCT-2026:
+ *       Log the alignment mapping cache statistics after a full redraw.
+ *    17-OCT-2026:
+ *       Spectra rendered in the background are composited under the grid.
  */
 package uk.ac.starlink.splat.plot;
 
@@ -288,6 +292,16 @@ public class DivaPlot
      */
     protected SpecLegendFigure legendFigure = null;
 
+    /**
+     * Whether spectra are rendered progressively in the background.
+     */
+    private boolean progressive = false;
+
+    /**
+     * The renderer used for progressive rendering. Created when needed.
+     */
+    protected SpectraRenderer renderer = null;
+
     /**
      * Plot a series of spectra.
      *
@@ -958,6 +972,53 @@ public class DivaPlot
      */
     protected void drawSpectra()
         throws SplatException
+    {
+        double[] limits = getSpectraClipLimits();
+        if ( spectra.count() > 0 ) {
+            updateStackerOffsets();
+            spectra.drawSpec( mainGrf, mainPlot, limits, baseBox );
+        }
+    }
+
+    /**
+     * Start a background render of the spectra. When ready the spectra are
+     * composited into the plot by {@link #redrawAll}.
+     */
+    protected void renderSpectra()
+    {
+        if ( renderer == null ) {
+            renderer = new SpectraRenderer( this );
+        }
+        if ( spectra.count() > 0 ) {
+            updateStackerOffsets();
+            renderer.render( spectra, mainPlot, getSpectraClipLimits(),
+                             baseBox.clone() );
+        }
+        else {
+            renderer.clear();
+        }
+    }
+
+    /**
+     * Set the offsets of the spectra, when the PlotStacker is being used.
+     */
+    protected void updateStackerOffsets()
+    {
+        if ( usePlotStacker ) {
+            try {
+                stacker.updateOffsets();
+            }
+            catch (SplatException e) {
+                logger.info("Failed to stack spectra: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get the limits that the spectra should be clipped to, in world
+     * coordinates. Returns null when the spectra are not clipped.
+     */
+    protected double[] getSpectraClipLimits()
     {
         double[] limits = null;
         if ( graphicsEdges.isClipped() ) {
@@ -1001,19 +1062,37 @@ public class DivaPlot
                 }
             }
         }
-        if ( spectra.count() > 0 ) {
-            if ( usePlotStacker ) {
-                try {
-                    stacker.updateOffsets();
-                }
-                catch (SplatException e) {
-                    logger.info("Failed to stack spectra: " + e.getMessage());
-                }
+        return limits;
+    }
+
+    /**
+     * Set whether spectra should be rendered progressively. When true
+     * background threads draw the spectra into a display list and
+     * rasterise that into off-screen images that are shown when ready, so
+     * that the interface stays responsive when drawing is slow. The
+     * previous rendering is shown until the visible parts of the plot are
+     * ready.
+     */
+    public void setProgressive( boolean progressive )
+    {
+        if ( this.progressive != progressive ) {
+            this.progressive = progressive;
+            if ( ! progressive && renderer != null ) {
+                renderer.clear();
             }
-            spectra.drawSpec( mainGrf, mainPlot, limits, baseBox );
+            xyScaled = true;
+            repaint();
         }
     }
 
+    /**
+     * Return if spectra are being rendered progressively.
+     */
+    public boolean isProgressive()
+    {
+        return progressive;
+    }
+
     private Component parent = null;
 
     /**
@@ -1200,7 +1279,12 @@ public class DivaPlot
                 //  Draw the spectra, if required.
                 if ( xyScaled ) {
                     mainGrf.establishContext( "SPECTRA" );
-                    drawSpectra();
+                    if ( progressive ) {
+                        renderSpectra();
+                    }
+                    else {
+                        drawSpectra();
+                    }
 
                     //  Resize overlay graphics.
                     if ( scaleFigures && oldAstPlot != null ) {
@@ -1247,6 +1331,7 @@ public class DivaPlot
                         //  Drawn at least once, so OK to track mouse events.
                         readyToTrack = true;
                     }
+                    logAlignmentStatistics();
                 }
                 mainGrf.establishContext( mainGrf.DEFAULT );
 
@@ -1258,6 +1343,24 @@ public class DivaPlot
             //  nothing.
             graphicsHints.applyRenderingHints( (Graphics2D) g );
 
+            //  Composite any spectra rendered in the background, these go
+            //  under the grid, as when drawn with it. When printing these
+            //  are drawn at full resolution, if not ready the spectra are
+            //  drawn now.
+            if ( progressive && renderer != null ) {
+                if ( isPaintingForPrint() ) {
+                    if ( ! renderer.paintFull( g ) ) {
+                        DefaultGrf printGrf = new DefaultGrf( this );
+                        spectra.drawSpec( printGrf, mainPlot,
+                                          getSpectraClipLimits(), baseBox );
+                        printGrf.paint( g );
+                    }
+                }
+                else {
+                    renderer.paint( g );
+                }
+            }
+
             //  Repaint all graphics.
             mainPlot.paint( g );
         }
@@ -1288,6 +1391,22 @@ public class DivaPlot
         return ok;
     }
 
+    /**
+     * Log how well the alignment mappings of the spectra are being reused,
+     * if any have been reused or generated since the last report.
+     */
+    protected void logAlignmentStatistics()
+    {
+        long count = spectra.getAlignmentCacheHits() +
+            spectra.getAlignmentCacheMisses();
+        if ( count != lastAlignmentCount ) {
+            lastAlignmentCount = count;
+            logger.fine( spectra.getAlignmentStatistics() );
+        }
+    }
+
+    /** Number of alignment mappings at the last report */
+    private long lastAlignmentCount = 0;
 
     /** Variable to save existing baseBox values when switching side bands */
     private double[] sbandBaseBox = new double[4];
@@ -1835,10 +1835,10 @@ public class PlotControl
         int localIndex = spectra.indexOf( spectrum );
         if ( localIndex > -1 ) {
             try {
+                //  Modified values, so we need to regenerate all mappings,
+                //  any involving this spectrum cannot be reused.
+                spectra.invalidateMappings( spectrum );
                 updateThePlot( null );
-
-                // Modified values, so we need to regenerate all mappings.
-                spectra.regenerate();
             }
             catch (SplatException ignored) {
                 // Do nothing, should be none-fatal.
@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ *     17-OCT-2026:
+ *        The display list is now drawn away from the event dispatch
+ *        thread, from a snapshot of the Plot and mappings. Removed the
+ *        preview, the visible tiles are rasterised instead.
+ */
+package uk.ac.starlink.splat.plot;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+import uk.ac.starlink.ast.Plot;
+import uk.ac.starlink.ast.grf.DefaultGrf;
+import uk.ac.starlink.splat.data.SpecDataComp;
+
+/**
+ * Renders the spectra of a {@link DivaPlot} away from the event dispatch
+ * thread.
+ * <p>
+ * A render has two stages, both done by a pool of worker threads. First
+ * the spectra are drawn into a DefaultGrf display list. This is where the
+ * coordinate transformations happen, so it uses a snapshot of the Plot and
+ * the mappings of the spectra, see {@link SpecDataComp#prepareDrawing},
+ * taken on the event dispatch thread. The display list is not changed
+ * after this, so it is then rasterised into square image tiles, which are
+ * composited onto the plot when it is painted. Tiles are only rasterised
+ * when they are first painted, so scrolling a large plot just creates the
+ * newly exposed tiles.
+ * <p>
+ * The last complete frame is shown until the visible tiles of a new render
+ * are ready, so the spectra do not disappear while panning or zooming.
+ * Starting a new render cancels any render that is still in progress,
+ * including the drawing of its display list. All the public methods must
+ * be called from the event dispatch thread.
+ *
+ * @version $Id$
+ * @see DivaPlot
+ */
+public class SpectraRenderer
+{
+    // Logger.
+    private static Logger logger =
+        Logger.getLogger( "uk.ac.starlink.splat.plot.SpectraRenderer" );
+
+    /**
+     * Width and height of a tile, in pixels.
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * Maximum number of tiles to keep.
+     */
+    private static final int MAX_TILES = 128;
+
+    /**
+     * Threads that draw the display lists and rasterise the tiles. Display
+     * lists are not modified once complete, so any number of tiles may be
+     * drawn at once.
+     */
+    private static ExecutorService rasteriser =
+        Executors.newFixedThreadPool
+           ( Math.max( 1, Runtime.getRuntime().availableProcessors() ),
+             new RendererThreadFactory( "SPLAT spectra renderer" ) );
+
+    /**
+     * The component being drawn into.
+     */
+    private JComponent component = null;
+
+    /**
+     * Count of the renders, used to identify stale results.
+     */
+    private volatile int generation = 0;
+
+    /**
+     * The most recent complete render, null until available.
+     */
+    private Frame latest = null;
+
+    /**
+     * The frame being shown, null until the first render is ready.
+     */
+    private volatile Frame shown = null;
+
+    /**
+     * The frame that will be shown when its visible tiles are ready.
+     */
+    private volatile Frame next = null;
+
+    /**
+     * Futures for the work in progress, so that it can be cancelled.
+     */
+    private Future<?> drawFuture = null;
+    private List<Future<?>> tileFutures = new ArrayList<Future<?>>();
+
+    /**
+     * Rendering hints used when the plot was last painted, also used for
+     * the tiles.
+     */
+    private volatile RenderingHints hints = null;
+
+    /**
+     * Constructor.
+     *
+     * @param component the component that will be drawn into. This is
+     *                  repainted when results become available.
+     */
+    public SpectraRenderer( JComponent component )
+    {
+        this.component = component;
+    }
+
+    /**
+     * Start rendering spectra. Any render in progress is cancelled. The
+     * display list is drawn in the background, followed by the tiles that
+     * are visible, the other tiles when they are painted.
+     *
+     * @param spectra the spectra to draw.
+     * @param plot the Plot defining the transformation from physical
+     *             coordinates into graphics coordinates.
+     * @param clipLimits limits of area being drawn in world coordinates,
+     *                   when clipping is required. Set to null when no
+     *                   clipping applies.
+     * @param fullLimits limits of the whole graphics component in world
+     *                   coordinates.
+     */
+    public void render( SpecDataComp spectra, Plot plot,
+                        double[] clipLimits, double[] fullLimits )
+    {
+        cancel();
+        final int gen = generation;
+
+        //  Snapshot the state needed to draw the spectra. Anything that
+        //  cannot be drawn later is drawn now, into its own display list.
+        final DefaultGrf overlay = new DefaultGrf( component );
+        final SpecDataComp.Drawing drawing;
+        try {
+            drawing = spectra.prepareDrawing( overlay, plot, clipLimits,
+                                              fullLimits );
+        }
+        catch (Exception e) {
+            logger.info( "Failed to draw spectra: " + e.getMessage() );
+            return;
+        }
+
+        final DefaultGrf grf = new DefaultGrf( component );
+        drawFuture = rasteriser.submit( new Runnable()
+            {
+                public void run()
+                {
+                    if ( gen != generation ) {
+                        return;
+                    }
+                    try {
+                        if ( ! drawing.draw( grf ) ) {
+                            return;
+                        }
+                    }
+                    catch (Exception e) {
+                        logger.info( "Failed to draw spectra: " +
+                                     e.getMessage() );
+                        return;
+                    }
+                    SwingUtilities.invokeLater( new Runnable()
+                        {
+                            public void run()
+                            {
+                                if ( gen == generation ) {
+                                    start( new Frame( grf, overlay ) );
+                                }
+                            }
+                        });
+                }
+            });
+    }
+
+    /**
+     * Start rasterising the visible tiles of a frame whose display lists
+     * are complete. The frame is shown when these are ready.
+     */
+    private void start( Frame frame )
+    {
+        latest = frame;
+        next = frame;
+        Rectangle visible = component.getVisibleRect();
+        if ( ! visible.isEmpty() ) {
+            int col0 = Math.max( 0, visible.x ) / TILE_SIZE;
+            int col1 = Math.max( 0, visible.x + visible.width - 1 ) /
+                TILE_SIZE;
+            int row0 = Math.max( 0, visible.y ) / TILE_SIZE;
+            int row1 = Math.max( 0, visible.y + visible.height - 1 ) /
+                TILE_SIZE;
+            for ( int row = row0; row <= row1; row++ ) {
+                for ( int col = col0; col <= col1; col++ ) {
+                    requestTile( frame, getKey( row, col ), col * TILE_SIZE,
+                                 row * TILE_SIZE );
+                }
+            }
+        }
+        if ( frame.pending.isEmpty() ) {
+            show( frame );
+        }
+    }
+
+    /**
+     * Show a frame, replacing the current one.
+     */
+    private void show( Frame frame )
+    {
+        shown = frame;
+        next = null;
+        component.repaint();
+    }
+
+    /**
+     * Cancel any render in progress. The last complete frame is still
+     * shown.
+     */
+    public void cancel()
+    {
+        generation++;
+        next = null;
+        if ( drawFuture != null ) {
+            drawFuture.cancel( true );
+            drawFuture = null;
+        }
+        for ( Future<?> future : tileFutures ) {
+            future.cancel( false );
+        }
+        tileFutures.clear();
+
+        //  Tiles that were cancelled must be requested again.
+        Frame frame = shown;
+        if ( frame != null ) {
+            frame.pending.clear();
+        }
+    }
+
+    /**
+     * Cancel any render in progress and discard all results.
+     */
+    public void clear()
+    {
+        cancel();
+        latest = null;
+        shown = null;
+    }
+
+    /**
+     * Return if a render has completed its display list.
+     */
+    public boolean isReady()
+    {
+        return latest != null;
+    }
+
+    /**
+     * Paint the rendered spectra. Tiles that are not yet available are
+     * requested and drawn when ready.
+     *
+     * @param g the Graphics2D object, only the region within its clip is
+     *          drawn.
+     */
+    public void paint( Graphics2D g )
+    {
+        Frame frame = shown;
+        if ( frame == null ) {
+            return;
+        }
+        hints = (RenderingHints) g.getRenderingHints().clone();
+
+        Rectangle clip = g.getClipBounds();
+        if ( clip == null ) {
+            clip = new Rectangle( component.getSize() );
+        }
+        int col0 = Math.max( 0, clip.x ) / TILE_SIZE;
+        int col1 = Math.max( 0, clip.x + clip.width - 1 ) / TILE_SIZE;
+        int row0 = Math.max( 0, clip.y ) / TILE_SIZE;
+        int row1 = Math.max( 0, clip.y + clip.height - 1 ) / TILE_SIZE;
+
+        for ( int row = row0; row <= row1; row++ ) {
+            for ( int col = col0; col <= col1; col++ ) {
+                Long key = getKey( row, col );
+                int x = col * TILE_SIZE;
+                int y = row * TILE_SIZE;
+                BufferedImage tile = frame.tiles.get( key );
+                if ( tile != null ) {
+                    g.drawImage( tile, x, y, null );
+                }
+                else {
+                    requestTile( frame, key, x, y );
+                }
+            }
+        }
+    }
+
+    /**
+     * Paint the most recently rendered spectra at full resolution, without
+     * using any tiles. Use this when printing.
+     *
+     * @param g the Graphics2D object.
+     * @return false if no render has completed, so nothing was drawn.
+     */
+    public boolean paintFull( Graphics2D g )
+    {
+        Frame frame = latest;
+        if ( frame == null ) {
+            return false;
+        }
+        frame.grf.paint( g );
+        frame.overlay.paint( g );
+        return true;
+    }
+
+    /**
+     * Get the key of a tile.
+     */
+    private static Long getKey( int row, int col )
+    {
+        return Long.valueOf( ( (long) row << 32 ) | col );
+    }
+
+    /**
+     * Request that a tile of a frame is rasterised, unless already in
+     * progress. The result is dropped if the frame is no longer shown or
+     * about to be shown.
+     */
+    private void requestTile( final Frame frame, final Long key,
+                              final int x, final int y )
+    {
+        if ( frame.pending.contains( key ) ) {
+            return;
+        }
+        frame.pending.add( key );
+
+        tileFutures.add( rasteriser.submit( new Runnable()
+            {
+                public void run()
+                {
+                    if ( frame != shown && frame != next ) {
+                        return;
+                    }
+                    final BufferedImage image =
+                        rasterise( frame, new Rectangle( x, y, TILE_SIZE,
+                                                         TILE_SIZE ) );
+                    SwingUtilities.invokeLater( new Runnable()
+                        {
+                            public void run()
+                            {
+                                frame.pending.remove( key );
+                                if ( frame == shown ) {
+                                    frame.tiles.put( key, image );
+                                    component.repaint( x, y, TILE_SIZE,
+                                                       TILE_SIZE );
+                                }
+                                else if ( frame == next ) {
+                                    frame.tiles.put( key, image );
+                                    if ( frame.pending.isEmpty() ) {
+                                        show( frame );
+                                    }
+                                }
+                            }
+                        });
+                }
+            }));
+
+        //  Forget about completed work.
+        for ( int i = tileFutures.size() - 1; i >= 0; i-- ) {
+            if ( tileFutures.get( i ).isDone() ) {
+                tileFutures.remove( i );
+            }
+        }
+    }
+
+    /**
+     * Draw a region of the display lists of a frame into a transparent
+     * image.
+     *
+     * @param frame the frame.
+     * @param region the region to draw, in component coordinates.
+     * @return the image.
+     */
+    private BufferedImage rasterise( Frame frame, Rectangle region )
+    {
+        BufferedImage image =
+            new BufferedImage( Math.max( 1, region.width ),
+                               Math.max( 1, region.height ),
+                               BufferedImage.TYPE_INT_ARGB );
+        Graphics2D g2 = image.createGraphics();
+        RenderingHints localHints = hints;
+        if ( localHints != null ) {
+            g2.setRenderingHints( localHints );
+        }
+        g2.translate( -region.x, -region.y );
+        g2.clipRect( region.x, region.y, region.width, region.height );
+        frame.grf.paint( g2 );
+        frame.overlay.paint( g2 );
+        g2.dispose();
+        return image;
+    }
+
+    /**
+     * A complete render, its display lists and the tiles that have been
+     * rasterised. Only accessed on the event dispatch thread, except for
+     * the display lists, which are not changed.
+     */
+    private static class Frame
+    {
+        /** The spectra drawn in the background. */
+        final DefaultGrf grf;
+
+        /** Any spectra drawn by the event dispatch thread, drawn last. */
+        final DefaultGrf overlay;
+
+        /**
+         * The rasterised tiles, keyed by their position. Least recently
+         * used tiles are dropped when there are more than MAX_TILES.
+         */
+        final Map<Long,BufferedImage> tiles =
+            new LinkedHashMap<Long,BufferedImage>( 32, 0.75f, true )
+            {
+                protected boolean removeEldestEntry
+                    ( Map.Entry<Long,BufferedImage> eldest )
+                {
+                    return size() > MAX_TILES;
+                }
+            };
+
+        /**
+         * Tiles that are being rasterised.
+         */
+        final Set<Long> pending = new HashSet<Long>();
+
+        Frame( DefaultGrf grf, DefaultGrf overlay )
+        {
+            this.grf = grf;
+            this.overlay = overlay;
+        }
+    }
+
+    /**
+     * ThreadFactory for daemon threads of low priority, so that rendering
+     * never holds up the application.
+     */
+    private static class RendererThreadFactory
+        implements ThreadFactory
+    {
+        private String name;
+
+        public RendererThreadFactory( String name )
+        {
+            this.name = name;
+        }
+
+        public Thread newThread( Runnable r )
+        {
+            Thread thread = new Thread( r, name );
+            thread.setDaemon( true );
+            thread.setPriority( Thread.MIN_PRIORITY );
+            return thread;
+        }
+    }
+}
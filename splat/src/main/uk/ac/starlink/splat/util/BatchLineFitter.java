@@ -0,0 +1,945 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import uk.ac.starlink.splat.data.NameParser;
+import uk.ac.starlink.splat.data.SpecData;
+import uk.ac.starlink.splat.data.SpecDataFactory;
+import uk.ac.starlink.table.ColumnInfo;
+import uk.ac.starlink.table.RowListStarTable;
+import uk.ac.starlink.table.RowStore;
+import uk.ac.starlink.table.StarTableOutput;
+import uk.ac.starlink.table.StoragePolicy;
+import uk.ac.starlink.table.TableSink;
+import uk.ac.starlink.util.AsciiFileParser;
+
+/**
+ * Fits the same set of line windows in many spectra, without any user
+ * interface.
+ * <p>
+ * Each window is a range of spectral coordinates containing one line. The
+ * lines in each window are measured using a {@link QuickLineFitter} and
+ * fitted by any of the {@link GaussianFitter}, {@link LorentzFitter} and
+ * {@link VoigtFitter} profiles, as the interactive line fitter does for a
+ * single spectrum. The spectra should be background subtracted, or a
+ * constant background value given.
+ * <p>
+ * The spectra are read and fitted by a pool of threads. The fits of the
+ * first spectrum, in the order given, start from the quick measurements.
+ * Its solutions are then the starting points of the fits of all the other
+ * spectra, falling back to the quick measurement when that fit is not
+ * acceptable, so the fits of similar spectra need fewer iterations. The
+ * results do not depend on the number of threads. The results are passed
+ * to a {@link TableSink} one row per spectrum, in the order the spectra
+ * are given, and only a few spectra are held in memory at once. Spectra
+ * that cannot be read have a row with a status message and NaN values.
+ * Fits that fail are also described by the status.
+ * <p>
+ * The {@link #main} method runs a fit from the command-line, writing the
+ * results as a FITS or VOTable file.
+ *
+ * @version $Id$
+ * @see CmpFitter
+ */
+public class BatchLineFitter
+{
+    /**
+     * Types of measurement, these can be combined.
+     */
+    public static final int QUICK = 1;
+    public static final int GAUSSIAN = 2;
+    public static final int LORENTZIAN = 4;
+    public static final int VOIGT = 8;
+
+    /**
+     * Status of spectra that were fitted. Other values describe the
+     * failures.
+     */
+    public static final String OK = "OK";
+
+    /**
+     * The NDF library must only be used from one thread.
+     */
+    private static final Object NDF_LOCK = new Object();
+
+    /**
+     * Number of spectra to have in progress for each thread.
+     */
+    private static final int QUEUE_PER_THREAD = 4;
+
+    /**
+     * The line windows.
+     */
+    private List<Window> windows = new ArrayList<Window>();
+
+    /**
+     * The types of measurement to make.
+     */
+    private int types = QUICK | GAUSSIAN;
+
+    /**
+     * Background value to subtract from the spectra.
+     */
+    private double backgroundValue = 0.0;
+
+    /**
+     * Whether to weight the fits using the data errors.
+     */
+    private boolean useErrors = true;
+
+    /**
+     * Whether to start fits from the solutions of the first spectrum.
+     */
+    private boolean warmStart = true;
+
+    /**
+     * The number of threads.
+     */
+    private int threads = ChunkedTask.getDefaultThreads();
+
+    /**
+     * The solutions of the first spectrum, indexed by window, then
+     * profile, used as the starting points of the other fits. Null, or
+     * null elements, when there are none.
+     */
+    private volatile double[][][] seed = null;
+
+    /**
+     * Create an instance with no windows.
+     */
+    public BatchLineFitter()
+    {
+        // Do nothing.
+    }
+
+    /**
+     * Add a line window.
+     *
+     * @param name the name of the line, used for the result columns.
+     * @param lower the lower spectral coordinate of the window.
+     * @param upper the upper spectral coordinate of the window.
+     */
+    public void addWindow( String name, double lower, double upper )
+    {
+        windows.add( new Window( name, Math.min( lower, upper ),
+                                 Math.max( lower, upper ) ) );
+    }
+
+    /**
+     * Get the number of windows.
+     */
+    public int getWindowCount()
+    {
+        return windows.size();
+    }
+
+    /**
+     * Set the types of measurement, a combination of {@link #QUICK},
+     * {@link #GAUSSIAN}, {@link #LORENTZIAN} and {@link #VOIGT}.
+     */
+    public void setTypes( int types )
+    {
+        this.types = types;
+    }
+
+    /**
+     * Get the types of measurement.
+     */
+    public int getTypes()
+    {
+        return types;
+    }
+
+    /**
+     * Set a constant background value to subtract from the spectra.
+     */
+    public void setBackgroundValue( double backgroundValue )
+    {
+        this.backgroundValue = backgroundValue;
+    }
+
+    /**
+     * Get the background value.
+     */
+    public double getBackgroundValue()
+    {
+        return backgroundValue;
+    }
+
+    /**
+     * Set whether to weight the fits using the data errors, when
+     * available.
+     */
+    public void setUseErrors( boolean useErrors )
+    {
+        this.useErrors = useErrors;
+    }
+
+    /**
+     * Get whether the fits are weighted using the data errors.
+     */
+    public boolean isUseErrors()
+    {
+        return useErrors;
+    }
+
+    /**
+     * Set whether to start the fits from the solutions of the first
+     * spectrum.
+     */
+    public void setWarmStart( boolean warmStart )
+    {
+        this.warmStart = warmStart;
+    }
+
+    /**
+     * Get whether the fits start from the solutions of the first spectrum.
+     */
+    public boolean isWarmStart()
+    {
+        return warmStart;
+    }
+
+    /**
+     * Set the number of threads, 1 to fit the spectra one at a time in the
+     * calling thread.
+     */
+    public void setThreads( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Get the number of threads.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * Get the columns of the results. The first two columns are the
+     * spectrum name and a status, the others are the measurements of
+     * each window, named after the window.
+     */
+    public ColumnInfo[] getColumnInfos()
+    {
+        List<ColumnInfo> infos = new ArrayList<ColumnInfo>();
+        infos.add( new ColumnInfo( "spectrum", String.class,
+                                   "Name of the spectrum" ) );
+        infos.add( new ColumnInfo( "status", String.class,
+                                   "OK or the reason the fit failed" ) );
+        for ( Window window : windows ) {
+            String[] names = window.getColumnNames( types );
+            for ( int i = 0; i < names.length; i++ ) {
+                infos.add( new ColumnInfo( names[i], Double.class,
+                                           window.name + " " +
+                                           names[i].substring
+                                           ( window.name.length() + 1 ) ) );
+            }
+        }
+        return infos.toArray( new ColumnInfo[infos.size()] );
+    }
+
+    /**
+     * Fit a list of spectra, writing the results to a table file.
+     *
+     * @param spectra the names of the spectra.
+     * @param location the table file.
+     * @param format the table format, such as "fits" or "votable", null
+     *               to choose from the file name.
+     * @return the number of spectra fitted.
+     * @throws SplatException if the table cannot be written.
+     */
+    public int fit( Iterator<String> spectra, String location,
+                    String format )
+        throws SplatException
+    {
+        //  Keep the results on disk until all are done, so that any table
+        //  format can be written without holding them all in memory.
+        RowStore store = StoragePolicy.PREFER_DISK.makeRowStore();
+        int count = fit( spectra, store );
+        try {
+            new StarTableOutput().writeStarTable( store.getStarTable(),
+                                                  location, format );
+        }
+        catch (IOException e) {
+            throw new SplatException( "Failed to write results to " +
+                                      location, e );
+        }
+        return count;
+    }
+
+    /**
+     * Fit a list of spectra, passing a row of results for each spectrum to
+     * a TableSink.
+     *
+     * @param spectra the names of the spectra.
+     * @param sink receives the results, one row per spectrum.
+     * @return the number of spectra fitted.
+     * @throws SplatException if the results cannot be written to the sink.
+     */
+    public int fit( Iterator<String> spectra, TableSink sink )
+        throws SplatException
+    {
+        int count = 0;
+        seed = null;
+        try {
+            sink.acceptMetadata( new RowListStarTable( getColumnInfos() ) );
+
+            //  Fit spectra in order until one has solutions to start the
+            //  other fits from, so the results do not depend on the order
+            //  the fits complete.
+            while ( warmStart && seed == null && spectra.hasNext() ) {
+                String name = spectra.next();
+                double[][][] solutions = makeSolutions();
+                sink.acceptRow( readAndFit( name, solutions ) );
+                count++;
+                if ( hasSolution( solutions ) ) {
+                    seed = solutions;
+                }
+            }
+
+            if ( threads == 1 ) {
+                while ( spectra.hasNext() ) {
+                    sink.acceptRow( fit( spectra.next() ) );
+                    count++;
+                }
+            }
+            else {
+                count += fitParallel( spectra, sink );
+            }
+            sink.endRows();
+        }
+        catch (IOException e) {
+            throw new SplatException( "Failed to write results", e );
+        }
+        return count;
+    }
+
+    /**
+     * Fit spectra using a pool of threads, keeping a limited number in
+     * progress and passing on the results in order.
+     */
+    private int fitParallel( Iterator<String> spectra, TableSink sink )
+        throws IOException
+    {
+        ExecutorService pool =
+            Executors.newFixedThreadPool( threads, new ThreadFactory()
+                {
+                    public Thread newThread( Runnable r )
+                    {
+                        Thread thread = new Thread( r, "Batch line fitter" );
+                        thread.setDaemon( true );
+                        return thread;
+                    }
+                });
+        LinkedList<Future<Object[]>> pending =
+            new LinkedList<Future<Object[]>>();
+        int count = 0;
+        try {
+            while ( spectra.hasNext() ) {
+                final String name = spectra.next();
+                pending.add( pool.submit( new Callable<Object[]>()
+                    {
+                        public Object[] call()
+                        {
+                            return fit( name );
+                        }
+                    }));
+                if ( pending.size() >= threads * QUEUE_PER_THREAD ) {
+                    sink.acceptRow( getRow( pending.removeFirst() ) );
+                    count++;
+                }
+            }
+            while ( pending.size() > 0 ) {
+                sink.acceptRow( getRow( pending.removeFirst() ) );
+                count++;
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        return count;
+    }
+
+    /**
+     * Wait for the row of results of a spectrum.
+     */
+    private Object[] getRow( Future<Object[]> future )
+        throws IOException
+    {
+        try {
+            return future.get();
+        }
+        catch (ExecutionException e) {
+            //  fit() catches its failures, so this is unexpected.
+            throw (IOException)
+                new IOException( "Fit failed" ).initCause( e.getCause() );
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Fitting interrupted" );
+        }
+    }
+
+    /**
+     * Read and fit a spectrum, returning its row of results. Failures are
+     * recorded in the status column.
+     *
+     * @param name the name of the spectrum.
+     */
+    public Object[] fit( String name )
+    {
+        return readAndFit( name, null );
+    }
+
+    /**
+     * Read and fit a spectrum, returning its row of results and recording
+     * its solutions.
+     */
+    private Object[] readAndFit( String name, double[][][] solutions )
+    {
+        SpecData specData = null;
+        try {
+            specData = read( name );
+        }
+        catch (Exception e) {
+            return makeFailedRow( name, "Failed to read spectrum: " +
+                                  e.getMessage() );
+        }
+        try {
+            return fit( name, specData, solutions );
+        }
+        catch (RuntimeException e) {
+            return makeFailedRow( name, "Failed to fit spectrum: " +
+                                  e.getMessage() );
+        }
+    }
+
+    /**
+     * Read a spectrum.
+     */
+    protected SpecData read( String name )
+        throws SplatException
+    {
+        SpecDataFactory factory = SpecDataFactory.getInstance();
+        if ( "NDF".equals( new NameParser( name ).getFormat() ) ) {
+            synchronized( NDF_LOCK ) {
+                return factory.get( name );
+            }
+        }
+        return factory.get( name );
+    }
+
+    /**
+     * Fit a spectrum, returning its row of results.
+     *
+     * @param name the name to use in the results.
+     * @param specData the spectrum.
+     */
+    public Object[] fit( String name, SpecData specData )
+    {
+        return fit( name, specData, null );
+    }
+
+    /**
+     * Fit a spectrum, returning its row of results. The acceptable
+     * solutions are recorded, if solutions is given.
+     */
+    private Object[] fit( String name, SpecData specData,
+                          double[][][] solutions )
+    {
+        double[] x = specData.getXData();
+        double[] y = specData.getYData();
+        double[] e = useErrors ? specData.getYDataErrors() : null;
+
+        double[][][] starts = seed;
+        List<String> failures = new ArrayList<String>();
+        List<Object> row = new ArrayList<Object>();
+        row.add( name );
+        row.add( OK );
+        for ( int i = 0; i < windows.size(); i++ ) {
+            windows.get( i ).fit( x, y, e,
+                                  ( starts == null ) ? null : starts[i],
+                                  ( solutions == null ) ? null : solutions[i],
+                                  row, failures );
+        }
+        if ( failures.size() > 0 ) {
+            StringBuffer status = new StringBuffer( "Failed:" );
+            for ( String failure : failures ) {
+                status.append( " " + failure + ";" );
+            }
+            status.setLength( status.length() - 1 );
+            row.set( 1, status.toString() );
+        }
+        return row.toArray();
+    }
+
+    /**
+     * Make an array for the solutions of a spectrum, indexed by window,
+     * then profile.
+     */
+    private double[][][] makeSolutions()
+    {
+        return new double[windows.size()][3][];
+    }
+
+    /**
+     * Whether there are any solutions in an array.
+     */
+    private static boolean hasSolution( double[][][] solutions )
+    {
+        for ( int i = 0; i < solutions.length; i++ ) {
+            for ( int j = 0; j < solutions[i].length; j++ ) {
+                if ( solutions[i][j] != null ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Make a row for a spectrum that could not be fitted.
+     */
+    private Object[] makeFailedRow( String name, String status )
+    {
+        Object[] row = new Object[getColumnInfos().length];
+        row[0] = name;
+        row[1] = status;
+        for ( int i = 2; i < row.length; i++ ) {
+            row[i] = Double.valueOf( Double.NaN );
+        }
+        return row;
+    }
+
+    /**
+     * A line window.
+     */
+    protected class Window
+    {
+        private String name;
+        private double lower;
+        private double upper;
+
+        public Window( String name, double lower, double upper )
+        {
+            this.name = name;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        /**
+         * Get the names of the result columns for a set of measurement
+         * types.
+         */
+        public String[] getColumnNames( int types )
+        {
+            List<String> names = new ArrayList<String>();
+            if ( ( types & QUICK ) != 0 ) {
+                addNames( names, "", new String[] { "peak", "centre",
+                                                    "width", "flux",
+                                                    "asymmetry" } );
+            }
+            if ( ( types & GAUSSIAN ) != 0 ) {
+                addNames( names, "g_", new String[]
+                    { "scale", "scale_err", "centre", "centre_err", "sigma",
+                      "sigma_err", "fwhm", "fwhm_err", "flux", "flux_err",
+                      "rms" } );
+            }
+            if ( ( types & LORENTZIAN ) != 0 ) {
+                addNames( names, "l_", new String[]
+                    { "scale", "scale_err", "centre", "centre_err", "width",
+                      "width_err", "fwhm", "fwhm_err", "flux", "flux_err",
+                      "rms" } );
+            }
+            if ( ( types & VOIGT ) != 0 ) {
+                addNames( names, "v_", new String[]
+                    { "scale", "scale_err", "centre", "centre_err",
+                      "gwidth", "gwidth_err", "lwidth", "lwidth_err", "fwhm",
+                      "fwhm_err", "flux", "flux_err", "rms" } );
+            }
+            return names.toArray( new String[names.size()] );
+        }
+
+        private void addNames( List<String> names, String prefix,
+                               String[] suffixes )
+        {
+            for ( int i = 0; i < suffixes.length; i++ ) {
+                names.add( name + "_" + prefix + suffixes[i] );
+            }
+        }
+
+        /**
+         * Measure the line in this window, adding the results to a row.
+         *
+         * @param x the spectral coordinates.
+         * @param y the data values.
+         * @param e the data errors, null for none.
+         * @param starts the solutions of each profile in this window to
+         *               start the fits from, null or null elements for none.
+         * @param solutions set to the acceptable solutions of each profile
+         *                  in this window, null if not needed.
+         * @param row the row of results.
+         * @param failures descriptions of the fits that failed are added
+         *                 to this.
+         */
+        public void fit( double[] x, double[] y, double[] e,
+                         double[][] starts, double[][] solutions,
+                         List<Object> row, List<String> failures )
+        {
+            if ( starts == null ) {
+                starts = new double[3][];
+            }
+            if ( solutions == null ) {
+                solutions = new double[3][];
+            }
+
+            //  Extract the good values in the window, in increasing
+            //  coordinate order as the fitters require.
+            int n = 0;
+            for ( int i = 0; i < x.length; i++ ) {
+                if ( isGood( x, y, e, i ) ) {
+                    n++;
+                }
+            }
+            double[] wx = new double[n];
+            double[] wy = new double[n];
+            double[] ww = ( e == null ) ? null : new double[n];
+            boolean reversed = x.length > 1 && x[0] > x[x.length - 1];
+            n = 0;
+            for ( int j = 0; j < x.length; j++ ) {
+                int i = reversed ? x.length - 1 - j : j;
+                if ( isGood( x, y, e, i ) ) {
+                    wx[n] = x[i];
+                    wy[n] = y[i] - backgroundValue;
+                    if ( ww != null ) {
+                        ww[n] = 1.0 / ( e[i] * e[i] );
+                    }
+                    n++;
+                }
+            }
+
+            //  Need more positions than the largest number of parameters.
+            if ( n < 5 ) {
+                int ncol = getColumnNames( types ).length;
+                for ( int i = 0; i < ncol; i++ ) {
+                    row.add( Double.valueOf( Double.NaN ) );
+                }
+                failures.add( name + " has too few points" );
+                return;
+            }
+
+            //  The quick measurement gives the guesses for the fits.
+            QuickLineFitter quick =
+                new QuickLineFitter( wx, wy, null, backgroundValue );
+            double peak = quick.getPeak();
+            if ( quick.isAbsorption() ) {
+                peak = -peak;
+            }
+            double centre = quick.getCentre();
+            double width = 0.5 * quick.getWidth();
+            if ( ( types & QUICK ) != 0 ) {
+                add( row, peak );
+                add( row, centre );
+                add( row, quick.getWidth() );
+                add( row, quick.getFlux() );
+                add( row, quick.getAsymmetry() );
+            }
+
+            if ( ( types & GAUSSIAN ) != 0 ) {
+                GaussianFitter g = null;
+                if ( starts[0] != null ) {
+                    g = new GaussianFitter( wx, wy, ww, starts[0][0],
+                                            starts[0][1], starts[0][2] );
+                }
+                if ( g == null || ! isAcceptable( g.getParams() ) ) {
+                    g = new GaussianFitter( wx, wy, ww, peak, centre,
+                                            width );
+                }
+                solutions[0] = remember( g.getParams(), "Gaussian",
+                                         failures );
+                add( row, g.getScale() );
+                add( row, g.getScaleError() );
+                add( row, g.getCentre() );
+                add( row, g.getCentreError() );
+                add( row, g.getSigma() );
+                add( row, g.getSigmaError() );
+                add( row, g.getFWHM() );
+                add( row, g.getFWHMError() );
+                add( row, g.getFlux() );
+                add( row, g.getFluxError() );
+                add( row, g.calcRms( wx, wy ) );
+            }
+
+            if ( ( types & LORENTZIAN ) != 0 ) {
+                LorentzFitter l = null;
+                if ( starts[1] != null ) {
+                    l = new LorentzFitter( wx, wy, ww, starts[1][0],
+                                           starts[1][1], starts[1][2] );
+                }
+                if ( l == null || ! isAcceptable( l.getParams() ) ) {
+                    l = new LorentzFitter( wx, wy, ww, peak, centre, width );
+                }
+                solutions[1] = remember( l.getParams(), "Lorentzian",
+                                         failures );
+                add( row, l.getScale() );
+                add( row, l.getScaleError() );
+                add( row, l.getCentre() );
+                add( row, l.getCentreError() );
+                add( row, l.getWidth() );
+                add( row, l.getWidthError() );
+                add( row, l.getFWHM() );
+                add( row, l.getFWHMError() );
+                add( row, l.getFlux() );
+                add( row, l.getFluxError() );
+                add( row, l.calcRms( wx, wy ) );
+            }
+
+            if ( ( types & VOIGT ) != 0 ) {
+                VoigtFitter v = null;
+                if ( starts[2] != null ) {
+                    v = new VoigtFitter( wx, wy, ww, starts[2][0],
+                                         starts[2][1], starts[2][2],
+                                         starts[2][3] );
+                }
+                if ( v == null || ! isAcceptable( v.getParams() ) ) {
+                    v = new VoigtFitter( wx, wy, ww, peak, centre, width,
+                                         width );
+                }
+                solutions[2] = remember( v.getParams(), "Voigt", failures );
+                add( row, v.getScale() );
+                add( row, v.getScaleError() );
+                add( row, v.getCentre() );
+                add( row, v.getCentreError() );
+                add( row, v.getGWidth() );
+                add( row, v.getGWidthError() );
+                add( row, v.getLWidth() );
+                add( row, v.getLWidthError() );
+                add( row, v.getFWHM() );
+                add( row, v.getFWHMError() );
+                add( row, v.getFlux() );
+                add( row, v.getFluxError() );
+                add( row, v.calcRms( wx, wy ) );
+            }
+        }
+
+        /**
+         * Whether a position has good values and is in the window.
+         */
+        private boolean isGood( double[] x, double[] y, double[] e, int i )
+        {
+            return x[i] != SpecData.BAD && y[i] != SpecData.BAD &&
+                x[i] >= lower && x[i] <= upper &&
+                ( e == null || ( e[i] != SpecData.BAD && e[i] > 0.0 ) );
+        }
+
+        /**
+         * Whether a solution is acceptable. The parameters must be
+         * finite, the centre must be in the window and the widths
+         * positive and smaller than the window. The parameters are a
+         * scale, centre and widths.
+         */
+        private boolean isAcceptable( double[] params )
+        {
+            for ( int i = 0; i < params.length; i++ ) {
+                if ( Double.isNaN( params[i] ) ||
+                     Double.isInfinite( params[i] ) ) {
+                    return false;
+                }
+            }
+            if ( params[1] < lower || params[1] > upper ) {
+                return false;
+            }
+            for ( int i = 2; i < params.length; i++ ) {
+                if ( params[i] <= 0.0 || params[i] > upper - lower ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Copy a solution to use as a starting point, null if it is not
+         * acceptable, when the failure of the fit is recorded.
+         */
+        private double[] remember( double[] params, String profile,
+                                   List<String> failures )
+        {
+            if ( isAcceptable( params ) ) {
+                return params.clone();
+            }
+            failures.add( name + " " + profile + " fit failed" );
+            return null;
+        }
+
+        private void add( List<Object> row, double value )
+        {
+            row.add( Double.valueOf( value ) );
+        }
+    }
+
+    /**
+     * Iterator over the names in a file, one per line. Blank lines and
+     * lines starting with "#" are skipped.
+     */
+    protected static class NameIterator
+        implements Iterator<String>
+    {
+        private BufferedReader reader;
+        private String next = null;
+
+        public NameIterator( File file )
+            throws IOException
+        {
+            reader = new BufferedReader( new FileReader( file ) );
+            advance();
+        }
+
+        private void advance()
+            throws IOException
+        {
+            next = null;
+            String line = null;
+            while ( ( line = reader.readLine() ) != null ) {
+                line = line.trim();
+                if ( line.length() > 0 && ! line.startsWith( "#" ) ) {
+                    next = line;
+                    return;
+                }
+            }
+            reader.close();
+        }
+
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        public String next()
+        {
+            if ( next == null ) {
+                throw new NoSuchElementException();
+            }
+            String result = next;
+            try {
+                advance();
+            }
+            catch (IOException e) {
+                throw new RuntimeException( e );
+            }
+            return result;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Parse the measurement types from a string of the letters q, g, l
+     * and v.
+     */
+    public static int parseTypes( String types )
+    {
+        int result = 0;
+        types = types.toLowerCase();
+        if ( types.indexOf( 'q' ) != -1 ) {
+            result |= QUICK;
+        }
+        if ( types.indexOf( 'g' ) != -1 ) {
+            result |= GAUSSIAN;
+        }
+        if ( types.indexOf( 'l' ) != -1 ) {
+            result |= LORENTZIAN;
+        }
+        if ( types.indexOf( 'v' ) != -1 ) {
+            result |= VOIGT;
+        }
+        return result;
+    }
+
+    /**
+     * Fit line windows in a list of spectra from the command-line.
+     * <p>
+     * The arguments are a file of line windows, a file listing the spectra,
+     * one per line, the output table, and optionally the measurement types
+     * as letters q (quick), g (Gaussian), l (Lorentzian) and v (Voigt),
+     * the default is "qg", and the number of threads. Each line of the
+     * windows file is a name and the lower and upper spectral coordinates
+     * of the window.
+     */
+    public static void main( String[] args )
+    {
+        if ( args.length < 3 || args.length > 5 ) {
+            System.out.println( "Usage: BatchLineFitter " +
+                                "windows_file " +
+                                "spectra_list " +
+                                "output_table " +
+                                "[q|g|l|v] " +
+                                "[threads]" );
+            System.exit( 1 );
+        }
+
+        BatchLineFitter fitter = new BatchLineFitter();
+        AsciiFileParser parser =
+            new AsciiFileParser( new File( args[0] ), false );
+        for ( int i = 0; i < parser.getNRows(); i++ ) {
+            if ( parser.getNFields( i ) != 3 ) {
+                System.out.println( "Skipping line " + i + " of " + args[0] );
+                System.out.println( "Wrong number of fields (must be 3)" );
+                continue;
+            }
+            fitter.addWindow( parser.getStringField( i, 0 ),
+                              parser.getDoubleField( i, 1 ),
+                              parser.getDoubleField( i, 2 ) );
+        }
+        if ( fitter.getWindowCount() == 0 ) {
+            System.out.println( "No line windows in " + args[0] );
+            System.exit( 1 );
+        }
+        if ( args.length > 3 ) {
+            fitter.setTypes( parseTypes( args[3] ) );
+        }
+        if ( args.length > 4 ) {
+            fitter.setThreads( Integer.parseInt( args[4] ) );
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            int count = fitter.fit( new NameIterator( new File( args[1] ) ),
+                                    args[2], null );
+            System.out.println( "Fitted " + count + " spectra in " +
+                                ( System.currentTimeMillis() - start ) +
+                                " ms, results written to " + args[2] );
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            System.exit( 1 );
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Processes a range of array elements by dividing it into contiguous
+ * chunks that are worked on at the same time by a pool of threads.
+ * <p>
+ * Sub-classes implement {@link #process} to do the work for one chunk.
+ * Chunks must be independent, that is only read shared data and only
+ * write to the elements of their own range. The threads are shared by
+ * all instances and are daemons, so a process may exit without waiting.
+ * Tasks executed from inside {@link #process}, that is by one of the
+ * threads of the pool, are done in the calling thread, as waiting for the
+ * pool from one of its own threads could deadlock.
+ *
+ * @version $Id$
+ */
+public abstract class ChunkedTask
+{
+    /**
+     * The number of processors available.
+     */
+    private static final int NPROC =
+        Math.max( 1, Runtime.getRuntime().availableProcessors() );
+
+    /**
+     * The threads used to process chunks.
+     */
+    private static ExecutorService pool =
+        Executors.newFixedThreadPool( NPROC, new ThreadFactory()
+            {
+                public Thread newThread( Runnable r )
+                {
+                    Thread thread = new PoolThread( r );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            });
+
+    /**
+     * Get whether the current thread is one of the threads used to
+     * process chunks.
+     */
+    public static boolean isPoolThread()
+    {
+        return Thread.currentThread() instanceof PoolThread;
+    }
+
+    /**
+     * Get the default number of threads, this is the number of
+     * processors available.
+     */
+    public static int getDefaultThreads()
+    {
+        return NPROC;
+    }
+
+    /**
+     * Process the elements of a chunk.
+     *
+     * @param start the index of the first element.
+     * @param end the index of the element after the last element.
+     */
+    protected abstract void process( int start, int end );
+
+    /**
+     * Process the elements 0 to length-1. The range is divided into at
+     * most nthreads chunks, each containing at least minChunk elements.
+     * When only one chunk results, or when called from one of the threads
+     * of the pool, the work is done in the calling thread. Returns when all
+     * the chunks are complete.
+     *
+     * @param length the number of elements.
+     * @param minChunk the smallest number of elements to give a chunk.
+     * @param nthreads the number of chunks to use, at most.
+     * @throws SplatException if processing any chunk fails.
+     */
+    public void execute( int length, int minChunk, int nthreads )
+        throws SplatException
+    {
+        int nchunk = Math.min( nthreads,
+                               length / Math.max( 1, minChunk ) );
+        if ( nchunk <= 1 || isPoolThread() ) {
+            process( 0, length );
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>( nchunk );
+        int step = length / nchunk;
+        int start = 0;
+        for ( int i = 0; i < nchunk; i++ ) {
+            final int s = start;
+            final int e = ( i == nchunk - 1 ) ? length : start + step;
+            futures.add( pool.submit( new Runnable()
+                {
+                    public void run()
+                    {
+                        process( s, e );
+                    }
+                }));
+            start = e;
+        }
+
+        //  Wait for all chunks, even after a failure, so that no work is
+        //  still running when we return.
+        Throwable failure = null;
+        for ( Future<?> future : futures ) {
+            try {
+                future.get();
+            }
+            catch (ExecutionException e) {
+                if ( failure == null ) {
+                    failure = e.getCause();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if ( failure == null ) {
+                    failure = e;
+                }
+            }
+        }
+        if ( failure != null ) {
+            throw new SplatException( "Failed processing array chunk: " +
+                                      failure.getMessage(), failure );
+        }
+    }
+
+    /**
+     * The threads used to process chunks, so that these can be recognised.
+     */
+    private static class PoolThread
+        extends Thread
+    {
+        PoolThread( Runnable r )
+        {
+            super( r, "SPLAT chunked task" );
+        }
+    }
+}
@@ -4,6 +4,9 @@
  *  History:
  *     03-FEB-2004 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Number of starting positions set by the splat.deblend.starts
+ *       property.
  */
 package uk.ac.starlink.splat.util;
 
@@ -51,6 +54,11 @@ import uk.ac.starlink.util.AsciiFileParser;
  * fitted. All parameters are floating and will be changed during the
  * minimisation.
  * <p>
+ * Blends may have several local minima, so the fit can be made from
+ * several starting positions, the best fit being kept. The number of
+ * starts is given by the <code>splat.deblend.starts</code> system property,
+ * which defaults to 1, see {@link CompositeFunctionFitter#setStarts}.
+ * <p>
  * On completion spectra are produced of the various elements of the fit,
  * together with a summary report of the fit which is presented on the
  * terminal.
@@ -98,6 +106,8 @@ public class CmpFitter
             return;
         }
         parseConfig( config );
+        fitter.setStarts( Integer.getInteger( "splat.deblend.starts",
+                                              1 ).intValue() );
 
         //  Access the spectral data.
         double[] x = specData.getXData();
@@ -265,6 +275,7 @@ public class CmpFitter
             r.write( "# Report by SPLAT \n" );
             r.write( "Total flux = " + fitter.getFlux() + "\n" );
             r.write( "Chi square = " + fitter.getChi() + "\n" );
+            r.write( "Starting positions = " + fitter.getStarts() + "\n" );
             r.write( "\n" );
             r.write( "Component parameters:\n" );
 
@@ -4,17 +4,30 @@
  *  History:
  *     30-JAN-2004 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Pre-allocate the workspace of eval and add multi-start fitting.
  */
 package uk.ac.starlink.splat.util;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Arrays;
+import java.util.Random;
 
 /**
  * Combines a set of {@link FunctionGenerator}s so that they are
  * presented as a single {@link FunctionFitter}. The individual components
  * are combined as a linear combination.
+ * <p>
+ * Blends of many lines often have local minima, so the fit can be made
+ * from several starting positions, see {@link #setStarts}. The first
+ * start is the current parameters, the others perturb the floating
+ * parameters of each component, assuming that the first parameter is a
+ * scale, the second a centre and any others widths, as for the Gaussian,
+ * Lorentzian and Voigt generators. The trial fits run in parallel, unless
+ * the fit is itself being done by one of the threads of the
+ * {@link ChunkedTask} pool, when they run one after the other. The one
+ * with the smallest chi-square is kept.
  *
  * @author Peter W. Draper
  * @version $Id$
@@ -22,9 +35,6 @@ import java.util.Arrays;
 public class CompositeFunctionFitter
     extends AbstractFunctionFitter
 {
-    // XXX could optimise a lot of this. Use FunctionGenerator[]
-    // array, pre-allocate suba and subdyda...
-    //
     // XXX Sitting here with better things to do an obvious refactoring of the
     // Fitter and Generator classes is to make Generators for each model the
     // basic type and use this class to create Fitters for the specific
@@ -46,6 +56,24 @@ public class CompositeFunctionFitter
      */
     protected boolean converged = false;
 
+    /**
+     * Number of starting positions for the fit.
+     */
+    protected int nstarts = 1;
+
+    /**
+     * Seed for the perturbations of the starting positions, so that fits
+     * are repeatable.
+     */
+    private static final long SEED = 20041230L;
+
+    /**
+     * Workspace for eval, the parameters and derivatives of each
+     * FunctionGenerator. Null when the generators have changed.
+     */
+    private double[][] subas = null;
+    private double[][] subdydas = null;
+
     /**
      * Default constructor.
      */
@@ -54,6 +82,23 @@ public class CompositeFunctionFitter
         funcs = new ArrayList();
     }
 
+    /**
+     * Set the number of starting positions to fit from. The default is 1,
+     * so that only the current parameters are used.
+     */
+    public void setStarts( int nstarts )
+    {
+        this.nstarts = Math.max( 1, nstarts );
+    }
+
+    /**
+     * Get the number of starting positions to fit from.
+     */
+    public int getStarts()
+    {
+        return nstarts;
+    }
+
     /**
      * Perform the fit on all FunctionGenerators using unit weights.
      */
@@ -63,9 +108,27 @@ public class CompositeFunctionFitter
     }
 
     /**
-     * Perform the fit on all FunctionGenerators.
+     * Perform the fit on all FunctionGenerators. If more than one start
+     * has been set and all the FunctionGenerators can be copied, the best
+     * of several trial fits is used.
      */
     public void doFit( double[] x, double[] y, double[] w )
+    {
+        if ( nstarts > 1 && funcs.size() > 0 ) {
+            CompositeFunctionFitter[] trials = makeTrials();
+            if ( trials != null ) {
+                doTrialFits( trials, x, y, w );
+                return;
+            }
+        }
+        doSingleFit( x, y, w );
+    }
+
+    /**
+     * Perform the fit on all FunctionGenerators from their current
+     * parameters.
+     */
+    protected void doSingleFit( double[] x, double[] y, double[] w )
     {
         // Number of parameters.
         int npar = getNumParams();
@@ -115,12 +178,136 @@ public class CompositeFunctionFitter
         setPErrors( errors );
     }
 
+    /**
+     * Create copies of this fitter with perturbed starting parameters,
+     * one for each start after the first. Returns null if any of the
+     * FunctionGenerators cannot be copied.
+     */
+    protected CompositeFunctionFitter[] makeTrials()
+    {
+        Random random = new Random( SEED );
+        CompositeFunctionFitter[] trials =
+            new CompositeFunctionFitter[nstarts - 1];
+        int size = funcs.size();
+        for ( int t = 0; t < trials.length; t++ ) {
+            trials[t] = new CompositeFunctionFitter();
+            for ( int i = 0; i < size; i++ ) {
+                FunctionGenerator g = copyGenerator
+                    ( (FunctionGenerator) funcs.get( i ) );
+                if ( g == null ) {
+                    return null;
+                }
+                perturb( g, random );
+                trials[t].addFunctionGenerator( g );
+            }
+        }
+        return trials;
+    }
+
+    /**
+     * Create a copy of a FunctionGenerator with the same parameters and
+     * fixed state, for use in a trial fit. Returns null for types that
+     * cannot be copied.
+     */
+    protected FunctionGenerator copyGenerator( FunctionGenerator g )
+    {
+        double[] p = g.getParams();
+        boolean[] f = g.getFixed();
+        if ( g instanceof GaussianGenerator ) {
+            return new GaussianGenerator( p[0], f[0], p[1], f[1],
+                                          p[2], f[2] );
+        }
+        if ( g instanceof LorentzGenerator ) {
+            return new LorentzGenerator( p[0], f[0], p[1], f[1],
+                                         p[2], f[2] );
+        }
+        if ( g instanceof VoigtGenerator ) {
+            return new VoigtGenerator( p[0], f[0], p[1], f[1],
+                                       p[2], f[2], p[3], f[3] );
+        }
+        return null;
+    }
+
+    /**
+     * Perturb the floating parameters of a FunctionGenerator. The scale is
+     * multiplied by a factor between 0.5 and 1.5, the centre moved by up to
+     * the first width either way and the widths multiplied by a factor
+     * between 0.5 and 2.
+     */
+    protected void perturb( FunctionGenerator g, Random random )
+    {
+        double[] p = g.getParams().clone();
+        boolean[] f = g.getFixed();
+        if ( ! f[0] ) {
+            p[0] *= 0.5 + random.nextDouble();
+        }
+        if ( p.length > 2 && ! f[1] ) {
+            p[1] += ( 2.0 * random.nextDouble() - 1.0 ) * Math.abs( p[2] );
+        }
+        for ( int i = 2; i < p.length; i++ ) {
+            if ( ! f[i] ) {
+                p[i] *= Math.pow( 2.0, 2.0 * random.nextDouble() - 1.0 );
+            }
+        }
+        g.setParams( p );
+    }
+
+    /**
+     * Fit this and the trial fitters in parallel, keeping the solution with
+     * the smallest chi-square. When called from a thread of the
+     * {@link ChunkedTask} pool the fits are done in that thread.
+     */
+    protected void doTrialFits( final CompositeFunctionFitter[] trials,
+                                final double[] x, final double[] y,
+                                final double[] w )
+    {
+        //  Index 0 is this fitter, the others are the trials.
+        ChunkedTask task = new ChunkedTask()
+            {
+                protected void process( int start, int end )
+                {
+                    for ( int i = start; i < end; i++ ) {
+                        if ( i == 0 ) {
+                            doSingleFit( x, y, w );
+                        }
+                        else {
+                            trials[i - 1].doSingleFit( x, y, w );
+                        }
+                    }
+                }
+            };
+        try {
+            task.execute( trials.length + 1, 1,
+                          ChunkedTask.getDefaultThreads() );
+        }
+        catch (SplatException e) {
+            //  Thread pool failed, so give up on the trials.
+            doSingleFit( x, y, w );
+            return;
+        }
+
+        CompositeFunctionFitter best = null;
+        for ( int i = 0; i < trials.length; i++ ) {
+            double chi = trials[i].getChi();
+            if ( chi < chiSquare && ( best == null || chi < best.getChi() ) ) {
+                best = trials[i];
+            }
+        }
+        if ( best != null ) {
+            chiSquare = best.getChi();
+            converged = best.isConverged();
+            setParams( best.getParams() );
+            setPErrors( best.getPErrors() );
+        }
+    }
+
     /**
      * Add a FunctionGenerator.
      */
     public void addFunctionGenerator( FunctionGenerator generator )
     {
         funcs.add( generator );
+        subas = null;
     }
 
     /**
@@ -129,6 +316,7 @@ public class CompositeFunctionFitter
     public void removeFunctionGenerator( FunctionGenerator generator )
     {
         funcs.remove( generator );
+        subas = null;
     }
 
     /**
@@ -370,6 +558,16 @@ public class CompositeFunctionFitter
         int size = funcs.size();
         double sum = 0.0;
         if ( size > 0 ) {
+            if ( subas == null ) {
+                subas = new double[size][];
+                subdydas = new double[size][];
+                for ( int i = 0; i < size; i++ ) {
+                    int npar =
+                        ((FunctionGenerator) funcs.get( i )).getNumParams();
+                    subas[i] = new double[npar+1];
+                    subdydas[i] = new double[npar+1];
+                }
+            }
             double[] suba;
             double[] subdyda;
             int npar;
@@ -380,13 +578,13 @@ public class CompositeFunctionFitter
 
                 // Copy the parameters needed for this sub-function.
                 npar = gen.getNumParams();
-                suba = new double[npar+1];
+                suba = subas[i];
                 for ( int j = 1, k = offset; j <= npar; j++ ) {
                     suba[j] = a[k++];
                 }
 
                 //  Evaluate, copying the derivates returned.
-                subdyda = new double[npar+1];
+                subdyda = subdydas[i];
                 sum += gen.eval( x, suba, npar, subdyda );
                 for ( int j = 1; j <= npar; j++ ) {
                     dyda[offset++] = subdyda[j];
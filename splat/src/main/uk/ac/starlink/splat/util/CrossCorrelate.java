@@ -4,17 +4,23 @@
  *  History:
  *     07-JUL-2003 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Use FFT on primitive arrays, rather than JSci Complex objects.
+ *       Added batch correlation and sub-pixel peak positions.
  */
 
 package uk.ac.starlink.splat.util;
 
-import JSci.maths.FourierMath;
-import JSci.maths.Complex;
-
 /**
  * Cross-correlate two 1D signals, returning the cross-correlation
  * function and the peak correlation bin.
- *
+ * <p>
+ * The signals must have the same length, which must be a power of
+ * two. The correlation is circular and is ordered so that zero shift
+ * is at position length/2. The transform of the reference signal is
+ * kept, so any number of signals can be correlated against it without
+ * recalculating it. A single correlation allocates only its result, and
+ * {@link #correlateAll} allocates just one work array per thread.
  *
  * @author Peter W. Draper
  * @version $Id$
@@ -22,9 +28,15 @@ import JSci.maths.Complex;
 public class CrossCorrelate
 {
     /**
-     * Fourier transform of reference signal.
+     * Fourier transform of reference signal, packed as by
+     * {@link FFT#realForward}.
+     */
+    private double[] refResult = null;
+
+    /**
+     * The FFT plan.
      */
-    private Complex[] refResult = null;
+    private FFT fft = null;
 
     /**
      * Correlation result.
@@ -36,13 +48,26 @@ public class CrossCorrelate
      */
     private int peakPosition = -1;
 
+    /**
+     * Position of peak in correlation result, to a fraction of a bin.
+     */
+    private double subPixelPeak = -1.0;
+
+    /**
+     * Smallest number of signals given to a thread by correlateAll.
+     */
+    private static final int MIN_CHUNK = 8;
+
     /**
      * Create an instance.
      *
      * @param ref the reference values.
+     * @throws IllegalArgumentException if the length of the reference
+     *         values is not a power of two.
      */
     public CrossCorrelate( double[] ref )
     {
+        fft = new FFT( ref.length );
         refResult = fourierTransform( ref );
     }
 
@@ -54,13 +79,44 @@ public class CrossCorrelate
      */
     public void correlate( double[] signal )
     {
-        Complex[] signalResult = fourierTransform( signal );
-        correlation = doCalc( refResult, signalResult );
+        correlation = new double[refResult.length];
+        doCalc( signal, correlation );
 
         // Local peak. XXX use a model to decrease noise sensitivity?
         findPeak();
     }
 
+    /**
+     * Cross-correlate a set of signals against the reference values,
+     * returning the position of the peak of each correlation, to a
+     * fraction of a bin. The signals are divided between several threads
+     * when there are many of them. This does not change the values
+     * returned by {@link #getCorrelation} and {@link #getPeak}.
+     *
+     * @param signals the signals to cross-correlate.
+     * @return the peak positions, one per signal.
+     * @throws SplatException if the correlation of any signal fails.
+     */
+    public double[] correlateAll( final double[][] signals )
+        throws SplatException
+    {
+        final double[] peaks = new double[signals.length];
+        ChunkedTask task = new ChunkedTask()
+            {
+                protected void process( int start, int end )
+                {
+                    double[] work = new double[refResult.length];
+                    for ( int i = start; i < end; i++ ) {
+                        doCalc( signals[i], work );
+                        peaks[i] = subPixelPeak( work, maxPosition( work ) );
+                    }
+                }
+            };
+        task.execute( signals.length, MIN_CHUNK,
+                      ChunkedTask.getDefaultThreads() );
+        return peaks;
+    }
+
     /**
      * Return the correlation signal.
      */
@@ -77,47 +133,94 @@ public class CrossCorrelate
         return peakPosition;
     }
 
+    /**
+     * Return the peak position to a fraction of a bin. This is the
+     * position of the peak of a parabola through the largest value and
+     * its neighbours.
+     */
+    public double getSubPixelPeak()
+    {
+        return subPixelPeak;
+    }
+
     /**
      * Create the Fourier transform of a real 1D signal.
      */
-    protected Complex[] fourierTransform( double[] signal )
+    protected double[] fourierTransform( double[] signal )
     {
-        //return FourierMath.sort( FourierMath.transform( signal ) );
-        return FourierMath.transform( signal );
+        double[] result = new double[fft.getSize()];
+        System.arraycopy( signal, 0, result, 0, result.length );
+        fft.realForward( result );
+        return result;
     }
 
     /**
-     * Perform the cross-correlation of two complex signals.
+     * Perform the cross-correlation of a signal against the reference
+     * signal.
+     *
+     * @param signal the signal values.
+     * @param result array for the correlation, also used as work space
+     *               for the transform of the signal.
      */
-    protected double[] doCalc( Complex[] ref, Complex[] signal )
+    protected void doCalc( double[] signal, double[] result )
     {
-        // First perform multiplication of complex conjugate.
-        Complex[] multiple = multiplyConjugate( ref, signal );
+        int n = result.length;
+        if ( signal.length != n ) {
+            throw new IllegalArgumentException
+                ( "Signal length (" + signal.length +
+                  ") does not match reference length (" + n + ")" );
+        }
+        System.arraycopy( signal, 0, result, 0, n );
+        fft.realForward( result );
+
+        // Perform multiplication of complex conjugate.
+        multiplyConjugate( refResult, result );
 
         // Untransform this to get the correlation function.
-        multiple = FourierMath.sort( FourierMath.inverseTransform( multiple ));
+        fft.realInverse( result );
+
+        // Move zero shift to the centre.
+        rotate( result, n / 2 );
+    }
 
-        // For a cross-correlation the imaginary parts are all zero,
-        // so we just need to extract the real parts.
-        double[] result = new double[multiple.length];
-        for ( int i = 0; i < multiple.length; i++ ) {
-            result[i] = multiple[i].real();
+    /**
+     * Multiply a complex number by the conjugate of another. Both arrays
+     * are packed transforms and the result overwrites the signal.
+     */
+    protected void multiplyConjugate( double[] ref, double[] signal )
+    {
+        signal[0] *= ref[0];
+        signal[1] *= ref[1];
+        for ( int i = 2; i < ref.length; i += 2 ) {
+            double rr = ref[i];
+            double ri = ref[i + 1];
+            double sr = signal[i];
+            double si = signal[i + 1];
+            signal[i] = rr * sr + ri * si;
+            signal[i + 1] = ri * sr - rr * si;
         }
-        return result;
     }
 
     /**
-     * Multiply a complex number by the conjugate of another.
+     * Rotate an array in place, so that element i moves to i+shift
+     * (wrapping around). Uses the reversal method, so nothing is
+     * allocated.
      */
-    protected Complex[] multiplyConjugate( Complex[] ref, Complex signal[] )
+    private static void rotate( double[] values, int shift )
+    {
+        int n = values.length;
+        reverse( values, 0, n - 1 );
+        reverse( values, 0, shift - 1 );
+        reverse( values, shift, n - 1 );
+    }
+
+    private static void reverse( double[] values, int low, int high )
     {
-        //  XXX may need to be more efficient, signal.conjugate
-        //  creates a Complex that is thrown away immediately.
-        Complex result[] = new Complex[ref.length];
-        for ( int i = 0; i < ref.length; i++ ) {
-            result[i] = ref[i].multiply( signal[i].conjugate() );
+        while ( low < high ) {
+            double t = values[low];
+            values[low++] = values[high];
+            values[high--] = t;
         }
-        return result;
     }
 
     /**
@@ -125,13 +228,44 @@ public class CrossCorrelate
      */
     protected void findPeak()
     {
-        double max = correlation[0];
-        peakPosition = 0;
-        for ( int i = 1; i < correlation.length; i++ ) {
-            if ( correlation[i] > max ) {
-                max = correlation[i];
-                peakPosition = i;
+        peakPosition = maxPosition( correlation );
+        subPixelPeak = subPixelPeak( correlation, peakPosition );
+    }
+
+    /**
+     * Return the position of the largest value.
+     */
+    protected static int maxPosition( double[] values )
+    {
+        double max = values[0];
+        int pos = 0;
+        for ( int i = 1; i < values.length; i++ ) {
+            if ( values[i] > max ) {
+                max = values[i];
+                pos = i;
             }
         }
+        return pos;
+    }
+
+    /**
+     * Refine the position of a peak by fitting a parabola through it
+     * and its neighbours. The correlation is circular, so the
+     * neighbours of the end values wrap around.
+     */
+    protected static double subPixelPeak( double[] values, int pos )
+    {
+        int n = values.length;
+        if ( n < 3 ) {
+            return pos;
+        }
+        double ym = values[( pos + n - 1 ) % n];
+        double y0 = values[pos];
+        double yp = values[( pos + 1 ) % n];
+        double denom = ym - 2.0 * y0 + yp;
+        if ( denom >= 0.0 ) {
+            return pos;
+        }
+        return pos + 0.5 * ( ym - yp ) / denom;
     }
 }
@@ -0,0 +1,948 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * A persistent cache of files downloaded from URLs, such as the responses
+ * to SSA queries and remote spectra.
+ * <p>
+ * The cache is kept in the "cache" sub-directory of the SPLAT
+ * configuration directory. Downloaded files are stored under the SHA-1
+ * digest of their contents, so the same file fetched from several URLs is
+ * only stored once. An index records the file, ETag and Last-Modified
+ * time of each URL, in order of use. When the files exceed the size limit
+ * the least recently used URLs are dropped.
+ * <p>
+ * A URL fetched within the fresh time is used without contacting the
+ * server. After that a conditional request is made when the server gave
+ * an ETag or Last-Modified time, and the cached file is used if it has
+ * not changed, otherwise the file is fetched again. Callers can give a
+ * fresh time of zero, so that every use is checked with the server. When
+ * working offline cached files are always used and URLs that are not
+ * cached fail.
+ * <p>
+ * Files that are being read are never deleted. A file dropped from the
+ * cache while in use is deleted when it is no longer used, or when the
+ * cache is next opened if it was used until the application exited.
+ * <p>
+ * The cache is off by default and is used only when enabled, see
+ * {@link #setEnabled}. The cache directory is not created until the first
+ * file is downloaded.
+ *
+ * @version $Id$
+ */
+public class DownloadCache
+{
+    // Logger.
+    private static Logger logger =
+        Logger.getLogger( "uk.ac.starlink.splat.util.DownloadCache" );
+
+    /**
+     * Default size limit, bytes.
+     */
+    public static final long DEFAULT_MAX_SIZE = 500L * 1024L * 1024L;
+
+    /**
+     * Default time that downloads are used without revalidation,
+     * milliseconds.
+     */
+    public static final long DEFAULT_FRESH_TIME = 60L * 60L * 1000L;
+
+    /**
+     * Default timeouts, milliseconds.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT = 30 * 1000;
+
+    /**
+     * Age after which files that are not referenced by the index are
+     * deleted, milliseconds. These may still be in use by other instances
+     * of the application, so are not deleted immediately.
+     */
+    private static final long ORPHAN_AGE = 24L * 60L * 60L * 1000L;
+
+    /**
+     * Name of the index file.
+     */
+    private static final String INDEX = "index.txt";
+
+    /**
+     * Whether the cache is used.
+     */
+    private static boolean enabled = false;
+
+    /**
+     * Whether to work offline.
+     */
+    private static boolean offline = false;
+
+    /**
+     * The shared instance.
+     */
+    private static DownloadCache instance = null;
+
+    /**
+     * The cache directory.
+     */
+    private File directory = null;
+
+    /**
+     * The entries, keyed by URL, in order of use.
+     */
+    private LinkedHashMap<String,Entry> entries =
+        new LinkedHashMap<String,Entry>( 32, 0.75f, true );
+
+    /**
+     * Number of entries using each file, keyed by file name.
+     */
+    private Map<String,Integer> fileCounts = new HashMap<String,Integer>();
+
+    /**
+     * Number of users reading each file, keyed by file name.
+     */
+    private Map<String,Integer> pinCounts = new HashMap<String,Integer>();
+
+    /**
+     * Files no longer used by any entry, that will be deleted when they
+     * are no longer being read.
+     */
+    private Set<String> released = new HashSet<String>();
+
+    /**
+     * Total size of the files.
+     */
+    private long size = 0L;
+
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private long freshTime = DEFAULT_FRESH_TIME;
+
+    /**
+     * Statistics. Hits are requests that used the cache without contacting
+     * the server, revalidations are hits after a conditional request and
+     * misses are downloads.
+     */
+    private int hits = 0;
+    private int revalidations = 0;
+    private int misses = 0;
+    private long bytesSaved = 0L;
+
+    /**
+     * Create a cache in a given directory. The directory is created when
+     * the first file is added.
+     */
+    public DownloadCache( File directory )
+    {
+        this.directory = directory;
+        readIndex();
+    }
+
+    /**
+     * Get the shared instance, which uses the "cache" sub-directory of the
+     * configuration directory. This is only created when first requested.
+     */
+    public static synchronized DownloadCache getInstance()
+    {
+        if ( instance == null ) {
+            instance =
+                new DownloadCache( Utilities.getConfigFile( "cache" ) );
+        }
+        return instance;
+    }
+
+    /**
+     * Set whether the shared cache should be used for downloads.
+     */
+    public static void setEnabled( boolean enabled )
+    {
+        DownloadCache.enabled = enabled;
+    }
+
+    /**
+     * Get whether the shared cache should be used for downloads.
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Set whether to work offline, only using cached files.
+     */
+    public static void setOffline( boolean offline )
+    {
+        DownloadCache.offline = offline;
+    }
+
+    /**
+     * Get whether working offline.
+     */
+    public static boolean isOffline()
+    {
+        return offline;
+    }
+
+    /**
+     * Set the size limit, bytes.
+     */
+    public synchronized void setMaxSize( long maxSize )
+    {
+        this.maxSize = Math.max( 0L, maxSize );
+        if ( trim() ) {
+            writeIndex();
+        }
+    }
+
+    /**
+     * Get the size limit, bytes.
+     */
+    public synchronized long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Set the time that a download is used without checking with the
+     * server, milliseconds.
+     */
+    public synchronized void setFreshTime( long freshTime )
+    {
+        this.freshTime = Math.max( 0L, freshTime );
+    }
+
+    /**
+     * Get the time that a download is used without checking with the
+     * server, milliseconds.
+     */
+    public synchronized long getFreshTime()
+    {
+        return freshTime;
+    }
+
+    /**
+     * Get the total size of the cached files, bytes.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Get the number of cached URLs.
+     */
+    public synchronized int getCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Get the fraction of requests that were satisfied by the cache, 0 if
+     * there have been none.
+     */
+    public synchronized double getHitRate()
+    {
+        int total = hits + revalidations + misses;
+        return ( total == 0 ) ? 0.0 : (double)( hits + revalidations ) / total;
+    }
+
+    /**
+     * Get a description of the cache statistics.
+     */
+    public synchronized String getStatistics()
+    {
+        int total = hits + revalidations + misses;
+        StringBuffer buffer = new StringBuffer();
+        buffer.append( "Cached URLs: " + entries.size() + "\n" );
+        buffer.append( "Cache size: " + ( size / 1024L ) + " of " +
+                       ( maxSize / 1024L ) + " KB\n" );
+        buffer.append( "Requests: " + total + "\n" );
+        buffer.append( "Hits: " + hits + "\n" );
+        buffer.append( "Revalidated hits: " + revalidations + "\n" );
+        buffer.append( "Misses: " + misses + "\n" );
+        buffer.append( "Hit rate: " +
+                       Math.round( 100.0 * getHitRate() ) + "%\n" );
+        buffer.append( "Downloads saved: " + ( bytesSaved / 1024L ) +
+                       " KB" );
+        if ( offline ) {
+            buffer.append( "\nWorking offline" );
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Reset the statistics.
+     */
+    public synchronized void resetStatistics()
+    {
+        hits = 0;
+        revalidations = 0;
+        misses = 0;
+        bytesSaved = 0L;
+    }
+
+    /**
+     * Remove all the cached files. Files that are being read are deleted
+     * when they are no longer used.
+     */
+    public synchronized void clear()
+    {
+        Iterator<Entry> i = entries.values().iterator();
+        while ( i.hasNext() ) {
+            Entry entry = i.next();
+            i.remove();
+            release( entry );
+        }
+        writeIndex();
+    }
+
+    /**
+     * Remove a URL from the cache, for instance because its file turned
+     * out to be unusable.
+     */
+    public synchronized void remove( URL url )
+    {
+        Entry entry = entries.remove( url.toString() );
+        if ( entry != null ) {
+            release( entry );
+            writeIndex();
+        }
+    }
+
+    /**
+     * Get a local copy of the file at a URL, using the default timeouts.
+     * The file may be read at any time, so it is kept until the application
+     * exits, even if it is dropped from the cache.
+     *
+     * @param url the URL.
+     * @param type file extension for the local file, such as ".fits".
+     *             The same file is returned for any type once cached.
+     * @return the cached file, which must not be modified.
+     * @throws IOException if the file cannot be fetched, or is not cached
+     *         when working offline.
+     */
+    public File getFile( URL url, String type )
+        throws IOException
+    {
+        InputStream in = openStream( url, type, getFreshTime(),
+                                     DEFAULT_CONNECT_TIMEOUT,
+                                     DEFAULT_READ_TIMEOUT );
+        if ( in instanceof CachingInputStream ) {
+            //  Download to the cache.
+            byte[] buffer = new byte[8192];
+            try {
+                while ( in.read( buffer ) != -1 ) {
+                    //  Just reading.
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        else {
+            in.close();
+        }
+        synchronized( this ) {
+            Entry entry = entries.get( url.toString() );
+            if ( entry == null ) {
+                throw new IOException( "Failed to cache " + url );
+            }
+            pin( entry.file );
+            return new File( directory, entry.file );
+        }
+    }
+
+    /**
+     * Open a stream to read the file at a URL. If the URL is cached and
+     * fresh or unchanged the stream reads the cached file, otherwise it
+     * reads from the server and the file is added to the cache when the
+     * stream has been read to the end and closed.
+     *
+     * @param url the URL.
+     * @param type file extension used if the file is cached.
+     * @param freshTime time that a cached file is used without checking
+     *                  with the server, milliseconds. Use zero for files,
+     *                  such as query responses, that may change at any
+     *                  time.
+     * @param connectTimeout connection timeout, milliseconds.
+     * @param readTimeout read timeout, milliseconds.
+     * @throws IOException if the URL cannot be opened, or is not cached
+     *         when working offline.
+     */
+    public InputStream openStream( URL url, String type, long freshTime,
+                                   int connectTimeout, int readTimeout )
+        throws IOException
+    {
+        String key = url.toString();
+        Entry entry = null;
+        boolean isOffline = false;
+        synchronized( this ) {
+            entry = entries.get( key );
+            if ( entry != null ) {
+                entry = entry.copy();
+            }
+            isOffline = offline;
+            if ( entry != null &&
+                 ( isOffline ||
+                   System.currentTimeMillis() - entry.fetched < freshTime ) ) {
+                return useEntry( key, false );
+            }
+        }
+        if ( isOffline ) {
+            throw new IOException( "Working offline and not cached: " + url );
+        }
+
+        //  Make the request, conditional when possible.
+        URLConnection connection = openConnection( url, entry,
+                                                   connectTimeout,
+                                                   readTimeout );
+        if ( connection instanceof HttpURLConnection ) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            int code = http.getResponseCode();
+            if ( code == HttpURLConnection.HTTP_NOT_MODIFIED &&
+                 entry != null ) {
+                http.disconnect();
+                synchronized( this ) {
+                    Entry current = entries.get( key );
+                    if ( current != null ) {
+                        current.fetched = System.currentTimeMillis();
+                        return useEntry( key, true );
+                    }
+                }
+                //  Removed meanwhile, so fetch it all.
+                connection = openConnection( url, null, connectTimeout,
+                                             readTimeout );
+                code = ((HttpURLConnection) connection).getResponseCode();
+            }
+            if ( code >= 400 ) {
+                throw new IOException( "Server returned " + code + " " +
+                                       ((HttpURLConnection) connection)
+                                       .getResponseMessage() +
+                                       " for the URL : " + url );
+            }
+        }
+        synchronized( this ) {
+            misses++;
+        }
+        return new CachingInputStream( connection.getInputStream(), key,
+                                       type, connection.getHeaderField
+                                       ( "ETag" ),
+                                       connection.getLastModified() );
+    }
+
+    /**
+     * Open a connection, adding conditional headers for a cached entry.
+     * Redirects from HTTP to HTTPS are followed, which Java does not do
+     * by default.
+     */
+    private URLConnection openConnection( URL url, Entry entry,
+                                          int connectTimeout,
+                                          int readTimeout )
+        throws IOException
+    {
+        URLConnection connection = url.openConnection();
+        for ( int i = 0; i < 2; i++ ) {
+            connection.setConnectTimeout( connectTimeout );
+            connection.setReadTimeout( readTimeout );
+            if ( entry != null ) {
+                if ( entry.etag != null ) {
+                    connection.setRequestProperty( "If-None-Match",
+                                                   entry.etag );
+                }
+                if ( entry.lastModified > 0L ) {
+                    connection.setIfModifiedSince( entry.lastModified );
+                }
+            }
+            if ( ! ( connection instanceof HttpURLConnection ) ) {
+                break;
+            }
+            int code = ((HttpURLConnection) connection).getResponseCode();
+            if ( code != HttpURLConnection.HTTP_MOVED_PERM &&
+                 code != HttpURLConnection.HTTP_MOVED_TEMP ) {
+                break;
+            }
+            String newloc = connection.getHeaderField( "Location" );
+            if ( newloc == null ) {
+                break;
+            }
+            connection = new URL( newloc ).openConnection();
+        }
+        return connection;
+    }
+
+    /**
+     * Record a hit and open the cached file of an entry. The file is kept
+     * until the stream is closed.
+     */
+    private synchronized InputStream useEntry( String key,
+                                               boolean revalidated )
+        throws IOException
+    {
+        Entry entry = entries.get( key );
+        File file = new File( directory, entry.file );
+        if ( ! file.exists() ) {
+            entries.remove( key );
+            release( entry );
+            writeIndex();
+            throw new IOException( "Cached file has been deleted: " + file );
+        }
+        if ( revalidated ) {
+            revalidations++;
+        }
+        else {
+            hits++;
+        }
+        bytesSaved += entry.size;
+        writeIndex();
+        InputStream in = new CachedFileInputStream( file, entry.file );
+        pin( entry.file );
+        return in;
+    }
+
+    /**
+     * Add a downloaded file to the cache. The file is renamed to its
+     * digest, unless a file with that digest exists already.
+     */
+    private synchronized void add( String key, File download, String digest,
+                                   String type, String etag,
+                                   long lastModified )
+    {
+        String name = digest + ( ( type == null ) ? "" : type );
+        File file = new File( directory, name );
+        long length = download.length();
+        if ( file.exists() ) {
+            download.delete();
+            released.remove( name );
+        }
+        else if ( ! download.renameTo( file ) ) {
+            download.delete();
+            logger.info( "Failed to add " + key + " to the download cache" );
+            return;
+        }
+
+        Entry old = entries.remove( key );
+        Entry entry = new Entry( key, name, etag, lastModified,
+                                 System.currentTimeMillis(), length );
+        entries.put( key, entry );
+        if ( count( fileCounts, name, 1 ) == 1 ) {
+            size += length;
+        }
+        if ( old != null ) {
+            release( old );
+        }
+        trim();
+        writeIndex();
+    }
+
+    /**
+     * Release the file of an entry that has been removed, deleting it if
+     * no other entries use it and it is not being read.
+     */
+    private void release( Entry entry )
+    {
+        if ( count( fileCounts, entry.file, -1 ) == 0 ) {
+            size -= entry.size;
+            if ( pinCounts.containsKey( entry.file ) ) {
+                released.add( entry.file );
+            }
+            else {
+                new File( directory, entry.file ).delete();
+            }
+        }
+    }
+
+    /**
+     * Record that a file is being read.
+     */
+    private synchronized void pin( String file )
+    {
+        count( pinCounts, file, 1 );
+    }
+
+    /**
+     * Record that a file is no longer being read, deleting it if it has
+     * been released meanwhile.
+     */
+    private synchronized void unpin( String file )
+    {
+        if ( count( pinCounts, file, -1 ) == 0 && released.remove( file ) ) {
+            new File( directory, file ).delete();
+        }
+    }
+
+    /**
+     * Change the number of users of a file, returning the new count.
+     */
+    private static int count( Map<String,Integer> counts, String file,
+                              int change )
+    {
+        Integer count = counts.get( file );
+        int n = ( ( count == null ) ? 0 : count.intValue() ) + change;
+        if ( n <= 0 ) {
+            counts.remove( file );
+            return 0;
+        }
+        counts.put( file, Integer.valueOf( n ) );
+        return n;
+    }
+
+    /**
+     * Remove the least recently used entries until the files are within
+     * the size limit. The most recently used entry is always kept, so a
+     * file larger than the limit can still be used. Returns true if any
+     * entries were removed.
+     */
+    private boolean trim()
+    {
+        boolean removed = false;
+        Iterator<Entry> i = entries.values().iterator();
+        while ( size > maxSize && entries.size() > 1 && i.hasNext() ) {
+            Entry entry = i.next();
+            i.remove();
+            release( entry );
+            removed = true;
+        }
+        return removed;
+    }
+
+    /**
+     * Read the index, dropping entries whose files are missing, and delete
+     * old files that are no longer in the index.
+     */
+    private synchronized void readIndex()
+    {
+        File index = new File( directory, INDEX );
+        if ( ! index.exists() ) {
+            return;
+        }
+        try {
+            BufferedReader reader =
+                new BufferedReader( new FileReader( index ) );
+            try {
+                String line = null;
+                while ( ( line = reader.readLine() ) != null ) {
+                    Entry entry = Entry.parse( line );
+                    if ( entry != null &&
+                         new File( directory, entry.file ).exists() ) {
+                        entries.put( entry.url, entry );
+                        if ( count( fileCounts, entry.file, 1 ) == 1 ) {
+                            size += entry.size;
+                        }
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (IOException e) {
+            logger.info( "Failed to read download cache index: " +
+                         e.getMessage() );
+            return;
+        }
+
+        //  Files released while still being read when the application
+        //  exited, and abandoned downloads.
+        File[] files = directory.listFiles();
+        long old = System.currentTimeMillis() - ORPHAN_AGE;
+        for ( int i = 0; files != null && i < files.length; i++ ) {
+            String name = files[i].getName();
+            if ( ! name.equals( INDEX ) && ! fileCounts.containsKey( name ) &&
+                 files[i].lastModified() < old ) {
+                files[i].delete();
+            }
+        }
+    }
+
+    /**
+     * Create the cache directory, if it does not exist.
+     */
+    private void createDirectory()
+        throws IOException
+    {
+        if ( ! directory.exists() && ! directory.mkdirs() ) {
+            throw new IOException( "Cannot create download cache " +
+                                   "directory: " + directory );
+        }
+    }
+
+    /**
+     * Write the index, least recently used first.
+     */
+    private void writeIndex()
+    {
+        File index = new File( directory, INDEX );
+        try {
+            if ( entries.isEmpty() && ! index.exists() ) {
+                return;
+            }
+            createDirectory();
+            BufferedWriter writer =
+                new BufferedWriter( new FileWriter( index ) );
+            try {
+                for ( Entry entry : entries.values() ) {
+                    writer.write( entry.format() );
+                    writer.newLine();
+                }
+            }
+            finally {
+                writer.close();
+            }
+        }
+        catch (IOException e) {
+            logger.info( "Failed to write download cache index: " +
+                         e.getMessage() );
+        }
+    }
+
+    /**
+     * Convert a digest to a hexadecimal string.
+     */
+    private static String toHex( byte[] bytes )
+    {
+        StringBuffer buffer = new StringBuffer( bytes.length * 2 );
+        for ( int i = 0; i < bytes.length; i++ ) {
+            int b = bytes[i] & 0xff;
+            if ( b < 16 ) {
+                buffer.append( '0' );
+            }
+            buffer.append( Integer.toHexString( b ) );
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * A cached URL.
+     */
+    private static class Entry
+    {
+        String url;
+        String file;
+        String etag;
+        long lastModified;
+        long fetched;
+        long size;
+
+        Entry( String url, String file, String etag, long lastModified,
+               long fetched, long size )
+        {
+            this.url = url;
+            this.file = file;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetched = fetched;
+            this.size = size;
+        }
+
+        Entry copy()
+        {
+            return new Entry( url, file, etag, lastModified, fetched, size );
+        }
+
+        /**
+         * Format as a line of the index, fields separated by tabs.
+         */
+        String format()
+        {
+            return url + "\t" + file + "\t" +
+                ( ( etag == null ) ? "" : etag ) + "\t" + lastModified +
+                "\t" + fetched + "\t" + size;
+        }
+
+        /**
+         * Parse a line of the index, returns null if not valid.
+         */
+        static Entry parse( String line )
+        {
+            String[] fields = line.split( "\t", -1 );
+            if ( fields.length != 6 ) {
+                return null;
+            }
+            try {
+                String etag = ( fields[2].length() == 0 ) ? null : fields[2];
+                return new Entry( fields[0], fields[1], etag,
+                                  Long.parseLong( fields[3] ),
+                                  Long.parseLong( fields[4] ),
+                                  Long.parseLong( fields[5] ) );
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Stream that reads a cached file, which is kept until the stream is
+     * closed.
+     */
+    private class CachedFileInputStream
+        extends FileInputStream
+    {
+        private String name;
+        private boolean closed = false;
+
+        CachedFileInputStream( File file, String name )
+            throws IOException
+        {
+            super( file );
+            this.name = name;
+        }
+
+        public void close()
+            throws IOException
+        {
+            boolean first = false;
+            synchronized( this ) {
+                first = ! closed;
+                closed = true;
+            }
+            try {
+                super.close();
+            }
+            finally {
+                if ( first ) {
+                    unpin( name );
+                }
+            }
+        }
+    }
+
+    /**
+     * Stream that copies what it reads to a temporary file and its
+     * digest. If the whole stream is read the file is added to the cache
+     * when the stream is closed, otherwise it is deleted.
+     */
+    private class CachingInputStream
+        extends FilterInputStream
+    {
+        private String key;
+        private String type;
+        private String etag;
+        private long lastModified;
+        private File download;
+        private OutputStream out;
+        private MessageDigest digest;
+        private boolean complete = false;
+        private boolean closed = false;
+
+        CachingInputStream( InputStream in, String key, String type,
+                            String etag, long lastModified )
+            throws IOException
+        {
+            super( in );
+            this.key = key;
+            this.type = type;
+            this.etag = ( etag == null ) ? null : etag.replace( '\t', ' ' );
+            this.lastModified = lastModified;
+            try {
+                digest = MessageDigest.getInstance( "SHA-1" );
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw (IOException)
+                    new IOException( "No SHA-1 digest" ).initCause( e );
+            }
+            createDirectory();
+            download = File.createTempFile( "download", ".tmp", directory );
+            out = new FileOutputStream( download );
+        }
+
+        public int read()
+            throws IOException
+        {
+            int b = super.read();
+            if ( b == -1 ) {
+                complete = true;
+            }
+            else {
+                out.write( b );
+                digest.update( (byte) b );
+            }
+            return b;
+        }
+
+        public int read( byte[] b, int off, int len )
+            throws IOException
+        {
+            int n = super.read( b, off, len );
+            if ( n == -1 ) {
+                complete = true;
+            }
+            else if ( n > 0 ) {
+                out.write( b, off, n );
+                digest.update( b, off, n );
+            }
+            return n;
+        }
+
+        public long skip( long n )
+            throws IOException
+        {
+            //  Skipped bytes must still be copied.
+            byte[] buffer = new byte[(int) Math.min( n, 8192L )];
+            long total = 0L;
+            while ( total < n ) {
+                int count = read( buffer, 0,
+                                  (int) Math.min( buffer.length, n - total ) );
+                if ( count <= 0 ) {
+                    break;
+                }
+                total += count;
+            }
+            return total;
+        }
+
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        public void close()
+            throws IOException
+        {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            }
+            finally {
+                out.close();
+                if ( complete ) {
+                    add( key, download, toHex( digest.digest() ), type,
+                         etag, lastModified );
+                }
+                else {
+                    download.delete();
+                }
+            }
+        }
+    }
+}
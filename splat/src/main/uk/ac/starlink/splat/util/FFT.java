@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ *     17-OCT-2026:
+ *        Added transforms of real data.
+ */
+package uk.ac.starlink.splat.util;
+
+/**
+ * Fast Fourier transform of complex data held in primitive arrays.
+ * <p>
+ * An instance is a plan for transforms of one size, which must be a power
+ * of two. The plan holds the trigonometric and bit-reversal tables, so
+ * these are only calculated once. Transforms are done in place on arrays
+ * of interleaved real and imaginary parts and allocate no memory. A plan
+ * is not modified by a transform, so it can be used by several threads
+ * at once.
+ * <p>
+ * The forward transform uses exp(-2&pi;ijk/n) and is not scaled, the
+ * inverse transform uses exp(2&pi;ijk/n) and is scaled by 1/n.
+ * <p>
+ * A plan can also transform n real values, using a complex transform of
+ * half the size. The transform of real data is conjugate symmetric, so
+ * only the frequencies 0 to n/2 are kept, packed into the n values as:
+ * <pre>
+ *    data[0] = Re(X[0]), data[1] = Re(X[n/2]),
+ *    data[2k] = Re(X[k]), data[2k+1] = Im(X[k]) for k = 1 to n/2-1
+ * </pre>
+ *
+ * @version $Id$
+ */
+public class FFT
+{
+    /**
+     * The number of complex values in a transform.
+     */
+    private final int n;
+
+    /**
+     * cos(2&pi;k/n) and sin(2&pi;k/n) for k = 0 to n/2-1.
+     */
+    private final double[] cos;
+    private final double[] sin;
+
+    /**
+     * Bit-reversed index of each position.
+     */
+    private final int[] reverse;
+
+    /**
+     * Create a plan for transforms of a given size.
+     *
+     * @param n the number of complex values, must be a power of two.
+     * @throws IllegalArgumentException if n is not a power of two.
+     */
+    public FFT( int n )
+    {
+        if ( n < 1 || ( n & ( n - 1 ) ) != 0 ) {
+            throw new IllegalArgumentException
+                ( "FFT size must be a power of two: " + n );
+        }
+        this.n = n;
+
+        int half = Math.max( 1, n / 2 );
+        cos = new double[half];
+        sin = new double[half];
+        for ( int k = 0; k < half; k++ ) {
+            double angle = 2.0 * Math.PI * k / n;
+            cos[k] = Math.cos( angle );
+            sin[k] = Math.sin( angle );
+        }
+
+        reverse = new int[n];
+        int bits = Integer.numberOfTrailingZeros( n );
+        for ( int i = 0; i < n; i++ ) {
+            reverse[i] = ( bits == 0 ) ? 0 :
+                ( Integer.reverse( i ) >>> ( 32 - bits ) );
+        }
+    }
+
+    /**
+     * Get the number of complex values in a transform.
+     */
+    public int getSize()
+    {
+        return n;
+    }
+
+    /**
+     * Return the smallest power of two that is not less than a value.
+     */
+    public static int nextPowerOfTwo( int value )
+    {
+        int result = 1;
+        while ( result < value ) {
+            result <<= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Forward transform.
+     *
+     * @param data interleaved real and imaginary parts, at least 2*n
+     *             values. Replaced by the transform.
+     */
+    public void forward( double[] data )
+    {
+        transform( data, -1.0, n );
+    }
+
+    /**
+     * Inverse transform, scaled by 1/n.
+     *
+     * @param data interleaved real and imaginary parts, at least 2*n
+     *             values. Replaced by the transform.
+     */
+    public void inverse( double[] data )
+    {
+        transform( data, 1.0, n );
+        double scale = 1.0 / n;
+        for ( int i = 0; i < 2 * n; i++ ) {
+            data[i] *= scale;
+        }
+    }
+
+    /**
+     * Forward transform of real data.
+     *
+     * @param data n real values. Replaced by the packed transform.
+     * @throws IllegalArgumentException if the plan size is less than 2.
+     */
+    public void realForward( double[] data )
+    {
+        checkReal();
+        int m = n / 2;
+
+        //  Transform the even and odd values as one complex signal.
+        transform( data, -1.0, m );
+
+        //  Separate the even and odd transforms and combine them.
+        double z0r = data[0];
+        double z0i = data[1];
+        data[0] = z0r + z0i;
+        data[1] = z0r - z0i;
+        for ( int k = 1; k <= m / 2; k++ ) {
+            int a = 2 * k;
+            int b = 2 * ( m - k );
+            double ar = data[a];
+            double ai = data[a + 1];
+            double br = data[b];
+            double bi = data[b + 1];
+
+            //  Even part E = (Z[k] + conj(Z[m-k]))/2, odd part
+            //  O = (Z[k] - conj(Z[m-k]))/2i, X[k] = E + W^k O and
+            //  X[m-k] = conj(E) - conj(W^k O).
+            double er = 0.5 * ( ar + br );
+            double ei = 0.5 * ( ai - bi );
+            double or = 0.5 * ( ai + bi );
+            double oi = -0.5 * ( ar - br );
+            double wr = cos[k];
+            double wi = -sin[k];
+            double tr = wr * or - wi * oi;
+            double ti = wr * oi + wi * or;
+            data[a] = er + tr;
+            data[a + 1] = ei + ti;
+            if ( b != a ) {
+                data[b] = er - tr;
+                data[b + 1] = -ei + ti;
+            }
+        }
+    }
+
+    /**
+     * Inverse transform of real data, scaled by 1/n.
+     *
+     * @param data a packed transform, as produced by realForward.
+     *             Replaced by the n real values.
+     * @throws IllegalArgumentException if the plan size is less than 2.
+     */
+    public void realInverse( double[] data )
+    {
+        checkReal();
+        int m = n / 2;
+
+        //  Recreate the complex transform of the even and odd values.
+        double x0 = data[0];
+        double xm = data[1];
+        data[0] = 0.5 * ( x0 + xm );
+        data[1] = 0.5 * ( x0 - xm );
+        for ( int k = 1; k <= m / 2; k++ ) {
+            int a = 2 * k;
+            int b = 2 * ( m - k );
+            double ar = data[a];
+            double ai = data[a + 1];
+            double br = data[b];
+            double bi = data[b + 1];
+
+            //  E = (X[k] + conj(X[m-k]))/2, O = (X[k] - conj(X[m-k]))/2W^k,
+            //  Z[k] = E + iO and Z[m-k] = conj(E) + i conj(O).
+            double er = 0.5 * ( ar + br );
+            double ei = 0.5 * ( ai - bi );
+            double dr = 0.5 * ( ar - br );
+            double di = 0.5 * ( ai + bi );
+            double wr = cos[k];
+            double wi = sin[k];
+            double or = dr * wr - di * wi;
+            double oi = dr * wi + di * wr;
+            data[a] = er - oi;
+            data[a + 1] = ei + or;
+            if ( b != a ) {
+                data[b] = er + oi;
+                data[b + 1] = -ei + or;
+            }
+        }
+
+        transform( data, 1.0, m );
+        double scale = 1.0 / m;
+        for ( int i = 0; i < n; i++ ) {
+            data[i] *= scale;
+        }
+    }
+
+    /**
+     * Check that the plan can be used for real transforms.
+     */
+    private void checkReal()
+    {
+        if ( n < 2 ) {
+            throw new IllegalArgumentException
+                ( "Real FFT size must be at least 2" );
+        }
+    }
+
+    /**
+     * Iterative radix-2 transform of size complex values, sign is the
+     * sign of the exponent. The size must be n or a smaller power of
+     * two, the tables are sampled to suit.
+     */
+    private void transform( double[] data, double sign, int size )
+    {
+        //  Reorder into bit-reversed positions. For smaller transforms
+        //  the reversed index has low zero bits to remove.
+        int shift = Integer.numberOfTrailingZeros( n / size );
+        for ( int i = 0; i < size; i++ ) {
+            int j = reverse[i] >>> shift;
+            if ( j > i ) {
+                double t = data[2 * i];
+                data[2 * i] = data[2 * j];
+                data[2 * j] = t;
+                t = data[2 * i + 1];
+                data[2 * i + 1] = data[2 * j + 1];
+                data[2 * j + 1] = t;
+            }
+        }
+
+        //  Butterflies.
+        for ( int span = 2; span <= size; span <<= 1 ) {
+            int half = span >> 1;
+            int step = n / span;
+            for ( int start = 0; start < size; start += span ) {
+                for ( int k = 0; k < half; k++ ) {
+                    double wr = cos[k * step];
+                    double wi = sign * sin[k * step];
+                    int a = 2 * ( start + k );
+                    int b = a + span;
+                    double xr = data[b] * wr - data[b + 1] * wi;
+                    double xi = data[b] * wi + data[b + 1] * wr;
+                    data[b] = data[a] - xr;
+                    data[b + 1] = data[a + 1] - xi;
+                    data[a] += xr;
+                    data[a + 1] += xi;
+                }
+            }
+        }
+    }
+}
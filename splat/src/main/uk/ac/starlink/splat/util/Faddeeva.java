@@ -0,0 +1,528 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.util;
+
+/**
+ * Evaluates the Faddeeva function, w(z) = exp(-z**2)*erfc(-i*z), in the
+ * upper half-plane z = x + iy. The real part of w is the Voigt function
+ * and the imaginary part its dispersion counterpart.
+ * <p>
+ * Inside |x|+y &lt; 15 the rational approximation of Weideman (SIAM J.
+ * Numer. Anal., V31, p1497, 1994) with 32 terms is used, outside that a
+ * Laplace continued fraction, as in the asymptotic region of Humlicek's
+ * algorithms. The absolute error of both parts is less than 1E-11, where
+ * the {@link #humlicek} approximation previously used by
+ * {@link VoigtFitter} has relative errors of up to 5E-6.
+ * <p>
+ * There are methods for a single position and for arrays of positions
+ * with the same y, which avoid any allocations. When the same profile is
+ * needed at very many positions a {@link Table} can be used instead, which
+ * interpolates values precomputed on a grid.
+ * <p>
+ * The {@link #main} method compares the accuracy and speed of these
+ * methods.
+ *
+ * @version $Id$
+ * @see VoigtFitter
+ */
+public class Faddeeva
+{
+    /**
+     * 1/sqrt(PI).
+     */
+    public static final double OVRTPI = 1.0 / Math.sqrt( Math.PI );
+
+    /**
+     * Number of terms in the rational approximation.
+     */
+    private static final int NTERMS = 32;
+
+    /**
+     * The rational approximation parameter, sqrt(N/sqrt(2)).
+     */
+    private static final double L = Math.sqrt( NTERMS / Math.sqrt( 2.0 ) );
+
+    /**
+     * The polynomial coefficients of the rational approximation,
+     * coefficient n is for power n.
+     */
+    private static final double[] A = makeCoefficients();
+
+    /**
+     * Positions with |x|+y at least this use the continued fraction.
+     */
+    private static final double ASYMPTOTIC = 15.0;
+
+    /**
+     * Number of levels of the continued fraction.
+     */
+    private static final int NLEVELS = 8;
+
+    /**
+     * Class of static methods, so no public constructor.
+     */
+    private Faddeeva()
+    {
+        // Do nothing.
+    }
+
+    /**
+     * Calculate the coefficients of the rational approximation. These are
+     * the Fourier coefficients of a function sampled at 2*N points,
+     * evaluated directly as only N are needed.
+     */
+    private static double[] makeCoefficients()
+    {
+        int m = 2 * NTERMS;
+        double[] f = new double[m];
+        for ( int k = 0; k < m; k++ ) {
+            double t = L * Math.tan( 0.5 * k * Math.PI / m );
+            f[k] = Math.exp( -t * t ) * ( L * L + t * t );
+        }
+        double[] a = new double[NTERMS];
+        for ( int n = 1; n <= NTERMS; n++ ) {
+
+            //  The function is even, so the sum over -m+1 to m-1 is twice
+            //  the sum over 1 to m-1 plus the value at 0.
+            double sum = f[0];
+            for ( int k = 1; k < m; k++ ) {
+                sum += 2.0 * f[k] * Math.cos( Math.PI * n * k / m );
+            }
+            a[n - 1] = sum / ( 2 * m );
+        }
+        return a;
+    }
+
+    /**
+     * Evaluate the Faddeeva function at a position. Negative values of y
+     * are used as their absolute value, so the result is always that of
+     * the upper half-plane.
+     *
+     * @param x the real part of the position.
+     * @param y the imaginary part of the position.
+     * @param result returns the real and imaginary parts of w(z).
+     */
+    public static void w( double x, double y, double[] result )
+    {
+        y = Math.abs( y );
+        if ( Math.abs( x ) + y >= ASYMPTOTIC ) {
+            continuedFraction( x, y, result );
+        }
+        else {
+            rational( x, y, result );
+        }
+    }
+
+    /**
+     * Evaluate the Faddeeva function at a set of positions with the same
+     * imaginary part.
+     *
+     * @param x the real parts of the positions.
+     * @param y the imaginary part of the positions.
+     * @param wr returns the real parts of w(z).
+     * @param wi returns the imaginary parts of w(z), null if not needed.
+     */
+    public static void w( double[] x, double y, double[] wr, double[] wi )
+    {
+        y = Math.abs( y );
+        double[] result = new double[2];
+        for ( int i = 0; i < x.length; i++ ) {
+            if ( Math.abs( x[i] ) + y >= ASYMPTOTIC ) {
+                continuedFraction( x[i], y, result );
+            }
+            else {
+                rational( x[i], y, result );
+            }
+            wr[i] = result[0];
+            if ( wi != null ) {
+                wi[i] = result[1];
+            }
+        }
+    }
+
+    /**
+     * Weideman's rational approximation, y must be positive or zero.
+     */
+    private static void rational( double x, double y, double[] result )
+    {
+        //  q = 1/(L-iz) and Z = (L+iz)/(L-iz).
+        double lpy = L + y;
+        double den = 1.0 / ( lpy * lpy + x * x );
+        double qr = lpy * den;
+        double qi = x * den;
+        double lmy = L - y;
+        double zr = lmy * qr - x * qi;
+        double zi = lmy * qi + x * qr;
+
+        //  p = polynomial in Z.
+        double pr = A[NTERMS - 1];
+        double pi = 0.0;
+        double t;
+        for ( int n = NTERMS - 2; n >= 0; n-- ) {
+            t = pr * zr - pi * zi + A[n];
+            pi = pr * zi + pi * zr;
+            pr = t;
+        }
+
+        //  w = 2p*q**2 + q/sqrt(PI).
+        double q2r = qr * qr - qi * qi;
+        double q2i = 2.0 * qr * qi;
+        result[0] = 2.0 * ( pr * q2r - pi * q2i ) + OVRTPI * qr;
+        result[1] = 2.0 * ( pr * q2i + pi * q2r ) + OVRTPI * qi;
+    }
+
+    /**
+     * Laplace continued fraction, for large |z| in the upper half-plane.
+     * w(z) = (i/sqrt(PI)) / (z - (1/2) / (z - 1 / (z - (3/2) / ...))).
+     */
+    private static void continuedFraction( double x, double y,
+                                           double[] result )
+    {
+        double rr = 0.0;
+        double ri = 0.0;
+        double dr, di, d;
+        for ( int k = NLEVELS; k >= 1; k-- ) {
+            //  r = (k/2)/(z - r)
+            dr = x - rr;
+            di = y - ri;
+            d = 0.5 * k / ( dr * dr + di * di );
+            rr = dr * d;
+            ri = -di * d;
+        }
+
+        //  w = i/(sqrt(PI)*(z-r)).
+        dr = x - rr;
+        di = y - ri;
+        d = OVRTPI / ( dr * dr + di * di );
+        result[0] = di * d;
+        result[1] = dr * d;
+    }
+
+    /**
+     * Compute the real and imaginary parts of w(z) using the algorithm
+     * of Humlicek, J. Quant. Spectrosc. Radiat. Transfer, V21, p309, 1979.
+     * The maximum relative error of the real part is 2E-6 and the
+     * imaginary part is 5E-6. This is kept for comparisons.
+     *
+     * @param xarg the real part of the position.
+     * @param yarg the imaginary part of the position.
+     * @param result returns the real and imaginary parts of w(z).
+     */
+    public static void humlicek( double xarg, double yarg, double[] result )
+    {
+        double wr, wi;
+        int     i;
+        double x, y, y1, y2, y3, d, d1, d2, d3, d4, r, r2;
+
+        double [] t = {0.314240376, 0.947788391, 1.59768264, 2.27950708,
+                       3.02063703, 3.8897249};
+        double[] c = {1.01172805, -0.75197147, 1.2557727e-2, 1.00220082e-2,
+                      -2.42068135e-4, 5.00848061e-7};
+        double[] s = {1.393237, 0.231152406, -0.155351466, 6.21836624e-3,
+                      9.19082986e-5, -6.27525958e-7};
+
+        x = xarg;
+        y = Math.abs( yarg );
+        wr = 0.0;
+        wi = 0.0;
+        y1 = y + 1.5;
+        y2 = y1 * y1;
+
+        if ( y < 0.85 && Math.abs( x ) > 18.1 * y + 1.65 ) {
+
+            // Region II
+            if ( Math.abs( x ) < 12 ) {
+                wr = Math.exp (-x * x);
+            }
+            y3 = y + 3.0;
+            for ( i = 0; i < 6; i++ ) {
+                r = x - t[i];
+                r2 = r * r;
+                d = 1.0 / (r2 + y2);
+                d1 = y1 * d;
+                d2 = r * d;
+                wr = wr + y * (c[i] * (r * d2 - 1.5 * d1) + s[i] * y3 * d2) /
+                    (r2 + 2.25);
+                r = x + t[i];
+                r2 = r * r;
+                d = 1 / (r2 + y2);
+                d3 = y1 * d;
+                d4 = r * d;
+                wr = wr + y * (c[i] * (r * d4 - 1.5 * d3) - s[i] * y3 * d4) /
+                    (r2 + 2.25);
+                wi = wi + c[i] * (d2 + d4) + s[i] * (d1 - d3);
+            }
+
+        } else {
+
+            // Region I
+            for ( i = 0; i < 6; i++ ) {
+                r = x - t[i];
+                d = 1 / (r * r + y2);
+                d1 = y1 * d;
+                d2 = r * d;
+                r = x + t[i];
+                d = 1 / (r * r + y2);
+                d3 = y1 * d;
+                d4 = r * d;
+                wr = wr + c[i] * (d1 + d3) - s[i] * (d2 - d4);
+                wi = wi + c[i] * (d2 + d4) + s[i] * (d1 - d3);
+            }
+        }
+        result[0] = wr;
+        result[1] = wi;
+    }
+
+    /**
+     * Values of w(z) for a fixed y, tabulated over a range of x and
+     * interpolated using cubic Hermite polynomials, with the exact
+     * derivatives at the grid points. Positions outside the range are
+     * evaluated directly. The range is limited to |x| &lt; 15, as beyond
+     * that the direct evaluation is quicker.
+     * <p>
+     * The grid spacing is {@link #DEFAULT_STEP} times the larger of 1 and
+     * y, which gives an absolute error less than 5E-7.
+     */
+    public static class Table
+    {
+        /**
+         * The default spacing of the grid.
+         */
+        public static final double DEFAULT_STEP = 0.05;
+
+        private double y;
+        private double xmin;
+        private double step;
+        private int nnodes;
+        private double[] wr;
+        private double[] wi;
+        private double[] dr;
+        private double[] di;
+        private double[] result = new double[2];
+
+        /**
+         * Create a table for a range of x and the default spacing.
+         *
+         * @param y the imaginary part of all positions.
+         * @param xmin the smallest real part to tabulate.
+         * @param xmax the largest real part to tabulate.
+         */
+        public Table( double y, double xmin, double xmax )
+        {
+            this( y, xmin, xmax, DEFAULT_STEP * Math.max( 1.0,
+                                                          Math.abs( y ) ) );
+        }
+
+        /**
+         * Create a table for a range of x and a given spacing.
+         *
+         * @param y the imaginary part of all positions.
+         * @param xmin the smallest real part to tabulate.
+         * @param xmax the largest real part to tabulate.
+         * @param step the spacing of the grid.
+         */
+        public Table( double y, double xmin, double xmax, double step )
+        {
+            this.y = Math.abs( y );
+            this.xmin = Math.max( xmin, -ASYMPTOTIC );
+            this.step = step;
+            nnodes = countNodes( xmin, xmax, step );
+            wr = new double[nnodes];
+            wi = new double[nnodes];
+            dr = new double[nnodes];
+            di = new double[nnodes];
+
+            //  Derivatives are dw/dz = -2z*w + 2i/sqrt(PI), times the step
+            //  as needed for the interpolation.
+            double x;
+            for ( int i = 0; i < nnodes; i++ ) {
+                x = this.xmin + i * step;
+                Faddeeva.w( x, this.y, result );
+                wr[i] = result[0];
+                wi[i] = result[1];
+                dr[i] = -2.0 * ( x * wr[i] - this.y * wi[i] ) * step;
+                di[i] = ( -2.0 * ( x * wi[i] + this.y * wr[i] ) +
+                          2.0 * OVRTPI ) * step;
+            }
+        }
+
+        /**
+         * Get the number of grid points needed to cover a range of x,
+         * using the default spacing. Creating a table is only worthwhile
+         * when this is much less than the number of positions.
+         */
+        public static int getNumNodes( double y, double xmin, double xmax )
+        {
+            return countNodes( xmin, xmax,
+                                DEFAULT_STEP * Math.max( 1.0,
+                                                         Math.abs( y ) ) );
+        }
+
+        private static int countNodes( double xmin, double xmax,
+                                        double step )
+        {
+            xmin = Math.max( xmin, -ASYMPTOTIC );
+            xmax = Math.min( xmax, ASYMPTOTIC );
+            return Math.max( 2, (int) Math.ceil( ( xmax - xmin ) / step ) +
+                             1 );
+        }
+
+        /**
+         * Get the imaginary part of the tabulated positions.
+         */
+        public double getY()
+        {
+            return y;
+        }
+
+        /**
+         * Evaluate w(z) at a position with the tabulated imaginary part.
+         *
+         * @param x the real part of the position.
+         * @param result returns the real and imaginary parts of w(z).
+         */
+        public void w( double x, double[] result )
+        {
+            double t = ( x - xmin ) / step;
+            if ( t < 0.0 || t > nnodes - 1 ) {
+                Faddeeva.w( x, y, result );
+                return;
+            }
+            int i = Math.min( (int) t, nnodes - 2 );
+            double s = t - i;
+            double s1 = 1.0 - s;
+            double h00 = ( 1.0 + 2.0 * s ) * s1 * s1;
+            double h10 = s * s1 * s1;
+            double h01 = s * s * ( 3.0 - 2.0 * s );
+            double h11 = -s * s * s1;
+            result[0] = h00 * wr[i] + h10 * dr[i] +
+                        h01 * wr[i + 1] + h11 * dr[i + 1];
+            result[1] = h00 * wi[i] + h10 * di[i] +
+                        h01 * wi[i + 1] + h11 * di[i + 1];
+        }
+
+        /**
+         * Evaluate the real part of w(z) at a set of positions with the
+         * tabulated imaginary part.
+         *
+         * @param x the real parts of the positions.
+         * @param wr returns the real parts of w(z).
+         */
+        public void w( double[] x, double[] wr )
+        {
+            for ( int i = 0; i < x.length; i++ ) {
+                w( x[i], result );
+                wr[i] = result[0];
+            }
+        }
+    }
+
+    /**
+     * Reference value of w(z) for y greater than 0, by integration of
+     * the Fourier representation, w(z) = (1/sqrt(PI)) times the integral
+     * from 0 to infinity of exp(-t**2/4 - yt + ixt).
+     */
+    private static void reference( double x, double y, double[] result )
+    {
+        int n = 100000;
+        double tmax = 20.0;
+        double h = tmax / n;
+        double sr = 0.0;
+        double si = 0.0;
+        double t, f, wt;
+        for ( int i = 0; i <= n; i++ ) {
+            t = i * h;
+            f = Math.exp( -0.25 * t * t - y * t );
+            wt = ( i == 0 || i == n ) ? 1.0 : ( ( i % 2 == 0 ) ? 2.0 : 4.0 );
+            sr += wt * f * Math.cos( x * t );
+            si += wt * f * Math.sin( x * t );
+        }
+        result[0] = OVRTPI * sr * h / 3.0;
+        result[1] = OVRTPI * si * h / 3.0;
+    }
+
+    /**
+     * Compare the accuracy and speed of the methods. The optional argument
+     * is the number of positions used for the timings.
+     */
+    public static void main( String[] args )
+    {
+        int npoints = 1000000;
+        if ( args.length > 0 ) {
+            npoints = Integer.parseInt( args[0] );
+        }
+
+        //  Accuracy against the integral, over the range used by profile
+        //  fits, Lorentzian to Gaussian width ratios of 0.001 to 100.
+        double[] ys = { 1.0e-3, 1.0e-2, 0.1, 0.5, 1.0, 2.0, 5.0, 10.0,
+                        50.0 };
+        double[] ref = new double[2];
+        double[] res = new double[2];
+        double maxNew = 0.0;
+        double maxOld = 0.0;
+        double maxTable = 0.0;
+        for ( int j = 0; j < ys.length; j++ ) {
+            Table table = new Table( ys[j], -30.0, 30.0 );
+            for ( double x = -25.0; x <= 25.0; x += 0.25 ) {
+                reference( x, ys[j], ref );
+                w( x, ys[j], res );
+                maxNew = Math.max( maxNew, diff( ref, res ) );
+                humlicek( x, ys[j], res );
+                maxOld = Math.max( maxOld, diff( ref, res ) );
+                table.w( x, res );
+                maxTable = Math.max( maxTable, diff( ref, res ) );
+            }
+        }
+        System.out.println( "Maximum absolute errors:" );
+        System.out.println( "   Weideman/continued fraction: " + maxNew );
+        System.out.println( "   Humlicek 1979: " + maxOld );
+        System.out.println( "   Table interpolation: " + maxTable );
+
+        //  Timings for a profile spanning +/- 20 Gaussian widths. Each is
+        //  repeated so that the JIT has compiled the code.
+        double[] x = new double[npoints];
+        for ( int i = 0; i < npoints; i++ ) {
+            x[i] = -20.0 + 40.0 * i / npoints;
+        }
+        double[] wr = new double[npoints];
+        double[] wi = new double[npoints];
+        double y = 0.3;
+        double sum = 0.0;
+        System.out.println( "Times for " + npoints + " positions (ms):" );
+        for ( int repeat = 0; repeat < 5; repeat++ ) {
+            long start = System.nanoTime();
+            for ( int i = 0; i < npoints; i++ ) {
+                humlicek( x[i], y, res );
+                wr[i] = res[0];
+            }
+            long old = System.nanoTime() - start;
+            sum += wr[npoints / 2];
+
+            start = System.nanoTime();
+            w( x, y, wr, wi );
+            long vector = System.nanoTime() - start;
+            sum += wr[npoints / 2];
+
+            start = System.nanoTime();
+            Table table = new Table( y, x[0], x[npoints - 1] );
+            table.w( x, wr );
+            long tabled = System.nanoTime() - start;
+            sum += wr[npoints / 2];
+
+            System.out.println( "   Humlicek 1979: " + old / 1000000 +
+                                ", Weideman: " + vector / 1000000 +
+                                ", table: " + tabled / 1000000 );
+        }
+        System.out.println( "(checksum " + sum + ")" );
+    }
+
+    private static double diff( double[] a, double[] b )
+    {
+        return Math.max( Math.abs( a[0] - b[0] ), Math.abs( a[1] - b[1] ) );
+    }
+}
@@ -4,6 +4,9 @@
  *  History:
  *     12-MAR-2003 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Added FFT convolution for wide kernels and parallel processing
+ *       of long arrays.
  */
 package uk.ac.starlink.splat.util;
 
@@ -11,6 +14,14 @@ import uk.ac.starlink.splat.data.SpecData;
 
 /**
  * Smooth a given data array using a kernel of weights.
+ * <p>
+ * Each result is the weighted mean of the good values under the kernel,
+ * so BAD values are skipped and the weights renormalised. Narrow kernels
+ * are applied directly. Wide kernels are applied by FFT convolution in
+ * blocks (overlap-save), convolving the data with the BAD values zeroed
+ * and a mask of the good values at the same time, so that their ratio
+ * gives the normalised result. Long arrays are divided into chunks that
+ * are processed in parallel.
  *
  * @author Peter W. Draper
  * @version $Id$
@@ -27,6 +38,46 @@ public class KernelFilter
      */
     private double[] kernel = null;
 
+    /**
+     * Choose the convolution method using the kernel width.
+     */
+    public static final int AUTO_METHOD = 0;
+
+    /**
+     * Always use direct convolution.
+     */
+    public static final int DIRECT_METHOD = 1;
+
+    /**
+     * Always use FFT convolution.
+     */
+    public static final int FFT_METHOD = 2;
+
+    /**
+     * The convolution method.
+     */
+    private int method = AUTO_METHOD;
+
+    /**
+     * The number of threads to use.
+     */
+    private int threads = ChunkedTask.getDefaultThreads();
+
+    /**
+     * Kernel length at which AUTO_METHOD switches to FFT convolution.
+     */
+    private static final int FFT_THRESHOLD = 48;
+
+    /**
+     * Smallest FFT length used for a block.
+     */
+    private static final int MIN_FFT_SIZE = 4096;
+
+    /**
+     * Smallest number of positions given to a thread.
+     */
+    private static final int MIN_CHUNK = 65536;
+
     /**
      *  Create an instance.
      *
@@ -55,6 +106,41 @@ public class KernelFilter
         this.kernel = kernel;
     }
 
+    /**
+     * Set the convolution method, one of AUTO_METHOD, DIRECT_METHOD or
+     * FFT_METHOD. The default is AUTO_METHOD, which uses FFT convolution
+     * for wide kernels.
+     */
+    public void setMethod( int method )
+    {
+        this.method = method;
+    }
+
+    /**
+     * Get the convolution method.
+     */
+    public int getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * Set the number of threads used to filter long arrays. The default
+     * is the number of processors, use 1 to disable threading.
+     */
+    public void setThreads( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Get the number of threads used to filter long arrays.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
     /**
      * Get the smoothed data.
      */
@@ -67,22 +153,69 @@ public class KernelFilter
      * Perform the convolution of the data with the given
      * kernel. Returns the resultant array.
      */
-    protected double[] doCalc( double[] data, double[] kernel )
+    protected double[] doCalc( final double[] data, final double[] kernel )
     {
-        double sum;
-        double wsum;
-        double[] result = new double[data.length];
-        int low;
-        int high;
-        int k;
+        final double[] result = new double[data.length];
         int halfLength = kernel.length / 2;
 
         //  Kernel must have odd length, if not subtract one throwing
         //  away end point. Alternative would be to add a BAD data
         //  point at end, but that would mean making a local array.
         if ( halfLength * 2 == kernel.length ) halfLength--;
+        final int half = halfLength;
 
-        for ( int i = 0; i < data.length; i++ ) {
+        final boolean useFFT = ( method == FFT_METHOD ) ||
+            ( method == AUTO_METHOD && 2 * half + 1 >= FFT_THRESHOLD );
+        final double[] transform =
+            useFFT ? kernelTransform( kernel, half, data.length ) : null;
+
+        if ( threads > 1 && data.length >= 2 * MIN_CHUNK ) {
+            ChunkedTask task = new ChunkedTask()
+                {
+                    protected void process( int start, int end )
+                    {
+                        if ( useFFT ) {
+                            fftCalc( data, transform, half, result,
+                                     start, end );
+                        }
+                        else {
+                            directCalc( data, kernel, half, result,
+                                        start, end );
+                        }
+                    }
+                };
+            try {
+                task.execute( data.length, MIN_CHUNK, threads );
+                return result;
+            }
+            catch (SplatException e) {
+                //  Fall back to a single thread.
+            }
+        }
+        if ( useFFT ) {
+            fftCalc( data, transform, half, result, 0, data.length );
+        }
+        else {
+            directCalc( data, kernel, half, result, 0, data.length );
+        }
+        return result;
+    }
+
+    /**
+     * Direct convolution of the positions start to end-1, using the
+     * kernel elements 0 to 2*halfLength.
+     */
+    protected void directCalc( double[] data, double[] kernel,
+                               int halfLength, double[] result,
+                               int start, int end )
+    {
+        double sum;
+        double wsum;
+        int low;
+        int high;
+        int k;
+
+        for ( int i = start; i < end; i++ ) {
             if ( data[i] == SpecData.BAD ) {
                 result[i] = SpecData.BAD;
             }
@@ -112,6 +245,97 @@ public class KernelFilter
                 }
             }
         }
-        return result;
+    }
+
+    /**
+     * Get the FFT of the kernel elements 0 to 2*halfLength, reversed and
+     * with BAD weights set to zero, for convolving an array of the given
+     * length. The transform size is the length of the returned array
+     * divided by two.
+     */
+    protected double[] kernelTransform( double[] kernel, int halfLength,
+                                        int length )
+    {
+        int klen = 2 * halfLength + 1;
+        int size = Math.max( MIN_FFT_SIZE, FFT.nextPowerOfTwo( 8 * klen ) );
+        size = Math.min( size, FFT.nextPowerOfTwo( length + klen - 1 ) );
+
+        double[] transform = new double[2 * size];
+        for ( int m = 0; m < klen; m++ ) {
+            double w = kernel[klen - 1 - m];
+            transform[2 * m] = ( w == SpecData.BAD ) ? 0.0 : w;
+        }
+        new FFT( size ).forward( transform );
+        return transform;
+    }
+
+    /**
+     * FFT convolution of the positions start to end-1. The data with
+     * BAD values set to zero is the real part of the signal and the mask
+     * of good values the imaginary part, so both are convolved by one
+     * transform. The blocks overlap by the kernel length and only the
+     * values not affected by wrap-around are kept.
+     *
+     * @param transform the transformed kernel, from kernelTransform.
+     */
+    protected void fftCalc( double[] data, double[] transform,
+                            int halfLength, double[] result,
+                            int start, int end )
+    {
+        int size = transform.length / 2;
+        int klen = 2 * halfLength + 1;
+        int block = size - klen + 1;
+        FFT fft = new FFT( size );
+        double[] work = new double[2 * size];
+
+        //  Sums of weights smaller than this are taken to be zero, the
+        //  scale is the largest amplitude in the kernel transform.
+        double tol = 0.0;
+        for ( int t = 0; t < size; t++ ) {
+            tol = Math.max( tol, Math.hypot( transform[2 * t],
+                                             transform[2 * t + 1] ) );
+        }
+        tol *= 1.0e-12;
+
+        for ( int o = start; o < end; o += block ) {
+            int nout = Math.min( block, end - o );
+
+            //  Segment covers the kernel about each output.
+            int first = o - halfLength;
+            for ( int t = 0; t < size; t++ ) {
+                int j = first + t;
+                if ( j >= 0 && j < data.length && data[j] != SpecData.BAD ) {
+                    work[2 * t] = data[j];
+                    work[2 * t + 1] = 1.0;
+                }
+                else {
+                    work[2 * t] = 0.0;
+                    work[2 * t + 1] = 0.0;
+                }
+            }
+
+            fft.forward( work );
+            for ( int t = 0; t < size; t++ ) {
+                double ar = work[2 * t];
+                double ai = work[2 * t + 1];
+                double br = transform[2 * t];
+                double bi = transform[2 * t + 1];
+                work[2 * t] = ar * br - ai * bi;
+                work[2 * t + 1] = ar * bi + ai * br;
+            }
+            fft.inverse( work );
+
+            for ( int i = 0; i < nout; i++ ) {
+                int t = 2 * ( i + klen - 1 );
+                double wsum = work[t + 1];
+                if ( data[o + i] == SpecData.BAD ||
+                     Math.abs( wsum ) <= tol ) {
+                    result[o + i] = SpecData.BAD;
+                }
+                else {
+                    result[o + i] = work[t] / wsum;
+                }
+            }
+        }
     }
 }
@@ -41,34 +41,54 @@ public class LevMarq
      * derivate values for a given model) has been moved into an
      * external class that implements the {@link LevMarqFunc}
      * interface.
+     *
+     * The linear algebra now works on flat arrays that only contain the
+     * floating parameters. The normal equations are solved by Cholesky
+     * decomposition, falling back to Gauss-Jordan elimination when the
+     * matrix is not positive definite, and all the workspace is allocated
+     * when the number of parameters or data points is set, so no objects
+     * are created while fitting.
      */
 
     // Local variables.
     private double a[];
     private double alambda;
-    private double alpha[][];
     private double aold[];
-    private double beta[];
     private double chisq;
     private double converge;
-    private double covar[][];
-    private double da[];
     private double dyda[];
     private double fit[];
     private double oldchisq;
-    private double oneda[];
     private double sigma[];
+    private double sig2i[];
     private double x[];
     private double y[];
     private int ia[];
-    private int indexc[];
-    private int indexr[];
-    private int ipiv[];
     private int iterations = 20;
     private int ndata = 200;
     private int mfit;
     private int mparam = 20;
 
+    //  Flat workspace for the floating parameters. The matrices are
+    //  mfit by mfit, stored by row. The alpha and beta of a trial step are
+    //  formed in trialAlpha and trialBeta, which are swapped with alpha and
+    //  beta when the step is accepted.
+    private int ifit[];
+    private double alpha[];
+    private double beta[];
+    private double trialAlpha[];
+    private double trialBeta[];
+    private double lhs[];
+    private double da[];
+    private double col[];
+    private int indexc[];
+    private int indexr[];
+    private int ipiv[];
+
+    //  Covariance matrix of all the parameters, (mparam+1) by (mparam+1)
+    //  so it can be indexed from 1.
+    private double covar[];
+
     private boolean converged = false;
 
     private LevMarqFunc funcs = null;
@@ -133,6 +153,7 @@ public class LevMarq
     public void setSigma( int n, double sigin )
     {
         sigma[n] = sigin;
+        sig2i[n] = 1.0 / ( sigin * sigin );
     }
 
     /**
@@ -240,25 +261,29 @@ public class LevMarq
      */
     public void setNumParams( int n )
     {
-        mparam = n + 1; // Index starts at 1 not 0.
+        mparam = n;
+        int np1 = n + 1; // Index starts at 1 not 0.
 
-        a = new double[mparam];
-        aold= new double[mparam];
-        alpha = new double[mparam][mparam];
-        beta = new double[mparam];
-        da = new double[mparam];
-        ia  = new int[mparam];
-        for ( int i = 0; i < mparam; i++ ) {
+        a = new double[np1];
+        aold = new double[np1];
+        dyda = new double[np1];
+        ia = new int[np1];
+        for ( int i = 0; i < np1; i++ ) {
             ia[i] = 1;  //  Parameters are floating by default.
         }
-        oneda = new double[mparam];
-        dyda =new double[mparam];
-        covar = new double[mparam][mparam];
-        ipiv = new int[mparam];
-        indexr = new int[mparam];
-        indexc = new int[mparam];
+        covar = new double[np1 * np1];
 
-        mparam = n;
+        ifit = new int[n];
+        alpha = new double[n * n];
+        beta = new double[n];
+        trialAlpha = new double[n * n];
+        trialBeta = new double[n];
+        lhs = new double[n * n];
+        da = new double[n];
+        col = new double[n];
+        ipiv = new int[n];
+        indexr = new int[n];
+        indexc = new int[n];
     }
 
     /**
@@ -329,6 +354,7 @@ public class LevMarq
         x = new double[ndata];
         y = new double[ndata];
         sigma = new double[ndata];
+        sig2i = new double[ndata];
         fit = new double[ndata];
         ndata = n;
     }
@@ -372,10 +398,7 @@ public class LevMarq
      */
     public double getCovariance( int n )
     {
-        if ( n <= mparam ) {
-            return covar[n][n];
-        }
-        return 0;
+        return getCovariance( n, n );
     }
 
     /**
@@ -384,7 +407,7 @@ public class LevMarq
     public double getCovariance( int n, int m )
     {
         if ( ( n <= mparam ) && ( m <= mparam ) ) {
-            return covar[n][m];
+            return covar[n * ( mparam + 1 ) + m];
         }
         return 0;
     }
@@ -401,8 +424,9 @@ public class LevMarq
     public double getError( int n, boolean rebase )
     {
         double result = 0.0;
-        if ( n <= mparam && covar[n][n] > 0.0 ) {
-            result = Math.sqrt( covar[n][n] );
+        double var = getCovariance( n );
+        if ( n <= mparam && var > 0.0 ) {
+            result = Math.sqrt( var );
             if ( rebase ) {
                 int nfree = ndata - mparam;
                 result = result * Math.sqrt( chisq / nfree );
@@ -427,154 +451,223 @@ public class LevMarq
     }
 
     /**
-     * Sort covariances.
+     * Copy the inverse of alpha, the covariance of the floating
+     * parameters, into the full covariance matrix, which has zeros for the
+     * fixed parameters.
+     */
+    private void setCovariance()
+    {
+        int np1 = mparam + 1;
+        for ( int i = 0; i < covar.length; i++ ) {
+            covar[i] = 0.0;
+        }
+        if ( ! invert( alpha, mfit ) ) {
+            //  Singular, so no useful errors.
+            return;
+        }
+        for ( int j = 0; j < mfit; j++ ) {
+            for ( int k = 0; k < mfit; k++ ) {
+                covar[ifit[j] * np1 + ifit[k]] = lhs[j * mfit + k];
+            }
+        }
+    }
+
+    /**
+     * Solve m x = b for x, where m is an n by n symmetric matrix. The
+     * solution is returned in da. Uses a Cholesky decomposition, or
+     * Gauss-Jordan elimination if m is not positive definite.
+     *
+     * @return false if m is singular.
      */
-    private void covsrt()
+    private boolean solve( double[] m, double[] b, int n )
     {
-        // Needs to have access to mfit (no of parameters) and mparam,
-        // the number of parameters and covar, the covariance matrix.
-        int i;
-        int j;
-        int k;
-        double temp = 0 ;
+        System.arraycopy( m, 0, lhs, 0, n * n );
+        if ( cholesky( n ) ) {
+            choleskySolve( b, da, n );
+            return true;
+        }
+        System.arraycopy( m, 0, lhs, 0, n * n );
+        System.arraycopy( b, 0, da, 0, n );
+        return gaussj( n, true );
+    }
 
-        mfit = 0;
+    /**
+     * Invert the n by n symmetric matrix m. The inverse is returned in
+     * lhs. Uses a Cholesky decomposition, or Gauss-Jordan elimination if
+     * m is not positive definite.
+     *
+     * @return false if m is singular.
+     */
+    private boolean invert( double[] m, int n )
+    {
+        System.arraycopy( m, 0, lhs, 0, n * n );
+        if ( cholesky( n ) ) {
+            //  Solve for each column of the identity, the results go into
+            //  the upper triangle, which is free, and then the diagonal
+            //  and lower triangle.
+            for ( int k = 0; k < n; k++ ) {
+                for ( int i = 0; i < n; i++ ) {
+                    col[i] = ( i == k ) ? 1.0 : 0.0;
+                }
+                choleskySolve( col, col, n );
+                for ( int i = k + 1; i < n; i++ ) {
+                    lhs[k * n + i] = col[i];
+                }
+                da[k] = col[k];
+            }
+            for ( int k = 0; k < n; k++ ) {
+                lhs[k * n + k] = da[k];
+                for ( int i = k + 1; i < n; i++ ) {
+                    lhs[i * n + k] = lhs[k * n + i];
+                }
+            }
+            return true;
+        }
+        System.arraycopy( m, 0, lhs, 0, n * n );
+        return gaussj( n, false );
+    }
 
-        //  Count number of floating parameters.
-        for ( i = 1; i <= mparam; i++ ) {
-            if( ia[i] == 1 ) {
-                mfit++;
+    /**
+     * Cholesky decomposition of the n by n matrix in lhs. The lower
+     * triangle is replaced by L, where L L^T is the matrix.
+     *
+     * @return false if the matrix is not positive definite.
+     */
+    private boolean cholesky( int n )
+    {
+        for ( int j = 0; j < n; j++ ) {
+            int rj = j * n;
+            double sum = lhs[rj + j];
+            for ( int k = 0; k < j; k++ ) {
+                sum -= lhs[rj + k] * lhs[rj + k];
+            }
+            if ( ! ( sum > 0.0 ) ) {
+                return false;
+            }
+            double diag = Math.sqrt( sum );
+            lhs[rj + j] = diag;
+            for ( int i = j + 1; i < n; i++ ) {
+                int ri = i * n;
+                sum = lhs[ri + j];
+                for ( int k = 0; k < j; k++ ) {
+                    sum -= lhs[ri + k] * lhs[rj + k];
+                }
+                lhs[ri + j] = sum / diag;
             }
         }
+        return true;
+    }
 
-        //  Clear covariances.
-        for ( i = mfit + 1; i <= mparam; i++ ) {
-            for ( j = 1; j <= i; j++ ) {
-                covar[i][j] = covar[j][i] = 0.0;
+    /**
+     * Solve L L^T x = b using the decomposition in the lower triangle of
+     * lhs. x and b may be the same array.
+     */
+    private void choleskySolve( double[] b, double[] x, int n )
+    {
+        for ( int i = 0; i < n; i++ ) {
+            int ri = i * n;
+            double sum = b[i];
+            for ( int k = 0; k < i; k++ ) {
+                sum -= lhs[ri + k] * x[k];
             }
+            x[i] = sum / lhs[ri + i];
         }
-        k = mfit;
-        for ( j = mparam; j >= 1;j-- ) {
-            if( ia[j] == 1 ) {
-                for( i = 1; i <= mparam; i++ )  {
-                    temp = covar[i][k];
-                    covar[i][k] = covar[i][j];
-                    covar[i][j]= temp;
-                }
-                for( i = 1; i <= mparam; i++ ) {
-                    temp = covar[k][i] ;
-                    covar[k][i] = covar[j][i];
-                    covar[j][i]= temp;
-                }
-                k--;
+        for ( int i = n - 1; i >= 0; i-- ) {
+            double sum = x[i];
+            for ( int k = i + 1; k < n; k++ ) {
+                sum -= lhs[k * n + i] * x[k];
             }
+            x[i] = sum / lhs[i * n + i];
         }
     }
 
     /**
-     *  Perform Gauss-Jordan elimination.
+     *  Perform Gauss-Jordan elimination with full pivoting. The n by n
+     *  matrix in lhs is replaced by its inverse and, if withRhs is true,
+     *  the vector da by the solution.
+     *
+     *  @return false if the matrix is singular.
      */
-    private void gaussj( int n, int m )
+    private boolean gaussj( int n, boolean withRhs )
     {
-        // The original C++ code had
-        //    void gaussj( double a[20][20], int n, double b[20], int m );
-        // as the GaussJorden elimination function call this routine
-        // was originally a general one; in this application we only
-        // call it one, so we can rewrite the method to avoid passing
-        // the matrices aa and bb
-        //    gaussj( covar, mfit, oneda, 1 );
-        // n is the number of floating fit parameters and m the
-        // dimension of the oneda matrix (==1)
-        int i = 0;
         int icol = 0;
-        int irow =  0;
-        int j = 0;
-        int k = 0;
-        int l = 0;
-        int ll = 0;
+        int irow = 0;
         double big = 0;
         double dum = 0;
         double pivinv = 0;
-        double piv = 0;
         double temp = 0;
 
-        for( j = 1; j <= n; j++ ) {
+        for ( int j = 0; j < n; j++ ) {
             ipiv[j] = 0;
-            indexr[j] = 0;
-            indexc[j] = 0;
         }
-        for ( i = 1; i <= n; i++ ) {
+        for ( int i = 0; i < n; i++ ) {
             big = 0.0;
-            for ( j = 1; j <= n; j++ ) {
+            for ( int j = 0; j < n; j++ ) {
                 if ( ipiv[j] != 1 ) {
-                    for ( k = 1; k <= n;k++ ) {
+                    for ( int k = 0; k < n; k++ ) {
                         if ( ipiv[k] == 0 ) {
-                            if ( Math.abs( covar[j][k] ) >= big ) {
-                                big =Math.abs( covar[j][k] );
+                            if ( Math.abs( lhs[j * n + k] ) >= big ) {
+                                big = Math.abs( lhs[j * n + k] );
                                 irow = j;
                                 icol = k;
                             }
                         }
                         else if ( ipiv[k] > 1 ) {
-                            System.err.println(
-                       "fitting error - singular matrix in LevMarq.gaussj() ");
-                            return;
+                            return false;
                         }
                     }
                 }
             }
-
             ipiv[icol] += 1;
 
             if ( irow != icol ) {
-                for ( l = 1; l <= n; l++ ) {
-                    temp = covar[irow][l];
-                    covar[irow][l]= covar[icol][l];
-                    covar[icol][l]= temp;
+                for ( int l = 0; l < n; l++ ) {
+                    temp = lhs[irow * n + l];
+                    lhs[irow * n + l] = lhs[icol * n + l];
+                    lhs[icol * n + l] = temp;
                 }
-                for ( l = 1; l <= m; l++ ) {
-                    temp = oneda[irow];
-                    oneda[irow] = oneda[icol];
-                    oneda[icol]= temp;
+                if ( withRhs ) {
+                    temp = da[irow];
+                    da[irow] = da[icol];
+                    da[icol] = temp;
                 }
             }
             indexr[i] = irow;
             indexc[i] = icol;
-            if ( covar[icol][icol] == 0.0 ) {
-                System.err.println(
-           "fitting error - singular matrix in LevMarq.gaussj()  at " + icol );
-                return;
+            if ( lhs[icol * n + icol] == 0.0 ) {
+                return false;
             }
-            pivinv = 1.0 / covar[icol][icol];
-            covar[icol][icol] = 1.0;
-            for ( l = 1; l <= n; l++ ) {
-                covar[icol][l] *= pivinv;
+            pivinv = 1.0 / lhs[icol * n + icol];
+            lhs[icol * n + icol] = 1.0;
+            for ( int l = 0; l < n; l++ ) {
+                lhs[icol * n + l] *= pivinv;
             }
-            for ( l = 1; l <= m; l++ ) {
-                oneda[icol] *= pivinv;
+            if ( withRhs ) {
+                da[icol] *= pivinv;
             }
-            for ( ll = 1; ll <= n; ll++ ) {
-                if( ll != icol ) {
-                    dum = covar[ll][icol];
-                    covar[ll][icol] = 0.0;
-                    for ( l = 1; l <= n; l++ ) {
-                        covar[ll][l] -= covar[icol][l] * dum;
+            for ( int ll = 0; ll < n; ll++ ) {
+                if ( ll != icol ) {
+                    dum = lhs[ll * n + icol];
+                    lhs[ll * n + icol] = 0.0;
+                    for ( int l = 0; l < n; l++ ) {
+                        lhs[ll * n + l] -= lhs[icol * n + l] * dum;
                     }
-                    for ( l = 1; l <= m; l++ ) {
-                        oneda[ll] -= oneda[icol] * dum;
+                    if ( withRhs ) {
+                        da[ll] -= da[icol] * dum;
                     }
                 }
             }
         }
-        for ( l = n;l >= 1; l-- ) {
+        for ( int l = n - 1; l >= 0; l-- ) {
             if ( indexr[l] != indexc[l] ) {
-                for ( k = 1; k <= n; k++ ) {
-                    temp = covar[k][indexr[l]];
-                    covar[k][indexr[l]] = covar[k][indexc[l]];
-                    covar[k][indexc[l]] = temp;
+                for ( int k = 0; k < n; k++ ) {
+                    temp = lhs[k * n + indexr[l]];
+                    lhs[k * n + indexr[l]] = lhs[k * n + indexc[l]];
+                    lhs[k * n + indexc[l]] = temp;
                 }
             }
         }
+        return true;
     }
 
 
@@ -583,73 +676,63 @@ public class LevMarq
      */
     private double mrqmin()
     {
-        int j = 0;
-        int k = 0;
-        int l = 0;
-        int m = 0;
-
         //  Perform initialisations.
         if ( alambda < 0.0 ) {
 
-            //  Count number of floating parameters.
-            for ( mfit = 0, j = 1; j <= mparam; j++ ) {
-                if ( ia[j] == 1 ) mfit++;
+            //  Record the floating parameters.
+            mfit = 0;
+            for ( int j = 1; j <= mparam; j++ ) {
+                if ( ia[j] == 1 ) {
+                    ifit[mfit++] = j;
+                }
             }
             alambda = 0.001;
             mrqcof( alpha, beta );
             oldchisq = chisq;
         }
-        for ( j = 0, l = 1; l <= mparam;l++ ) {
-            if ( ia[l] == 1 ) {
-                for( j++, k=0, m=1; m <= mparam; m++ ) {
-                    if( ia[m] == 1 ) {
-                        k++;
-                        covar[j][k] = alpha[j][k];
-                    }
-                }
-                covar[j][j] = alpha[j][j] * (1.0 + alambda);
-                oneda[j] = beta[j];
-            }
+        if ( alambda == 0.0 ) {
+            setCovariance();
+            return 0;
         }
 
-        gaussj( mfit, 1 );
-
-        for ( j = 1; j <= mfit; j++ ) {
-            da[j] = oneda[j];
+        //  Augment the diagonal and solve for the step.
+        for ( int j = 0; j < mfit; j++ ) {
+            trialAlpha[j] = alpha[j * mfit + j];
+            alpha[j * mfit + j] *= ( 1.0 + alambda );
         }
-        if ( alambda == 0.0 ) {
-            covsrt();
-            return 0;
+        boolean solved = solve( alpha, beta, mfit );
+        for ( int j = 0; j < mfit; j++ ) {
+            alpha[j * mfit + j] = trialAlpha[j];
         }
-        for ( j = 0, l = 1; l <= mparam; l++ ) {
-            if ( ia[l] == 1 ) {
-                aold[l] = a[l];
-                a[l] = a[l] + da[++j];
-            }
+        if ( ! solved ) {
+            //  Singular, so try again closer to steepest descent.
+            alambda *= 10.;
+            chisq = oldchisq;
+            return chisq;
         }
 
-        mrqcof( covar, da );
+        for ( int j = 0; j < mfit; j++ ) {
+            int l = ifit[j];
+            aold[l] = a[l];
+            a[l] = a[l] + da[j];
+        }
+
+        mrqcof( trialAlpha, trialBeta );
 
         if ( chisq < oldchisq ) {
+            //  Accept the step, the trial alpha and beta become current.
             alambda *= 0.1;
             oldchisq = chisq;
-            for ( j = 0, l = 1; l <= mparam; l++ ) {
-                if ( ia[l] == 1 ) {
-                    for ( j++, k=0, m=1; m <= mparam; m++) {
-                        if ( ia[m] == 1 ) {
-                            k++;
-                            alpha[j][k] = covar[j][k];
-                        }
-                    }
-                    beta[j] = da[j];
-                }
-            }
+            double[] temp = alpha;
+            alpha = trialAlpha;
+            trialAlpha = temp;
+            temp = beta;
+            beta = trialBeta;
+            trialBeta = temp;
         }
         else {
-            for ( j = 0, l = 1; l <= mparam;l++ ) {
-                if( ia[l] == 1 ) {
-                    a[l] = aold[l];
-                }
+            for ( int j = 0; j < mfit; j++ ) {
+                a[ifit[j]] = aold[ifit[j]];
             }
             alambda *= 10.;
             chisq = oldchisq;
@@ -661,55 +744,38 @@ public class LevMarq
     /**
      * Calculate fitting matrix and current chi-square.
      *
-     * @param alpha fitting matrix, alpha for initialisation pass,
-     *              covar for fit.
-     * @param beta beta for initialisation pass, da for fit.
+     * @param alpha fitting matrix, mfit by mfit.
+     * @param beta fitting vector, mfit.
      */
-    void mrqcof( double[][] alpha, double[] beta )
+    void mrqcof( double[] alpha, double[] beta )
     {
-        int i = 0;
-        int j = 0;
-        int k = 0;
-        int l = 0;
-        int m = 0;
-
         double wt = 0;
-        double sig2i = 0;
         double dy;
 
-        mfit=0;
-        for ( j = 1; j <= mparam; j++ ) {
-            if ( ia[j] == 1 ) {
-                mfit++;
-            }
-        }
-        for (j = 1; j <= mfit; j++ ) {
-            for ( k = 1; k <= j; k++ ) {
-                alpha[j][k]= 0.0;
+        for ( int j = 0; j < mfit; j++ ) {
+            int rj = j * mfit;
+            for ( int k = 0; k <= j; k++ ) {
+                alpha[rj + k] = 0.0;
             }
             beta[j] = 0.0;
         }
         chisq = 0;
-        for ( i = 1; i <= ndata; i++ ) {
+        for ( int i = 1; i <= ndata; i++ ) {
             fit[i] = funcs.eval( x[i], a, mparam, dyda );
-            sig2i = 1.0 / ( sigma[i] * sigma[i] );
             dy = y[i] - fit[i];
-            for ( j = 0, l = 1; l <= mparam; l++ ) {
-                if ( ia[l] == 1 ) {
-                    wt = dyda[l] * sig2i;
-                    for ( j++, k=0, m=1; m <= l; m++ ) {
-                        if ( ia[m] == 1 ) {
-                            alpha[j][++k] += wt * dyda[m];
-                        }
-                    }
-                    beta[j] += dy * wt;
+            for ( int j = 0; j < mfit; j++ ) {
+                int rj = j * mfit;
+                wt = dyda[ifit[j]] * sig2i[i];
+                for ( int k = 0; k <= j; k++ ) {
+                    alpha[rj + k] += wt * dyda[ifit[k]];
                 }
+                beta[j] += dy * wt;
             }
-            chisq += dy * dy * sig2i;
+            chisq += dy * dy * sig2i[i];
         }
-        for ( j = 2; j <= mfit;j++ ) {
-            for ( k = 1; k < j;k++ ) {
-                alpha[k][j] = alpha[j][k];
+        for ( int j = 1; j < mfit; j++ ) {
+            for ( int k = 0; k < j; k++ ) {
+                alpha[k * mfit + j] = alpha[j * mfit + k];
             }
         }
     }
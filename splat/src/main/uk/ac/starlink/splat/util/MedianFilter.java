@@ -4,17 +4,26 @@
  *  History:
  *     13-JAN-2003 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Use a sliding window of two heaps, rather than sorting each
+ *       window. Average the middle values for even counts. Process long
+ *       arrays in parallel.
  */
 
 package uk.ac.starlink.splat.util;
 
-import java.util.Arrays;
 import uk.ac.starlink.splat.data.SpecData;
 
 /**
  * Create a median filtered version of a data array. The median is the
  * middle value from those in a region about the current value
- * (i.e. this is a windowed filter).
+ * (i.e. this is a windowed filter). BAD values are not used and when
+ * a window contains an even number of values the median is the average
+ * of the middle two.
+ * <p>
+ * The window is slid along the data, keeping its values in two heaps,
+ * so each position costs O(log window). Very long arrays are divided
+ * into chunks that are filtered in parallel.
  *
  * @author Peter W. Draper
  * @version $Id$
@@ -31,6 +40,16 @@ public class MedianFilter
      */
     private int window = 3;
 
+    /**
+     * The number of threads to use.
+     */
+    private int threads = ChunkedTask.getDefaultThreads();
+
+    /**
+     * Smallest number of positions given to a thread.
+     */
+    private static final int MIN_CHUNK = 262144;
+
     /**
      *  Create an instance, obtaining the median in a region window
      *  elements wide about each input position.
@@ -74,6 +93,23 @@ public class MedianFilter
         this.data = data;
     }
 
+    /**
+     * Set the number of threads used to filter long arrays. The default
+     * is the number of processors, use 1 to disable threading.
+     */
+    public void setThreads( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Get the number of threads used to filter long arrays.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
     /**
      * Get the averaged data.
      */
@@ -87,50 +123,247 @@ public class MedianFilter
      * window about each position. The result is the median filtered
      * array.
      */
-    protected double[] doCalc( double[] data, int window )
+    protected double[] doCalc( final double[] data, final int window )
     {
-        double[] result = new double[data.length];
-        double[] sorted = new double[window];
+        final double[] result = new double[data.length];
+        if ( data.length == 0 ) {
+            return result;
+        }
+        if ( threads > 1 && data.length >= 2 * MIN_CHUNK ) {
+            ChunkedTask task = new ChunkedTask()
+                {
+                    protected void process( int start, int end )
+                    {
+                        doCalc( data, window, result, start, end );
+                    }
+                };
+            try {
+                task.execute( data.length, MIN_CHUNK, threads );
+                return result;
+            }
+            catch (SplatException e) {
+                //  Fall back to a single thread.
+            }
+        }
+        doCalc( data, window, result, 0, data.length );
+        return result;
+    }
+
+    /**
+     * Median filter the positions start to end-1 of an array, writing
+     * the results into the same positions of another array.
+     */
+    protected void doCalc( double[] data, int window, double[] result,
+                           int start, int end )
+    {
+        //  The window covers from i-half to i+half, clipped to the array.
+        int half = Math.min( window / 2, data.length - 1 );
+        SlidingMedian median = new SlidingMedian( 2 * half + 1 );
 
-        int high = Math.min( window / 2, data.length - 1 );
-        int low = -high - 1;
-        int actlow = low;
-        
-        int used = 0;
-        for ( int i = 0; i < data.length; i++ ) {
+        //  Fill the window for the first position.
+        int low = Math.max( 0, start - half );
+        int high = Math.min( data.length - 1, start + half );
+        for ( int j = low; j <= high; j++ ) {
+            if ( data[j] != SpecData.BAD ) {
+                median.add( j, data[j] );
+            }
+        }
 
-            //  Lower part of window must be 0 or greater.
-            low++;
-            if ( low < 0 ) {
-                actlow = 0;
+        for ( int i = start; i < end; i++ ) {
+            if ( i > start ) {
+                //  Slide the window, dropping one value and adding another.
+                int j = i - half - 1;
+                if ( j >= 0 && data[j] != SpecData.BAD ) {
+                    median.remove( j );
+                }
+                j = i + half;
+                if ( j < data.length && data[j] != SpecData.BAD ) {
+                    median.add( j, data[j] );
+                }
+            }
+            if ( median.size() > 0 ) {
+                result[i] = median.median();
             }
             else {
-                actlow = low;
+                result[i] = SpecData.BAD;
             }
+        }
+    }
 
-            //  High part of window must lie within array.
-            if ( high < data.length ) high++;
+    /**
+     * The median of a sliding window of values. The lower half of the
+     * values are kept in a max-heap and the upper half in a min-heap, so
+     * the median is found from the tops of the heaps. Each value is
+     * identified by its array index, which maps to a slot, so that it
+     * can be removed when it leaves the window.
+     */
+    private static class SlidingMedian
+    {
+        /** Number of slots, the largest window size */
+        private final int capacity;
 
-            //  Copy window values into array minus any BAD values.
-            used = 0;
-            for ( int j = actlow; j < high; j++ ) {
-                if ( data[j] != SpecData.BAD ) {
-                    sorted[used++] = data[j];
-                }
+        /** Values, by slot */
+        private final double[] values;
+
+        /** Position of each slot within its heap */
+        private final int[] position;
+
+        /** Whether each slot is in the lower heap */
+        private final boolean[] inLower;
+
+        /** The heaps of slots, lower half and upper half */
+        private final int[] lower;
+        private final int[] upper;
+        private int nlower = 0;
+        private int nupper = 0;
+
+        public SlidingMedian( int capacity )
+        {
+            this.capacity = capacity;
+            values = new double[capacity];
+            position = new int[capacity];
+            inLower = new boolean[capacity];
+            lower = new int[capacity];
+            upper = new int[capacity];
+        }
+
+        /**
+         * Number of values in the window.
+         */
+        public int size()
+        {
+            return nlower + nupper;
+        }
+
+        /**
+         * The median of the values. Only valid when size() > 0.
+         */
+        public double median()
+        {
+            if ( nlower > nupper ) {
+                return values[lower[0]];
             }
+            return 0.5 * ( values[lower[0]] + values[upper[0]] );
+        }
 
-            if ( used > 0 ) {
-                //  Sort and pick median... TODO: use quicker rank
-                //  picker and average middle values when used is even
-                //  (rare).
-                Arrays.sort( sorted, 0, used );
-                result[i] = sorted[used / 2];
+        /**
+         * Add the value of an array index to the window.
+         */
+        public void add( int index, double value )
+        {
+            int slot = index % capacity;
+            values[slot] = value;
+            if ( nlower == 0 || value <= values[lower[0]] ) {
+                push( true, slot );
             }
             else {
-                result[i] = SpecData.BAD;
+                push( false, slot );
             }
+            rebalance();
+        }
+
+        /**
+         * Remove the value of an array index from the window.
+         */
+        public void remove( int index )
+        {
+            int slot = index % capacity;
+            removeAt( inLower[slot], position[slot] );
+            rebalance();
+        }
+
+        /**
+         * Keep the lower heap the same size as the upper heap, or one
+         * larger.
+         */
+        private void rebalance()
+        {
+            if ( nlower > nupper + 1 ) {
+                int slot = lower[0];
+                removeAt( true, 0 );
+                push( false, slot );
+            }
+            else if ( nupper > nlower ) {
+                int slot = upper[0];
+                removeAt( false, 0 );
+                push( true, slot );
+            }
+        }
+
+        /**
+         * Whether slot a should be nearer the top of a heap than slot b.
+         */
+        private boolean before( boolean isLower, int a, int b )
+        {
+            return isLower ? values[a] > values[b] : values[a] < values[b];
+        }
+
+        private void set( boolean isLower, int pos, int slot )
+        {
+            if ( isLower ) {
+                lower[pos] = slot;
+            }
+            else {
+                upper[pos] = slot;
+            }
+            position[slot] = pos;
+            inLower[slot] = isLower;
+        }
+
+        private void push( boolean isLower, int slot )
+        {
+            int pos = isLower ? nlower++ : nupper++;
+            set( isLower, pos, slot );
+            siftUp( isLower, pos );
+        }
+
+        private void removeAt( boolean isLower, int pos )
+        {
+            int[] heap = isLower ? lower : upper;
+            int last = isLower ? --nlower : --nupper;
+            if ( pos != last ) {
+                set( isLower, pos, heap[last] );
+                siftDown( isLower, pos );
+                siftUp( isLower, pos );
+            }
+        }
+
+        private void siftUp( boolean isLower, int pos )
+        {
+            int[] heap = isLower ? lower : upper;
+            int slot = heap[pos];
+            while ( pos > 0 ) {
+                int parent = ( pos - 1 ) / 2;
+                if ( ! before( isLower, slot, heap[parent] ) ) {
+                    break;
+                }
+                set( isLower, pos, heap[parent] );
+                pos = parent;
+            }
+            set( isLower, pos, slot );
+        }
+
+        private void siftDown( boolean isLower, int pos )
+        {
+            int[] heap = isLower ? lower : upper;
+            int size = isLower ? nlower : nupper;
+            int slot = heap[pos];
+            while ( true ) {
+                int child = 2 * pos + 1;
+                if ( child >= size ) {
+                    break;
+                }
+                if ( child + 1 < size &&
+                     before( isLower, heap[child + 1], heap[child] ) ) {
+                    child++;
+                }
+                if ( ! before( isLower, heap[child], slot ) ) {
+                    break;
+                }
+                set( isLower, pos, heap[child] );
+                pos = child;
+            }
+            set( isLower, pos, slot );
         }
-        return result;
     }
 }
-
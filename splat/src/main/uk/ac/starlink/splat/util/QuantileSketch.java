@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the quantiles of a set of values with a known range, without
+ * copying and sorting all the values. A first pass counts the values in a
+ * fixed number of equal width bins. A quantile is then found by locating
+ * the bin that contains its rank and passing over the values again. If
+ * that bin holds few values these are copied and sorted, otherwise the bin
+ * is divided into bins of its own and the search repeated, so the results
+ * are exact, whatever the distribution, and the memory used is bounded.
+ * <p>
+ * The values are supplied by a {@link Source}, which must give the same
+ * values each time it is asked.
+ *
+ * @version $Id$
+ * @see Statistics
+ */
+public class QuantileSketch
+{
+    /** The default number of bins. */
+    public static final int DEFAULT_BINS = 4096;
+
+    /**
+     * Interface for the supplier of the values. The values are passed
+     * to the {@link QuantileSketch#add} method of the given instance.
+     */
+    public interface Source
+    {
+        /**
+         * Add all the values to a sketch.
+         *
+         * @param sketch the sketch to add the values to.
+         */
+        public void addTo( QuantileSketch sketch );
+    }
+
+    /** The source of the values. */
+    private Source source;
+
+    /** Minimum and maximum values. */
+    private double min;
+    private double max;
+
+    /** Number of bins at each level. */
+    private int nbins;
+
+    /** Levels of bins, each divides one bin of the level above. */
+    private List<Level> levels = new ArrayList<Level>();
+
+    /** What add does with a value, one of the modes below. */
+    private int mode = COUNT;
+    private static final int COUNT = 0;
+    private static final int COLLECT = 1;
+    private static final int TAILS = 2;
+
+    /** Values copied from a bin, and the number copied. */
+    private double[] collected = null;
+    private int ncollected = 0;
+
+    /** Limits, counts and sums of the values in the tails. */
+    private double lowLimit;
+    private double highLimit;
+    private long lowCount;
+    private long highCount;
+    private double lowSum;
+    private double highSum;
+
+    /** Total number of values. */
+    private long size = 0;
+
+    /** Sum of all values. */
+    private double sum = 0.0;
+
+    /**
+     * Create an instance with the default number of bins.
+     *
+     * @param source the source of the values.
+     * @param min the minimum value.
+     * @param max the maximum value.
+     */
+    public QuantileSketch( Source source, double min, double max )
+    {
+        this( source, min, max, DEFAULT_BINS );
+    }
+
+    /**
+     * Create an instance.
+     *
+     * @param source the source of the values.
+     * @param min the minimum value.
+     * @param max the maximum value.
+     * @param nbins the number of bins.
+     */
+    public QuantileSketch( Source source, double min, double max, int nbins )
+    {
+        this.source = source;
+        this.min = min;
+        this.max = max;
+        this.nbins = Math.max( 2, nbins );
+
+        //  First pass counts the values in the top level bins.
+        levels.add( new Level( min, max, this.nbins ) );
+        source.addTo( this );
+    }
+
+    /**
+     * Add a value. Only called by the {@link Source}.
+     */
+    public void add( double value )
+    {
+        if ( mode == COUNT ) {
+            int last = levels.size() - 1;
+            if ( levels.size() == 1 ) {
+                size++;
+                sum += value;
+            }
+            else if ( ! inBin( value, last ) ) {
+                return;
+            }
+            Level level = levels.get( last );
+            level.counts[level.binOf( value )]++;
+        }
+        else if ( mode == COLLECT ) {
+            if ( inBin( value, levels.size() ) &&
+                 ncollected < collected.length ) {
+                collected[ncollected++] = value;
+            }
+        }
+        else {
+            if ( value < lowLimit ) {
+                lowCount++;
+                lowSum += value;
+            }
+            else if ( value > highLimit ) {
+                highCount++;
+                highSum += value;
+            }
+        }
+    }
+
+    /**
+     * Return if a value is in the selected bins of the levels above
+     * the given level.
+     */
+    private boolean inBin( double value, int depth )
+    {
+        for ( int i = 0; i < depth; i++ ) {
+            Level level = levels.get( i );
+            if ( level.binOf( value ) != level.selected ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of values.
+     */
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * Get a quantile. This follows the definition used by
+     * {@link hep.aida.bin.DynamicBin1D#quantile}, i.e.&nbsp;interpolation
+     * between the sorted values at position phi*(size-1).
+     *
+     * @param phi the quantile, 0 to 1.
+     */
+    public double getQuantile( double phi )
+    {
+        if ( size == 0 ) {
+            return Double.NaN;
+        }
+        double rank = Math.max( 0.0, Math.min( 1.0, phi ) ) * ( size - 1 );
+        long lhs = (long) rank;
+        double delta = rank - lhs;
+        double value = getRanked( lhs );
+        if ( delta > 0.0 && lhs < size - 1 ) {
+            value = ( 1.0 - delta ) * value + delta * getRanked( lhs + 1 );
+        }
+        return value;
+    }
+
+    /**
+     * Get the value at a position in the sorted values.
+     */
+    private double getRanked( long rank )
+    {
+        if ( ! ( min < max ) ) {
+            return min;
+        }
+
+        //  Discard any levels from a previous search.
+        while ( levels.size() > 1 ) {
+            levels.remove( levels.size() - 1 );
+        }
+
+        while ( true ) {
+            Level level = levels.get( levels.size() - 1 );
+
+            //  Locate the bin with this rank and the rank within it.
+            long cumulative = 0;
+            int bin = 0;
+            for ( ; bin < level.counts.length - 1; bin++ ) {
+                if ( rank < cumulative + level.counts[bin] ) {
+                    break;
+                }
+                cumulative += level.counts[bin];
+            }
+            level.selected = bin;
+            rank -= cumulative;
+            long count = level.counts[bin];
+
+            //  Copy and sort the values of a small bin, or of one that
+            //  cannot be divided further.
+            double lower = level.getLower( bin );
+            double upper = level.getLower( bin + 1 );
+            double width = ( upper - lower ) / nbins;
+            if ( count <= nbins || ! ( lower + width > lower ) ) {
+                collected = new double[(int) Math.min( count,
+                                                       Integer.MAX_VALUE )];
+                ncollected = 0;
+                mode = COLLECT;
+                try {
+                    source.addTo( this );
+                }
+                finally {
+                    mode = COUNT;
+                }
+                Arrays.sort( collected, 0, ncollected );
+                double value =
+                    collected[(int) Math.min( rank, ncollected - 1 )];
+                collected = null;
+                return value;
+            }
+
+            //  Count the values of the bin in finer bins.
+            levels.add( new Level( lower, upper, nbins ) );
+            source.addTo( this );
+        }
+    }
+
+    /**
+     * Get the mean after removing some values from the lower and upper ends
+     * of the distribution. This follows the definition used by
+     * {@link hep.aida.bin.DynamicBin1D#trimmedMean}.
+     *
+     * @param nlow number of values to remove from the low end.
+     * @param nhigh number of values to remove from the high end.
+     */
+    public double getTrimmedMean( long nlow, long nhigh )
+    {
+        long keep = size - nlow - nhigh;
+        if ( keep <= 0 ) {
+            return Double.NaN;
+        }
+        if ( nlow == 0 && nhigh == 0 ) {
+            return sum / size;
+        }
+
+        //  The last value removed from each end sets limits, those beyond
+        //  are summed in one pass. Values equal to a limit may be only
+        //  partly removed.
+        lowLimit = ( nlow > 0 ) ? getRanked( nlow - 1 ) : min;
+        highLimit = ( nhigh > 0 ) ? getRanked( size - nhigh ) : max;
+        lowCount = 0;
+        highCount = 0;
+        lowSum = 0.0;
+        highSum = 0.0;
+        mode = TAILS;
+        try {
+            source.addTo( this );
+        }
+        finally {
+            mode = COUNT;
+        }
+        double removed = lowSum + ( nlow - lowCount ) * lowLimit +
+            highSum + ( nhigh - highCount ) * highLimit;
+        return ( sum - removed ) / keep;
+    }
+
+    /**
+     * A set of equal width bins between two limits.
+     */
+    private static class Level
+    {
+        double lower;
+        double width;
+        long[] counts;
+        int selected = -1;
+
+        Level( double lower, double upper, int nbins )
+        {
+            this.lower = lower;
+            this.width = ( upper - lower ) / nbins;
+            counts = new long[nbins];
+        }
+
+        /** The bin of a value, values outside go into the end bins. */
+        int binOf( double value )
+        {
+            int bin = (int) ( ( value - lower ) / width );
+            if ( bin < 0 ) {
+                return 0;
+            }
+            if ( bin >= counts.length ) {
+                return counts.length - 1;
+            }
+            return bin;
+        }
+
+        /** Lower limit of a bin. */
+        double getLower( int bin )
+        {
+            return lower + bin * width;
+        }
+    }
+}
@@ -4,6 +4,9 @@
  *  History:
  *     17-JUN-2005 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *        Added indexed mode that uses a StatsIndex.
+ *        Quantiles in indexed mode are now exact.
  */
 
 package uk.ac.starlink.splat.util;
@@ -11,17 +14,48 @@ package uk.ac.starlink.splat.util;
 import hep.aida.bin.DynamicBin1D;
 import cern.colt.list.DoubleArrayList;
 
+import uk.ac.starlink.splat.data.SpecData;
+
 /**
  * Derive a useful set of statistics about an array of data values.
+ * <p>
+ * There are two modes. Given an array all values are retained and the
+ * statistics are found by sorting. Given a {@link StatsIndex} and some
+ * ranges of positions no copy is made, the count, sum, mean, standard
+ * deviation, minimum and maximum come from the index and the median,
+ * quantiles and trimmed means are found by a {@link QuantileSketch}.
  *
  * @author Peter W. Draper
  * @version $Id$
  */
 public class Statistics
 {
-    /** The DynamicBin1D instance that does all the work */
+    /** The DynamicBin1D instance that does all the work, exact mode */
     private DynamicBin1D bin1D = new DynamicBin1D();
 
+    /** The index, when in indexed mode */
+    private StatsIndex index = null;
+
+    /** Ranges of positions in the index, first and last of each pair */
+    private int[] ranges = null;
+
+    /** Number of values in the ranges */
+    private int count = 0;
+
+    /** Sum and sum of squares of values less reference value of index */
+    private double offsetSum = 0.0;
+    private double offsetSumOfSquares = 0.0;
+
+    /** Minimum and maximum values */
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /** The quantile finder, created when needed */
+    private QuantileSketch sketch = null;
+
+    /** Third and fourth central moments, when determined */
+    private double[] moments = null;
+
     /**
      *  Create an instance.
      *
@@ -33,20 +67,143 @@ public class Statistics
     }
 
     /**
-     * Set the data to be used.
+     *  Create an instance in indexed mode.
+     *
+     *  @param index the index of the values.
+     *  @param ranges pairs of indices, the first and last of each range,
+     *                the ranges should not overlap.
+     */
+    public Statistics( StatsIndex index, int[] ranges )
+    {
+        setData( index, ranges );
+    }
+
+    /**
+     * Set the data to be used. Switches to exact mode.
      */
     public void setData( double[] data )
     {
+        index = null;
+        ranges = null;
+        if ( bin1D == null ) {
+            bin1D = new DynamicBin1D();
+        }
         bin1D.clear();
         bin1D.addAllOfFromTo( new DoubleArrayList( data ), 0, data.length-1 );
     }
 
+    /**
+     * Set the index and ranges of positions to be used. Switches to
+     * indexed mode.
+     *
+     * @param index the index of the values.
+     * @param ranges pairs of indices, the first and last of each range,
+     *               the ranges should not overlap.
+     */
+    public void setData( StatsIndex index, int[] ranges )
+    {
+        bin1D = null;
+        sketch = null;
+        moments = null;
+        this.index = index;
+
+        //  Keep ranges within the index.
+        int last = index.getLength() - 1;
+        this.ranges = new int[ranges.length];
+        for ( int i = 0; i < ranges.length; i += 2 ) {
+            this.ranges[i] = Math.max( 0, ranges[i] );
+            this.ranges[i+1] = Math.min( last, ranges[i+1] );
+        }
+
+        count = 0;
+        offsetSum = 0.0;
+        offsetSumOfSquares = 0.0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+        for ( int i = 0; i < this.ranges.length; i += 2 ) {
+            int low = this.ranges[i];
+            int high = this.ranges[i+1];
+            if ( low > high ) {
+                continue;
+            }
+            count += index.getCount( low, high );
+            offsetSum += index.getOffsetSum( low, high );
+            offsetSumOfSquares += index.getOffsetSumOfSquares( low, high );
+            int[] extremes = index.getExtremes( low, high );
+            if ( extremes[0] != -1 ) {
+                min = Math.min( min, index.getValue( extremes[0] ) );
+                max = Math.max( max, index.getValue( extremes[1] ) );
+            }
+        }
+    }
+
+    /**
+     * Get whether the values have been copied, otherwise an index is used.
+     */
+    public boolean isExact()
+    {
+        return ( bin1D != null );
+    }
+
+    /**
+     * Get the quantile finder, creating it if needed.
+     */
+    private QuantileSketch getSketch()
+    {
+        if ( sketch == null ) {
+            QuantileSketch.Source source = new QuantileSketch.Source()
+            {
+                public void addTo( QuantileSketch target )
+                {
+                    for ( int i = 0; i < ranges.length; i += 2 ) {
+                        for ( int j = ranges[i]; j <= ranges[i+1]; j++ ) {
+                            double value = index.getValue( j );
+                            if ( value != SpecData.BAD ) {
+                                target.add( value );
+                            }
+                        }
+                    }
+                }
+            };
+            sketch = new QuantileSketch( source, min, max );
+        }
+        return sketch;
+    }
+
+    /**
+     * Get the third and fourth moments about the mean, indexed mode.
+     */
+    private double[] getMoments()
+    {
+        if ( moments == null ) {
+            double mean = getMean();
+            double m3 = 0.0;
+            double m4 = 0.0;
+            for ( int i = 0; i < ranges.length; i += 2 ) {
+                for ( int j = ranges[i]; j <= ranges[i+1]; j++ ) {
+                    double value = index.getValue( j );
+                    if ( value != SpecData.BAD ) {
+                        double d = value - mean;
+                        double d3 = d * d * d;
+                        m3 += d3;
+                        m4 += d3 * d;
+                    }
+                }
+            }
+            moments = new double[] { m3 / count, m4 / count };
+        }
+        return moments;
+    }
+
     /**
      * Get the number of values.
      */
     public int getNumberValues()
     {
-        return bin1D.size();
+        if ( bin1D != null ) {
+            return bin1D.size();
+        }
+        return count;
     }
 
     /**
@@ -54,7 +211,10 @@ public class Statistics
      */
     public double getMaximum()
     {
-        return bin1D.max();
+        if ( bin1D != null ) {
+            return bin1D.max();
+        }
+        return max;
     }
 
     /**
@@ -62,7 +222,10 @@ public class Statistics
      */
     public double getMinimum()
     {
-        return bin1D.min();
+        if ( bin1D != null ) {
+            return bin1D.min();
+        }
+        return min;
     }
 
     /**
@@ -70,7 +233,23 @@ public class Statistics
      */
     public double getSum()
     {
-        return bin1D.sum();
+        if ( bin1D != null ) {
+            return bin1D.sum();
+        }
+        return offsetSum + count * index.getReference();
+    }
+
+    /**
+     * Get the sum of squares.
+     */
+    public double getSumOfSquares()
+    {
+        if ( bin1D != null ) {
+            return bin1D.sumOfSquares();
+        }
+        double ref = index.getReference();
+        return offsetSumOfSquares + 2.0 * ref * offsetSum +
+            count * ref * ref;
     }
 
     /**
@@ -78,7 +257,20 @@ public class Statistics
      */
     public double getMedian()
     {
-        return bin1D.median();
+        return getQuantile( 0.5 );
+    }
+
+    /**
+     * Get a quantile.
+     *
+     * @param phi the quantile, 0 to 1.
+     */
+    public double getQuantile( double phi )
+    {
+        if ( bin1D != null ) {
+            return bin1D.quantile( phi );
+        }
+        return getSketch().getQuantile( phi );
     }
 
     /**
@@ -94,7 +286,10 @@ public class Statistics
      */
     public double getMean()
     {
-        return bin1D.mean();
+        if ( bin1D != null ) {
+            return bin1D.mean();
+        }
+        return getSum() / count;
     }
 
     /**
@@ -104,9 +299,12 @@ public class Statistics
      */
     public double getAlphaTrimmedMean( double frac )
     {
-        double size = (double) bin1D.size();
+        double size = (double) getNumberValues();
         int nremove = (int)( size * frac );
-        return bin1D.trimmedMean( nremove, nremove );
+        if ( bin1D != null ) {
+            return bin1D.trimmedMean( nremove, nremove );
+        }
+        return getSketch().getTrimmedMean( nremove, nremove );
     }
 
     /**
@@ -114,7 +312,70 @@ public class Statistics
      */
     public double getStandardDeviation()
     {
-        return bin1D.standardDeviation();
+        if ( bin1D != null ) {
+            return bin1D.standardDeviation();
+        }
+        return Math.sqrt( getVariance() );
+    }
+
+    /**
+     * Get the sample variance.
+     */
+    public double getVariance()
+    {
+        if ( bin1D != null ) {
+            return bin1D.variance();
+        }
+
+        //  Offset values keep the precision.
+        return ( offsetSumOfSquares - offsetSum * offsetSum / count ) /
+            ( count - 1 );
+    }
+
+    /**
+     * Get the root mean square.
+     */
+    public double getRMS()
+    {
+        if ( bin1D != null ) {
+            return bin1D.rms();
+        }
+        return Math.sqrt( getSumOfSquares() / count );
+    }
+
+    /**
+     * Get the standard error of the mean.
+     */
+    public double getStandardError()
+    {
+        if ( bin1D != null ) {
+            return bin1D.standardError();
+        }
+        return Math.sqrt( getVariance() / count );
+    }
+
+    /**
+     * Get the skew.
+     */
+    public double getSkew()
+    {
+        if ( bin1D != null ) {
+            return bin1D.skew();
+        }
+        double std = getStandardDeviation();
+        return getMoments()[0] / ( std * std * std );
+    }
+
+    /**
+     * Get the kurtosis.
+     */
+    public double getKurtosis()
+    {
+        if ( bin1D != null ) {
+            return bin1D.kurtosis();
+        }
+        double std = getStandardDeviation();
+        return getMoments()[1] / ( std * std * std * std ) - 3.0;
     }
 
     public String toString()
@@ -145,24 +406,17 @@ public class Statistics
         buf.append( "  Sum = " + getSum() + "\n" );
         buf.append( "  Minimum = " + getMinimum() + "\n" );
         buf.append( "  Maximum = " + getMaximum() + "\n" );
-        buf.append( "  Number of data points = " + bin1D.size() + "\n" );
+        buf.append( "  Number of data points = " + getNumberValues() + "\n" );
         if ( extra ) {
-            buf.append( "  Sum of squares = " + bin1D.sumOfSquares() + "\n" );
-            buf.append( "  RMS = " + bin1D.rms() + "\n" );
-            buf.append( "  Variance = " + bin1D.variance() + "\n" );
-            buf.append( "  Standard error = " + bin1D.standardError() + "\n" );
+            buf.append( "  Sum of squares = " + getSumOfSquares() + "\n" );
+            buf.append( "  RMS = " + getRMS() + "\n" );
+            buf.append( "  Variance = " + getVariance() + "\n" );
+            buf.append( "  Standard error = " + getStandardError() + "\n" );
             buf.append( "  25%, 75% quantiles = " +
-                        bin1D.quantile( 0.25 ) + ", " +
-                        bin1D.quantile( 0.75 ) + "\n");
-            int maxOrder = bin1D.getMaxOrderForSumOfPowers();
-            if ( maxOrder > 2 ) {
-                if ( maxOrder >= 3 ) {
-                    buf.append( "  Skew = " + bin1D.skew() + "\n" );
-                }
-                if ( maxOrder >= 4 ) {
-                    buf.append( "  Kurtosis = " + bin1D.kurtosis() + "\n" );
-                }
-            }
+                        getQuantile( 0.25 ) + ", " +
+                        getQuantile( 0.75 ) + "\n");
+            buf.append( "  Skew = " + getSkew() + "\n" );
+            buf.append( "  Kurtosis = " + getKurtosis() + "\n" );
             buf.append( "  Alpha trimmed means:\n" );
             buf.append( "     0.01 = " + getAlphaTrimmedMean( 0.01 ) + "\n" );
             buf.append( "     0.05 = " + getAlphaTrimmedMean( 0.05 ) + "\n" );
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.util;
+
+import uk.ac.starlink.splat.data.RangePyramid;
+import uk.ac.starlink.splat.data.SpecData;
+
+/**
+ * An index of the values of a spectrum that gives the statistics of any
+ * range of positions without copying or sorting the values.
+ * <p>
+ * Prefix sums of the good values, their squares and counts give the sum,
+ * mean and standard deviation of a range in constant time, a
+ * {@link RangePyramid} gives the minimum and maximum and prefix sums of
+ * the contributions of each pair of positions give the same integral as
+ * {@link NumericIntegrator}. Medians and other quantiles are found
+ * using a {@link QuantileSketch}, see {@link Statistics}.
+ *
+ * @version $Id$
+ * @see Statistics
+ */
+public class StatsIndex
+{
+    /** The coordinates. */
+    private double[] coords = null;
+
+    /** The values. */
+    private double[] data = null;
+
+    /** The array whose BAD values mark positions to ignore. */
+    private double[] mask = null;
+
+    /** Values with masked positions set BAD, may be data. */
+    private double[] values = null;
+
+    /** Reference value subtracted before summing, for precision. */
+    private double ref = 0.0;
+
+    /** Prefix counts of good values, element i is the count before i. */
+    private int[] counts = null;
+
+    /** Prefix sums of good values less ref. */
+    private double[] sums = null;
+
+    /** Prefix sums of squares of good values less ref. */
+    private double[] squares = null;
+
+    /** Prefix sums of the integral between each good value and the next. */
+    private double[] integrals = null;
+
+    /** Whether coordinates run from high to low. */
+    private boolean reversed = false;
+
+    /** Pyramid for minimum and maximum. */
+    private RangePyramid pyramid = null;
+
+    /**
+     * Create an index of some values.
+     *
+     * @param coords the coordinates of the values.
+     * @param data the values.
+     * @param mask an array whose BAD values mark positions to ignore, null
+     *             to use data.
+     */
+    public StatsIndex( double[] coords, double[] data, double[] mask )
+    {
+        this.coords = coords;
+        this.data = data;
+        this.mask = ( mask == null ) ? data : mask;
+
+        int n = data.length;
+        values = data;
+        if ( this.mask != data ) {
+            values = new double[n];
+            for ( int i = 0; i < n; i++ ) {
+                values[i] = ( this.mask[i] == SpecData.BAD ) ?
+                    SpecData.BAD : data[i];
+            }
+        }
+
+        counts = new int[n + 1];
+        sums = new double[n + 1];
+        squares = new double[n + 1];
+        boolean haveRef = false;
+        for ( int i = 0; i < n; i++ ) {
+            double v = values[i];
+            counts[i+1] = counts[i];
+            sums[i+1] = sums[i];
+            squares[i+1] = squares[i];
+            if ( v != SpecData.BAD ) {
+                if ( ! haveRef ) {
+                    ref = v;
+                    haveRef = true;
+                }
+                double d = v - ref;
+                counts[i+1]++;
+                sums[i+1] += d;
+                squares[i+1] += d * d;
+            }
+        }
+        pyramid = new RangePyramid( coords, values, null, 1.0 );
+    }
+
+    /**
+     * Return if this index was created for the given arrays.
+     */
+    public boolean isFor( double[] coords, double[] data, double[] mask )
+    {
+        if ( mask == null ) {
+            mask = data;
+        }
+        return ( this.coords == coords && this.data == data &&
+                 this.mask == mask );
+    }
+
+    /**
+     * Get the number of positions indexed.
+     */
+    public int getLength()
+    {
+        return values.length;
+    }
+
+    /**
+     * Get the number of good values in a range.
+     *
+     * @param low first index.
+     * @param high last index.
+     */
+    public int getCount( int low, int high )
+    {
+        return counts[high + 1] - counts[low];
+    }
+
+    /**
+     * Get the sum of the good values in a range, less the reference value
+     * for each.
+     */
+    protected double getOffsetSum( int low, int high )
+    {
+        return sums[high + 1] - sums[low];
+    }
+
+    /**
+     * Get the sum of the squares of the good values in a range, less the
+     * reference value for each.
+     */
+    protected double getOffsetSumOfSquares( int low, int high )
+    {
+        return squares[high + 1] - squares[low];
+    }
+
+    /**
+     * Get the reference value subtracted from all values before summing.
+     */
+    protected double getReference()
+    {
+        return ref;
+    }
+
+    /**
+     * Get the indices of the minimum and maximum good values in a range,
+     * -1 for none.
+     */
+    public int[] getExtremes( int low, int high )
+    {
+        return pyramid.getDataExtremes( low, high );
+    }
+
+    /**
+     * Get a value, BAD if this position is masked.
+     */
+    public double getValue( int index )
+    {
+        return values[index];
+    }
+
+    /**
+     * Get the statistics of some ranges of positions. These use
+     * this index, so no copy of the values is made, see
+     * {@link Statistics}.
+     *
+     * @param ranges pairs of indices, the first and last of each range,
+     *               the ranges should not overlap.
+     */
+    public Statistics getStatistics( int[] ranges )
+    {
+        return new Statistics( this, ranges );
+    }
+
+    /**
+     * Get the integral of the good values in a range of positions, using
+     * the same method as {@link NumericIntegrator}. The coordinates must be
+     * monotonic. Returns 0 when there are less than two good values.
+     *
+     * @param low first index.
+     * @param high last index.
+     */
+    public double getIntegral( int low, int high )
+    {
+        if ( integrals == null ) {
+            initIntegrals();
+        }
+
+        //  Need the first three and last three good positions.
+        int[] head = new int[3];
+        int nhead = nextGood( low, high, head );
+        if ( nhead < 2 ) {
+            return 0.0;
+        }
+        double result = 0.0;
+        if ( nhead == 2 ) {
+            int i0 = head[0];
+            int i1 = head[1];
+            result = 0.5 * ( values[i0] + values[i1] ) *
+                ( coords[i1] - coords[i0] );
+            return ( coords[i0] > coords[i1] ) ? -result : result;
+        }
+        int[] tail = new int[3];
+        previousGood( high, low, tail );
+
+        //  The first and last intervals use one parabola, those between
+        //  use the mean of two, which are the prefix sums.
+        result = parabola( head[0], head[1], head[2], head[0], head[1] );
+        result += parabola( tail[2], tail[1], tail[0], tail[1], tail[0] );
+        if ( head[1] < tail[1] ) {
+            result += integrals[tail[1]] - integrals[head[1]];
+        }
+        return reversed ? -result : result;
+    }
+
+    /**
+     * Find up to three good positions from low towards high.
+     * Returns the number found.
+     */
+    private int nextGood( int low, int high, int[] result )
+    {
+        int n = 0;
+        for ( int i = low; i <= high && n < result.length; i++ ) {
+            if ( values[i] != SpecData.BAD ) {
+                result[n++] = i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Find up to three good positions from high towards low.
+     * Returns the number found.
+     */
+    private int previousGood( int high, int low, int[] result )
+    {
+        int n = 0;
+        for ( int i = high; i >= low && n < result.length; i-- ) {
+            if ( values[i] != SpecData.BAD ) {
+                result[n++] = i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Set up the prefix sums of the integrals. Element i is the sum for
+     * the intervals between good values that start before position i.
+     * Each interval contributes the mean integral of the parabolas through
+     * the points about its two ends.
+     */
+    private void initIntegrals()
+    {
+        int n = values.length;
+        integrals = new double[n + 1];
+        reversed = ( n > 1 && coords[0] > coords[1] );
+
+        //  Sliding window of four good positions, interval is between
+        //  the middle two.
+        int[] w = new int[] { -1, -1, -1, -1 };
+        for ( int i = 0; i <= n; i++ ) {
+            if ( i > 0 ) {
+                integrals[i] = integrals[i-1];
+            }
+            if ( i == n || values[i] == SpecData.BAD ) {
+                continue;
+            }
+            w[0] = w[1];
+            w[1] = w[2];
+            w[2] = w[3];
+            w[3] = i;
+            if ( w[0] != -1 ) {
+                double value =
+                    0.5 * ( parabola( w[0], w[1], w[2], w[1], w[2] ) +
+                            parabola( w[1], w[2], w[3], w[1], w[2] ) );
+
+                //  Belongs to the interval starting at w[1], so is in the
+                //  sums for all positions after w[1].
+                for ( int j = w[1] + 1; j <= i; j++ ) {
+                    integrals[j] += value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Integrate the parabola through three positions between the
+     * coordinates of two positions.
+     */
+    private double parabola( int i1, int i2, int i3, int from, int to )
+    {
+        double x1 = coords[i1];
+        double x2 = coords[i2];
+        double x3 = coords[i3];
+        double x12 = x1 - x2;
+        double x13 = x1 - x3;
+        double x23 = x2 - x3;
+        double term1 = values[i1] / ( x12 * x13 );
+        double term2 = - values[i2] / ( x12 * x23 );
+        double term3 = values[i3] / ( x13 * x23 );
+        double a = term1 + term2 + term3;
+        double b = - ( x2 + x3 ) * term1 - ( x1 + x3 ) * term2 -
+            ( x1 + x2 ) * term3;
+        double c = x2 * x3 * term1 + x1 * x3 * term2 + x1 * x2 * term3;
+
+        double l = coords[from];
+        double u = coords[to];
+        return a * ( u * u * u - l * l * l ) / 3.0 +
+               b * ( u * u - l * l ) / 2.0 +
+               c * ( u - l );
+    }
+}
@@ -5,6 +5,9 @@
  *  History:
  *     04-JAN-2001 (Peter W. Draper):
  *       Original version.
+ *     17-OCT-2026:
+ *       Use Faddeeva for the complex error function and add a table
+ *       interpolation mode for evaluating arrays.
  */
 package uk.ac.starlink.splat.util;
 
@@ -47,11 +50,42 @@ public class VoigtFitter
     public static final int GWIDTH = 2;
     public static final int LWIDTH = 3;
 
+    /**
+     * 1/sqrt(2).
+     */
+    private static final double OVRT2 = 1.0 / Math.sqrt( 2.0 );
+
     /**
      * The peak height of error function (scale factor for scale).
      */
     protected double peak = 1.0;
 
+    /**
+     * The inverse of the peak height of the error function, so that
+     * peak is scale times this.
+     */
+    protected double norm = 1.0;
+
+    /**
+     * The parameters used for the last setPeak() in eval(), and the
+     * fractional derivatives of the unscaled peak with respect to the
+     * widths at those parameters.
+     */
+    private double[] peakParams = new double[4];
+    private double peakGWidthDeriv = 0.0;
+    private double peakLWidthDeriv = 0.0;
+    private boolean peakValid = false;
+
+    /**
+     * Workspace for the complex error function.
+     */
+    private double[] wbuf = new double[2];
+
+    /**
+     * Whether to evaluate large arrays by interpolating a table.
+     */
+    protected boolean tableMode = false;
+
     /**
      * The chi square of the fit.
      */
@@ -356,7 +390,29 @@ public class VoigtFitter
     protected void setPeak()
     {
         peak = 1.0; // Value will be used in evalYData();
-        peak = params[SCALE] / evalYData( params[CENTRE] );
+        norm = 1.0 / evalYData( params[CENTRE] );
+        peak = params[SCALE] * norm;
+    }
+
+    /**
+     * Set the re-normalisation factor and the fractional derivatives of
+     * the unscaled peak value with respect to the widths.
+     */
+    private void setPeakDerivatives()
+    {
+        setPeak();
+        System.arraycopy( params, 0, peakParams, 0, 4 );
+        peakValid = true;
+
+        //  At the centre xx is 0, so the partials of the real part
+        //  simplify.
+        double btem = OVRT2 / params[GWIDTH];
+        double yy = 0.5 * params[LWIDTH] * btem;
+        Faddeeva.w( 0.0, yy, wbuf );
+        double wr = wbuf[0];
+        double dwrdy = 2.0 * ( yy * wr - Faddeeva.OVRTPI );
+        peakGWidthDeriv = -( wr + dwrdy * yy ) / ( wr * params[GWIDTH] );
+        peakLWidthDeriv = 0.5 * btem * dwrdy / wr;
     }
 
     /**
@@ -368,6 +424,27 @@ public class VoigtFitter
         return chiSquare;
     }
 
+    /**
+     * Set whether large arrays of positions are evaluated by interpolating
+     * a table of the profile, see {@link Faddeeva.Table}. This is much
+     * quicker when there are many more positions than table entries, but
+     * is only accurate to about 1E-7 of the peak, so is best used for
+     * generating and drawing profiles, not fitting. The default is false.
+     */
+    public void setTableMode( boolean tableMode )
+    {
+        this.tableMode = tableMode;
+    }
+
+    /**
+     * Get whether large arrays of positions are evaluated by interpolating
+     * a table of the profile.
+     */
+    public boolean isTableMode()
+    {
+        return tableMode;
+    }
+
     /**
      * Evaluate the Voigt function at a set of given X positions.
      *
@@ -376,10 +453,32 @@ public class VoigtFitter
      */
     public double[] evalYDataArray( double[] x )
     {
+        //  Transform to the arguments of the complex error function.
+        double btem = OVRT2 / params[GWIDTH];
+        double atem = Faddeeva.OVRTPI * btem;
+        double yy = 0.5 * params[LWIDTH] * btem;
+        double[] xx = new double[x.length];
+        double xmin = Double.MAX_VALUE;
+        double xmax = -Double.MAX_VALUE;
+        for ( int i = 0; i < x.length; i++ ) {
+            xx[i] = ( x[i] - params[CENTRE] ) * btem;
+            xmin = Math.min( xmin, xx[i] );
+            xmax = Math.max( xmax, xx[i] );
+        }
+
+        //  Each table entry costs about as much as four direct
+        //  evaluations.
         double[] y = new double[x.length];
-        double[] dyda = new double[5];
+        if ( tableMode &&
+             4 * Faddeeva.Table.getNumNodes( yy, xmin, xmax ) < x.length ) {
+            new Faddeeva.Table( yy, xmin, xmax ).w( xx, y );
+        }
+        else {
+            Faddeeva.w( xx, yy, y, null );
+        }
+        double scale = peak * atem;
         for ( int i = 0; i < x.length; i++ ) {
-            y[i] = fullEvalPoint( x[i], dyda );
+            y[i] *= scale;
         }
         return y;
     }
@@ -416,6 +515,7 @@ public class VoigtFitter
         this.params[GWIDTH] = params[GWIDTH];
         this.params[LWIDTH] = params[LWIDTH];
         setPeak();
+        peakValid = false;
     }
 
     // Get the parameters error estimates.
@@ -492,18 +592,16 @@ public class VoigtFitter
      */
     public double fullEvalPoint( double wavex, double[] dyda )
     {
-        final double ovrtpi = 0.564189584;  // 1/sqrt(PI)
-        final double ovrt2 = 0.707106781;   // 1/sqrt(2)
-
-        double btem = ovrt2 / params[GWIDTH];
-        double atem = ovrtpi * btem;
+        double btem = OVRT2 / params[GWIDTH];
+        double atem = Faddeeva.OVRTPI * btem;
         double ctem = atem * btem;
 
         double xx = ( wavex - params[CENTRE] ) * btem;
         double yy = 0.5 * params[LWIDTH] * btem;
 
         //  Evaluate voigt function, w[0] = real part, w[1] = imaginary.
-        double w[] = voigt( xx, yy );
+        double[] w = wbuf;
+        Faddeeva.w( xx, yy, w );
 
         //  Value of normalised Voigt function.
         dyda[0] = atem * w[0];
@@ -513,27 +611,27 @@ public class VoigtFitter
         // formulae for these parameterised forms.
 
         double dwrdx = 2.0 * ( yy * w[1] - xx * w[0] );
-        double dwrdy = 2.0 * ( xx * w[1] + yy * w[0] - ovrtpi );
-        if ( params[SCALE] < 0.0 ) {
-            dwrdx *= -1.0;
-            dwrdy *= -1.0;
-        }
+        double dwrdy = 2.0 * ( xx * w[1] + yy * w[0] - Faddeeva.OVRTPI );
 
         //  Partials wrt to scale, position, gaussian width and lorentzian
         //  width.
-        dyda[1] = peak * dyda[0];
+        dyda[1] = norm * dyda[0];
         dyda[2] = peak * -dwrdx * ctem;
         dyda[3] = peak * -atem * ( w[0] + dwrdx * xx + dwrdy * yy ) / params[GWIDTH];
         dyda[4] = peak * 0.5 * ctem * dwrdy;
 
         //  Return value corrected to a voigt peak of 1.
-        return dyda[1];
+        return peak * dyda[0];
     }
 
     /**
      * Evaluate the Voigt given a set of model parameters. Also
      * evaluates the partial derivates of the current fit.
      *
+     * The derivatives with respect to the widths include the change in
+     * the re-normalisation factor, which depends on the widths through
+     * the unscaled peak value.
+     *
      * Implementation of the LevMarqFunc interface.
      */
     public double eval( double x, double[] a, int na, double[] dyda )
@@ -544,9 +642,17 @@ public class VoigtFitter
         params[LWIDTH] = a[4];
 
         //  Each solution is uniquely scaled by a re-normalisation factor
-        //  (i.e. so that peak is 1).
-        setPeak();
+        //  (i.e. so that peak is 1). This only changes with the scale and
+        //  widths, so is only re-calculated when these change, not for
+        //  each position.
+        if ( ! peakValid || params[SCALE] != peakParams[SCALE] ||
+             params[GWIDTH] != peakParams[GWIDTH] ||
+             params[LWIDTH] != peakParams[LWIDTH] ) {
+            setPeakDerivatives();
+        }
         double y = fullEvalPoint( x, dyda );
+        dyda[3] -= y * peakGWidthDeriv;
+        dyda[4] -= y * peakLWidthDeriv;
         if ( a[3] < 0.0 || a[4] < 0.0 ) {
             //  Try to discourage non-physical solutions by increasing
             //  chi square calcs.
@@ -558,76 +664,12 @@ public class VoigtFitter
     /**
      * Compute the real (Voigt function) and imaginary parts of the
      * complex function w(z)=exp(-z**2)*erfc(-i*z) in the upper
-     * half-plane z=x+iy.  The maximum relative error of the real part
-     * is 2E-6 and the imaginary part is 5E-6.
-     *
-     * From: Humlicek, J. Quant. Spectrosc. Radiat. Transfer, V21,
-     *       p309, 1979.
+     * half-plane z=x+iy. See {@link Faddeeva}.
      */
     protected double[] voigt( double xarg, double yarg )
     {
-        double wr, wi;
         double[] result = new double[2];
-        int     i;
-        double x, y, y1, y2, y3, d, d1, d2, d3, d4, r, r2;
-
-        double [] t = {0.314240376, 0.947788391, 1.59768264, 2.27950708,
-                       3.02063703, 3.8897249};
-        double[] c = {1.01172805, -0.75197147, 1.2557727e-2, 1.00220082e-2,
-                      -2.42068135e-4, 5.00848061e-7};
-        double[] s = {1.393237, 0.231152406, -0.155351466, 6.21836624e-3,
-                      9.19082986e-5, -6.27525958e-7};
-
-        x = xarg;
-        y = Math.abs( yarg );
-        wr = 0.0;
-        wi = 0.0;
-        y1 = y + 1.5;
-        y2 = y1 * y1;
-
-        if ( y < 0.85 && Math.abs( x ) > 18.1 * y + 1.65 ) {
-
-            // Region II
-            if ( Math.abs( x ) < 12 ) {
-                wr = Math.exp (-x * x);
-            }
-            y3 = y + 3.0;
-            for ( i = 0; i < 6; i++ ) {
-                r = x - t[i];
-                r2 = r * r;
-                d = 1.0 / (r2 + y2);
-                d1 = y1 * d;
-                d2 = r * d;
-                wr = wr + y * (c[i] * (r * d2 - 1.5 * d1) + s[i] * y3 * d2) /
-                    (r2 + 2.25);
-                r = x + t[i];
-                r2 = r * r;
-                d = 1 / (r2 + y2);
-                d3 = y1 * d;
-                d4 = r * d;
-                wr = wr + y * (c[i] * (r * d4 - 1.5 * d3) - s[i] * y3 * d4) /
-                    (r2 + 2.25);
-                wi = wi + c[i] * (d2 + d4) + s[i] * (d1 - d3);
-            }
-
-        } else {
-
-            // Region I
-            for ( i = 0; i < 6; i++ ) {
-                r = x - t[i];
-                d = 1 / (r * r + y2);
-                d1 = y1 * d;
-                d2 = r * d;
-                r = x + t[i];
-                d = 1 / (r * r + y2);
-                d3 = y1 * d;
-                d4 = r * d;
-                wr = wr + c[i] * (d1 + d3) - s[i] * (d2 - d4);
-                wi = wi + c[i] * (d2 + d4) + s[i] * (d1 - d3);
-            }
-        }
-        result[0] = wr;
-        result[1] = wi;
+        Faddeeva.w( xarg, yarg, result );
         return result;
     }
 
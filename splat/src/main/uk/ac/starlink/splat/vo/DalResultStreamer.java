@@ -0,0 +1,420 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.vo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+
+import org.w3c.dom.Document;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import uk.ac.starlink.table.RowListStarTable;
+import uk.ac.starlink.table.StarTable;
+import uk.ac.starlink.votable.Namespacing;
+import uk.ac.starlink.votable.TableContentHandler;
+import uk.ac.starlink.votable.TableHandler;
+import uk.ac.starlink.votable.VOElement;
+import uk.ac.starlink.votable.VOElementFactory;
+
+/**
+ * Reads the response of an SSA or other DAL service in a single SAX pass,
+ * streaming the rows of the results table as they arrive.
+ * <p>
+ * The rows of the first table in the RESOURCE with type="results" are
+ * added to a {@link RowListStarTable}, which is created as soon as the
+ * table metadata has been read. When a {@link Listener} is given the rows
+ * are added in batches on the event dispatch thread, so the table can be
+ * displayed and grow while the response is still being read. Everything
+ * apart from the contents of DATA elements is kept as a small DOM, which
+ * is returned so that the other parts of the response (the QUERY_STATUS,
+ * getData and datalink service resources) can be found using the
+ * {@link DalResourceXMLFilter} utility methods. Tables that are not part
+ * of the results are ignored, as for {@link DalResourceXMLFilter}.
+ *
+ * @version $Id$
+ * @see DalResourceXMLFilter
+ */
+public class DalResultStreamer
+    implements TableHandler
+{
+    /**
+     * Largest number of rows to add in one batch.
+     */
+    private static final int BATCH_ROWS = 500;
+
+    /**
+     * Longest time in milliseconds to keep rows before adding them.
+     */
+    private static final long BATCH_TIME = 250;
+
+    /**
+     * Callbacks for the progress of the results table. These are made on
+     * the event dispatch thread.
+     */
+    public interface Listener
+    {
+        /**
+         * The results table has been created, it has no rows yet.
+         */
+        public void tableStarted( RowListStarTable table );
+
+        /**
+         * Rows first to last inclusive have been added to the results
+         * table.
+         */
+        public void rowsAdded( RowListStarTable table, int first, int last );
+    }
+
+    /**
+     * The listener, null for none.
+     */
+    private Listener listener = null;
+
+    /**
+     * The results table, null until the rows start.
+     */
+    private RowListStarTable resultTable = null;
+
+    /**
+     * Whether a results TABLE element has been seen, and whether the
+     * table currently being read is that table.
+     */
+    private boolean seenResultTable = false;
+    private boolean nextIsResults = false;
+    private boolean readingResults = false;
+
+    /**
+     * Rows waiting to be added to the results table.
+     */
+    private List<Object[]> batch = new ArrayList<Object[]>();
+    private long batchStart = 0L;
+
+    /**
+     * Number of rows given to the results table so far.
+     */
+    private int nrows = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param listener the object to inform as the results table grows, if
+     *                 null the rows are added in the parsing thread.
+     */
+    public DalResultStreamer( Listener listener )
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Get the results table. This is null if the response did not contain
+     * any results rows. When there is a listener this may not have all
+     * its rows until the event dispatch thread has processed all the
+     * batches.
+     */
+    public RowListStarTable getResultTable()
+    {
+        return resultTable;
+    }
+
+    /**
+     * Parse a response. The parse can be stopped by interrupting the
+     * calling thread.
+     *
+     * @param inSrc the source of the response.
+     * @return the response, without the contents of any DATA elements.
+     * @throws IOException if the response cannot be parsed or the
+     *         thread is interrupted.
+     */
+    public VOElement parse( InputSource inSrc )
+        throws IOException
+    {
+        try {
+            Namespacing namespacing = Namespacing.LAX;
+            SAXParserFactory spfact = SAXParserFactory.newInstance();
+            namespacing.configureSAXParserFactory( spfact );
+            XMLReader streamReader = spfact.newSAXParser().getXMLReader();
+            XMLReader resultReader =
+                new DalResourceXMLFilter( streamReader, namespacing );
+
+            //  The rows go to this table handler and the rest of the
+            //  document to a DOM.
+            SAXTransformerFactory tfact =
+                (SAXTransformerFactory) TransformerFactory.newInstance();
+            TransformerHandler domHandler = tfact.newTransformerHandler();
+            DOMResult domResult = new DOMResult();
+            domHandler.setResult( domResult );
+            TableContentHandler tableHandler =
+                new TableContentHandler( VOElementFactory.isStrictByDefault() );
+            tableHandler.setTableHandler( this );
+
+            resultReader.setContentHandler
+                ( new Splitter( namespacing, domHandler, tableHandler ) );
+            resultReader.parse( inSrc );
+            flush();
+
+            return new VOElementFactory()
+                .makeVOElement( (Document) domResult.getNode(),
+                                inSrc.getSystemId() );
+        }
+        catch (SAXException e) {
+            if ( Thread.currentThread().isInterrupted() ) {
+                throw new InterruptedIOException( "Query interrupted" );
+            }
+            throw (IOException)
+                new IOException( "VOTable document parse error" )
+                .initCause( e );
+        }
+        catch (ParserConfigurationException e) {
+            throw (IOException)
+                new IOException( "XML configuration error" ).initCause( e );
+        }
+        catch (TransformerConfigurationException e) {
+            throw (IOException)
+                new IOException( "XML configuration error" ).initCause( e );
+        }
+    }
+
+//
+//  TableHandler implementation.
+//
+    public void startTable( StarTable metadata )
+        throws SAXException
+    {
+        readingResults = nextIsResults;
+        nextIsResults = false;
+        if ( readingResults ) {
+            final RowListStarTable table = new RowListStarTable( metadata );
+            resultTable = table;
+            batchStart = System.currentTimeMillis();
+            if ( listener != null ) {
+                SwingUtilities.invokeLater( new Runnable()
+                    {
+                        public void run()
+                        {
+                            listener.tableStarted( table );
+                        }
+                    });
+            }
+        }
+    }
+
+    public void rowData( Object[] row )
+        throws SAXException
+    {
+        if ( Thread.currentThread().isInterrupted() ) {
+            throw new SAXException( "Query interrupted" );
+        }
+        if ( readingResults ) {
+            batch.add( row );
+            if ( batch.size() >= BATCH_ROWS ||
+                 System.currentTimeMillis() - batchStart >= BATCH_TIME ) {
+                flush();
+            }
+        }
+    }
+
+    public void endTable()
+        throws SAXException
+    {
+        if ( readingResults ) {
+            flush();
+            readingResults = false;
+        }
+    }
+
+    /**
+     * Add any waiting rows to the results table.
+     */
+    private void flush()
+    {
+        batchStart = System.currentTimeMillis();
+        if ( batch.size() == 0 ) {
+            return;
+        }
+        final RowListStarTable table = resultTable;
+        final List<Object[]> rows = batch;
+        final int first = nrows;
+        final int last = nrows + rows.size() - 1;
+        nrows += rows.size();
+        batch = new ArrayList<Object[]>();
+
+        if ( listener == null ) {
+            for ( Object[] row : rows ) {
+                table.addRow( row );
+            }
+            return;
+        }
+        SwingUtilities.invokeLater( new Runnable()
+            {
+                public void run()
+                {
+                    for ( Object[] row : rows ) {
+                        table.addRow( row );
+                    }
+                    listener.rowsAdded( table, first, last );
+                }
+            });
+    }
+
+    /**
+     * ContentHandler that passes all events to the table handler and all
+     * but the contents of DATA elements to the DOM builder. Also notes
+     * which TABLE is the results table.
+     */
+    private class Splitter
+        implements ContentHandler
+    {
+        private Namespacing namespacing;
+        private ContentHandler domHandler;
+        private ContentHandler tableHandler;
+
+        //  Depth inside a DATA element, 0 when outside.
+        private int dataDepth = 0;
+
+        //  Whether each enclosing RESOURCE has type="results".
+        private List<Boolean> resources = new ArrayList<Boolean>();
+
+        public Splitter( Namespacing namespacing, ContentHandler domHandler,
+                         ContentHandler tableHandler )
+        {
+            this.namespacing = namespacing;
+            this.domHandler = domHandler;
+            this.tableHandler = tableHandler;
+        }
+
+        public void setDocumentLocator( Locator locator )
+        {
+            domHandler.setDocumentLocator( locator );
+            tableHandler.setDocumentLocator( locator );
+        }
+
+        public void startDocument()
+            throws SAXException
+        {
+            domHandler.startDocument();
+            tableHandler.startDocument();
+        }
+
+        public void endDocument()
+            throws SAXException
+        {
+            domHandler.endDocument();
+            tableHandler.endDocument();
+        }
+
+        public void startPrefixMapping( String prefix, String uri )
+            throws SAXException
+        {
+            domHandler.startPrefixMapping( prefix, uri );
+            tableHandler.startPrefixMapping( prefix, uri );
+        }
+
+        public void endPrefixMapping( String prefix )
+            throws SAXException
+        {
+            domHandler.endPrefixMapping( prefix );
+            tableHandler.endPrefixMapping( prefix );
+        }
+
+        public void startElement( String namespaceURI, String localName,
+                                  String qName, Attributes atts )
+            throws SAXException
+        {
+            String tag =
+                namespacing.getVOTagName( namespaceURI, localName, qName );
+            if ( dataDepth > 0 || "DATA".equals( tag ) ) {
+                dataDepth++;
+            }
+            else {
+                if ( "RESOURCE".equals( tag ) ) {
+                    resources.add( Boolean.valueOf
+                                   ( "results".equals
+                                     ( atts.getValue( "type" ) ) ) );
+                }
+                else if ( "TABLE".equals( tag ) ) {
+                    nextIsResults = ! seenResultTable &&
+                        resources.contains( Boolean.TRUE );
+                    seenResultTable = seenResultTable || nextIsResults;
+                }
+                domHandler.startElement( namespaceURI, localName, qName,
+                                         atts );
+            }
+            tableHandler.startElement( namespaceURI, localName, qName, atts );
+        }
+
+        public void endElement( String namespaceURI, String localName,
+                                String qName )
+            throws SAXException
+        {
+            if ( dataDepth > 0 ) {
+                dataDepth--;
+            }
+            else {
+                String tag =
+                    namespacing.getVOTagName( namespaceURI, localName, qName );
+                if ( "RESOURCE".equals( tag ) && resources.size() > 0 ) {
+                    resources.remove( resources.size() - 1 );
+                }
+                domHandler.endElement( namespaceURI, localName, qName );
+            }
+            tableHandler.endElement( namespaceURI, localName, qName );
+        }
+
+        public void characters( char[] ch, int start, int length )
+            throws SAXException
+        {
+            if ( dataDepth == 0 ) {
+                domHandler.characters( ch, start, length );
+            }
+            tableHandler.characters( ch, start, length );
+        }
+
+        public void ignorableWhitespace( char[] ch, int start, int length )
+            throws SAXException
+        {
+            if ( dataDepth == 0 ) {
+                domHandler.ignorableWhitespace( ch, start, length );
+            }
+            tableHandler.ignorableWhitespace( ch, start, length );
+        }
+
+        public void processingInstruction( String target, String data )
+            throws SAXException
+        {
+            if ( dataDepth == 0 ) {
+                domHandler.processingInstruction( target, data );
+            }
+            tableHandler.processingInstruction( target, data );
+        }
+
+        public void skippedEntity( String name )
+            throws SAXException
+        {
+            if ( dataDepth == 0 ) {
+                domHandler.skippedEntity( name );
+            }
+            tableHandler.skippedEntity( name );
+        }
+    }
+}
@@ -9,6 +9,8 @@
  *       Added support for customized metadata parameters.  
  *       Ported SwingWorker from jsky.util.SwingWorker to javax.swing.SwingWorker
  *     08-OCT-2012 Redesigned new GUI
+ *     17-OCT-2026:
+ *       Run queries with SSAQueryExecutor and stream the results tables.
  */
 package uk.ac.starlink.splat.vo;
 
@@ -50,6 +52,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
@@ -79,11 +82,13 @@ import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.border.Border;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
 //import javax.swing.SwingWorker;
 
 import jsky.catalog.BasicQueryArgs;
@@ -119,6 +124,7 @@ import uk.ac.starlink.splat.vo.SSAServerTree.ServerTreeNode;
 //import uk.ac.starlink.splat.vo.SSAMetadataFrame.MetadataInputParameter;
 import uk.ac.starlink.table.ColumnInfo;
 import uk.ac.starlink.table.DescribedValue;
+import uk.ac.starlink.table.RowListStarTable;
 import uk.ac.starlink.table.RowSequence;
 import uk.ac.starlink.table.StarTable;
 import uk.ac.starlink.table.TableFormatException;
@@ -363,6 +369,14 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
     private GetDataQueryFrame getDataFrame = null;
     private DataLinkQueryFrame dataLinkFrame = null;
 
+    /** The queries that are waiting or running */
+    private List<SSAQueryExecutor.Query> activeQueries =
+        new ArrayList<SSAQueryExecutor.Query>();
+
+    /** Results tables that are displayed while their rows are read */
+    private Map<SSAQuery,StarJTable> streamingTables =
+        new HashMap<SSAQuery,StarJTable>();
+
     /**
      * Create an instance.
      */
@@ -1331,13 +1345,14 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
 
     /**
      * Process a list of URL queries to SSA servers and display the
-     * results. All processing is performed in a background Thread.
+     * results. The queries are run by the {@link SSAQueryExecutor}, which
+     * limits the number running at once, and results tables are displayed
+     * as their rows arrive.
      */
     protected void processQueryList( ArrayList<SSAQuery> queryList )
     {
-        // final serverlist
-   
-        //  final ArrayList localQueryList = queryList;
+        //  Stop any queries still running for an earlier list.
+        cancelQueries();
         makeResultsDisplay( null );
         
         if (progressFrame != null) {
@@ -1347,7 +1362,7 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
        // final ProgressPanelFrame 
         progressFrame = new ProgressPanelFrame( "Querying SSAP servers" );
         
-
+        SSAQueryExecutor executor = SSAQueryExecutor.getInstance();
         Iterator<SSAQuery> i = queryList.iterator();
         while ( i.hasNext() ) {
             final SSAQuery ssaQuery = i.next();
@@ -1356,28 +1371,28 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
             final ProgressPanel progressPanel = new ProgressPanel( "Querying: " + ssaQuery.getDescription());
             progressFrame.addProgressPanel( progressPanel );
 
-            final SwingWorker worker = new SwingWorker()
+            String host = SSAQueryExecutor.getHost( ssaQuery.getBaseURL() );
+            final SSAQueryExecutor.Query query =
+                new SSAQueryExecutor.Query( host )
             {
-                boolean interrupted = false;
-                public Object construct() 
+                protected void process()
+                    throws InterruptedException
                 {
                     progressPanel.start();
-                    try {
-                        runProcessQuery( ssaQuery, progressPanel );
-                    }
-                    catch (InterruptedException e) {
-                        interrupted = true;
-                    }
-                    return null;
+                    runProcessQuery( ssaQuery, progressPanel, this );
                 }
 
-                public void finished()
+                protected void finished( boolean cancelled )
                 {
+                    activeQueries.remove( this );
                     progressPanel.stop();
                     //  Display the results.
-                    if ( ! interrupted ) {
+                    if ( ! cancelled && ! isCancelled() ) {
                         addResultsDisplay( ssaQuery );
                     }
+                    else {
+                        removeStreamingDisplay( ssaQuery );
+                    }
                 }
             };
 
@@ -1385,20 +1400,35 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
             {
                 public void actionPerformed( ActionEvent e )
                 {
-                    if ( worker != null ) {
-                         worker.interrupt();
-                    }
+                    query.cancel();
                 }
             });
 
-            worker.start();  
+            activeQueries.add( query );
+            executor.submit( query );
+        }
+    }
+
+    /**
+     * Cancel any queries that are waiting or running.
+     */
+    protected void cancelQueries()
+    {
+        ArrayList<SSAQueryExecutor.Query> queries =
+            new ArrayList<SSAQueryExecutor.Query>( activeQueries );
+        activeQueries.clear();
+        Iterator<SSAQueryExecutor.Query> i = queries.iterator();
+        while ( i.hasNext() ) {
+            i.next().cancel();
         }
     }
 
     /**
      * Do a query to an SSAP server.
      */
-    private void runProcessQuery( SSAQuery ssaQuery, ProgressPanel progressPanel ) throws InterruptedException
+    private void runProcessQuery( SSAQuery ssaQuery, ProgressPanel progressPanel,
+                                  SSAQueryExecutor.Query query )
+        throws InterruptedException
     {
         boolean failed = false;
         boolean overflow = false;
@@ -1443,29 +1473,36 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
             return;
         } 
         
-        //  Do the query and get the result as a StarTable. Uses this
-        //  method for efficiency as non-result tables are ignored.
+        //  Do the query and get the result as a StarTable. The rows of the
+        //  results table are streamed, so that they can be displayed as
+        //  they arrive, non-result tables are ignored.
         try {
             
             
-            URLConnection con =  queryURL.openConnection();
-           
-            con.setConnectTimeout(10 * 1000); // 10 seconds
-            con.setReadTimeout(30*1000);
-            con.connect();
-            
-            InputSource inSrc = new InputSource( con.getInputStream() );
+            //  Timeouts are set by the executor.
+            InputSource inSrc =
+                new InputSource( query.openStream( queryURL ) );
                  
             // inSrc.setSystemId( ssaQuery.getBaseURL() );
             inSrc.setSystemId( queryURL.toString());
             
-            VOElementFactory vofact = new VOElementFactory();
-            
-            VOElement voe = DalResourceXMLFilter.parseDalResult(vofact, inSrc);
+            DalResultStreamer streamer =
+                new DalResultStreamer( new StreamingListener( ssaQuery,
+                                                              query ) );
+            VOElement voe = streamer.parse( inSrc );
            
         
             getDataTable = DalResourceXMLFilter.getDalGetDataTable( voe );
             starTable = DalResourceXMLFilter.getDalResultTable( voe );
+
+            //  The streamed rows replace the empty table read from the
+            //  response, which has the complete set of parameters. That
+            //  table is discarded, so its parameter list can be reused.
+            RowListStarTable rowTable = streamer.getResultTable();
+            if ( rowTable != null ) {
+                rowTable.setParameters( starTable.getParameters() );
+                starTable = rowTable;
+            }
             
             
             if (getDataTable != null) {
@@ -1568,6 +1605,7 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
         //  Remove existing tables.
         resultsPane.removeAll();
         starJTables.clear();
+        streamingTables.clear();
 
         if ( tableList != null ) {
             Iterator<VOStarTable> i = tableList.iterator();
@@ -1587,6 +1625,7 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
         GetDataTable getDataTable = null;
         DataLinkParams  dataLinkParams = null;
         String shortName = null;
+        StarJTable streamed = null;
      
         boolean hasParams = false;
        
@@ -1595,6 +1634,7 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
         if ( next instanceof SSAQuery && next != null ) {
             ssaQuery = (SSAQuery) next;
             starTable = ssaQuery.getStarTable();
+            streamed = streamingTables.remove( ssaQuery );
             getDataTable = ssaQuery.getGetDataTable();
             dataLinkParams = ssaQuery.getDataLinkParams(); // get the data link services information
             shortName = ssaQuery.getDescription();
@@ -1628,8 +1668,17 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
             //  Check if table has rows, if not skip.
             int nrows = (int) starTable.getRowCount();
             if (  nrows > 0 ) {
-                table = new StarJTable( starTable, true );
-                scrollPane = new JScrollPane( table );
+                if ( streamed != null &&
+                     streamed.getStarTable() == starTable ) {
+                    //  Already displayed while the rows were read.
+                    table = streamed;
+                    scrollPane = getResultsScrollPane( table );
+                    streamed = null;
+                }
+                else {
+                    table = new StarJTable( starTable, true );
+                    scrollPane = new JScrollPane( table );
+                }
               //  scrollPane.setPreferredSize(new Dimension(600,400));
                 
                 
@@ -1652,7 +1701,7 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
                     dataLinkButton.setEnabled(true);
                     dataLinkButton.setVisible(true);
                     dataLinkButton.setForeground(Color.GRAY);
-                    resultsPane.addTab( shortName, cutImage, scrollPane );
+                    addResultsTab( shortName, cutImage, scrollPane );
                 }
                 else if (getDataTable != null) { // if no dataLink services present, check if there are getData services
                     
@@ -1670,12 +1719,12 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
                     dataLinkButton.setEnabled(true);
                     dataLinkButton.setVisible(true);
                     dataLinkButton.setForeground(Color.GRAY);
-                    resultsPane.addTab( shortName, cutImage, scrollPane );
+                    addResultsTab( shortName, cutImage, scrollPane );
                 }
                 else {
                   //  dataLinkButton.setEnabled(false);
                  //   dataLinkButton.setVisible(false);
-                    resultsPane.addTab( shortName, scrollPane );
+                    addResultsTab( shortName, null, scrollPane );
                 }
                 starJTables.add( table );
 
@@ -1689,6 +1738,92 @@ implements ActionListener, MouseListener, DocumentListener, PropertyChangeListen
                 table.addMouseListener( this );
             }
         }
+
+        //  Remove a streamed table that has no rows or failed.
+        if ( streamed != null ) {
+            resultsPane.remove( getResultsScrollPane( streamed ) );
+        }
+    }
+
+    /**
+     * Add a tab for a results table, or just set the icon if the tab
+     * already exists because the table was displayed while streaming.
+     */
+    protected void addResultsTab( String shortName, Icon icon,
+                                  JScrollPane scrollPane )
+    {
+        int index = resultsPane.indexOfComponent( scrollPane );
+        if ( index >= 0 ) {
+            resultsPane.setIconAt( index, icon );
+        }
+        else {
+            resultsPane.addTab( shortName, icon, scrollPane );
+        }
+    }
+
+    /**
+     * Display a results table while its rows are still being read.
+     */
+    protected void addStreamingDisplay( SSAQuery ssaQuery,
+                                        StarTable starTable )
+    {
+        StarJTable table = new StarJTable( starTable, true );
+        resultsPane.addTab( ssaQuery.getDescription(),
+                            new JScrollPane( table ) );
+        streamingTables.put( ssaQuery, table );
+    }
+
+    /**
+     * Remove the display of a streamed results table, if any.
+     */
+    protected void removeStreamingDisplay( SSAQuery ssaQuery )
+    {
+        StarJTable table = streamingTables.remove( ssaQuery );
+        if ( table != null ) {
+            resultsPane.remove( getResultsScrollPane( table ) );
+        }
+    }
+
+    /**
+     * Return the JScrollPane that contains a results table.
+     */
+    private JScrollPane getResultsScrollPane( StarJTable table )
+    {
+        return (JScrollPane)
+            SwingUtilities.getAncestorOfClass( JScrollPane.class, table );
+    }
+
+    /**
+     * Displays the results table of a query as its rows arrive.
+     */
+    private class StreamingListener
+        implements DalResultStreamer.Listener
+    {
+        private SSAQuery ssaQuery;
+        private SSAQueryExecutor.Query query;
+
+        public StreamingListener( SSAQuery ssaQuery,
+                                  SSAQueryExecutor.Query query )
+        {
+            this.ssaQuery = ssaQuery;
+            this.query = query;
+        }
+
+        public void tableStarted( RowListStarTable table )
+        {
+            if ( ! query.isCancelled() ) {
+                addStreamingDisplay( ssaQuery, table );
+            }
+        }
+
+        public void rowsAdded( RowListStarTable table, int first, int last )
+        {
+            StarJTable jtable = streamingTables.get( ssaQuery );
+            if ( jtable != null ) {
+                ((AbstractTableModel) jtable.getModel())
+                    .fireTableRowsInserted( first, last );
+            }
+        }
     }
 
   
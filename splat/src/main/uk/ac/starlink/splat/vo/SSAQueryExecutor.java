@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2026 Science and Technology Facilities Council
+ *
+ *  History:
+ *     17-OCT-2026:
+ *        Original version.
+ */
+package uk.ac.starlink.splat.vo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import uk.ac.starlink.splat.util.DownloadCache;
+
+/**
+ * Runs queries to SSA servers using a bounded number of threads.
+ * <p>
+ * At most {@link #getMaxQueries} queries run at once, and at most
+ * {@link #getMaxPerHost} of these go to the same host, the rest wait in
+ * a queue. Waiting queries are ordered by the recent response times of
+ * their hosts, so hosts that answer quickly, or have not been used yet,
+ * are queried first. Connections are opened using
+ * {@link Query#openStream}, which applies the connect and read timeouts,
+ * and can be closed to stop a query that is blocked reading.
+ * <p>
+ * There is normally just one instance, shared by all the SSA browsers.
+ *
+ * @version $Id$
+ * @see SSAQueryBrowser
+ */
+public class SSAQueryExecutor
+{
+    // Logger.
+    private static Logger logger =
+        Logger.getLogger( "uk.ac.starlink.splat.vo.SSAQueryExecutor" );
+
+    /**
+     * Default number of queries to run at once.
+     */
+    public static final int DEFAULT_MAX_QUERIES = 12;
+
+    /**
+     * Default number of queries to run at once to the same host.
+     */
+    public static final int DEFAULT_MAX_PER_HOST = 2;
+
+    /**
+     * Default connect and read timeouts, milliseconds.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT = 30 * 1000;
+
+    /**
+     * The shared instance.
+     */
+    private static SSAQueryExecutor instance = null;
+
+    /**
+     * The limits on the number of queries.
+     */
+    private int maxQueries = DEFAULT_MAX_QUERIES;
+    private int maxPerHost = DEFAULT_MAX_PER_HOST;
+
+    /**
+     * The timeouts.
+     */
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    /**
+     * Queries waiting to run, in order.
+     */
+    private LinkedList<Query> waiting = new LinkedList<Query>();
+
+    /**
+     * Queries that are running.
+     */
+    private List<Query> running = new ArrayList<Query>();
+
+    /**
+     * Number of queries running to each host.
+     */
+    private Map<String,Integer> hostCounts = new HashMap<String,Integer>();
+
+    /**
+     * Smoothed response time of each host, milliseconds.
+     */
+    private Map<String,Long> hostTimes = new HashMap<String,Long>();
+
+    /**
+     * The threads that run the queries. These are limited by the queue.
+     */
+    private ExecutorService threads =
+        Executors.newCachedThreadPool( new ThreadFactory()
+            {
+                public Thread newThread( Runnable r )
+                {
+                    Thread thread = new Thread( r, "SSA query" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            });
+
+    /**
+     * Get the shared instance.
+     */
+    public static synchronized SSAQueryExecutor getInstance()
+    {
+        if ( instance == null ) {
+            instance = new SSAQueryExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * Set the number of queries that can run at once.
+     */
+    public synchronized void setMaxQueries( int maxQueries )
+    {
+        this.maxQueries = Math.max( 1, maxQueries );
+        dispatch();
+    }
+
+    /**
+     * Get the number of queries that can run at once.
+     */
+    public synchronized int getMaxQueries()
+    {
+        return maxQueries;
+    }
+
+    /**
+     * Set the number of queries that can run at once to the same host.
+     */
+    public synchronized void setMaxPerHost( int maxPerHost )
+    {
+        this.maxPerHost = Math.max( 1, maxPerHost );
+        dispatch();
+    }
+
+    /**
+     * Get the number of queries that can run at once to the same host.
+     */
+    public synchronized int getMaxPerHost()
+    {
+        return maxPerHost;
+    }
+
+    /**
+     * Set the connect timeout for new connections, milliseconds.
+     */
+    public synchronized void setConnectTimeout( int connectTimeout )
+    {
+        this.connectTimeout = Math.max( 0, connectTimeout );
+    }
+
+    /**
+     * Get the connect timeout, milliseconds.
+     */
+    public synchronized int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    /**
+     * Set the read timeout for new connections, milliseconds.
+     */
+    public synchronized void setReadTimeout( int readTimeout )
+    {
+        this.readTimeout = Math.max( 0, readTimeout );
+    }
+
+    /**
+     * Get the read timeout, milliseconds.
+     */
+    public synchronized int getReadTimeout()
+    {
+        return readTimeout;
+    }
+
+    /**
+     * Get the number of queries waiting to run.
+     */
+    public synchronized int getWaitingCount()
+    {
+        return waiting.size();
+    }
+
+    /**
+     * Get the number of queries running.
+     */
+    public synchronized int getRunningCount()
+    {
+        return running.size();
+    }
+
+    /**
+     * Submit a query. It is run when there is a free thread and its host
+     * is below its limit.
+     *
+     * @throws IllegalStateException if the query has already been
+     *         submitted.
+     */
+    public synchronized void submit( Query query )
+    {
+        if ( query.executor != null ) {
+            throw new IllegalStateException( "Query already submitted" );
+        }
+        query.executor = this;
+
+        //  Queue after any queries to hosts that are no slower.
+        long time = getHostTime( query.host );
+        ListIterator<Query> i = waiting.listIterator();
+        while ( i.hasNext() ) {
+            if ( getHostTime( i.next().host ) > time ) {
+                i.previous();
+                break;
+            }
+        }
+        i.add( query );
+        dispatch();
+    }
+
+    /**
+     * Cancel all waiting and running queries.
+     */
+    public void cancelAll()
+    {
+        List<Query> queries = new ArrayList<Query>();
+        synchronized( this ) {
+            queries.addAll( waiting );
+            queries.addAll( running );
+        }
+        for ( Query query : queries ) {
+            query.cancel();
+        }
+    }
+
+    /**
+     * Start as many waiting queries as the limits allow.
+     */
+    private synchronized void dispatch()
+    {
+        Iterator<Query> i = waiting.iterator();
+        while ( running.size() < maxQueries && i.hasNext() ) {
+            Query query = i.next();
+            int count = getHostCount( query.host );
+            if ( count < maxPerHost ) {
+                i.remove();
+                hostCounts.put( query.host, Integer.valueOf( count + 1 ) );
+                running.add( query );
+                threads.execute( new Runner( query ) );
+            }
+        }
+    }
+
+    /**
+     * Remove a query that has not started.
+     */
+    private synchronized boolean dequeue( Query query )
+    {
+        return waiting.remove( query );
+    }
+
+    /**
+     * Record that a query has completed and start any that can now run.
+     */
+    private synchronized void completed( Query query, long time,
+                                         boolean cancelled )
+    {
+        running.remove( query );
+        int count = getHostCount( query.host );
+        if ( count <= 1 ) {
+            hostCounts.remove( query.host );
+        }
+        else {
+            hostCounts.put( query.host, Integer.valueOf( count - 1 ) );
+        }
+
+        //  Cancelled queries say nothing about the host.
+        if ( ! cancelled ) {
+            Long last = hostTimes.get( query.host );
+            if ( last != null ) {
+                time = ( 3 * last.longValue() + time ) / 4;
+            }
+            hostTimes.put( query.host, Long.valueOf( time ) );
+        }
+        dispatch();
+    }
+
+    private int getHostCount( String host )
+    {
+        Integer count = hostCounts.get( host );
+        return ( count == null ) ? 0 : count.intValue();
+    }
+
+    private long getHostTime( String host )
+    {
+        Long time = hostTimes.get( host );
+        return ( time == null ) ? 0L : time.longValue();
+    }
+
+    /**
+     * Get the host of a URL, for use as the host of a query. If the URL
+     * is malformed the whole string is used.
+     */
+    public static String getHost( String url )
+    {
+        try {
+            return new URL( url ).getHost().toLowerCase();
+        }
+        catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    /**
+     * Runs a query in a pool thread and then reports that it has
+     * finished on the event dispatch thread.
+     */
+    private class Runner
+        implements Runnable
+    {
+        private Query query;
+
+        public Runner( Query query )
+        {
+            this.query = query;
+        }
+
+        public void run()
+        {
+            long start = System.currentTimeMillis();
+            boolean interrupted = false;
+            synchronized( query ) {
+                query.thread = Thread.currentThread();
+            }
+            try {
+                if ( ! query.isCancelled() ) {
+                    query.process();
+                }
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+            catch (RuntimeException e) {
+                logger.warning( "Query to " + query.host + " failed: " +
+                                e.getMessage() );
+            }
+            finally {
+                synchronized( query ) {
+                    query.thread = null;
+                }
+                query.closeStream();
+
+                //  Clear any interrupt, so it is not seen by the next query
+                //  to use this thread.
+                interrupted = Thread.interrupted() || interrupted;
+
+                //  Always release the slot of the host, even after an
+                //  Error, so that its queued queries still run.
+                final boolean cancelled = interrupted || query.isCancelled();
+                completed( query, System.currentTimeMillis() - start,
+                           cancelled );
+                SwingUtilities.invokeLater( new Runnable()
+                    {
+                        public void run()
+                        {
+                            query.finished( cancelled );
+                        }
+                    });
+            }
+        }
+    }
+
+    /**
+     * A query to be run by an SSAQueryExecutor. Sub-classes do the work in
+     * {@link #process}, which is called in a pool thread, and then update
+     * the interface in {@link #finished}, which is called on the event
+     * dispatch thread.
+     */
+    public static abstract class Query
+    {
+        private String host;
+        private volatile boolean cancelled = false;
+        private SSAQueryExecutor executor = null;
+        private Thread thread = null;
+        private InputStream stream = null;
+
+        /**
+         * Constructor.
+         *
+         * @param host the host that will be queried, used to limit the
+         *             number of queries to the same host.
+         */
+        public Query( String host )
+        {
+            this.host = ( host == null ) ? "" : host;
+        }
+
+        /**
+         * Get the host of the query.
+         */
+        public String getHost()
+        {
+            return host;
+        }
+
+        /**
+         * Do the query. Open connections using openStream.
+         *
+         * @throws InterruptedException if the query is cancelled.
+         */
+        protected abstract void process()
+            throws InterruptedException;
+
+        /**
+         * Called on the event dispatch thread when the query has completed
+         * or has been cancelled.
+         *
+         * @param cancelled whether the query was cancelled.
+         */
+        protected abstract void finished( boolean cancelled );
+
+        /**
+         * Open a connection to a URL using the timeouts of the executor.
+         * When the {@link DownloadCache} is enabled the response is saved
+         * to the cache. A cached response is only read again when the
+         * server says it has not changed, or when working offline. The
+         * stream is closed if the query is cancelled and when it
+         * completes.
+         *
+         * @throws IOException if the connection fails, or the query is
+         *         cancelled.
+         */
+        public InputStream openStream( URL url )
+            throws IOException
+        {
+            int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+            int readTimeout = DEFAULT_READ_TIMEOUT;
+            if ( executor != null ) {
+                connectTimeout = executor.getConnectTimeout();
+                readTimeout = executor.getReadTimeout();
+            }
+            InputStream in = null;
+            if ( DownloadCache.isEnabled() ) {
+                in = DownloadCache.getInstance()
+                    .openStream( url, ".xml", 0L, connectTimeout,
+                                 readTimeout );
+            }
+            else {
+                URLConnection con = url.openConnection();
+                con.setConnectTimeout( connectTimeout );
+                con.setReadTimeout( readTimeout );
+                con.connect();
+                in = con.getInputStream();
+            }
+            synchronized( this ) {
+                if ( cancelled ) {
+                    in.close();
+                    throw new InterruptedIOException( "Query cancelled" );
+                }
+                closeStream();
+                stream = in;
+            }
+            return in;
+        }
+
+        /**
+         * Cancel the query. A waiting query is removed from the queue, a
+         * running query is interrupted and its connection closed.
+         */
+        public void cancel()
+        {
+            cancelled = true;
+            if ( executor == null ) {
+                return;
+            }
+            if ( executor.dequeue( this ) ) {
+                SwingUtilities.invokeLater( new Runnable()
+                    {
+                        public void run()
+                        {
+                            finished( true );
+                        }
+                    });
+                return;
+            }
+            synchronized( this ) {
+                if ( thread != null ) {
+                    thread.interrupt();
+                }
+            }
+            closeStream();
+        }
+
+        /**
+         * Whether the query has been cancelled.
+         */
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        /**
+         * Close the connection, if open.
+         */
+        private synchronized void closeStream()
+        {
+            if ( stream != null ) {
+                try {
+                    stream.close();
+                }
+                catch (IOException e) {
+                    //  Ignore.
+                }
+                stream = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package uk.ac.starlink.splat.data;
+
+import uk.ac.starlink.util.TestCase;
+
+public class SpecResamplerTest
+    extends TestCase
+{
+    private static final double BAD = SpecData.BAD;
+
+    public SpecResamplerTest( String name )
+    {
+        super( name );
+    }
+
+    public void testLinear()
+    {
+        double[] coords = makeCoords( 100, 0.0, 1.0 );
+        double[] data = new double[coords.length];
+        for ( int i = 0; i < coords.length; i++ ) {
+            data[i] = 2.0 * coords[i] + 1.0;
+        }
+        SpecResampler resampler = new SpecResampler( SpecResampler.LINEAR );
+
+        //  Increasing, decreasing and unordered positions, some outside.
+        double[][] newCoords = new double[][] {
+            { -1.0, 0.0, 0.25, 10.5, 98.75, 99.0, 99.5 },
+            { 99.5, 99.0, 50.5, 3.25, 0.0, -0.5 },
+            { 7.5, 2.25, 60.0, -3.0, 45.75 }
+        };
+        for ( int k = 0; k < newCoords.length; k++ ) {
+            double[] result =
+                resampler.resample( coords, data, newCoords[k] );
+            for ( int i = 0; i < result.length; i++ ) {
+                double x = newCoords[k][i];
+                if ( x < 0.0 || x > 99.0 ) {
+                    assertEquals( BAD, result[i] );
+                }
+                else {
+                    assertEquals( 2.0 * x + 1.0, result[i], 1.0e-12 );
+                }
+            }
+        }
+
+        //  Reversed source coordinates give the same values.
+        double[] rcoords = reverse( coords );
+        double[] rdata = reverse( data );
+        assertArrayEquals( resampler.resample( coords, data, newCoords[0] ),
+                           resampler.resample( rcoords, rdata,
+                                               newCoords[0] ) );
+    }
+
+    public void testLinearBad()
+    {
+        double[] coords = makeCoords( 10, 0.0, 1.0 );
+        double[] data = new double[] { 0, 1, 2, BAD, 4, 5, 6, 7, 8, 9 };
+        double[] result = new SpecResampler( SpecResampler.LINEAR )
+            .resample( coords, data, new double[] { 1.5, 2.5, 3.5, 4.5 } );
+        assertEquals( 1.5, result[0], 1.0e-12 );
+        assertEquals( BAD, result[1] );
+        assertEquals( BAD, result[2] );
+        assertEquals( 4.5, result[3], 1.0e-12 );
+    }
+
+    public void testSpline()
+    {
+        //  Exact at the positions and for straight lines, close to a
+        //  smooth function between them.
+        double[] coords = makeCoords( 200, 0.0, 0.05 );
+        double[] line = new double[coords.length];
+        double[] wave = new double[coords.length];
+        for ( int i = 0; i < coords.length; i++ ) {
+            line[i] = 3.0 - 0.5 * coords[i];
+            wave[i] = Math.sin( coords[i] );
+        }
+        SpecResampler resampler = new SpecResampler( SpecResampler.SPLINE );
+        double[] newCoords = makeCoords( 150, 0.4, 0.0625 );
+        double[] lineResult = resampler.resample( coords, line, newCoords );
+        double[] waveResult = resampler.resample( coords, wave, newCoords );
+        for ( int i = 0; i < newCoords.length; i++ ) {
+            double x = newCoords[i];
+            assertEquals( 3.0 - 0.5 * x, lineResult[i], 1.0e-10 );
+            assertEquals( Math.sin( x ), waveResult[i], 1.0e-5 );
+        }
+        double[] atCoords = resampler.resample( coords, wave, coords );
+        assertArrayEquals( wave, atCoords );
+    }
+
+    public void testFlux()
+    {
+        //  Rebinning onto coarser positions gives the mean over each
+        //  extent, which for a straight line is the value at the centre.
+        double[] coords = makeCoords( 1000, 0.0, 0.1 );
+        double[] data = new double[coords.length];
+        for ( int i = 0; i < coords.length; i++ ) {
+            data[i] = 4.0 * coords[i] - 7.0;
+        }
+        SpecResampler resampler = new SpecResampler( SpecResampler.FLUX );
+        double[] newCoords = makeCoords( 90, 1.0, 1.0 );
+        double[] result = resampler.resample( coords, data, newCoords );
+        for ( int i = 0; i < newCoords.length; i++ ) {
+            assertEquals( 4.0 * newCoords[i] - 7.0, result[i], 1.0e-9 );
+        }
+
+        //  Total flux is conserved. The new extents run from 0.5 to 90.5,
+        //  so half of the extents of the source values at the ends.
+        double[] values = new double[coords.length];
+        for ( int i = 0; i < coords.length; i++ ) {
+            values[i] = 1.0 + Math.sin( 0.37 * i ) * Math.cos( 0.011 * i );
+        }
+        result = resampler.resample( coords, values, newCoords );
+        double before = 0.05 * ( values[5] + values[905] );
+        for ( int i = 6; i < 905; i++ ) {
+            before += values[i] * 0.1;
+        }
+        double after = 0.0;
+        for ( int i = 0; i < newCoords.length; i++ ) {
+            after += result[i] * 1.0;
+        }
+        assertEquals( before, after, 1.0e-9 );
+
+        //  Outside the source is BAD.
+        result = resampler.resample( coords, values,
+                                     new double[] { -5.0, -4.0, -3.0 } );
+        assertEquals( BAD, result[0] );
+        assertEquals( BAD, result[2] );
+    }
+
+    public void testThreads()
+    {
+        double[] coords = makeCoords( 50000, 100.0, 0.01 );
+        double[] data = new double[coords.length];
+        for ( int i = 0; i < coords.length; i++ ) {
+            data[i] = Math.cos( 0.001 * i ) + 0.001 * i;
+        }
+        double[] newCoords = reverse( makeCoords( 60000, 99.0, 0.0085 ) );
+        int[] methods = new int[] { SpecResampler.LINEAR,
+                                    SpecResampler.SPLINE,
+                                    SpecResampler.FLUX };
+        for ( int i = 0; i < methods.length; i++ ) {
+            SpecResampler resampler = new SpecResampler( methods[i] );
+            resampler.setThreads( 1 );
+            double[] serial = resampler.resample( coords, data, newCoords );
+            resampler.setThreads( 4 );
+            double[] threaded =
+                resampler.resample( coords, data, newCoords );
+            assertArrayEquals( serial, threaded );
+        }
+    }
+
+    private static double[] makeCoords( int n, double start, double step )
+    {
+        double[] coords = new double[n];
+        for ( int i = 0; i < n; i++ ) {
+            coords[i] = start + i * step;
+        }
+        return coords;
+    }
+
+    private static double[] reverse( double[] values )
+    {
+        int n = values.length;
+        double[] result = new double[n];
+        for ( int i = 0; i < n; i++ ) {
+            result[i] = values[n - 1 - i];
+        }
+        return result;
+    }
+}
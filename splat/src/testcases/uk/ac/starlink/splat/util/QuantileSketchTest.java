@@ -0,0 +1,135 @@
+package uk.ac.starlink.splat.util;
+
+import java.util.Random;
+
+import hep.aida.bin.DynamicBin1D;
+import cern.colt.list.DoubleArrayList;
+
+import uk.ac.starlink.util.TestCase;
+
+public class QuantileSketchTest
+    extends TestCase
+{
+    private static final double[] PHIS =
+        { 0.0, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 1.0 };
+
+    public QuantileSketchTest( String name )
+    {
+        super( name );
+    }
+
+    public void testNoise()
+    {
+        Random random = new Random( 23 );
+        double[] values = new double[10001];
+        for ( int i = 0; i < values.length; i++ ) {
+            values[i] = random.nextGaussian();
+        }
+        checkValues( values );
+    }
+
+    public void testSpike()
+    {
+        //  A single outlier puts all other values into one bin.
+        Random random = new Random( 17 );
+        double[] values = new double[5000];
+        for ( int i = 0; i < values.length; i++ ) {
+            values[i] = 10.0 + random.nextGaussian();
+        }
+        values[2500] = 1.0e5;
+        checkValues( values );
+    }
+
+    public void testConstant()
+    {
+        double[] values = new double[] { 5.0, 5.0, 5.0 };
+        QuantileSketch sketch = makeSketch( values );
+        assertEquals( 5.0, sketch.getQuantile( 0.5 ) );
+        assertEquals( 5.0, sketch.getQuantile( 1.0 ) );
+        assertEquals( 5.0, sketch.getTrimmedMean( 1, 1 ) );
+    }
+
+    public void testRepeats()
+    {
+        //  Few distinct values, so many equal to the selected ones.
+        Random random = new Random( 5 );
+        double[] values = new double[3000];
+        for ( int i = 0; i < values.length; i++ ) {
+            values[i] = random.nextInt( 4 );
+        }
+        checkValues( values );
+    }
+
+    public void testSmallBins()
+    {
+        Random random = new Random( 11 );
+        double[] values = new double[2000];
+        for ( int i = 0; i < values.length; i++ ) {
+            values[i] = Math.exp( 5.0 * random.nextGaussian() );
+        }
+        double[] range = getRange( values );
+        checkValues( values, new QuantileSketch( new ArraySource( values ),
+                                                 range[0], range[1], 4 ) );
+    }
+
+    private void checkValues( double[] values )
+    {
+        checkValues( values, makeSketch( values ) );
+    }
+
+    private void checkValues( double[] values, QuantileSketch sketch )
+    {
+        DynamicBin1D bin1D = new DynamicBin1D();
+        bin1D.addAllOf( new DoubleArrayList( values ) );
+
+        assertEquals( bin1D.size(), sketch.size() );
+        for ( int i = 0; i < PHIS.length; i++ ) {
+            assertEquals( bin1D.quantile( PHIS[i] ),
+                          sketch.getQuantile( PHIS[i] ) );
+        }
+        int[] trims = new int[] { 0, 1, values.length / 10,
+                                  values.length / 3 };
+        for ( int i = 0; i < trims.length; i++ ) {
+            int n = trims[i];
+            double expected = bin1D.trimmedMean( n, n );
+            assertEquals( expected, sketch.getTrimmedMean( n, n ),
+                          1.0e-9 * Math.max( 1.0, Math.abs( expected ) ) );
+        }
+    }
+
+    private QuantileSketch makeSketch( double[] values )
+    {
+        double[] range = getRange( values );
+        return new QuantileSketch( new ArraySource( values ),
+                                   range[0], range[1] );
+    }
+
+    private double[] getRange( double[] values )
+    {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for ( int i = 0; i < values.length; i++ ) {
+            min = Math.min( min, values[i] );
+            max = Math.max( max, values[i] );
+        }
+        return new double[] { min, max };
+    }
+
+    private static class ArraySource
+        implements QuantileSketch.Source
+    {
+        private double[] values;
+
+        ArraySource( double[] values )
+        {
+            this.values = values;
+        }
+
+        public void addTo( QuantileSketch sketch )
+        {
+            for ( int i = 0; i < values.length; i++ ) {
+                sketch.add( values[i] );
+            }
+        }
+    }
+}
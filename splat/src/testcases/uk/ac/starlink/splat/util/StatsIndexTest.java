@@ -0,0 +1,138 @@
+package uk.ac.starlink.splat.util;
+
+import java.util.Random;
+
+import uk.ac.starlink.splat.data.SpecData;
+import uk.ac.starlink.util.TestCase;
+
+public class StatsIndexTest
+    extends TestCase
+{
+    private Random random = null;
+
+    public StatsIndexTest( String name )
+    {
+        super( name );
+    }
+
+    protected void setUp()
+    {
+        random = new Random( 31 );
+    }
+
+    public void testIntegral()
+    {
+        checkIntegrals( false, 0.0 );
+    }
+
+    public void testReversedIntegral()
+    {
+        checkIntegrals( true, 0.0 );
+    }
+
+    public void testBadIntegral()
+    {
+        checkIntegrals( false, 0.1 );
+        checkIntegrals( true, 0.1 );
+    }
+
+    public void testStatistics()
+    {
+        double[][] spectrum = makeSpectrum( 2000, false, 0.05 );
+        StatsIndex index = new StatsIndex( spectrum[0], spectrum[1], null );
+        for ( int i = 0; i < 50; i++ ) {
+            int[] range = makeRange( spectrum[0].length );
+            double[][] good = getGood( spectrum, range[0], range[1] );
+            if ( good[1].length < 2 ) {
+                continue;
+            }
+            Statistics exact = new Statistics( good[1] );
+            Statistics indexed = index.getStatistics( range );
+            assertEquals( exact.getNumberValues(),
+                          indexed.getNumberValues() );
+            assertEquals( exact.getMinimum(), indexed.getMinimum() );
+            assertEquals( exact.getMaximum(), indexed.getMaximum() );
+            assertEquals( exact.getMedian(), indexed.getMedian() );
+            assertEquals( exact.getQuantile( 0.25 ),
+                          indexed.getQuantile( 0.25 ) );
+            assertClose( exact.getMean(), indexed.getMean() );
+            assertClose( exact.getStandardDeviation(),
+                         indexed.getStandardDeviation() );
+            assertClose( exact.getAlphaTrimmedMean( 0.1 ),
+                         indexed.getAlphaTrimmedMean( 0.1 ) );
+        }
+    }
+
+    private void checkIntegrals( boolean reversed, double badFraction )
+    {
+        double[][] spectrum = makeSpectrum( 500, reversed, badFraction );
+        StatsIndex index = new StatsIndex( spectrum[0], spectrum[1], null );
+        for ( int i = 0; i < 100; i++ ) {
+            int[] range = makeRange( spectrum[0].length );
+            double[][] good = getGood( spectrum, range[0], range[1] );
+            double expected = 0.0;
+            if ( good[0].length >= 2 ) {
+                NumericIntegrator integrator = new NumericIntegrator();
+                integrator.setData( good[0], good[1] );
+                expected = integrator.getIntegral();
+            }
+            assertClose( expected, index.getIntegral( range[0], range[1] ) );
+        }
+    }
+
+    private double[][] makeSpectrum( int n, boolean reversed,
+                                     double badFraction )
+    {
+        double[] coords = new double[n];
+        double[] data = new double[n];
+        double coord = 0.0;
+        for ( int i = 0; i < n; i++ ) {
+            coord += 0.1 + random.nextDouble();
+            coords[reversed ? n - 1 - i : i] = coord;
+        }
+        for ( int i = 0; i < n; i++ ) {
+            if ( random.nextDouble() < badFraction ) {
+                data[i] = SpecData.BAD;
+            }
+            else {
+                data[i] = 100.0 + Math.sin( coords[i] ) +
+                    random.nextGaussian();
+            }
+        }
+        return new double[][] { coords, data };
+    }
+
+    private int[] makeRange( int n )
+    {
+        int low = random.nextInt( n );
+        int high = low + random.nextInt( n - low );
+        return new int[] { low, high };
+    }
+
+    private double[][] getGood( double[][] spectrum, int low, int high )
+    {
+        int count = 0;
+        for ( int i = low; i <= high; i++ ) {
+            if ( spectrum[1][i] != SpecData.BAD ) {
+                count++;
+            }
+        }
+        double[] coords = new double[count];
+        double[] data = new double[count];
+        count = 0;
+        for ( int i = low; i <= high; i++ ) {
+            if ( spectrum[1][i] != SpecData.BAD ) {
+                coords[count] = spectrum[0][i];
+                data[count] = spectrum[1][i];
+                count++;
+            }
+        }
+        return new double[][] { coords, data };
+    }
+
+    private void assertClose( double expected, double actual )
+    {
+        assertEquals( expected, actual,
+                      1.0e-8 * Math.max( 1.0, Math.abs( expected ) ) );
+    }
+}